@@ -6,6 +6,8 @@ import static org.junit.Assert.fail;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map.Entry;
 
@@ -101,5 +103,57 @@ public class ProtocolManagerTest {
 		} catch (ParseException | IOException e) {
 			fail("Threw Exception");
 		}
+	}	
+	@Test
+	public void parseLatLongListTest() {
+		final List<LatLongPoint> points = new ArrayList<>();
+		points.add(new LatLongPoint(41.72, -71.4));
+		points.add(new LatLongPoint(-1.1, 2.2));
+		final String list = ProtocolManager.encodeLatLongList(points);
+		assertTrue(list.equals("<list:llp:2\n#llp:41.72 -71.4\n#llp:-1.1 2.2\n>\n"));
+		try {
+			final BufferedReader reader = new BufferedReader(new StringReader(list));
+			final List<LatLongPoint> l = ProtocolManager.parseLatLongList(reader, 2);
+			assertTrue(l.size() == 2);
+			assertTrue(l.get(0).getLat() == 41.72);
+			assertTrue(l.get(1).getLong() == 2.2);
+		} catch (ParseException | IOException e) {
+			fail("Threw Exception");
+		}
+		
+		// Longer lists than allowed, and negative lengths, are rejected before any point is read
+		for (final String bad : new String[] { list, "<list:llp:-1\n>\n", "<list:llp:2000000000\n>\n" }) {
+			try {
+				ProtocolManager.parseLatLongList(new BufferedReader(new StringReader(bad)), 1);
+				fail("Should have thrown ParseException");
+			} catch (final ParseException e) {
+				assertTrue(e.getMessage().contains("number of points"));
+			} catch (final IOException e) {
+				fail("Threw Exception");
+			}
+		}
+	}
+	
+	@Test
+	public void parseDistanceMatrixTest() {
+		final double[][] matrix = { { 0, 0.25, Double.POSITIVE_INFINITY }, { 1.5, 0, 0.125 } };
+		final String encoded = ProtocolManager.encodeDistanceMatrix(matrix);
+		assertTrue(encoded.equals("<matrix:2:3\n0.0 0.25 -\n1.5 0.0 0.125\n>\n"));
+		try {
+			final double[][] m = ProtocolManager.parseDistanceMatrix(new BufferedReader(new StringReader(encoded)));
+			assertTrue(m.length == 2);
+			for (int i = 0; i < m.length; i++) {
+				assertTrue(Arrays.equals(m[i], matrix[i]));
+			}
+		} catch (ParseException | IOException e) {
+			fail("Threw Exception");
+		}
+		double[][] m = null;
+		try {
+			m = ProtocolManager.parseDistanceMatrix(new BufferedReader(new StringReader("<matrix:1:2\n0.5\n>\n")));
+			fail("Should have thrown exception");
+		} catch (ParseException | IOException e) {
+			assertTrue(m == null);
+		}
 	}
 }
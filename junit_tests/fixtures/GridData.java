@@ -0,0 +1,220 @@
+package fixtures;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import server.graph.ContractionHierarchy;
+import server.graph.Landmarks;
+import server.io.IOController;
+import server.io.SparseIndex;
+import data.MapException;
+
+/**
+ * A data set of a square grid of streets with slightly uneven blocks, written to temp files and set up in the
+ * IOController. Each row and each column is one street, named "Row r Street" or "Col c Street", of two way blocks
+ * unless the odd rows are made one way
+ * 
+ * @author aiguha
+ */
+public class GridData {
+	
+	private final int					side;
+	private final long					seed;
+	private boolean						oneWay;
+	private boolean						blocks;
+	// Names of single blocks, by the ids of their two nodes in either order
+	private final Map<String, String>	renamed	= new HashMap<>();
+	// Names of the one way ways added along blocks, by the ids of their start and end nodes
+	private final Map<String, String>	added	= new HashMap<>();
+	private File						ways;
+	private File						nodes;
+	private File						index;
+	
+	/**
+	 * Creates a grid
+	 * 
+	 * @param side the number of nodes along each side
+	 * @param seed the seed of the unevenness of the blocks
+	 */
+	public GridData(final int side, final long seed) {
+		this.side = side;
+		this.seed = seed;
+	}
+	
+	/**
+	 * Makes the odd rows only run east
+	 * 
+	 * @return this grid
+	 */
+	public GridData oneWayOddRows() {
+		oneWay = true;
+		return this;
+	}
+	
+	/**
+	 * Names every block apart from the rest of its street, so traffic can slow a single block
+	 * 
+	 * @return this grid
+	 */
+	public GridData nameEachBlock() {
+		blocks = true;
+		return this;
+	}
+	
+	/**
+	 * Names one block, both ways along it, apart from the rest of its street
+	 * 
+	 * @param row the row of one end
+	 * @param col the column of one end
+	 * @param row2 the row of the other end
+	 * @param col2 the column of the other end
+	 * @param name the block's name
+	 * @return this grid
+	 */
+	public GridData rename(final int row, final int col, final int row2, final int col2, final String name) {
+		renamed.put(node(row, col) + node(row2, col2), name);
+		renamed.put(node(row2, col2) + node(row, col), name);
+		return this;
+	}
+	
+	/**
+	 * Adds a one way way of its own along a block, ahead of the block's own ways, so a search meets it first
+	 * 
+	 * @param row the row of its start
+	 * @param col the column of its start
+	 * @param row2 the row of its end
+	 * @param col2 the column of its end
+	 * @param name the way's name
+	 * @return this grid
+	 */
+	public GridData add(final int row, final int col, final int row2, final int col2, final String name) {
+		added.put(node(row, col) + node(row2, col2), name);
+		return this;
+	}
+	
+	/**
+	 * @param row a row of the grid
+	 * @param col a column of the grid
+	 * @return the id of the node there
+	 */
+	public static String node(final int row, final int col) {
+		return String.format("/n/%02d%02d", row, col);
+	}
+	
+	/**
+	 * Writes the data files and sets up the IOController with them
+	 * 
+	 * @throws IOException file io
+	 * @throws MapException the files couldn't be parsed
+	 */
+	public void setUp() throws IOException, MapException {
+		final Random r = new Random(seed);
+		final List<String> wayLines = new ArrayList<>();
+		final List<List<String>> nodeWays = new ArrayList<>();
+		for (int i = 0; i < side * side; i++) {
+			nodeWays.add(new ArrayList<String>());
+		}
+		wayLines.add("id\tname\tstart\tend");
+		int way = 0;
+		for (int row = 0; row < side; row++) {
+			for (int col = 0; col < side; col++) {
+				for (final int[] step : new int[][] { { 0, 1 }, { 1, 0 } }) {
+					final int row2 = row + step[0];
+					final int col2 = col + step[1];
+					if (row2 == side || col2 == side) {
+						continue;
+					}
+					final String street = (step[0] == 0) ? "Row " + row + " Street" : "Col " + col + " Street";
+					final String block = renamed.get(node(row, col) + node(row2, col2));
+					final String name;
+					if (block != null) {
+						name = block;
+					} else {
+						name = blocks ? street + " Block " + row + "." + col : street;
+					}
+					final int[][] both = { { row, col, row2, col2 }, { row2, col2, row, col } };
+					for (final int[] ends : both) {
+						final String extra = added.get(node(ends[0], ends[1]) + node(ends[2], ends[3]));
+						if (extra != null) {
+							addWay(wayLines, nodeWays, way++, extra, ends);
+						}
+					}
+					for (final int[] ends : both) {
+						if (!(oneWay && step[0] == 0 && row % 2 == 1 && ends[1] > ends[3])) {
+							addWay(wayLines, nodeWays, way++, name, ends);
+						}
+					}
+				}
+			}
+		}
+		final List<String> nodeLines = new ArrayList<>();
+		nodeLines.add("id\tlatitude\tlongitude\tways");
+		for (int row = 0; row < side; row++) {
+			for (int col = 0; col < side; col++) {
+				final StringBuilder ids = new StringBuilder();
+				for (final String id : nodeWays.get(row * side + col)) {
+					ids.append((ids.length() == 0) ? "" : ",").append(id);
+				}
+				nodeLines.add(node(row, col) + "\t" + (41.70 + row * 0.01 + r.nextDouble() * 0.002) + "\t"
+					+ (-71.25 + col * 0.01 + r.nextDouble() * 0.002) + "\t" + ids);
+			}
+		}
+		ways = TestFiles.write("ways", wayLines);
+		nodes = TestFiles.write("nodes", nodeLines);
+		index = TestFiles.write("index", "name\tnodes");
+		IOController.setup(ways.getPath(), nodes.getPath(), index.getPath());
+	}
+	
+	/**
+	 * Writes a way and lists it at both its nodes
+	 * 
+	 * @param wayLines the lines of the ways file
+	 * @param nodeWays the ways of each node
+	 * @param number the number of the way, in the order of the ways file
+	 * @param name the way's name
+	 * @param ends the row and column of its start, then of its end
+	 */
+	private void addWay(final List<String> wayLines, final List<List<String>> nodeWays, final int number,
+			final String name, final int[] ends) {
+		final String id = String.format("/w/4170.7125.%04d", number);
+		wayLines.add(id + "\t" + name + "\t" + node(ends[0], ends[1]) + "\t" + node(ends[2], ends[3]));
+		nodeWays.get(ends[0] * side + ends[1]).add(id);
+		nodeWays.get(ends[2] * side + ends[3]).add(id);
+	}
+	
+	/**
+	 * Sets the IOController up again with the same files, as a server restarting would
+	 * 
+	 * @throws IOException file io
+	 * @throws MapException the files couldn't be parsed
+	 */
+	public void reopen() throws IOException, MapException {
+		IOController.tearDown();
+		IOController.setup(ways.getPath(), nodes.getPath(), index.getPath());
+	}
+	
+	/**
+	 * Tears down the IOController and deletes the data files and every file written next to them
+	 */
+	public void tearDown() {
+		IOController.tearDown();
+		new File(ways.getPath() + SparseIndex.SUFFIX).delete();
+		ContractionHierarchy.fileFor(ways.getPath()).delete();
+		Landmarks.fileFor(ways.getPath()).delete();
+		ways.delete();
+		nodes.delete();
+		index.delete();
+	}
+	
+	/**
+	 * @return the ways file
+	 */
+	public File getWays() {
+		return ways;
+	}
+}
@@ -0,0 +1,48 @@
+package fixtures;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Temp files for tests
+ * 
+ * @author aiguha
+ */
+public class TestFiles {
+	
+	/**
+	 * Writes lines to a new temp file in UTF-8, as the data files are
+	 * 
+	 * @param prefix the temp file prefix
+	 * @param lines the lines
+	 * @return the file
+	 * @throws IOException file io
+	 */
+	public static File write(final String prefix, final List<String> lines) throws IOException {
+		final File file = File.createTempFile(prefix, ".tsv");
+		try (Writer w = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			for (final String line : lines) {
+				w.write(line + "\n");
+			}
+		}
+		return file;
+	}
+	
+	/**
+	 * Writes lines to a new temp file
+	 * 
+	 * @param prefix the temp file prefix
+	 * @param lines the lines
+	 * @return the file
+	 * @throws IOException file io
+	 */
+	public static File write(final String prefix, final String... lines) throws IOException {
+		return write(prefix, Arrays.asList(lines));
+	}
+}
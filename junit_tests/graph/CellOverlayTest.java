@@ -0,0 +1,276 @@
+package graph;
+
+import static fixtures.GridData.node;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.graph.CellOverlay;
+import server.graph.GraphController;
+import server.graph.OverlayMetric;
+import server.graph.OverlaySearch;
+import server.graph.RoadGraph;
+import server.graph.RoadSearch;
+import server.io.IOController;
+import data.MapException;
+import data.MapNode;
+import data.MapWay;
+import fixtures.GridData;
+
+@SuppressWarnings("static-method")
+public class CellOverlayTest {
+	
+	private static final int	SIDE	= 6;
+	
+	private final GridData		grid	= new GridData(SIDE, 3);
+	
+	@Before
+	public void setUp() throws IOException, MapException {
+		grid.setUp();
+	}
+	
+	@After
+	public void tearDown() {
+		GraphController.setTrafficMap(null);
+		grid.tearDown();
+	}
+	
+	/**
+	 * Checks that the overlay finds the same distances as Dijkstra's algorithm between every pair of nodes, along
+	 * graph edges end to end
+	 * 
+	 * @param overlay the overlay
+	 * @param metric a metric of the overlay
+	 * @param traffic the traffic the metric was customized to
+	 */
+	private static void checkAllPairs(final CellOverlay overlay, final OverlayMetric metric,
+			final Map<String, Double> traffic) {
+		final RoadGraph graph = overlay.getGraph();
+		final OverlaySearch search = OverlaySearch.forOverlay(overlay);
+		final RoadSearch dijkstra = RoadSearch.forGraph(graph);
+		for (int s = 0; s < graph.size(); s++) {
+			for (int e = 0; e < graph.size(); e++) {
+				final int[] path = search.shortestPath(s, e, metric);
+				dijkstra.shortestPath(s, e, traffic, 0);
+				if (s == e) {
+					assertTrue(path.length == 0);
+					continue;
+				}
+				assertTrue(Math.abs(search.getLength() - dijkstra.getDistance(e)) < 1e-9);
+				assertTrue(graph.getSource(path[0]) == s);
+				assertTrue(graph.getTarget(path[path.length - 1]) == e);
+				double length = 0;
+				for (int i = 0; i < path.length; i++) {
+					assertTrue(i == 0 || graph.getSource(path[i]) == graph.getTarget(path[i - 1]));
+					length += graph.getWeight(path[i], traffic);
+				}
+				assertTrue(Math.abs(length - search.getLength()) < 1e-9);
+			}
+		}
+	}
+	
+	@Test
+	public void partitionTest() {
+		try {
+			final RoadGraph graph = GraphController.getRoadGraph();
+			final CellOverlay overlay = new CellOverlay(graph, 4, 1);
+			assertTrue(overlay.getLevels() >= 2);
+			for (int level = 1; level <= overlay.getLevels(); level++) {
+				final int[] sizes = new int[overlay.cellCount(level)];
+				for (int v = 0; v < graph.size(); v++) {
+					sizes[overlay.getCell(level, v)]++;
+					// Cells of a level split those of the next one up
+					if (level > 1) {
+						for (int w = 0; w < graph.size(); w++) {
+							if (overlay.getCell(level - 1, v) == overlay.getCell(level - 1, w)) {
+								assertTrue(overlay.getCell(level, v) == overlay.getCell(level, w));
+							}
+						}
+					}
+				}
+				for (final int size : sizes) {
+					assertTrue(size > 0);
+				}
+			}
+		} catch (IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void queryTest() {
+		try {
+			final RoadGraph graph = GraphController.getRoadGraph();
+			final CellOverlay overlay = new CellOverlay(graph, 4, 1);
+			assertTrue(overlay.getMetric() == null);
+			final OverlayMetric neutral = overlay.customize(null);
+			assertTrue(overlay.getMetric() == neutral);
+			assertTrue(neutral.matches(null) && neutral.matches(new ConcurrentHashMap<String, Double>()));
+			checkAllPairs(overlay, neutral, null);
+			
+			final Map<String, Double> traffic = new ConcurrentHashMap<>();
+			traffic.put("Row 2 Street", 5.0);
+			traffic.put("Col 3 Street", 0.5);
+			assertTrue(!neutral.matches(traffic));
+			final OverlayMetric jammed = overlay.customize(traffic);
+			assertTrue(jammed != neutral && jammed.matches(traffic));
+			checkAllPairs(overlay, jammed, traffic);
+			
+			// The same traffic again changes nothing, and a copy is kept, not the map itself
+			assertTrue(overlay.customize(traffic) == jammed);
+			traffic.put("Row 2 Street", 1.5);
+			assertTrue(!jammed.matches(traffic));
+			final OverlayMetric eased = overlay.customize(traffic);
+			assertTrue(eased != jammed && eased.matches(traffic));
+			checkAllPairs(overlay, eased, traffic);
+			checkAllPairs(overlay, neutral, null);
+		} catch (IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void blockTest() {
+		try {
+			// Every block named apart, so traffic can slow one edge at a time
+			grid.tearDown();
+			final GridData named = new GridData(SIDE, 3).nameEachBlock();
+			named.setUp();
+			try {
+				final RoadGraph graph = GraphController.getRoadGraph();
+				final CellOverlay overlay = new CellOverlay(graph, 4, 1);
+				assertTrue(overlay.getLevels() >= 2);
+				checkAllPairs(overlay, overlay.customize(null), null);
+				
+				// An edge between two cells of one level can still be inside a cell of a level above, and slowing it
+				// alone must recompute that cell
+				final Map<String, Double> traffic = new ConcurrentHashMap<>();
+				int slowed = 0;
+				for (int u = 0; u < graph.size(); u++) {
+					for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+						final int v = graph.getTarget(e);
+						final boolean crossing = overlay.getCell(1, u) != overlay.getCell(1, v);
+						if (!crossing || overlay.getCell(2, u) != overlay.getCell(2, v)) {
+							continue;
+						}
+						traffic.put(graph.getWay(e).getName(), 3.0 + slowed);
+						checkAllPairs(overlay, overlay.customize(traffic), traffic);
+						slowed++;
+					}
+				}
+				assertTrue(slowed > 0);
+			} finally {
+				named.tearDown();
+			}
+		} catch (IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void routeTest() {
+		try {
+			final String start = node(0, 0);
+			final String end = node(SIDE - 1, SIDE - 1);
+			final ConcurrentHashMap<String, Double> traffic = new ConcurrentHashMap<>();
+			traffic.put("Row 0 Street", 100.0);
+			traffic.put("Col 0 Street", 100.0);
+			GraphController.setTrafficMap(traffic);
+			final List<MapWay> searched = GraphController.getShortestPathWays(IOController.getAllNodes().get(start),
+					IOController.getAllNodes().get(end));
+			
+			// The overlay is customized in the background, and then answers the same route
+			final long deadline = System.currentTimeMillis() + 10000;
+			CellOverlay overlay = GraphController.getOverlay();
+			while (overlay == null || overlay.getMetric() == null || !overlay.getMetric().matches(traffic)) {
+				assertTrue(System.currentTimeMillis() < deadline);
+				Thread.sleep(10);
+				overlay = GraphController.getOverlay();
+			}
+			final List<MapWay> overlaid = GraphController.getShortestPathWays(IOController.getAllNodes().get(start),
+					IOController.getAllNodes().get(end));
+			assertTrue(overlaid.size() == 2 * (SIDE - 1));
+			assertTrue(overlaid.get(0).getStart().getID().equals(start));
+			assertTrue(overlaid.get(overlaid.size() - 1).getEnd().getID().equals(end));
+			assertTrue(overlaid.get(1).getName().startsWith("Row 1") || overlaid.get(1).getName().startsWith("Col 1"));
+			assertTrue(overlaid.equals(searched));
+		} catch (IOException | MapException | InterruptedException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	/**
+	 * @param route a route
+	 * @return the total weight of its ways
+	 */
+	private static double weigh(final List<MapWay> route) {
+		double total = 0;
+		for (final MapWay way : route) {
+			total += way.getWeight();
+		}
+		return total;
+	}
+	
+	/**
+	 * Waits for the overlay to be customized to some traffic
+	 * 
+	 * @param traffic the traffic
+	 * @return the overlay
+	 * @throws InterruptedException if the wait was interrupted
+	 */
+	private static CellOverlay awaitCustomized(final Map<String, Double> traffic) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 10000;
+		CellOverlay overlay = GraphController.getOverlay();
+		while (overlay == null || overlay.getMetric() == null || !overlay.getMetric().matches(traffic)) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+			overlay = GraphController.getOverlay();
+		}
+		return overlay;
+	}
+	
+	@Test
+	public void idleTest() {
+		try {
+			final ConcurrentHashMap<String, Double> traffic = new ConcurrentHashMap<>();
+			GraphController.setTrafficMap(traffic);
+			final RoadGraph graph = GraphController.getRoadGraph();
+			final MapNode s = IOController.getAllNodes().get(node(0, 0));
+			final MapNode e = IOController.getAllNodes().get(node(0, SIDE - 1));
+			final RoadSearch dijkstra = new RoadSearch(graph);
+			
+			// Routes with traffic nobody reported don't customize the overlay
+			traffic.put("Row 0 Street", 100.0);
+			GraphController.getShortestPathWays(s, e);
+			Thread.sleep(200);
+			assertTrue(GraphController.getOverlay() == null);
+			
+			// A reported change does, and the overlay then serves routes while the traffic stays as it is
+			GraphController.trafficChanged();
+			final CellOverlay overlay = awaitCustomized(traffic);
+			dijkstra.shortestPath(graph.find(s), graph.find(e), traffic, 0);
+			assertTrue(Math.abs(weigh(GraphController.getShortestPathWays(s, e)) - dijkstra.getDistance(graph.find(e)))
+				< 1e-9);
+			
+			// Until the traffic changes again, when routes search the graph with the new traffic instead
+			traffic.put("Row 1 Street", 100.0);
+			assertTrue(!overlay.getMetric().matches(traffic));
+			dijkstra.shortestPath(graph.find(s), graph.find(e), traffic, 0);
+			assertTrue(Math.abs(weigh(GraphController.getShortestPathWays(s, e)) - dijkstra.getDistance(graph.find(e)))
+				< 1e-9);
+			GraphController.trafficChanged();
+			awaitCustomized(traffic);
+		} catch (IOException | MapException | InterruptedException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+}
@@ -0,0 +1,133 @@
+package graph;
+
+import static fixtures.GridData.node;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.graph.ContractionHierarchy;
+import server.graph.GraphController;
+import server.graph.HierarchySearch;
+import server.graph.RoadGraph;
+import server.graph.RoadSearch;
+import server.io.IOController;
+import data.MapException;
+import data.MapWay;
+import fixtures.GridData;
+
+@SuppressWarnings("static-method")
+public class ContractionHierarchyTest {
+	
+	private static final int	SIDE	= 6;
+	
+	private final GridData		grid	= new GridData(SIDE, 3);
+	
+	@Before
+	public void setUp() throws IOException, MapException {
+		grid.setUp();
+	}
+	
+	@After
+	public void tearDown() {
+		grid.tearDown();
+	}
+	
+	@Test
+	public void queryTest() {
+		try {
+			final RoadGraph graph = GraphController.getRoadGraph();
+			assertTrue(graph.size() == SIDE * SIDE);
+			final ContractionHierarchy ch = ContractionHierarchy.build(graph);
+			assertTrue(ch.size() == graph.size());
+			assertTrue(ch.edgeCount() >= graph.edgeCount());
+			
+			// Every pair gets a path as short as Dijkstra's, made of graph edges end to end
+			final HierarchySearch search = HierarchySearch.forHierarchy(ch);
+			final RoadSearch dijkstra = RoadSearch.forGraph(graph);
+			for (int s = 0; s < graph.size(); s++) {
+				for (int e = 0; e < graph.size(); e++) {
+					final int[] path = search.shortestPath(s, e);
+					dijkstra.shortestPath(s, e, null, 0);
+					if (s == e) {
+						assertTrue(path.length == 0);
+						continue;
+					}
+					assertTrue(Math.abs(search.getLength() - dijkstra.getDistance(e)) < 1e-9);
+					assertTrue(graph.getSource(path[0]) == s);
+					assertTrue(graph.getTarget(path[path.length - 1]) == e);
+					double length = 0;
+					for (int i = 0; i < path.length; i++) {
+						assertTrue(i == 0 || graph.getSource(path[i]) == graph.getTarget(path[i - 1]));
+						length += graph.getWeight(path[i], null);
+					}
+					assertTrue(Math.abs(length - search.getLength()) < 1e-9);
+				}
+			}
+		} catch (IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void fileTest() {
+		try {
+			assertTrue(GraphController.getHierarchy() == null);
+			final File file = GraphController.writeHierarchy();
+			assertTrue(file.equals(ContractionHierarchy.fileFor(grid.getWays().getPath())));
+			final ContractionHierarchy written = GraphController.getHierarchy();
+			assertTrue(written != null);
+			
+			// Loaded back with the same ranks and edges
+			grid.reopen();
+			final ContractionHierarchy loaded = GraphController.getHierarchy();
+			assertTrue(loaded != null && loaded != written);
+			assertTrue(loaded.edgeCount() == written.edgeCount());
+			for (int v = 0; v < loaded.size(); v++) {
+				assertTrue(loaded.getRank(v) == written.getRank(v));
+			}
+			
+			// Changed data makes it stale
+			assertTrue(grid.getWays().setLastModified(grid.getWays().lastModified() - 10000));
+			grid.reopen();
+			assertTrue(GraphController.getHierarchy() == null);
+		} catch (IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void routeTest() {
+		try {
+			GraphController.writeHierarchy();
+			final String start = node(0, 0);
+			final String end = node(SIDE - 1, SIDE - 1);
+			final List<MapWay> neutral = GraphController.getShortestPathWays(IOController.getAllNodes().get(start),
+					IOController.getAllNodes().get(end));
+			assertTrue(neutral.size() == 2 * (SIDE - 1));
+			assertTrue(neutral.get(0).getStart().getID().equals(start));
+			assertTrue(neutral.get(neutral.size() - 1).getEnd().getID().equals(end));
+			
+			// Traffic goes back to searching the graph, and avoids the jammed streets
+			final ConcurrentHashMap<String, Double> traffic = new ConcurrentHashMap<>();
+			traffic.put("Row 0 Street", 100.0);
+			traffic.put("Col 0 Street", 100.0);
+			GraphController.setTrafficMap(traffic);
+			final List<MapWay> jammed = GraphController.getShortestPathWays(IOController.getAllNodes().get(start),
+					IOController.getAllNodes().get(end));
+			GraphController.setTrafficMap(null);
+			assertTrue(jammed.size() == 2 * (SIDE - 1));
+			assertTrue(jammed.get(1).getName().startsWith("Row 1") || jammed.get(1).getName().startsWith("Col 1"));
+		} catch (IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+}
@@ -0,0 +1,60 @@
+package graph;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import server.graph.GraphNode;
+import data.LatLongPoint;
+import data.MapNode;
+import data.MapWay;
+
+@SuppressWarnings("static-method")
+public class GraphNodeTest {
+	
+	@Test
+	public void equalityTest() {
+		final MapNode n = MapNode.create("/n/1", new LatLongPoint(41.70, -71.25), new ArrayList<String>());
+		final GraphNode<MapNode, MapWay> node = new GraphNode<>(n);
+		final GraphNode<MapNode, MapWay> same = new GraphNode<>(n);
+		same.setDistance(3);
+		assertTrue(node.equals(same) && node.hashCode() == same.hashCode());
+		
+		// Still found in a set after a search changes its distance
+		final HashSet<GraphNode<MapNode, MapWay>> visited = new HashSet<>();
+		visited.add(node);
+		node.setDistance(5);
+		assertTrue(visited.contains(node));
+		assertTrue(visited.contains(same));
+		assertTrue(!visited.add(same));
+		
+		final MapNode other = MapNode.create("/n/2", new LatLongPoint(41.70, -71.25), new ArrayList<String>());
+		assertTrue(!node.equals(new GraphNode<MapNode, MapWay>(other)));
+	}
+	
+	@Test
+	public void orderTest() {
+		final MapNode n = MapNode.create("/n/1", new LatLongPoint(41.70, -71.25), new ArrayList<String>());
+		final MapNode m = MapNode.create("/n/2", new LatLongPoint(41.70, -71.25), new ArrayList<String>());
+		final GraphNode<MapNode, MapWay> near = new GraphNode<>(m);
+		final GraphNode<MapNode, MapWay> far = new GraphNode<>(n);
+		near.setDistance(1);
+		far.setDistance(2);
+		
+		// By distance first, then by id
+		assertTrue(near.compareTo(far) < 0 && far.compareTo(near) > 0);
+		far.setDistance(1);
+		assertTrue(far.compareTo(near) < 0 && near.compareTo(far) > 0);
+		
+		// Equal by id alone, but only 0 at the same distance too
+		final GraphNode<MapNode, MapWay> same = new GraphNode<>(n);
+		same.setDistance(3);
+		assertTrue(far.equals(same) && far.compareTo(same) < 0);
+		same.setDistance(1);
+		assertTrue(far.compareTo(same) == 0);
+	}
+	
+}
@@ -0,0 +1,78 @@
+package graph;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import server.graph.IndexedHeap;
+
+@SuppressWarnings("static-method")
+public class IndexedHeapTest {
+	
+	@Test
+	public void orderTest() {
+		final Random r = new Random(7);
+		final IndexedHeap heap = new IndexedHeap(1000);
+		final double[] keys = new double[1000];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = r.nextDouble();
+			heap.push(i, keys[i]);
+		}
+		assertTrue(heap.size() == 1000);
+		final double[] sorted = keys.clone();
+		Arrays.sort(sorted);
+		for (final double key : sorted) {
+			final int item = heap.poll();
+			assertTrue(keys[item] == key);
+			assertTrue(!heap.contains(item));
+		}
+		assertTrue(heap.isEmpty());
+	}
+	
+	@Test
+	public void decreaseKeyTest() {
+		final IndexedHeap heap = new IndexedHeap(10);
+		for (int i = 0; i < 10; i++) {
+			heap.push(i, 10 + i);
+		}
+		// Lowering moves an item up, raising is ignored
+		heap.push(7, 1);
+		heap.push(2, 50);
+		assertTrue(heap.size() == 10);
+		assertTrue(heap.getKey(2) == 12);
+		assertTrue(heap.peek() == 7);
+		assertTrue(heap.poll() == 7);
+		assertTrue(heap.poll() == 0);
+		assertTrue(heap.poll() == 1);
+		assertTrue(heap.poll() == 2);
+		
+		heap.clear();
+		assertTrue(heap.isEmpty());
+		for (int i = 0; i < 10; i++) {
+			assertTrue(!heap.contains(i));
+		}
+		heap.push(3, 5);
+		assertTrue(heap.poll() == 3);
+	}
+	
+	@Test
+	public void updateTest() {
+		final IndexedHeap heap = new IndexedHeap(10);
+		for (int i = 0; i < 10; i++) {
+			heap.update(i, i);
+		}
+		// Raising moves an item down, lowering moves it up
+		heap.update(0, 5.5);
+		heap.update(9, 2.5);
+		assertTrue(heap.getKey(0) == 5.5);
+		final int[] order = { 1, 2, 9, 3, 4, 5, 0, 6, 7, 8 };
+		for (final int item : order) {
+			assertTrue(heap.poll() == item);
+		}
+		assertTrue(heap.isEmpty());
+	}
+	
+}
@@ -0,0 +1,225 @@
+package graph;
+
+import static fixtures.GridData.node;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.graph.GraphController;
+import server.graph.Landmarks;
+import server.graph.RoadGraph;
+import server.graph.RoadSearch;
+import server.io.IOController;
+import data.MapException;
+import data.MapNode;
+import data.MapWay;
+import fixtures.GridData;
+
+@SuppressWarnings("static-method")
+public class LandmarksTest {
+	
+	private static final int	SIDE	= 6;
+	
+	private final GridData		grid	= new GridData(SIDE, 3);
+	
+	@Before
+	public void setUp() throws IOException, MapException {
+		grid.setUp();
+	}
+	
+	@After
+	public void tearDown() {
+		grid.tearDown();
+	}
+	
+	@Test
+	public void boundTest() {
+		try {
+			final RoadGraph graph = GraphController.getRoadGraph();
+			final Landmarks landmarks = Landmarks.build(graph, 4);
+			assertTrue(landmarks.count() == 4);
+			assertTrue(landmarks.size() == graph.size());
+			for (int i = 0; i < landmarks.count(); i++) {
+				for (int j = 0; j < i; j++) {
+					assertTrue(landmarks.getLandmark(i) != landmarks.getLandmark(j));
+				}
+			}
+			
+			// Never longer than the shortest path, and no edge is shorter than the bounds of its ends differ
+			final RoadSearch dijkstra = RoadSearch.forGraph(graph);
+			for (int t = 0; t < graph.size(); t++) {
+				for (int v = 0; v < graph.size(); v++) {
+					dijkstra.shortestPath(v, t, null, 0);
+					assertTrue(landmarks.lowerBound(v, t) <= dijkstra.getDistance(t));
+					for (int edge = graph.firstEdge(v); edge < graph.endEdge(v); edge++) {
+						assertTrue(landmarks.lowerBound(v, t) <= graph.getWeight(edge, null)
+							+ landmarks.lowerBound(graph.getTarget(edge), t));
+					}
+				}
+				assertTrue(landmarks.lowerBound(t, t) == 0);
+			}
+			
+			// Only as many landmarks as there are nodes
+			assertTrue(Landmarks.build(graph, graph.size() + 5).count() == graph.size());
+		} catch (IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void searchTest() {
+		try {
+			final RoadGraph graph = GraphController.getRoadGraph();
+			final Landmarks landmarks = Landmarks.build(graph, 4);
+			final Map<String, Double> traffic = new ConcurrentHashMap<>();
+			traffic.put("Row 2 Street", 3.0);
+			traffic.put("Col 1 Street", 0.5);
+			
+			// The same distances as Dijkstra's, expanding no more nodes than the straight line overall
+			final RoadSearch search = RoadSearch.forGraph(graph);
+			final RoadSearch dijkstra = new RoadSearch(graph);
+			long alt = 0;
+			long line = 0;
+			final List<Map<String, Double>> states = new ArrayList<>();
+			states.add(null);
+			states.add(traffic);
+			for (final Map<String, Double> t : states) {
+				for (int s = 0; s < graph.size(); s++) {
+					for (int e = 0; e < graph.size(); e++) {
+						dijkstra.shortestPath(s, e, t, 0);
+						final int[] path = search.shortestPath(s, e, t, landmarks);
+						alt += search.getExpanded();
+						assertTrue(Math.abs(search.getDistance(e) - dijkstra.getDistance(e)) < 1e-9);
+						double length = 0;
+						for (int i = 0; i < path.length; i++) {
+							assertTrue(i == 0 || graph.getSource(path[i]) == graph.getTarget(path[i - 1]));
+							length += graph.getWeight(path[i], t);
+						}
+						assertTrue(Math.abs(length - dijkstra.getDistance(e)) < 1e-9);
+						search.shortestPath(s, e, t);
+						line += search.getExpanded();
+					}
+				}
+			}
+			assertTrue(alt <= line);
+		} catch (IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void bidirectionalTest() {
+		try {
+			final RoadGraph graph = GraphController.getRoadGraph();
+			final Landmarks landmarks = Landmarks.build(graph, 4);
+			final Map<String, Double> traffic = new ConcurrentHashMap<>();
+			traffic.put("Row 2 Street", 3.0);
+			traffic.put("Col 1 Street", 0.5);
+			
+			// The same lengths as Dijkstra's from both ends, with and without traffic and landmarks
+			final RoadSearch search = RoadSearch.forGraph(graph);
+			final RoadSearch dijkstra = new RoadSearch(graph);
+			final List<Map<String, Double>> states = new ArrayList<>();
+			states.add(null);
+			states.add(traffic);
+			for (final Map<String, Double> t : states) {
+				for (final Landmarks with : new Landmarks[] { null, landmarks }) {
+					for (int s = 0; s < graph.size(); s++) {
+						for (int e = 0; e < graph.size(); e++) {
+							dijkstra.shortestPath(s, e, t, 0);
+							final int[] path = search.bidirectionalPath(s, e, t, with);
+							assertTrue(Math.abs(search.getLength() - dijkstra.getDistance(e)) < 1e-9);
+							assertTrue(path.length > 0 || s == e);
+							double length = 0;
+							for (int i = 0; i < path.length; i++) {
+								assertTrue(i > 0 || graph.getSource(path[i]) == s);
+								assertTrue(i == 0 || graph.getSource(path[i]) == graph.getTarget(path[i - 1]));
+								length += graph.getWeight(path[i], t);
+							}
+							assertTrue(path.length == 0 || graph.getTarget(path[path.length - 1]) == e);
+							assertTrue(Math.abs(length - dijkstra.getDistance(e)) < 1e-9);
+						}
+					}
+				}
+			}
+			
+			// Routes with traffic use it once it's on
+			final ConcurrentHashMap<String, Double> jammed = new ConcurrentHashMap<>();
+			jammed.put("Row 0 Street", 100.0);
+			final MapNode s = IOController.getAllNodes().get(node(0, 0));
+			final MapNode e = IOController.getAllNodes().get(node(0, SIDE - 1));
+			GraphController.setTrafficMap(jammed);
+			final List<MapWay> one = GraphController.getShortestPathWays(s, e);
+			GraphController.setBidirectional(true);
+			final List<MapWay> both = GraphController.getShortestPathWays(s, e);
+			GraphController.setBidirectional(false);
+			GraphController.setTrafficMap(null);
+			double oneLength = 0;
+			for (final MapWay way : one) {
+				oneLength += way.getWeight();
+			}
+			double bothLength = 0;
+			for (int i = 0; i < both.size(); i++) {
+				assertTrue(i > 0 || both.get(i).getStart().equals(s));
+				assertTrue(i == 0 || both.get(i).getStart().equals(both.get(i - 1).getEnd()));
+				bothLength += both.get(i).getWeight();
+			}
+			assertTrue(both.get(both.size() - 1).getEnd().equals(e));
+			assertTrue(Math.abs(oneLength - bothLength) < 1e-9);
+		} catch (IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void fileTest() {
+		try {
+			assertTrue(GraphController.getLandmarks() == null);
+			final File file = GraphController.writeLandmarks(3);
+			assertTrue(file.equals(Landmarks.fileFor(grid.getWays().getPath())));
+			final Landmarks written = GraphController.getLandmarks();
+			assertTrue(written != null && written.count() == 3);
+			
+			// Loaded back with the same landmarks and bounds
+			grid.reopen();
+			final Landmarks loaded = GraphController.getLandmarks();
+			assertTrue(loaded != null && loaded != written);
+			assertTrue(loaded.count() == written.count());
+			for (int i = 0; i < loaded.count(); i++) {
+				assertTrue(loaded.getLandmark(i) == written.getLandmark(i));
+			}
+			for (int v = 0; v < loaded.size(); v++) {
+				assertTrue(loaded.lowerBound(v, 0) == written.lowerBound(v, 0));
+				assertTrue(loaded.lowerBound(0, v) == written.lowerBound(0, v));
+			}
+			
+			// Routes with traffic use them
+			final ConcurrentHashMap<String, Double> traffic = new ConcurrentHashMap<>();
+			traffic.put("Row 0 Street", 100.0);
+			GraphController.setTrafficMap(traffic);
+			final List<MapWay> route = GraphController.getShortestPathWays(IOController.getAllNodes().get(node(0, 0)),
+					IOController.getAllNodes().get(node(0, SIDE - 1)));
+			GraphController.setTrafficMap(null);
+			assertTrue(route.size() >= SIDE - 1);
+			assertTrue(route.get(route.size() - 1).getEnd().getID().equals(node(0, SIDE - 1)));
+			
+			// Changed data makes them stale
+			assertTrue(grid.getWays().setLastModified(grid.getWays().lastModified() - 10000));
+			grid.reopen();
+			assertTrue(GraphController.getLandmarks() == null);
+		} catch (IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+}
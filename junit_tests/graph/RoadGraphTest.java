@@ -0,0 +1,357 @@
+package graph;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.graph.DataProviderException;
+import server.graph.Graph;
+import server.graph.GraphController;
+import server.graph.GraphEdge;
+import server.graph.GraphException;
+import server.graph.MapsDataProvider;
+import server.graph.RoadGraph;
+import server.graph.RoadGraphProvider;
+import server.graph.RoadSearch;
+import server.io.IOController;
+import server.io.SparseIndex;
+import data.MapException;
+import data.MapNode;
+import data.MapWay;
+import fixtures.TestFiles;
+
+@SuppressWarnings("static-method")
+public class RoadGraphTest {
+	
+	private File	ways;
+	private File	nodes;
+	private File	index;
+	
+	@Before
+	public void setUp() throws IOException, MapException {
+		// A square 1-2-4-3, a longer way round through 5, a loop and a way to a missing node
+		ways = TestFiles.write("ways", "id\tname\tstart\tend", "/w/4170.7125.1\tA Street\t/n/1\t/n/2",
+				"/w/4170.7125.2\tA Street\t/n/2\t/n/4", "/w/4170.7125.3\tB Street\t/n/1\t/n/3",
+				"/w/4170.7125.4\tB Street\t/n/3\t/n/4", "/w/4170.7125.5\tC Street\t/n/1\t/n/5",
+				"/w/4170.7125.6\tC Street\t/n/5\t/n/4", "/w/4170.7125.7\tD Street\t/n/2\t/n/2",
+				"/w/4170.7125.8\tE Street\t/n/4\t/n/9");
+		nodes = TestFiles.write("nodes", "id\tlatitude\tlongitude\tways",
+				"/n/1\t41.70\t-71.25\t/w/4170.7125.1,/w/4170.7125.3,/w/4170.7125.5",
+				"/n/2\t41.71\t-71.25\t/w/4170.7125.2,/w/4170.7125.7,/w/4170.7125.1,/w/gone",
+				"/n/3\t41.70\t-71.24\t/w/4170.7125.4", "/n/4\t41.71\t-71.24\t/w/4170.7125.8",
+				"/n/5\t41.60\t-71.30\t/w/4170.7125.6");
+		index = TestFiles.write("index", "name\tnodes", "A Street\t/n/1,/n/2,/n/4", "B Street\t/n/1,/n/3,/n/4");
+		IOController.setup(ways.getPath(), nodes.getPath(), index.getPath());
+		IOController.getAllNodes();
+	}
+	
+	@After
+	public void tearDown() {
+		IOController.tearDown();
+		new File(ways.getPath() + SparseIndex.SUFFIX).delete();
+		ways.delete();
+		nodes.delete();
+		index.delete();
+	}
+	
+	@Test
+	public void edgeTest() {
+		try {
+			final RoadGraph graph = GraphController.getRoadGraph();
+			assertTrue(graph.size() == 5);
+			assertTrue(graph.edgeCount() == 6);
+			assertTrue(GraphController.getRoadGraph() == graph);
+			
+			// Way 1 leads back to node 2, way 7 is a loop and the last way doesn't exist
+			final int two = graph.find(IOController.getAllNodes().get("/n/2"));
+			assertTrue(graph.endEdge(two) - graph.firstEdge(two) == 1);
+			final int edge = graph.firstEdge(two);
+			assertTrue(graph.getNodes().get(graph.getTarget(edge)).getID().equals("/n/4"));
+			assertTrue(graph.getWay(edge).getID().equals("/w/4170.7125.2"));
+			assertTrue(Math.abs(graph.getLength(edge) - 0.01) < 1e-6);
+			
+			// Node 1's edges keep the order of its ways
+			final int one = graph.find(IOController.getAllNodes().get("/n/1"));
+			assertTrue(graph.endEdge(one) - graph.firstEdge(one) == 3);
+			assertTrue(graph.getWay(graph.firstEdge(one)).getID().equals("/w/4170.7125.1"));
+			assertTrue(graph.getWay(graph.firstEdge(one) + 2).getID().equals("/w/4170.7125.5"));
+			
+			// The way to a missing node has no edge
+			final int four = graph.find(IOController.getAllNodes().get("/n/4"));
+			assertTrue(graph.endEdge(four) == graph.firstEdge(four));
+			
+			// Node 4 is entered from 2, 3 and 5, in edge order, and node 1 from nowhere
+			assertTrue(graph.endInEdge(four) - graph.firstInEdge(four) == 3);
+			for (int i = graph.firstInEdge(four); i < graph.endInEdge(four); i++) {
+				assertTrue(graph.getTarget(graph.getInEdge(i)) == four);
+				assertTrue(graph.getInSource(i) == graph.getSource(graph.getInEdge(i)));
+				assertTrue(i == graph.firstInEdge(four) || graph.getInEdge(i) > graph.getInEdge(i - 1));
+			}
+			assertTrue(graph.getSource(graph.getInEdge(graph.firstInEdge(four))) == two);
+			assertTrue(graph.endInEdge(one) == graph.firstInEdge(one));
+		} catch (IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void sameAsFileTest() {
+		try {
+			final MapNode s = IOController.getAllNodes().get("/n/1");
+			final MapNode e = IOController.getAllNodes().get("/n/4");
+			final MapsDataProvider fileProvider = new MapsDataProvider(null);
+			final List<GraphEdge<MapNode, MapWay>> expected = new Graph<>(fileProvider.getNode(s),
+					fileProvider.getNode(e), fileProvider).shortestPath();
+			final RoadGraphProvider provider = new RoadGraphProvider(GraphController.getRoadGraph(), null);
+			final List<GraphEdge<MapNode, MapWay>> path = new Graph<>(provider.getNode(s), provider.getNode(e),
+					provider).shortestPath();
+			assertTrue(path.size() == 2);
+			assertTrue(path.size() == expected.size());
+			for (int i = 0; i < path.size(); i++) {
+				assertTrue(path.get(i).getContent().getID().equals(expected.get(i).getContent().getID()));
+			}
+			
+			final List<MapWay> ways = GraphController.getShortestPathWays(s, e);
+			assertTrue(ways.size() == 2);
+			assertTrue(ways.get(1).getEnd() == e);
+		} catch (IOException | MapException | GraphException | DataProviderException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void searchTest() {
+		try {
+			final RoadGraph graph = GraphController.getRoadGraph();
+			final int one = graph.find(IOController.getAllNodes().get("/n/1"));
+			final int four = graph.find(IOController.getAllNodes().get("/n/4"));
+			final int five = graph.find(IOController.getAllNodes().get("/n/5"));
+			final RoadSearch search = RoadSearch.forGraph(graph);
+			assertTrue(RoadSearch.forGraph(graph) == search);
+			
+			// Heavy traffic on A and B Streets sends the route round through 5
+			final ConcurrentHashMap<String, Double> traffic = new ConcurrentHashMap<>();
+			traffic.put("A Street", 100.0);
+			traffic.put("B Street", 100.0);
+			int[] path = search.shortestPath(one, four, traffic);
+			assertTrue(path.length == 2);
+			assertTrue(graph.getTarget(path[0]) == five);
+			assertTrue(graph.getSource(path[1]) == five);
+			assertTrue(search.getDistance(four) == graph.getWeight(path[0], traffic)
+				+ graph.getWeight(path[1], traffic));
+			
+			// A second search forgets the first
+			path = search.shortestPath(one, four, null);
+			assertTrue(path.length == 2);
+			assertTrue(graph.getTarget(path[0]) != five);
+			assertTrue(search.getDistance(five) == graph.getWeight(graph.firstEdge(one) + 2, null));
+			assertTrue(search.shortestPath(four, one, null).length == 0);
+			assertTrue(search.shortestPath(one, one, null).length == 0);
+			
+			GraphController.setTrafficMap(traffic);
+			final List<MapWay> ways = GraphController.getShortestPathWays(IOController.getAllNodes().get("/n/1"),
+					IOController.getAllNodes().get("/n/4"));
+			GraphController.setTrafficMap(null);
+			assertTrue(ways.size() == 2);
+			assertTrue(ways.get(0).getName().equals("C Street"));
+		} catch (IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void heuristicTest() {
+		try {
+			final RoadGraph graph = GraphController.getRoadGraph();
+			assertTrue(graph.getHeuristicScale(null) == 1);
+			final ConcurrentHashMap<String, Double> traffic = new ConcurrentHashMap<>();
+			traffic.put("A Street", 0.5);
+			traffic.put("B Street", 0.6);
+			assertTrue(graph.getHeuristicScale(traffic) == 0.5);
+			
+			// A* expands fewer nodes than Dijkstra's algorithm for the same distance
+			final int one = graph.find(IOController.getAllNodes().get("/n/1"));
+			final int four = graph.find(IOController.getAllNodes().get("/n/4"));
+			final RoadSearch search = RoadSearch.forGraph(graph);
+			search.shortestPath(one, four, traffic, 0);
+			final int dijkstra = search.getExpanded();
+			final double distance = search.getDistance(four);
+			search.shortestPath(one, four, traffic);
+			assertTrue(search.getExpanded() < dijkstra);
+			assertTrue(search.getDistance(four) == distance);
+			
+			// The old search finds the same path with the exact heuristic
+			final MapsDataProvider provider = new MapsDataProvider(traffic);
+			final Graph<MapNode, MapWay> g = new Graph<>(provider.getNode(IOController.getAllNodes().get("/n/1")),
+					provider.getNode(IOController.getAllNodes().get("/n/4")), provider, graph.getHeuristicScale(traffic));
+			final List<GraphEdge<MapNode, MapWay>> path = g.shortestPath();
+			assertTrue(path.size() == 2);
+			assertTrue(path.get(0).getContent().getName().equals("A Street"));
+			assertTrue(g.getExpanded() <= dijkstra);
+		} catch (IOException | MapException | GraphException | DataProviderException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void matrixTest() {
+		try {
+			final RoadGraph graph = GraphController.getRoadGraph();
+			final List<MapNode> all = new ArrayList<>();
+			for (final String id : new String[] { "/n/1", "/n/2", "/n/3", "/n/4", "/n/5" }) {
+				all.add(IOController.getAllNodes().get(id));
+			}
+			all.add(null);
+			final double[][] matrix = GraphController.getDistanceMatrix(all, all);
+			assertTrue(matrix.length == all.size());
+			
+			// Every entry is the distance a search of its own finds, and infinite where there is no path
+			final RoadSearch search = RoadSearch.forGraph(graph);
+			for (int i = 0; i < all.size(); i++) {
+				assertTrue(matrix[i].length == all.size());
+				for (int j = 0; j < all.size(); j++) {
+					if (all.get(i) == null || all.get(j) == null) {
+						assertTrue(matrix[i][j] == Double.POSITIVE_INFINITY);
+						continue;
+					}
+					final int s = graph.find(all.get(i));
+					final int e = graph.find(all.get(j));
+					search.shortestPath(s, e, null, 0);
+					final double expected = search.getDistance(e);
+					assertTrue((expected == Double.MAX_VALUE) ? matrix[i][j] == Double.POSITIVE_INFINITY
+							: Math.abs(matrix[i][j] - expected) < 1e-12);
+				}
+			}
+			assertTrue(matrix[0][0] == 0);
+			assertTrue(matrix[3][0] == Double.POSITIVE_INFINITY);
+			assertTrue(matrix[0][3] < matrix[0][4]);
+			
+			// Given up whole when the thread is interrupted
+			Thread.currentThread().interrupt();
+			final double[][] interrupted = GraphController.getDistanceMatrix(all, all);
+			assertTrue(Thread.interrupted());
+			assertTrue(interrupted == null);
+		} catch (IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void concurrentTest() {
+		try {
+			// Every pair routed on its own first, with and without traffic
+			final RoadGraph graph = GraphController.getRoadGraph();
+			final ConcurrentHashMap<String, Double> traffic = new ConcurrentHashMap<>();
+			traffic.put("A Street", 100.0);
+			traffic.put("B Street", 100.0);
+			final int size = graph.size();
+			final int[][] expected = new int[2 * size * size][];
+			final RoadSearch search = RoadSearch.forGraph(graph);
+			for (int i = 0; i < expected.length; i++) {
+				final int pair = i % (size * size);
+				expected[i] = search.shortestPath(pair / size, pair % size, (i < size * size) ? null : traffic);
+			}
+			
+			// Then by many threads at once over the same graph, each with its own search
+			final AtomicInteger wrong = new AtomicInteger();
+			final List<Thread> threads = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				final int first = t;
+				threads.add(new Thread() {
+					
+					@Override
+					public void run() {
+						final RoadSearch own = RoadSearch.forGraph(graph);
+						for (int round = 0; round < 500; round++) {
+							for (int i = first; i < expected.length; i += 3) {
+								final int pair = i % (size * size);
+								final int[] path = own.shortestPath(pair / size, pair % size, (i < size * size) ? null
+										: traffic);
+								if (!Arrays.equals(path, expected[i])) {
+									wrong.incrementAndGet();
+								}
+							}
+						}
+					}
+				});
+			}
+			for (final Thread thread : threads) {
+				thread.start();
+			}
+			for (final Thread thread : threads) {
+				thread.join();
+			}
+			assertTrue(wrong.get() == 0);
+		} catch (IOException | MapException | InterruptedException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void backgroundTest() {
+		try {
+			// Requests while the graph is built in the background all wait for the one graph it builds
+			GraphController.buildRoadGraph();
+			final List<RoadGraph> graphs = new ArrayList<>();
+			final List<Thread> threads = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				threads.add(new Thread() {
+					
+					@Override
+					public void run() {
+						try {
+							final RoadGraph graph = GraphController.getRoadGraph();
+							synchronized (graphs) {
+								graphs.add(graph);
+							}
+						} catch (IOException | MapException e) {
+							// Counted as missing below
+						}
+					}
+				});
+			}
+			for (final Thread thread : threads) {
+				thread.start();
+			}
+			for (final Thread thread : threads) {
+				thread.join();
+			}
+			final RoadGraph graph = GraphController.getRoadGraph();
+			assertTrue(graphs.size() == threads.size());
+			for (final RoadGraph other : graphs) {
+				assertTrue(other == graph);
+			}
+			assertTrue(GraphController.getSegmentIndex().getGraph() == graph);
+			
+			// And a build already done isn't started again
+			GraphController.buildRoadGraph();
+			assertTrue(GraphController.getRoadGraph() == graph);
+		} catch (IOException | MapException | InterruptedException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void rebuildTest() {
+		try {
+			final RoadGraph graph = GraphController.getRoadGraph();
+			IOController.tearDown();
+			IOController.setup(ways.getPath(), nodes.getPath(), index.getPath());
+			assertTrue(GraphController.getRoadGraph() != graph);
+		} catch (IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+}
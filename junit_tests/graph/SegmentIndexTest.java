@@ -0,0 +1,253 @@
+package graph;
+
+import static fixtures.GridData.node;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.graph.GraphController;
+import server.graph.RoadGraph;
+import server.graph.SegmentIndex;
+import server.graph.SegmentSnap;
+import server.io.IOController;
+import server.io.NodeTable;
+import server.kdtree.KDTreeController;
+import data.LatLongPoint;
+import data.MapException;
+import data.MapNode;
+import data.MapWay;
+import fixtures.GridData;
+
+@SuppressWarnings("static-method")
+public class SegmentIndexTest {
+	
+	private static final int	SIDE	= 20;
+	
+	private final GridData		grid	= new GridData(SIDE, 5).oneWayOddRows();
+	
+	@Before
+	public void setUp() throws IOException, MapException {
+		grid.setUp();
+	}
+	
+	@After
+	public void tearDown() {
+		grid.tearDown();
+	}
+	
+	/**
+	 * @param graph the road graph
+	 * @param edge an edge
+	 * @param lat a latitude
+	 * @param lon a longitude
+	 * @return the distance from the point to the nearest point of the edge, measured the slow way
+	 */
+	private static double distance(final RoadGraph graph, final int edge, final double lat, final double lon) {
+		final int source = graph.getSource(edge);
+		final int target = graph.getTarget(edge);
+		final double aLat = graph.getNodes().getLat(source);
+		final double aLong = graph.getNodes().getLong(source);
+		final double dLat = graph.getNodes().getLat(target) - aLat;
+		final double dLong = graph.getNodes().getLong(target) - aLong;
+		final double t = Math.max(0,
+				Math.min(1, ((lat - aLat) * dLat + (lon - aLong) * dLong) / (dLat * dLat + dLong * dLong)));
+		return Math.hypot(aLat + t * dLat - lat, aLong + t * dLong - lon);
+	}
+	
+	/**
+	 * @param node a node
+	 * @param point a point
+	 * @return true if the node is at the point
+	 */
+	private static boolean at(final MapNode node, final LatLongPoint point) {
+		return Math.abs(node.getLatitude() - point.getLat()) < 1e-12
+			&& Math.abs(node.getLongitude() - point.getLong()) < 1e-12;
+	}
+	
+	/**
+	 * @param route a route
+	 * @return the total weight of its ways, after checking each way starts where the one before it ends
+	 */
+	private static double weigh(final List<MapWay> route) {
+		double total = 0;
+		for (int i = 0; i < route.size(); i++) {
+			assertTrue(i == 0 || route.get(i - 1).getEnd().equals(route.get(i).getStart()));
+			total += route.get(i).getWeight();
+		}
+		return total;
+	}
+	
+	@Test
+	public void nearestTest() {
+		try {
+			final RoadGraph graph = GraphController.getRoadGraph();
+			final SegmentIndex segments = GraphController.getSegmentIndex();
+			assertTrue(segments.getGraph() == graph);
+			assertTrue(segments.size() == graph.edgeCount());
+			assertTrue(GraphController.getSegmentIndex() == segments);
+			
+			// As near as the nearest of every edge, inside the grid and around it
+			final Random r = new Random(7);
+			for (int i = 0; i < 500; i++) {
+				final double lat = 41.68 + r.nextDouble() * 0.25;
+				final double lon = -71.27 + r.nextDouble() * 0.25;
+				final SegmentSnap snap = segments.nearest(lat, lon);
+				double best = Double.MAX_VALUE;
+				for (int edge = 0; edge < graph.edgeCount(); edge++) {
+					best = Math.min(best, distance(graph, edge, lat, lon));
+				}
+				assertTrue(Math.abs(snap.getDistance() - best) < 1e-12);
+				
+				// The point is the given fraction along the edge, and the given distance from the query
+				final int source = graph.getSource(snap.getEdge());
+				final int target = graph.getTarget(snap.getEdge());
+				final double t = snap.getFraction();
+				assertTrue(t >= 0 && t <= 1);
+				assertTrue(Math.abs(snap.getLatitude() - graph.getNodes().getLat(source) - t
+					* (graph.getNodes().getLat(target) - graph.getNodes().getLat(source))) < 1e-12);
+				assertTrue(Math.abs(snap.getLongitude() - graph.getNodes().getLong(source) - t
+					* (graph.getNodes().getLong(target) - graph.getNodes().getLong(source))) < 1e-12);
+				assertTrue(Math.abs(Math.hypot(snap.getLatitude() - lat, snap.getLongitude() - lon)
+					- snap.getDistance()) < 1e-12);
+			}
+		} catch (IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void routeTest() {
+		try {
+			// Clicks right on nodes route just as the nodes do
+			final Random r = new Random(11);
+			for (int i = 0; i < 50; i++) {
+				final MapNode s = IOController.getAllNodes().get(node(r.nextInt(SIDE), r.nextInt(SIDE)));
+				final MapNode e = IOController.getAllNodes().get(node(r.nextInt(SIDE), r.nextInt(SIDE)));
+				final List<MapWay> byNodes = GraphController.getShortestPathWays(s, e);
+				final List<MapWay> byPoints = GraphController.getShortestPathWays(new LatLongPoint(s.getLatitude(),
+						s.getLongitude()), new LatLongPoint(e.getLatitude(), e.getLongitude()));
+				assertTrue(Math.abs(weigh(byPoints) - weigh(byNodes)) < 1e-12);
+			}
+			
+			// Halfway along a block of a one way row, the block itself leads east but west means going round
+			final MapNode west = IOController.getAllNodes().get(node(5, 8));
+			final MapNode east = IOController.getAllNodes().get(node(5, 9));
+			final LatLongPoint middle = new LatLongPoint((west.getLatitude() + east.getLatitude()) / 2,
+					(west.getLongitude() + east.getLongitude()) / 2);
+			final LatLongPoint ahead = new LatLongPoint(middle.getLat() * 0.5 + east.getLatitude() * 0.5,
+					middle.getLong() * 0.5 + east.getLongitude() * 0.5);
+			final List<MapWay> forward = GraphController.getShortestPathWays(middle, ahead);
+			assertTrue(forward.size() == 1);
+			assertTrue(at(forward.get(0).getStart(), middle) && at(forward.get(0).getEnd(), ahead));
+			assertTrue(Math.abs(forward.get(0).getWeight() - west.distanceFrom(east) / 4) < 1e-12);
+			final List<MapWay> backward = GraphController.getShortestPathWays(ahead, middle);
+			assertTrue(backward.size() > 3);
+			
+			// Starting and ending at the points, on the parts of the block ahead of and behind them
+			assertTrue(at(backward.get(0).getStart(), ahead) && backward.get(0).getEnd().equals(east));
+			assertTrue(backward.get(backward.size() - 1).getStart().equals(west));
+			assertTrue(at(backward.get(backward.size() - 1).getEnd(), middle));
+			final double ends = backward.get(0).getWeight() + backward.get(backward.size() - 1).getWeight();
+			assertTrue(Math.abs(ends - west.distanceFrom(east) * 3 / 4) < 1e-12);
+			assertTrue(GraphController.getShortestPathWays(middle, middle).isEmpty());
+			assertTrue(GraphController.getShortestPathWays(middle, null) == null);
+		} catch (IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void parallelTest() {
+		grid.tearDown();
+		// An alley west along a two way block, which a search from the east end of the block meets first
+		final GridData alleys = new GridData(SIDE, 5).add(4, 9, 4, 8, "Alley");
+		try {
+			alleys.setUp();
+			final RoadGraph graph = GraphController.getRoadGraph();
+			final MapNode west = IOController.getAllNodes().get(node(4, 8));
+			final MapNode east = IOController.getAllNodes().get(node(4, 9));
+			final LatLongPoint middle = new LatLongPoint((west.getLatitude() + east.getLatitude()) / 2,
+					(west.getLongitude() + east.getLongitude()) / 2);
+			final SegmentSnap snap = GraphController.getSegmentIndex().nearest(middle.getLat(), middle.getLong());
+			final String street = graph.getWays().getName(graph.getWayOrdinal(snap.getEdge()));
+			
+			// Either way from the middle of the block stays on the street clicked, not the alley beside it
+			assertTrue(street.equals("Row 4 Street"));
+			for (final MapNode toward : new MapNode[] { west, east }) {
+				final LatLongPoint quarter = new LatLongPoint((middle.getLat() + toward.getLatitude()) / 2,
+						(middle.getLong() + toward.getLongitude()) / 2);
+				final List<MapWay> route = GraphController.getShortestPathWays(middle, quarter);
+				assertTrue(route.size() == 1);
+				assertTrue(route.get(0).getName().equals(street));
+				assertTrue(at(route.get(0).getStart(), middle) && at(route.get(0).getEnd(), quarter));
+			}
+		} catch (IOException | MapException e) {
+			fail("Threw Exception");
+		} finally {
+			alleys.tearDown();
+		}
+	}
+	
+	@Test
+	public void neighborsTest() {
+		try {
+			// Points near nodes find their nodes, by ordinal in the node table
+			final NodeTable nodes = IOController.getNodeTable();
+			final KDTreeController kdtree = new KDTreeController();
+			final Random r = new Random(17);
+			final List<LatLongPoint> points = new ArrayList<>();
+			final List<String> ids = new ArrayList<>();
+			for (int i = 0; i < 50; i++) {
+				final MapNode near = IOController.getAllNodes().get(node(r.nextInt(SIDE), r.nextInt(SIDE)));
+				points.add(new LatLongPoint(near.getLatitude() + 1e-4, near.getLongitude() - 1e-4));
+				ids.add(near.getID());
+			}
+			final int[] ordinals = kdtree.getNeighbors(points);
+			assertTrue(ordinals.length == points.size());
+			for (int i = 0; i < ordinals.length; i++) {
+				assertTrue(ordinals[i] == nodes.find(ids.get(i)));
+				assertTrue(kdtree.getNode(ordinals[i]) == nodes.get(ordinals[i]));
+			}
+			final int[] found = new int[3];
+			final int count = kdtree.getNearestNeighbors(points.get(0).getLat(), points.get(0).getLong(), found,
+					new double[3]);
+			assertTrue(count == 3 && found[0] == ordinals[0]);
+		} catch (IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void hierarchyTest() {
+		try {
+			// Random clicks route the same with one search of the graph as with a query of the hierarchy per pair
+			final Random r = new Random(13);
+			final List<LatLongPoint> points = new ArrayList<>();
+			final List<Double> weights = new ArrayList<>();
+			for (int i = 0; i < 100; i++) {
+				points.add(new LatLongPoint(41.70 + r.nextDouble() * 0.19, -71.25 + r.nextDouble() * 0.19));
+			}
+			for (int i = 0; i < points.size(); i += 2) {
+				final double weight = weigh(GraphController.getShortestPathWays(points.get(i), points.get(i + 1)));
+				weights.add(Double.valueOf(weight));
+			}
+			assertTrue(GraphController.getHierarchy() == null);
+			GraphController.writeHierarchy();
+			for (int i = 0; i < points.size(); i += 2) {
+				final double weight = weigh(GraphController.getShortestPathWays(points.get(i), points.get(i + 1)));
+				assertTrue(Math.abs(weight - weights.get(i / 2).doubleValue()) < 1e-9);
+			}
+		} catch (IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+}
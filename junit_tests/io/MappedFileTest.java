@@ -0,0 +1,125 @@
+package io;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.io.BinaryFileSearcher;
+import server.io.DataSetException;
+import server.io.MappedFile;
+import data.Pair;
+
+@SuppressWarnings("static-method")
+public class MappedFileTest {
+	
+	private File	file;
+	
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("ways", ".tsv");
+		final FileWriter w = new FileWriter(file);
+		w.write("id\tname\tstart\tend\n");
+		w.write("/w/4170.7125.1\tThayer Street\t/n/1\t/n/2\n");
+		w.write("/w/4170.7125.2\tThayer Street\t/n/2\t/n/3\n");
+		w.write("/w/4170.7126.1\tCushing Street\t/n/3\t/n/4\n");
+		w.write("/w/4170.7126.2\tCushing Street\t/n/4\t/n/5\n");
+		w.write("/w/4170.7127.1\tWaterman Street\t/n/5\t/n/6\n");
+		w.write("/w/4171.7125.1\tBrook Street\t/n/6\t/n/7\n");
+		w.write("/w/4171.7125.2\tBrook Street\t/n/7"); // No newline, so never a record
+		w.close();
+	}
+	
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+	
+	@Test
+	public void simpleSearchTest() {
+		try {
+			final MappedFile f = new MappedFile(file.getPath());
+			assertTrue(BinaryFileSearcher.simpleBinarySearch(f, "/w/4170.7126.1", 0, (byte) '\t').contains(
+					"Cushing Street"));
+			assertTrue(BinaryFileSearcher.simpleBinarySearch(f, "/w/4170.7125.1", 0, (byte) '\t').contains(
+					"Thayer Street"));
+			assertTrue(BinaryFileSearcher.simpleBinarySearch(f, "/w/4171.7125.1", 0, (byte) '\t').contains(
+					"Brook Street"));
+			assertTrue(BinaryFileSearcher.simpleBinarySearch(f, "/w/4170.7125", 0, (byte) '\t') == null);
+			assertTrue(BinaryFileSearcher.simpleBinarySearch(f, "/w/4171.7125.2", 0, (byte) '\t') == null);
+			assertTrue(BinaryFileSearcher.simpleBinarySearch(f, "id", 0, (byte) '\t') == null);
+		} catch (DataSetException | IOException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void pagingTest() {
+		try {
+			final MappedFile f = new MappedFile(file.getPath());
+			final List<String> page = BinaryFileSearcher.getPage(f, "/w/4170.7126", "/w/4170.7125", 0, (byte) '\t');
+			assertTrue(page.size() == 4);
+			assertTrue(page.get(0).startsWith("/w/4170.7125.1"));
+			assertTrue(page.get(3).startsWith("/w/4170.7126.2"));
+			assertTrue(BinaryFileSearcher.getPage(f, "/w/4171.7125", "/w/4171.7125", 0, (byte) '\t').size() == 1);
+			assertTrue(BinaryFileSearcher.getPage(f, "/w/4169", "/w/4169", 0, (byte) '\t').isEmpty());
+			
+			final List<String> matches = BinaryFileSearcher.findMatchingRecords(f, "/w/4170.7126.2", 0, (byte) '\t');
+			assertTrue(matches.size() == 1);
+			assertTrue(matches.get(0).endsWith("/n/5"));
+		} catch (DataSetException | IOException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void batchTest() {
+		try {
+			final MappedFile f = new MappedFile(file.getPath());
+			final List<String> keys = Arrays.asList("/w/4171.7125.1", "/w/4170.7125.2", "/w/4169", "/w/4170.7125.2");
+			final List<List<String>> mapped = BinaryFileSearcher.findMatchingRecords(f, keys, 0, (byte) '\t');
+			final List<List<String>> unmapped = BinaryFileSearcher.findMatchingRecords(file.getPath(), keys, 0, "\\t");
+			for (int i = 0; i < keys.size(); i++) {
+				final List<String> single = BinaryFileSearcher.findMatchingRecords(f, keys.get(i), 0, (byte) '\t');
+				assertTrue(mapped.get(i).equals(single));
+				assertTrue(unmapped.get(i).equals(single));
+			}
+			assertTrue(mapped.get(2).isEmpty());
+			
+			final List<Pair<String, String>> ranges = new ArrayList<>();
+			ranges.add(new Pair<>("/w/4171", "/w/4171"));
+			ranges.add(new Pair<>("/w/4170.7126", "/w/4170.7125"));
+			ranges.add(new Pair<>("/w/4170.7125.2", "/w/4170.7126.1"));
+			final List<List<String>> pages = BinaryFileSearcher.getPages(f, null, ranges, 0, (byte) '\t');
+			for (int i = 0; i < ranges.size(); i++) {
+				final String start = ranges.get(i).getLeft();
+				final String end = ranges.get(i).getRight();
+				assertTrue(pages.get(i).equals(BinaryFileSearcher.getPage(f, start, end, 0, (byte) '\t')));
+			}
+			assertTrue(pages.get(1).size() == 4);
+			
+			// The bounds of each page cover exactly its records
+			final List<int[]> bounds = BinaryFileSearcher.getPageBounds(f, null, ranges, 0, (byte) '\t');
+			for (int i = 0; i < ranges.size(); i++) {
+				final List<String> records = new ArrayList<>();
+				for (int cur = bounds.get(i)[0]; cur < bounds.get(i)[1]; cur = f.nextRecordStart(cur)) {
+					records.add(f.readRecord(cur));
+				}
+				assertTrue(records.equals(pages.get(i)));
+			}
+			assertTrue(BinaryFileSearcher.getPages(file.getPath(), ranges, 0, "\\t").get(2).size() == 2);
+		} catch (DataSetException | IOException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+}
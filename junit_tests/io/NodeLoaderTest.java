@@ -0,0 +1,77 @@
+package io;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.io.DataSetException;
+import server.io.MappedFile;
+import server.io.NodeLoader;
+import data.MapNode;
+
+@SuppressWarnings("static-method")
+public class NodeLoaderTest {
+	
+	// Enough lines that the file gets split between workers
+	private static final int	LINES	= 40000;
+	
+	private File				file;
+	
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("nodes", ".tsv");
+		final BufferedWriter w = new BufferedWriter(new FileWriter(file));
+		w.write("id\tlatitude\tlongitude\tways\n");
+		for (int i = 0; i < LINES; i++) {
+			w.write(String.format("/n/%d\t41.%d\t-71.%d\t/w/%d.a,/w/%d.b,/w/%d.c\n", i, i, i, i, i, i));
+			if (i % 1000 == 0) {
+				// Blank lines and bad records are skipped
+				w.write("\n/n/bad\tnot a number\t-71\t\n");
+			}
+		}
+		// No newline on the last record
+		w.write("/n/last\t42\t-72\t");
+		w.close();
+	}
+	
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+	
+	@Test
+	public void loadTest() {
+		final Map<String, Integer> headerMap = new HashMap<>();
+		headerMap.put("id", 0);
+		headerMap.put("latitude", 1);
+		headerMap.put("longitude", 2);
+		headerMap.put("ways", 3);
+		try {
+			final Map<String, MapNode> nodes = NodeLoader.load(new MappedFile(file.getPath()), headerMap, (byte) '\t',
+					",");
+			assertTrue(nodes.size() == LINES + 1);
+			assertTrue(nodes.get("/n/bad") == null);
+			for (int i = 0; i < LINES; i += 997) {
+				final MapNode node = nodes.get("/n/" + i);
+				assertTrue(node.getLatitude() == Double.parseDouble("41." + i));
+				assertTrue(node.getWays().size() == 3);
+				assertTrue(node.getWays().get(2).equals("/w/" + i + ".c"));
+			}
+			assertTrue(nodes.get("/n/last").getLongitude() == -72);
+			assertTrue(nodes.get("/n/last").getWays().isEmpty());
+		} catch (DataSetException | IOException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+}
@@ -0,0 +1,112 @@
+package io;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import server.io.DataSetException;
+import server.io.FieldCursor;
+import server.io.ParserTools;
+
+@SuppressWarnings("static-method")
+public class ParserToolsTest {
+	
+	private static final String[]	RECORDS	= { "/w/1\tThayer\t/n/1\t/n/2", "/w/2\t\t/n/2\t", "/w/3\tBrook\t\t",
+			"\tHope", "", "\t\t", "/w/4" };
+	
+	@Test
+	public void delimiterTest() {
+		assertTrue(ParserTools.delimiterChar("\\t") == '\t');
+		assertTrue(ParserTools.delimiterChar(",") == ',');
+		assertTrue(ParserTools.delimiterChar("\\|") == '|');
+		assertTrue(ParserTools.delimiterChar("|") == -1);
+		assertTrue(ParserTools.delimiterChar("\\s") == -1);
+		assertTrue(ParserTools.delimiterChar("[^a-z]+") == -1);
+	}
+	
+	@Test
+	public void cursorTest() {
+		final FieldCursor cursor = new FieldCursor('\t').reset("/w/1\tThayer\t\t/n/2\t");
+		int fields = 0;
+		while (cursor.next()) {
+			fields++;
+		}
+		assertTrue(fields == 5);
+		assertTrue(cursor.seek(1));
+		assertTrue(cursor.value().equals("Thayer"));
+		assertTrue(cursor.compare("Thay", true) == 0);
+		assertTrue(cursor.compare("Thay", false) > 0);
+		assertTrue(cursor.compare("Thayerz", true) < 0);
+		assertTrue(cursor.seek(0));
+		assertTrue(cursor.value().equals("/w/1"));
+		assertTrue(cursor.seek(2));
+		assertTrue(cursor.value().isEmpty());
+		assertTrue(!cursor.seek(5));
+	}
+	
+	/**
+	 * The in place paths should agree with splitting on a regex for every record and column
+	 */
+	@Test
+	public void matchesSplitTest() {
+		final Map<String, Integer> headerMap = new HashMap<>();
+		headerMap.put("id", 0);
+		headerMap.put("name", 1);
+		headerMap.put("start", 2);
+		headerMap.put("end", 3);
+		for (final String record : RECORDS) {
+			final Map<String, String> fast = parse(record, headerMap, "\\t");
+			final Map<String, String> slow = parse(record, headerMap, "[\t]");
+			assertTrue(fast.equals(slow));
+			for (int col = 0; col < 5; col++) {
+				for (final String search : new String[] { "", "/w/", "/w/3", "Thayer", "/n/2" }) {
+					assertTrue(compare(record, search, col, "\\t", true) == compare(record, search, col, "[\t]", true));
+					assertTrue(compare(record, search, col, "\\t", false) == compare(record, search, col, "[\t]", false));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Parses a record, failing the test on an exception
+	 * 
+	 * @param record the record
+	 * @param headerMap the headers
+	 * @param delimiter the delimiter
+	 * @return the parsed record
+	 */
+	private Map<String, String> parse(final String record, final Map<String, Integer> headerMap,
+			final String delimiter) {
+		try {
+			return ParserTools.parseLine(record, headerMap, delimiter);
+		} catch (final DataSetException e) {
+			fail("Threw Exception");
+			return null;
+		}
+	}
+	
+	/**
+	 * Compares a column, treating a malformed record as its own result
+	 * 
+	 * @param record the record
+	 * @param search the search key
+	 * @param col the column
+	 * @param delimiter the delimiter
+	 * @param partial true for a partial match
+	 * @return the comparison, or Integer.MIN_VALUE if the record was malformed
+	 */
+	private int compare(final String record, final String search, final int col, final String delimiter,
+			final boolean partial) {
+		try {
+			return partial ? ParserTools.searchPartialInRecord(record, search, col, delimiter) : ParserTools
+					.searchFullyInRecord(record, search, col, delimiter);
+		} catch (final DataSetException e) {
+			return Integer.MIN_VALUE;
+		}
+	}
+	
+}
@@ -0,0 +1,100 @@
+package io;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.io.DataSetException;
+import server.io.IOController;
+import server.io.Snapshot;
+import server.io.SparseIndex;
+import data.MapException;
+import data.MapNode;
+import data.MapWay;
+import fixtures.TestFiles;
+
+@SuppressWarnings("static-method")
+public class SnapshotTest {
+	
+	private File	ways;
+	private File	nodes;
+	private File	index;
+	
+	@Before
+	public void setUp() throws IOException {
+		ways = TestFiles.write("ways", "id\tname\tstart\tend", "/w/4170.7125.1\tThayer Street\t/n/1\t/n/2",
+				"/w/4170.7125.2\tThayer Street\t/n/2\t/n/3", "/w/4170.7126.1\tCushing Street\t/n/2\t/n/4",
+				"/w/4170.7126.2\tCushing Street\t/n/4\t/n/9");
+		nodes = TestFiles.write("nodes", "id\tlatitude\tlongitude\tways", "/n/1\t41.70\t-71.25\t/w/4170.7125.1",
+				"/n/2\t41.71\t-71.25\t/w/4170.7125.1,/w/4170.7125.2,/w/4170.7126.1",
+				"/n/3\t41.72\t-71.25\t/w/4170.7125.2,/w/gone", "/n/4\t41.71\t-71.26\t/w/4170.7126.1,/w/4170.7126.2");
+		index = TestFiles.write("index", "name\tnodes", "Cushing Street\t/n/2,/n/4", "Thayer Street\t/n/1,/n/2,/n/3,/n/7");
+	}
+	
+	@After
+	public void tearDown() {
+		IOController.tearDown();
+		Snapshot.fileFor(ways.getPath()).delete();
+		new File(ways.getPath() + SparseIndex.SUFFIX).delete();
+		ways.delete();
+		nodes.delete();
+		index.delete();
+	}
+	
+	/**
+	 * Reads what the server would serve from the current setup
+	 * 
+	 * @return a description of every node, way and way name
+	 * @throws IOException file io
+	 * @throws MapException internal map issues
+	 * @throws DataSetException bad data
+	 */
+	private List<String> describe() throws IOException, MapException, DataSetException {
+		final List<String> all = new ArrayList<>();
+		for (final String id : new String[] { "/n/1", "/n/2", "/n/3", "/n/4" }) {
+			final MapNode node = IOController.getAllNodes().get(id);
+			all.add(node.getID() + node.getLatitude() + node.getLongitude() + node.getWays());
+		}
+		for (final String id : new String[] { "/w/4170.7125.1", "/w/4170.7125.2", "/w/4170.7126.1", "/w/4170.7126.2" }) {
+			final MapWay way = IOController.getMapWay(id);
+			all.add((way == null) ? null : way.getName() + way.getStart().getID() + way.getEnd().getID());
+		}
+		all.addAll(IOController.getAllWayNames());
+		all.add(IOController.findIntersection("Thayer Street", "Cushing Street").getID());
+		return all;
+	}
+	
+	@Test
+	public void roundTripTest() {
+		try {
+			IOController.setup(ways.getPath(), nodes.getPath(), index.getPath());
+			assertTrue(!IOController.isFromSnapshot());
+			final List<String> parsed = describe();
+			assertTrue(IOController.writeSnapshot().isFile());
+			IOController.tearDown();
+			
+			IOController.setup(ways.getPath(), nodes.getPath(), index.getPath());
+			assertTrue(IOController.isFromSnapshot());
+			assertTrue(describe().equals(parsed));
+			assertTrue(IOController.getMapWay("/w/4170.7126.2") == null);
+			assertTrue(IOController.getAllNodes().get("/n/3").getWays().get(1).equals("/w/gone"));
+			IOController.tearDown();
+			
+			// A changed file makes the snapshot stale
+			assertTrue(nodes.setLastModified(nodes.lastModified() - 10000));
+			IOController.setup(ways.getPath(), nodes.getPath(), index.getPath());
+			assertTrue(!IOController.isFromSnapshot());
+		} catch (IOException | MapException | DataSetException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+}
@@ -0,0 +1,82 @@
+package io;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.io.BinaryFileSearcher;
+import server.io.DataSetException;
+import server.io.MappedFile;
+import server.io.SparseIndex;
+
+@SuppressWarnings("static-method")
+public class SparseIndexTest {
+	
+	private File	file;
+	private File	sidecar;
+	
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("ways", ".tsv");
+		sidecar = new File(file.getPath() + SparseIndex.SUFFIX);
+		final FileWriter w = new FileWriter(file);
+		w.write("id\tname\n");
+		for (int i = 100; i < 600; i += 2) {
+			w.write(String.format("/w/%d\tStreet %d\n", i, i));
+		}
+		w.close();
+	}
+	
+	@After
+	public void tearDown() {
+		file.delete();
+		sidecar.delete();
+	}
+	
+	@Test
+	public void lookupTest() {
+		try {
+			final MappedFile f = new MappedFile(file.getPath());
+			final SparseIndex index = SparseIndex.build(f, 0, (byte) '\t', 16);
+			assertTrue(index.size() == 16);
+			for (int i = 90; i < 610; i++) {
+				final byte[] key = ("/w/" + i).getBytes(StandardCharsets.UTF_8);
+				final int expected = BinaryFileSearcher.lowerBound(f, key, 0, (byte) '\t', false);
+				assertTrue(BinaryFileSearcher.lowerBound(f, index, key, 0, (byte) '\t', false) == expected);
+			}
+			assertTrue(BinaryFileSearcher.simpleBinarySearch(f, index, "/w/432", 0, (byte) '\t').endsWith("432"));
+			assertTrue(BinaryFileSearcher.simpleBinarySearch(f, index, "/w/433", 0, (byte) '\t') == null);
+			assertTrue(BinaryFileSearcher.getPage(f, index, "/w/2", "/w/2", 0, (byte) '\t').size() == 50);
+		} catch (DataSetException | IOException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	@Test
+	public void persistenceTest() {
+		try {
+			final MappedFile f = new MappedFile(file.getPath());
+			final SparseIndex built = SparseIndex.loadOrBuild(f, 0, (byte) '\t', 16);
+			assertTrue(sidecar.isFile());
+			final SparseIndex loaded = SparseIndex.load(sidecar, file, 0, 16);
+			assertTrue(loaded != null);
+			assertTrue(loaded.size() == built.size());
+			
+			// Different settings or a changed source make it stale
+			assertTrue(SparseIndex.load(sidecar, file, 0, 32) == null);
+			assertTrue(file.setLastModified(file.lastModified() - 10000));
+			assertTrue(SparseIndex.load(sidecar, file, 0, 16) == null);
+		} catch (DataSetException | IOException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+}
@@ -0,0 +1,66 @@
+package io;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import server.io.NodeTable;
+import server.io.StreetIndex;
+import data.LatLongPoint;
+import data.MapNode;
+
+@SuppressWarnings("static-method")
+public class StreetIndexTest {
+	
+	/**
+	 * Creates a table of nodes /n/0 to /n/9, so that node /n/i has ordinal i
+	 * 
+	 * @return the table
+	 */
+	private NodeTable nodes() {
+		final List<MapNode> all = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			all.add(MapNode.create("/n/" + i, new LatLongPoint(41 + i, -71), new ArrayList<String>()));
+		}
+		return new NodeTable(all);
+	}
+	
+	@Test
+	public void firstCommonTest() {
+		assertTrue(StreetIndex.firstCommon(new int[] { 1, 4, 6, 9 }, new int[] { 2, 3, 6, 9 }) == 6);
+		assertTrue(StreetIndex.firstCommon(new int[] { 1, 4 }, new int[] { 2, 3, 5 }) == -1);
+		assertTrue(StreetIndex.firstCommon(new int[] {}, new int[] { 2 }) == -1);
+		assertTrue(StreetIndex.firstCommon(new int[] { 7 }, new int[] { 7 }) == 7);
+	}
+	
+	@Test
+	public void intersectTest() {
+		final NodeTable table = nodes();
+		final List<String> names = Arrays.asList("Brook Street", "Thayer Street", "Thayer Street", "Hope Street",
+				null);
+		final List<int[]> records = Arrays.asList(new int[] { 5, 1, 3 }, new int[] { 9, 3, 3 }, new int[] { 8, 9 },
+				new int[] { 0, 2 }, new int[] { 1 });
+		final StreetIndex index = new StreetIndex(table, names, records, 2);
+		assertTrue(index.size() == 3);
+		assertTrue(Arrays.equals(index.getPostings("Thayer Street"), new int[] { 3, 8, 9 }));
+		assertTrue(index.getPostings("Angell Street").length == 0);
+		
+		assertTrue(index.intersect("Brook Street", "Thayer Street") == 3);
+		assertTrue(index.intersect("Thayer Street", "Brook Street") == 3);
+		assertTrue(index.findIntersection("Brook Street", "Thayer Street").getID().equals("/n/3"));
+		assertTrue(index.findIntersection("Brook Street", "Hope Street") == null);
+		assertTrue(index.findIntersection("Brook Street", "Angell Street") == null);
+		
+		// A street only meets itself where its records join, and a repeat within one record isn't a join
+		assertTrue(index.intersect("Thayer Street", "Thayer Street") == 9);
+		assertTrue(index.intersect("Brook Street", "Brook Street") == -1);
+		
+		// Evicted pairs are worked out again
+		assertTrue(index.intersect("Thayer Street", "Brook Street") == 3);
+	}
+	
+}
@@ -0,0 +1,146 @@
+package io;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.io.DataSetException;
+import server.io.IOController;
+import server.io.MappedFile;
+import server.io.SparseIndex;
+import server.io.WayRecordDecoder;
+import data.LatLongPoint;
+import data.MapException;
+import data.MapNode;
+import data.MapWay;
+import data.ProtocolManager;
+import fixtures.TestFiles;
+
+@SuppressWarnings("static-method")
+public class WayRecordDecoderTest {
+	
+	private File	ways;
+	private File	nodes;
+	private File	index;
+	
+	@Before
+	public void setUp() throws IOException {
+		ways = TestFiles.write("ways", "id\tname\tstart\tend", "/w/4170.7125.1\tThayer Street\t/n/1\t/n/2",
+				"/w/4170.7125.2\tRue D\u00e9j\u00e0 Vu\t/n/2\t/n/3", "/w/4170.7126.1\t\t/n/2\t/n/4",
+				"/w/4170.7126.2\tCushing Street\t/n/4\t/n/9", "/w/4170.7126.3\tCushing Street\t/n/4\t",
+				"/w/4171.7125.1\tBrook Street\t/n/3\t/n/4");
+		nodes = TestFiles.write("nodes", "id\tlatitude\tlongitude\tways", "/n/1\t41.70\t-71.25\t/w/4170.7125.1",
+				"/n/2\t41.71\t-71.25\t/w/4170.7125.1,/w/4170.7125.2,/w/4170.7126.1",
+				"/n/3\t41.72\t-71.25\t/w/4170.7125.2,/w/4171.7125.1",
+				"/n/4\t41.71\t-71.26\t/w/4170.7126.1,/w/4170.7126.2,/w/4171.7125.1");
+		index = TestFiles.write("index", "name\tnodes", "Brook Street\t/n/3,/n/4", "Cushing Street\t/n/2,/n/4",
+				"Rue D\u00e9j\u00e0 Vu\t/n/2,/n/3", "Thayer Street\t/n/1,/n/2");
+	}
+	
+	@After
+	public void tearDown() {
+		IOController.tearDown();
+		IOController.setMemoryMapped(true);
+		IOController.setPreload(false);
+		new File(ways.getPath() + SparseIndex.SUFFIX).delete();
+		ways.delete();
+		nodes.delete();
+		index.delete();
+	}
+	
+	@Test
+	public void decodeTest() {
+		final Map<String, Integer> headerMap = new HashMap<>();
+		headerMap.put("id", 0);
+		headerMap.put("name", 1);
+		headerMap.put("start", 2);
+		headerMap.put("end", 3);
+		try {
+			IOController.setup(ways.getPath(), nodes.getPath(), index.getPath());
+			final Map<String, MapNode> all = IOController.getAllNodes();
+			final MappedFile f = new MappedFile(ways.getPath());
+			final WayRecordDecoder decoder = new WayRecordDecoder(f, headerMap, (byte) '\t');
+			decoder.reset(f.getDataStart(), f.getLimit());
+			int count = 0;
+			while (decoder.next()) {
+				final MapWay way = decoder.toMapWay(all);
+				final StringBuilder encoded = new StringBuilder();
+				assertTrue(decoder.appendTo(encoded, all) == (way != null));
+				assertTrue(way == null || encoded.toString().equals(way.encodeObject()));
+				count += (way == null) ? 0 : 1;
+			}
+			assertTrue(count == 4);
+			assertTrue(!decoder.reset(f.getDataStart(), f.getDataStart()).next());
+		} catch (DataSetException | IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+	/**
+	 * Sets up from the test files, loading the nodes the way the server does before any chunk is asked for
+	 * 
+	 * @throws IOException file io
+	 * @throws DataSetException bad data
+	 * @throws MapException internal map issues
+	 */
+	private void setup() throws IOException, DataSetException, MapException {
+		IOController.setup(ways.getPath(), nodes.getPath(), index.getPath());
+		IOController.getAllNodes();
+	}
+	
+	/**
+	 * Encodes a chunk both ways from the current setup
+	 * 
+	 * @param p1 the first point
+	 * @param p2 the second point
+	 * @return true if the streamed chunk matches the encoded list of ways
+	 * @throws IOException file io
+	 * @throws DataSetException bad data
+	 */
+	private boolean sameChunk(final LatLongPoint p1, final LatLongPoint p2) throws IOException, DataSetException {
+		final List<MapWay> chunk = IOController.getChunkOfWays(p1, p2);
+		final StringBuilder ways = new StringBuilder();
+		final int size = IOController.encodeChunkOfWays(p1, p2, ways);
+		final StringBuilder streamed = new StringBuilder();
+		ProtocolManager.appendMapWayList(streamed, size, ways);
+		return size == chunk.size() && streamed.toString().equals(ProtocolManager.encodeMapWayList(chunk));
+	}
+	
+	@Test
+	public void chunkTest() {
+		final LatLongPoint p1 = new LatLongPoint(41.70, -71.25);
+		final LatLongPoint p2 = new LatLongPoint(41.71, -71.26);
+		final LatLongPoint p3 = new LatLongPoint(41.70, -71.26);
+		try {
+			setup();
+			assertTrue(IOController.getChunkOfWays(p1, p3).size() == 6);
+			assertTrue(IOController.getChunkOfWays(p1, p2).size() == 4);
+			assertTrue(sameChunk(p1, p2));
+			assertTrue(sameChunk(p1, p3));
+			IOController.tearDown();
+			
+			IOController.setMemoryMapped(false);
+			setup();
+			assertTrue(IOController.getChunkOfWays(p1, p2).size() == 4);
+			assertTrue(sameChunk(p1, p2));
+			IOController.tearDown();
+			
+			IOController.setMemoryMapped(true);
+			IOController.setPreload(true);
+			setup();
+			assertTrue(sameChunk(p1, p2));
+		} catch (DataSetException | IOException | MapException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+}
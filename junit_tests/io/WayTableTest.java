@@ -0,0 +1,109 @@
+package io;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import server.io.DataSetException;
+import server.io.MappedFile;
+import server.io.NodeTable;
+import server.io.WayTable;
+import data.LatLongPoint;
+import data.MapNode;
+import data.MapWay;
+
+@SuppressWarnings("static-method")
+public class WayTableTest {
+	
+	private File		file;
+	private NodeTable	nodes;
+	
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("ways", ".tsv");
+		final FileWriter w = new FileWriter(file);
+		w.write("id\tname\tstart\tend\n");
+		w.write("/w/4170.7125.1\tThayer Street\t/n/1\t/n/2\n");
+		w.write("/w/4170.7125.2\tThayer Street\t/n/2\t/n/3\n");
+		w.write("/w/4170.7126.1\tCushing Street\t/n/3\t/n/4\n");
+		w.write("/w/4170.7126.2\tCushing Street\t/n/4\t/n/9\n");
+		w.write("/w/4171.7125.1\tBrook Street\t/n/4\n");
+		w.close();
+		final List<MapNode> all = new ArrayList<>();
+		for (int i = 4; i > 0; i--) {
+			all.add(MapNode.create("/n/" + i, new LatLongPoint(41 + i, -71), null));
+		}
+		nodes = new NodeTable(all);
+	}
+	
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+	
+	/**
+	 * Checks both ways of loading the same file
+	 * 
+	 * @param table the loaded table
+	 * @throws DataSetException if the table isn't sorted
+	 */
+	private void checkTable(final WayTable table) throws DataSetException {
+		assertTrue(table.size() == 5);
+		assertTrue(table.isSorted());
+		
+		final int ordinal = table.find("/w/4170.7126.1");
+		assertTrue(ordinal == 2);
+		assertTrue(table.getID(ordinal).equals("/w/4170.7126.1"));
+		assertTrue(table.getName(ordinal).equals("Cushing Street"));
+		assertTrue(nodes.get(table.getStart(ordinal)).getID().equals("/n/3"));
+		final MapWay way = table.getMapWay(ordinal);
+		assertTrue(way.getName().equals("Cushing Street"));
+		assertTrue(way.getEnd().getID().equals("/n/4"));
+		
+		// Missing ways, and ways with missing nodes or columns
+		assertTrue(table.find("/w/4170.7126") == -1);
+		assertTrue(table.find("/w/4170.7126.10") == -1);
+		assertTrue(table.getEnd(table.find("/w/4170.7126.2")) == -1);
+		assertTrue(table.getMapWay(table.find("/w/4170.7126.2")) == null);
+		assertTrue(table.getMapWay(table.find("/w/4171.7125.1")) == null);
+		
+		assertTrue(table.getPage("/w/4170.7126", "/w/4170.7125").size() == 3);
+		assertTrue(table.getPage("/w/4169", "/w/4169").isEmpty());
+	}
+	
+	@Test
+	public void nodeTableTest() {
+		assertTrue(nodes.size() == 4);
+		assertTrue(nodes.find("/n/1") == 0);
+		assertTrue(nodes.find("/n/4") == 3);
+		assertTrue(nodes.find("/n/5") == -1);
+		assertTrue(nodes.getLat(nodes.find("/n/2")) == 43);
+	}
+	
+	@Test
+	public void loadTest() {
+		final Map<String, Integer> headerMap = new HashMap<>();
+		headerMap.put("id", 0);
+		headerMap.put("name", 1);
+		headerMap.put("start", 2);
+		headerMap.put("end", 3);
+		try {
+			checkTable(WayTable.load(new MappedFile(file.getPath()), headerMap, (byte) '\t', nodes));
+			checkTable(WayTable.load(file.getPath(), headerMap, "\\t", nodes));
+		} catch (DataSetException | IOException e) {
+			fail("Threw Exception");
+		}
+	}
+	
+}
@@ -0,0 +1,230 @@
+package kdtree;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import server.kdtree.FlatKDTree;
+import server.kdtree.KDTreeException;
+import data.LatLongPoint;
+import data.MapNode;
+
+@SuppressWarnings("static-method")
+public class FlatKDTreeTest {
+	
+	/**
+	 * @param count the number of nodes
+	 * @param seed the random seed
+	 * @return nodes at random points, a quarter of them on a coarse grid so some share coordinates
+	 */
+	private static List<MapNode> randomNodes(final int count, final long seed) {
+		final Random r = new Random(seed);
+		final List<MapNode> nodes = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			final LatLongPoint p = (i % 4 == 0) ? new LatLongPoint(r.nextInt(10), r.nextInt(10)) : new LatLongPoint(
+					r.nextDouble() * 10, r.nextDouble() * 10);
+			nodes.add(MapNode.create("/n/" + i, p, null));
+		}
+		return nodes;
+	}
+	
+	/**
+	 * @param node a node
+	 * @param query some coordinates
+	 * @return the squared distance between them
+	 */
+	private static double squared(final MapNode node, final double[] query) {
+		final double dLat = node.getLatitude() - query[0];
+		final double dLong = node.getLongitude() - query[1];
+		return dLat * dLat + dLong * dLong;
+	}
+	
+	@Test
+	public void invalidInit() {
+		try {
+			final FlatKDTree<MapNode> tree = new FlatKDTree<>(2, null);
+			assertTrue(tree != null);
+			fail("Should have thrown an Exception");
+		} catch (final KDTreeException e) {
+			assertTrue(e.getMessage().contains("null"));
+		}
+		try {
+			final FlatKDTree<MapNode> tree = new FlatKDTree<>(3, randomNodes(3, 1));
+			assertTrue(tree != null);
+			fail("Should have thrown an Exception");
+		} catch (final KDTreeException e) {
+			assertTrue(e.getMessage().contains("dimension"));
+		}
+	}
+	
+	@Test
+	public void emptyTree() {
+		try {
+			final FlatKDTree<MapNode> tree = new FlatKDTree<>(2, new ArrayList<MapNode>());
+			assertTrue(tree.size() == 0);
+			assertTrue(tree.nearest(new double[] { 1, 1 }) == -1);
+			assertTrue(tree.nNearestNeighbors(5, new double[] { 1, 1 }).isEmpty());
+			assertTrue(tree.nNearestNeighbors(-1, new double[] { 1, 1 }) == null);
+		} catch (final KDTreeException e) {
+			fail("KDTree threw exception");
+		}
+	}
+	
+	@Test
+	public void nearestTest() {
+		try {
+			final List<MapNode> nodes = randomNodes(5000, 7);
+			final FlatKDTree<MapNode> tree = new FlatKDTree<>(2, nodes);
+			assertTrue(tree.size() == nodes.size());
+			
+			// The nearest node is as near as the nearest of them all
+			final Random r = new Random(11);
+			for (int i = 0; i < 500; i++) {
+				final double[] query = { r.nextDouble() * 12 - 1, r.nextDouble() * 12 - 1 };
+				final int nearest = tree.nearest(query);
+				assertTrue(tree.get(nearest) == nodes.get(nearest));
+				double best = Double.MAX_VALUE;
+				for (final MapNode node : nodes) {
+					best = Math.min(best, squared(node, query));
+				}
+				assertTrue(squared(nodes.get(nearest), query) == best);
+			}
+		} catch (final KDTreeException e) {
+			fail("KDTree threw exception");
+		}
+	}
+	
+	@Test
+	public void parallelBuildTest() {
+		try {
+			// Big enough to be built in parallel, and as good as measuring every node
+			final List<MapNode> nodes = randomNodes(100000, 17);
+			final FlatKDTree<MapNode> tree = new FlatKDTree<>(2, nodes);
+			assertTrue(tree.size() == nodes.size());
+			final Random r = new Random(19);
+			for (int i = 0; i < 100; i++) {
+				final double[] query = { r.nextDouble() * 10, r.nextDouble() * 10 };
+				final List<MapNode> found = tree.nNearestNeighbors(10, query);
+				final List<MapNode> naive = tree.naiveNearest(10, query);
+				for (int j = 0; j < found.size(); j++) {
+					assertTrue(squared(found.get(j), query) == squared(naive.get(j), query));
+				}
+				assertTrue(squared(tree.get(tree.nearest(query)), query) == squared(naive.get(0), query));
+			}
+		} catch (final KDTreeException e) {
+			fail("KDTree threw exception");
+		}
+	}
+	
+	@Test
+	public void nNearestTest() {
+		try {
+			final List<MapNode> nodes = randomNodes(2000, 5);
+			final FlatKDTree<MapNode> tree = new FlatKDTree<>(2, nodes);
+			
+			// Same distances as measuring every node, nearest first, and every node once
+			final Random r = new Random(13);
+			for (final int n : new int[] { 1, 7, 100, 2000, 3000 }) {
+				final double[] query = { r.nextDouble() * 10, r.nextDouble() * 10 };
+				final List<MapNode> found = tree.nNearestNeighbors(n, query);
+				final List<MapNode> naive = tree.naiveNearest(n, query);
+				assertTrue(found.size() == Math.min(n, nodes.size()));
+				assertTrue(found.size() == naive.size());
+				for (int i = 0; i < found.size(); i++) {
+					assertTrue(squared(found.get(i), query) == squared(naive.get(i), query));
+					assertTrue(i == 0 || squared(found.get(i), query) >= squared(found.get(i - 1), query));
+				}
+				if (n >= nodes.size()) {
+					assertTrue(found.containsAll(nodes));
+				}
+			}
+		} catch (final KDTreeException e) {
+			fail("KDTree threw exception");
+		}
+	}
+	
+	@Test
+	public void bufferTest() {
+		try {
+			final List<MapNode> nodes = randomNodes(3000, 23);
+			final FlatKDTree<MapNode> tree = new FlatKDTree<>(2, nodes);
+			
+			// The same buffers serve every query, and hold the same nodes as the list
+			final int[] found = new int[16];
+			final double[] distances = new double[16];
+			final Random r = new Random(29);
+			for (int i = 0; i < 200; i++) {
+				final double[] query = { r.nextDouble() * 10, r.nextDouble() * 10 };
+				assertTrue(tree.nNearest(query, found, distances) == found.length);
+				final List<MapNode> expected = tree.nNearestNeighbors(found.length, query);
+				for (int j = 0; j < found.length; j++) {
+					assertTrue(distances[j] == squared(nodes.get(found[j]), query));
+					assertTrue(distances[j] == squared(expected.get(j), query));
+				}
+			}
+			
+			// A buffer larger than the tree is only partly filled, and an empty one not at all
+			final FlatKDTree<MapNode> small = new FlatKDTree<>(2, randomNodes(5, 31));
+			assertTrue(small.nNearest(new double[] { 1, 1 }, found, distances) == 5);
+			assertTrue(distances[0] <= distances[4]);
+			assertTrue(small.nNearest(new double[] { 1, 1 }, new int[0], new double[0]) == 0);
+		} catch (final KDTreeException e) {
+			fail("KDTree threw exception");
+		}
+	}
+	
+	@Test
+	public void batchTest() {
+		try {
+			final List<MapNode> nodes = randomNodes(20000, 37);
+			final FlatKDTree<MapNode> tree = new FlatKDTree<>(2, nodes);
+			
+			// Large and small batches get the same answers as one query at a time, in the order asked
+			final Random r = new Random(41);
+			for (final int count : new int[] { 0, 1, 100, 5000 }) {
+				final double[] queries = new double[2 * count];
+				for (int i = 0; i < queries.length; i++) {
+					queries[i] = r.nextDouble() * 10;
+				}
+				final int[] nearest = tree.nearestAll(queries);
+				assertTrue(nearest.length == count);
+				for (int i = 0; i < count; i++) {
+					assertTrue(nearest[i] == tree.nearest(new double[] { queries[2 * i], queries[2 * i + 1] }));
+				}
+			}
+			
+			// Every query at one point, and an empty tree
+			final int[] same = tree.nearestAll(new double[] { 5, 5, 5, 5, 5, 5 });
+			assertTrue(same[0] == same[1] && same[1] == same[2]);
+			final int[] none = new FlatKDTree<>(2, new ArrayList<MapNode>()).nearestAll(new double[] { 1, 1 });
+			assertTrue(none.length == 1 && none[0] == -1);
+		} catch (final KDTreeException e) {
+			fail("KDTree threw exception");
+		}
+	}
+	
+	@Test
+	public void duplicatesTest() {
+		try {
+			// Every node at the same point is kept
+			final List<MapNode> nodes = new ArrayList<>();
+			for (int i = 0; i < 50; i++) {
+				nodes.add(MapNode.create("/n/" + i, new LatLongPoint(1, 1), null));
+			}
+			nodes.add(MapNode.create("/n/far", new LatLongPoint(5, 5), null));
+			final FlatKDTree<MapNode> tree = new FlatKDTree<>(2, nodes);
+			final List<MapNode> found = tree.nNearestNeighbors(51, new double[] { 0, 0 });
+			assertTrue(found.size() == 51);
+			assertTrue(found.get(50).getID().equals("/n/far"));
+			assertTrue(tree.get(tree.nearest(new double[] { 4, 4 })).getID().equals("/n/far"));
+		} catch (final KDTreeException e) {
+			fail("KDTree threw exception");
+		}
+	}
+	
+}
@@ -24,6 +24,9 @@ public class ProtocolManager {
 	static final String			NODE_TAG			= "<node:";
 	static final String			WAY_LIST_TAG		= "<list:way:";
 	static final String			STRING_LIST_TAG		= "<list:string:";
+	static final String			LLP_LIST_TAG		= "<list:llp:";
+	static final String			MATRIX_TAG			= "<matrix:";
+	static final String			NO_DISTANCE			= "-";
 	
 	static final String			CLOSE_TAG			= ">";
 	
@@ -41,6 +44,7 @@ public class ProtocolManager {
 	public static final String	TYPE_TRAFFIC		= "tr";
 	public static final String	TYPE_ERROR			= "er";
 	public static final String	TYPE_HEARTBEAT		= "hb";
+	public static final String	TYPE_MATRIX			= "dm";
 	
 	public static final String	Q_AC				= HEADER_QUERY + DELIM + TYPE_AUTOCORRECT + DELIM;
 	public static final String	Q_RS				= HEADER_QUERY + DELIM + TYPE_ROUTE_STREET + DELIM;
@@ -48,6 +52,7 @@ public class ProtocolManager {
 	public static final String	Q_MC				= HEADER_QUERY + DELIM + TYPE_CHUNK + DELIM;
 	public static final String	Q_TR				= HEADER_QUERY + DELIM + TYPE_TRAFFIC + DELIM;
 	public static final String	Q_HB				= HEADER_QUERY + DELIM + TYPE_HEARTBEAT + DELIM;
+	public static final String	Q_DM				= HEADER_QUERY + DELIM + TYPE_MATRIX + DELIM;
 	
 	public static final String	R_AC				= HEADER_RESPONSE + DELIM + TYPE_AUTOCORRECT + DELIM;
 	public static final String	R_RS				= HEADER_RESPONSE + DELIM + TYPE_ROUTE_STREET + DELIM;
@@ -55,6 +60,7 @@ public class ProtocolManager {
 	public static final String	R_MC				= HEADER_RESPONSE + DELIM + TYPE_CHUNK + DELIM;
 	public static final String	R_ER				= HEADER_RESPONSE + DELIM + TYPE_ERROR + DELIM;
 	public static final String	R_TR				= HEADER_RESPONSE + DELIM + TYPE_TRAFFIC + DELIM;
+	public static final String	R_DM				= HEADER_RESPONSE + DELIM + TYPE_MATRIX + DELIM;
 	
 	/**
 	 * Takes a string and returns the number of lines that it says will be coming
@@ -266,6 +272,71 @@ public class ProtocolManager {
 		return strings;
 	}
 	
+	/**
+	 * Parses a reader representing a stream to a list of lat long points, rejecting a list longer than the given
+	 * size before reading any of it
+	 * 
+	 * @param reader the reader
+	 * @param max the most points the list may have
+	 * @return the points
+	 * @throws ParseException if something wasn't as expected, or the list was too long
+	 * @throws IOException if the reader failed
+	 */
+	public static List<LatLongPoint> parseLatLongList(final BufferedReader reader, final int max)
+			throws ParseException, IOException {
+		final String line = reader.readLine();
+		checkForOpeningTag(line, LLP_LIST_TAG);
+		final int numLines = getNumberOfLines(line);
+		if (numLines < 0 || numLines > max) {
+			throw new ParseException("Invalid number of points: " + numLines);
+		}
+		
+		// For the number of points that exist, read them!
+		final List<LatLongPoint> points = new ArrayList<>(numLines);
+		for (int i = 0; i < numLines; i++) {
+			points.add(parseLatLongPoint(reader));
+		}
+		checkForClosingTag(reader.readLine());
+		return points;
+	}
+	
+	/**
+	 * Parses a reader representing a server's stream to a distance matrix
+	 * 
+	 * @param reader the reader
+	 * @return the distances by origin then destination, Double.POSITIVE_INFINITY where there is no path
+	 * @throws ParseException if something wasn't as expected
+	 * @throws IOException if the reader failed
+	 */
+	public static double[][] parseDistanceMatrix(final BufferedReader reader) throws ParseException, IOException {
+		String line = reader.readLine();
+		checkForOpeningTag(line, MATRIX_TAG);
+		final String[] size = line.substring(MATRIX_TAG.length()).split(DELIM);
+		if (size.length != 2) {
+			throw new ParseException("Invalid Matrix Size: " + line);
+		}
+		try {
+			final double[][] matrix = new double[Integer.parseInt(size[0])][Integer.parseInt(size[1])];
+			for (final double[] row : matrix) {
+				line = reader.readLine();
+				if (line == null) {
+					throw new ParseException("Null line in parsing distance matrix");
+				}
+				final String[] values = line.isEmpty() ? new String[0] : line.split(LLP_DELIM);
+				if (values.length != row.length) {
+					throw new ParseException("Wrong number of distances: " + line);
+				}
+				for (int j = 0; j < row.length; j++) {
+					row[j] = values[j].equals(NO_DISTANCE) ? Double.POSITIVE_INFINITY : Double.parseDouble(values[j]);
+				}
+			}
+			checkForClosingTag(reader.readLine());
+			return matrix;
+		} catch (final NumberFormatException e) {
+			throw new ParseException("Invalid Number Format");
+		}
+	}
+	
 	/**
 	 * Parses traffic data into an entry set
 	 * 
@@ -311,6 +382,101 @@ public class ProtocolManager {
 		return build.toString();
 	}
 	
+	/**
+	 * Appends the encoding of a single map way, exactly as MapWay.encodeObject would give it. Lets a caller encode
+	 * ways it has only read the fields of, without creating a MapWay for each
+	 * 
+	 * @param build the builder to append to
+	 * @param id the id of the way
+	 * @param name the name of the way
+	 * @param start the start node
+	 * @param end the end node
+	 */
+	public static void appendMapWay(final StringBuilder build, final CharSequence id, final CharSequence name,
+			final MapNode start, final MapNode end) {
+		build.append(WAY_TAG).append("\n");
+		build.append(id).append("\n");
+		build.append(name).append("\n");
+		appendMapNode(build, start);
+		appendMapNode(build, end);
+		build.append(CLOSE_TAG).append("\n");
+	}
+	
+	/**
+	 * Appends the encoding of a single map node, exactly as MapNode.encodeObject would give it
+	 * 
+	 * @param build the builder to append to
+	 * @param node the node
+	 */
+	private static void appendMapNode(final StringBuilder build, final MapNode node) {
+		build.append(node.getID()).append("\n");
+		build.append(LLP_TAG).append(node.getLatitude()).append(LLP_DELIM).append(node.getLongitude()).append("\n");
+	}
+	
+	/**
+	 * Appends a list of already encoded map ways, the same as encodeMapWayList would give it
+	 * 
+	 * @param build the builder to append to
+	 * @param size the number of ways
+	 * @param ways the ways, each encoded with appendMapWay
+	 */
+	public static void appendMapWayList(final StringBuilder build, final int size, final CharSequence ways) {
+		build.append(WAY_LIST_TAG);
+		build.append(size);
+		build.append("\n");
+		build.append(ways);
+		build.append(CLOSE_TAG);
+		build.append("\n"); // Closes list
+	}
+	
+	/**
+	 * Encodes list of lat long points to a string to send
+	 * 
+	 * @param points a list that we want to encode
+	 * @return a new string to send through a socket
+	 */
+	public static String encodeLatLongList(final List<LatLongPoint> points) {
+		final StringBuilder build = new StringBuilder(32 * points.size() + 16);
+		build.append(LLP_LIST_TAG);
+		build.append(points.size());
+		build.append("\n");
+		for (final LatLongPoint point : points) {
+			build.append(point.encodeObject());
+		}
+		build.append(CLOSE_TAG);
+		build.append("\n"); // Closes list
+		return build.toString();
+	}
+	
+	/**
+	 * Encodes a distance matrix to a string to send: its size, then a line of distances for each origin, with
+	 * NO_DISTANCE where there is no path
+	 * 
+	 * @param matrix the distances by origin then destination
+	 * @return a new string to send through a socket
+	 */
+	public static String encodeDistanceMatrix(final double[][] matrix) {
+		final int cols = (matrix.length == 0) ? 0 : matrix[0].length;
+		final StringBuilder build = new StringBuilder(matrix.length * cols * 12 + 32);
+		build.append(MATRIX_TAG).append(matrix.length).append(DELIM).append(cols).append("\n");
+		for (final double[] row : matrix) {
+			for (int j = 0; j < row.length; j++) {
+				if (j > 0) {
+					build.append(LLP_DELIM);
+				}
+				if (row[j] == Double.POSITIVE_INFINITY) {
+					build.append(NO_DISTANCE);
+				} else {
+					build.append(row[j]);
+				}
+			}
+			build.append("\n");
+		}
+		build.append(CLOSE_TAG);
+		build.append("\n");
+		return build.toString();
+	}
+	
 	/**
 	 * Encodes list of string to a string to send
 	 * 
@@ -1,14 +1,24 @@
 package main;
 
+import static main.Utils.USAGE_BENCH;
 import static main.Utils.USAGE_CLIENT;
+import static main.Utils.USAGE_HIERARCHY;
+import static main.Utils.USAGE_LANDMARKS;
 import static main.Utils.USAGE_SERVER;
+import static main.Utils.USAGE_SNAPSHOT;
 
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import server.core.ServerApp;
+import server.graph.GraphController;
+import server.graph.Landmarks;
+import server.graph.RoadGraph;
+import server.graph.RoadSearch;
+import server.io.IOController;
 import client.ArgParser;
 import client.ClientApp;
 import data.MapException;
@@ -32,9 +42,152 @@ public class Main {
 	public static ArgParser createFlagParser(final int possibleArgs) {
 		final Map<String, Class<?>> possibleFlags = new HashMap<>();
 		possibleFlags.put(Utils.DEBUG, null);
+		possibleFlags.put(Utils.PRELOAD, null);
+		possibleFlags.put(Utils.BIDIRECTIONAL, null);
 		return new ArgParser(possibleFlags, possibleArgs);
 	}
 	
+	/**
+	 * Parses the ways, nodes and index files and writes a snapshot of them, which the server starts from next time
+	 * 
+	 * @param args command line args, starting with "snapshot"
+	 */
+	private static void writeSnapshot(final String[] args) {
+		final ArgParser parser = createFlagParser(4);
+		try {
+			parser.parse(args);
+		} catch (final IllegalArgumentException e) {
+			Utils.printError(e.getMessage());
+			System.out.println(USAGE_SNAPSHOT);
+			return;
+		}
+		final List<String> files = parser.getArguments();
+		try {
+			IOController.setup(files.get(1), files.get(2), files.get(3));
+			System.out.println(String.format("Wrote snapshot to %s", IOController.writeSnapshot()));
+		} catch (final IOException | MapException e) {
+			Utils.printError(String.format("Couldn't write snapshot: %s", e.getMessage()));
+		}
+	}
+	
+	/**
+	 * Contracts the road graph of the ways, nodes and index files and writes the hierarchy, which the server answers
+	 * routes with neutral traffic from
+	 * 
+	 * @param args command line args, starting with "hierarchy"
+	 */
+	private static void writeHierarchy(final String[] args) {
+		final ArgParser parser = createFlagParser(4);
+		try {
+			parser.parse(args);
+		} catch (final IllegalArgumentException e) {
+			Utils.printError(e.getMessage());
+			System.out.println(USAGE_HIERARCHY);
+			return;
+		}
+		final List<String> files = parser.getArguments();
+		try {
+			IOController.setup(files.get(1), files.get(2), files.get(3));
+			System.out.println(String.format("Wrote hierarchy to %s", GraphController.writeHierarchy()));
+		} catch (final IOException | MapException e) {
+			Utils.printError(String.format("Couldn't write hierarchy: %s", e.getMessage()));
+		}
+	}
+	
+	/**
+	 * Picks landmarks of the road graph of the ways, nodes and index files and writes their distance tables, which the
+	 * server guides routes with traffic by
+	 * 
+	 * @param args command line args, starting with "landmarks"
+	 */
+	private static void writeLandmarks(final String[] args) {
+		final ArgParser parser = createFlagParser(5);
+		final int count;
+		try {
+			parser.parse(args);
+			count = Integer.parseInt(parser.getArguments().get(4));
+		} catch (final IllegalArgumentException e) {
+			Utils.printError(e.getMessage());
+			System.out.println(USAGE_LANDMARKS);
+			return;
+		}
+		final List<String> files = parser.getArguments();
+		try {
+			IOController.setup(files.get(1), files.get(2), files.get(3));
+			System.out.println(String.format("Wrote landmarks to %s", GraphController.writeLandmarks(count)));
+		} catch (final IOException | MapException e) {
+			Utils.printError(String.format("Couldn't write landmarks: %s", e.getMessage()));
+		}
+	}
+	
+	/**
+	 * Routes between random pairs of nodes with and without the A* heuristic, and with landmarks if they were written,
+	 * each from one end and from both, and prints how many nodes each expanded and how long each took
+	 * 
+	 * @param args command line args, starting with "benchmark"
+	 */
+	private static void benchmarkRoutes(final String[] args) {
+		final ArgParser parser = createFlagParser(5);
+		final int routes;
+		try {
+			parser.parse(args);
+			routes = Integer.parseInt(parser.getArguments().get(4));
+		} catch (final IllegalArgumentException e) {
+			Utils.printError(e.getMessage());
+			System.out.println(USAGE_BENCH);
+			return;
+		}
+		final List<String> files = parser.getArguments();
+		try {
+			IOController.setup(files.get(1), files.get(2), files.get(3));
+			final RoadGraph graph = GraphController.getRoadGraph();
+			final RoadSearch search = RoadSearch.forGraph(graph);
+			final Random r = new Random(0);
+			final int[] pairs = new int[routes * 2];
+			for (int i = 0; i < pairs.length; i++) {
+				pairs[i] = r.nextInt(graph.size());
+			}
+			final Landmarks landmarks = GraphController.getLandmarks();
+			final double[] scales = { 0, graph.getHeuristicScale(null), graph.getHeuristicScale(null),
+				graph.getHeuristicScale(null), graph.getHeuristicScale(null) };
+			final String[] names = { "Dijkstra", "A*", "ALT", "Bidirectional A*", "Bidirectional ALT" };
+			final double[] lengths = new double[routes];
+			for (int s = 0; s < names.length; s++) {
+				if (landmarks == null && (s == 2 || s == 4)) {
+					continue;
+				}
+				long expanded = 0;
+				int differ = 0;
+				final long start = System.nanoTime();
+				for (int i = 0; i < routes; i++) {
+					final double length;
+					if (s >= 3) {
+						search.bidirectionalPath(pairs[2 * i], pairs[2 * i + 1], null, (s == 4) ? landmarks : null);
+						length = search.getLength();
+					} else {
+						if (s == 2) {
+							search.shortestPath(pairs[2 * i], pairs[2 * i + 1], null, landmarks);
+						} else {
+							search.shortestPath(pairs[2 * i], pairs[2 * i + 1], null, scales[s]);
+						}
+						length = search.getDistance(pairs[2 * i + 1]);
+					}
+					expanded += search.getExpanded();
+					if (s == 0) {
+						lengths[i] = length;
+					} else if (Math.abs(length - lengths[i]) > 1e-9) {
+						differ++;
+					}
+				}
+				final double ms = (System.nanoTime() - start) / 1e6;
+				System.out.println(String.format("%s (heuristic scale %.4f): %d nodes expanded, %.1f ms, "
+					+ "%d lengths differ", names[s], scales[s], expanded, ms, differ));
+			}
+		} catch (final IOException | MapException e) {
+			Utils.printError(String.format("Couldn't run benchmark: %s", e.getMessage()));
+		}
+	}
+	
 	/**
 	 * Main method - parses command line arguments and starts REPL or GUI
 	 * 
@@ -47,6 +200,22 @@ public class Main {
 			Utils.printError("You messed up the executables (required args missing)");
 			return;
 		}
+		if (args[0].equals("snapshot")) {
+			writeSnapshot(args);
+			return;
+		}
+		if (args[0].equals("hierarchy")) {
+			writeHierarchy(args);
+			return;
+		}
+		if (args[0].equals("landmarks")) {
+			writeLandmarks(args);
+			return;
+		}
+		if (args[0].equals("benchmark")) {
+			benchmarkRoutes(args);
+			return;
+		}
 		Boolean isClient = null;
 		ArgParser parser = new ArgParser(null);
 		final String type = args[0];
@@ -88,6 +257,8 @@ public class Main {
 				final String hostName = appInfo.get(4);
 				final int trafficPort = Integer.parseInt(appInfo.get(5));
 				final int serverPort = Integer.parseInt(appInfo.get(6));
+				IOController.setPreload(parser.existsFlag(Utils.PRELOAD));
+				GraphController.setBidirectional(parser.existsFlag(Utils.BIDIRECTIONAL));
 				a = new ServerApp(ways, nodes, index, hostName, trafficPort, serverPort);
 			}
 		} catch (final IOException | MapException e) {
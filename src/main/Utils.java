@@ -17,8 +17,15 @@ public abstract class Utils {
 	public static final String	APP_NAME		= "Traffic";
 	public static final String	APP_ABOUT		= "aiguha and dgattey";
 	public static final String	USAGE_CLIENT	= "Usage: trafficClient hostname serverport [--debug]";
-	public static final String	USAGE_SERVER	= "Usage: trafficServer ways nodes index hostname trafficport serverport";
+	public static final String	USAGE_SERVER	= "Usage: trafficServer ways nodes index hostname trafficport serverport "
+													+ "[--preload] [--bidirectional]";
+	public static final String	USAGE_SNAPSHOT	= "Usage: main.Main snapshot ways nodes index";
+	public static final String	USAGE_HIERARCHY	= "Usage: main.Main hierarchy ways nodes index";
+	public static final String	USAGE_LANDMARKS	= "Usage: main.Main landmarks ways nodes index count";
+	public static final String	USAGE_BENCH		= "Usage: main.Main benchmark ways nodes index routes";
 	public static final String	DEBUG			= "debug";
+	public static final String	PRELOAD			= "preload";
+	public static final String	BIDIRECTIONAL	= "bidirectional";
 	private static Socket		testSocket;
 	
 	/**
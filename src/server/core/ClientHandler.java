@@ -74,6 +74,9 @@ public class ClientHandler extends Thread {
 			case ProtocolManager.Q_MC:
 				_server.getRC().mapDataResponse(_input, _output);
 				break;
+			case ProtocolManager.Q_DM:
+				_server.getRC().distanceMatrixResponse(_input, _output);
+				break;
 			default:
 				_server.getRC().errorResponse(_output, null);
 				
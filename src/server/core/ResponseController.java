@@ -3,6 +3,7 @@ package server.core;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -43,6 +44,15 @@ public class ResponseController {
 			throws MapException, IOException {
 		IOController.setup(ways, nodes, index);
 		_kdtree = new KDTreeController();
+		// Builds the street index now rather than on the first route by streets
+		IOController.getStreetIndex();
+		// In preload mode, likewise the road graph and the segments of it that clicks are snapped to. Otherwise they
+		// are built in the background, reading every way, while the server answers what doesn't need them
+		if (IOController.isPreload()) {
+			GraphController.getRoadGraph();
+		} else {
+			GraphController.buildRoadGraph();
+		}
 		_autocorrect = new ACController();
 		setTrafficController(t);
 	}
@@ -138,7 +148,7 @@ public class ResponseController {
 	}
 	
 	/**
-	 * Parses request and produces routes from clicks
+	 * Parses request and produces routes from clicks, each snapped to the nearest point of any road
 	 * 
 	 * @param r reader
 	 * @param w writer
@@ -153,12 +163,8 @@ public class ResponseController {
 			final LatLongPoint p1 = ProtocolManager.parseLatLongPoint(r);
 			final LatLongPoint p2 = ProtocolManager.parseLatLongPoint(r);
 			
-			// Find Closest Neighbors
-			final MapNode n1 = _kdtree.getNeighbor(p1);
-			final MapNode n2 = _kdtree.getNeighbor(p2);
-			
-			// Find Route
-			final List<MapWay> route = GraphController.getShortestPathWays(n1, n2);
+			// Find the route between the nearest points on the roads
+			final List<MapWay> route = GraphController.getShortestPathWays(p1, p2);
 			
 			// Build Response
 			final StringBuilder response = new StringBuilder(256);
@@ -175,6 +181,58 @@ public class ResponseController {
 		
 	}
 	
+	/**
+	 * Parses request and produces a distance matrix from a list of origin points to a list of destination points,
+	 * each snapped to its nearest node
+	 * 
+	 * @param r reader
+	 * @param w writer
+	 * @throws IOException if reading or writing failed
+	 */
+	public void distanceMatrixResponse(final BufferedReader r, final Writer w) throws IOException {
+		if (!isReady()) {
+			return;
+		}
+		try {
+			// Parse the origins and destinations, no more of each than a matrix may have
+			final int limit = GraphController.getMatrixLimit();
+			final List<LatLongPoint> origins = ProtocolManager.parseLatLongList(r, limit);
+			final List<LatLongPoint> destinations = ProtocolManager.parseLatLongList(r, limit);
+			ProtocolManager.checkForResponseFooter(r.readLine());
+			
+			// Find Closest Neighbors, all at once
+			final List<MapNode> from = new ArrayList<>(origins.size());
+			for (final int ordinal : _kdtree.getNeighbors(origins)) {
+				from.add(_kdtree.getNode(ordinal));
+			}
+			final List<MapNode> to = new ArrayList<>(destinations.size());
+			for (final int ordinal : _kdtree.getNeighbors(destinations)) {
+				to.add(_kdtree.getNode(ordinal));
+			}
+			
+			// Find Distances, failing rather than sending a partial matrix
+			final double[][] matrix = GraphController.getDistanceMatrix(from, to);
+			if (matrix == null) {
+				errorResponse(w, null);
+				return;
+			}
+			
+			// Build Response
+			final String encoded = ProtocolManager.encodeDistanceMatrix(matrix);
+			final StringBuilder response = new StringBuilder(encoded.length() + 32);
+			response.append(ProtocolManager.R_DM);
+			response.append("\n");
+			response.append(encoded);
+			response.append(ProtocolManager.FOOTER);
+			response.append("\n");
+			w.write(response.toString());
+			w.flush();
+		} catch (final ParseException | MapException e) {
+			errorResponse(w, e);
+		}
+		
+	}
+	
 	/**
 	 * Parses request and produces a map chunk
 	 * 
@@ -191,15 +249,16 @@ public class ResponseController {
 			final LatLongPoint p1 = ProtocolManager.parseLatLongPoint(r);
 			final LatLongPoint p2 = ProtocolManager.parseLatLongPoint(r);
 			
-			// Find corresponding mapchunk
-			final List<MapWay> chunk = IOController.getChunkOfWays(p1, p2);
+			// Encode corresponding mapchunk straight from the data
+			final StringBuilder ways = new StringBuilder(4096);
+			final int size = IOController.encodeChunkOfWays(p1, p2, ways);
 			ProtocolManager.checkForResponseFooter(r.readLine());
 			
 			// Build Response
-			final StringBuilder response = new StringBuilder(256);
+			final StringBuilder response = new StringBuilder(ways.length() + 256);
 			response.append(ProtocolManager.R_MC);
 			response.append("\n");
-			response.append(ProtocolManager.encodeMapWayList(chunk));
+			ProtocolManager.appendMapWayList(response, size, ways);
 			response.append(ProtocolManager.FOOTER);
 			response.append("\n");
 			w.write(response.toString());
@@ -5,6 +5,7 @@ import java.net.ServerSocket;
 import java.net.Socket;
 
 import main.Utils;
+import server.io.IOController;
 import data.MapException;
 
 /**
@@ -43,6 +44,9 @@ public class Server extends Thread {
 		System.out.println("Server is loading...");
 		_traffic = new TrafficController(hostName, trafficPort);
 		_response = new ResponseController(ways, nodes, index, _traffic);
+		if (IOController.isFromSnapshot()) {
+			System.out.println("Started from snapshot");
+		}
 		_socket = new ServerSocket(serverPort);
 		System.out.println("Loaded server! Type \"status\" to see what's happening");
 	}
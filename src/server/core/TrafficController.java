@@ -8,6 +8,7 @@ import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 
 import main.Utils;
+import server.graph.GraphController;
 import data.ProtocolManager;
 
 public class TrafficController {
@@ -93,6 +94,7 @@ public class TrafficController {
 			final Entry<String, Double> traffic = ProtocolManager.parseTrafficData(line);
 			if (traffic != null) {
 				trafficMap.put(traffic.getKey(), traffic.getValue());
+				GraphController.trafficChanged();
 				clients.broadcast(line);
 			}
 		}
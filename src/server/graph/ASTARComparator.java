@@ -12,6 +12,8 @@ import java.util.Comparator;
 public class ASTARComparator<T extends Graphable<T>, S extends Weighable<S>> implements Comparator<GraphNode<T, S>> {
 	
 	private final GraphNode<T, S>	target;
+	// Multiplier of the exact straight line heuristic, or -1 for the truncated one
+	private final double			scale;
 	
 	/**
 	 * Creates a comparator with target as the target graph node
@@ -20,13 +22,50 @@ public class ASTARComparator<T extends Graphable<T>, S extends Weighable<S>> imp
 	 */
 	public ASTARComparator(final GraphNode<T, S> target) {
 		this.target = target;
+		scale = -1;
+	}
+	
+	/**
+	 * Creates a comparator with target as the target graph node, using the exact straight line distance to the target
+	 * times a scale as the heuristic. This is the same metric as MapWay.getWeight, so with the scale at most the
+	 * lowest traffic multiplier the heuristic never overestimates and A* still finds shortest paths
+	 * 
+	 * @param target the graph node we're moving toward
+	 * @param scale the multiplier of the straight line distance, at least 0
+	 */
+	public ASTARComparator(final GraphNode<T, S> target, final double scale) {
+		this.target = target;
+		this.scale = Math.max(0, scale);
 	}
 	
 	@Override
 	public int compare(final GraphNode<T, S> o1, final GraphNode<T, S> o2) {
+		if (scale >= 0) {
+			return Double.compare(o1.getDistance() + scale * flatHeuristic(o1),
+					o2.getDistance() + scale * flatHeuristic(o2));
+		}
 		return (int) Math.signum(o1.getDistance() - o2.getDistance() + heuristic(o1) - heuristic(o2));
 	}
 	
+	/**
+	 * Calculates the exact straight line distance to the target
+	 * 
+	 * @param node the node to be calculated for
+	 * @return the node's distance to the target, or 0 if either has no coordinates
+	 */
+	private double flatHeuristic(final GraphNode<T, S> node) {
+		final double[] c1 = node.getValue().getCoords();
+		final double[] c2 = target.getValue().getCoords();
+		if (c1 == null || c2 == null) {
+			return 0;
+		}
+		double dist = 0;
+		for (int i = 0; i < c1.length; i++) {
+			dist += Math.pow((c1[i] - c2[i]), 2);
+		}
+		return Math.sqrt(dist);
+	}
+	
 	/**
 	 * Calculates a heuristic for use in Dijkstra's - Euclidean distance here
 	 * 
@@ -0,0 +1,438 @@
+package server.graph;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A multi-level partition of a RoadGraph for customizable route planning. The nodes are split in half by latitude or
+ * longitude, whichever spreads wider, again and again until every piece is small: those pieces are the cells of level
+ * 1, and each level above joins 2^shift cells of the level below into one. An edge between two cells of a level
+ * makes its source an exit and its target an entry of their cells at that level.<br>
+ * The partition depends on the map alone and is built once. Traffic only changes the metric (see OverlayMetric): the
+ * distance inside each cell from each of its entries to each of its exits. Customizing to new traffic recomputes
+ * these for just the cells holding an edge whose weight changed, bottom level first, each from the level below, and
+ * publishes a new metric while searches (see OverlaySearch) carry on with the old one
+ * 
+ * @author aiguha
+ */
+public class CellOverlay {
+	
+	// Most nodes in a cell of level 1, and how many times bigger each level is than the one below (as a power of 2)
+	private static final int	CELL_SIZE	= 128;
+	private static final int	SHIFT		= 4;
+	
+	private final RoadGraph		graph;
+	private final int			shift;
+	private final int			levels;
+	// Cell of level 1 each node is in. A node's cell at level l is this shifted right by shift * (l - 1)
+	private final int[]			leaf;
+	private final int			depth;
+	// By level - 1: each cell's entries and exits as compressed rows, and each node's index among its cell's
+	// entries and exits, or -1 if it's not one
+	private final int[][]		entryOffsets;
+	private final int[][]		entryNodes;
+	private final int[][]		entryIndex;
+	private final int[][]		exitOffsets;
+	private final int[][]		exitNodes;
+	private final int[][]		exitIndex;
+	
+	private volatile OverlayMetric	metric;
+	
+	// Customization search state, stamped per search
+	private final IndexedHeap	heap;
+	private final double[]		distances;
+	private final int[]			reached;
+	private int					search;
+	
+	/**
+	 * Partitions a graph into cells of at most 128 nodes, with each level 16 times bigger than the one below
+	 * 
+	 * @param graph the road graph
+	 */
+	public CellOverlay(final RoadGraph graph) {
+		this(graph, CELL_SIZE, SHIFT);
+	}
+	
+	/**
+	 * Partitions a graph
+	 * 
+	 * @param graph the road graph
+	 * @param cellSize the most nodes in a cell of level 1
+	 * @param shift each level has 2^shift times fewer cells than the one below
+	 */
+	public CellOverlay(final RoadGraph graph, final int cellSize, final int shift) {
+		this.graph = graph;
+		this.shift = shift;
+		final int size = graph.size();
+		int d = 0;
+		while (((size - 1) >> d) + 1 > cellSize) {
+			d++;
+		}
+		depth = d;
+		// Every level with more than one cell
+		levels = (depth + shift - 1) / shift;
+		leaf = new int[size];
+		final int[] order = new int[size];
+		for (int u = 0; u < size; u++) {
+			order[u] = u;
+		}
+		bisect(order, 0, size, 0, 0);
+		entryOffsets = new int[levels][];
+		entryNodes = new int[levels][];
+		entryIndex = new int[levels][];
+		exitOffsets = new int[levels][];
+		exitNodes = new int[levels][];
+		exitIndex = new int[levels][];
+		for (int level = 1; level <= levels; level++) {
+			final boolean[] entry = new boolean[size];
+			final boolean[] exit = new boolean[size];
+			for (int u = 0; u < size; u++) {
+				for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+					final int v = graph.getTarget(e);
+					if (getCell(level, u) != getCell(level, v)) {
+						exit[u] = true;
+						entry[v] = true;
+					}
+				}
+			}
+			entryOffsets[level - 1] = new int[cellCount(level) + 1];
+			entryIndex[level - 1] = new int[size];
+			entryNodes[level - 1] = group(level, entry, entryOffsets[level - 1], entryIndex[level - 1]);
+			exitOffsets[level - 1] = new int[cellCount(level) + 1];
+			exitIndex[level - 1] = new int[size];
+			exitNodes[level - 1] = group(level, exit, exitOffsets[level - 1], exitIndex[level - 1]);
+		}
+		heap = new IndexedHeap(size);
+		distances = new double[size];
+		reached = new int[size];
+	}
+	
+	/**
+	 * Splits a range of nodes in half along its wider side and recurses on each half, until the pieces are cells
+	 * 
+	 * @param order the nodes, to be rearranged
+	 * @param lo the start of the range
+	 * @param hi the end of the range
+	 * @param id the piece the range is
+	 * @param at the number of splits above the range
+	 */
+	private void bisect(final int[] order, final int lo, final int hi, final int id, final int at) {
+		if (at == depth) {
+			for (int i = lo; i < hi; i++) {
+				leaf[order[i]] = id;
+			}
+			return;
+		}
+		double minLat = Double.MAX_VALUE;
+		double maxLat = -Double.MAX_VALUE;
+		double minLong = Double.MAX_VALUE;
+		double maxLong = -Double.MAX_VALUE;
+		for (int i = lo; i < hi; i++) {
+			minLat = Math.min(minLat, graph.getNodes().getLat(order[i]));
+			maxLat = Math.max(maxLat, graph.getNodes().getLat(order[i]));
+			minLong = Math.min(minLong, graph.getNodes().getLong(order[i]));
+			maxLong = Math.max(maxLong, graph.getNodes().getLong(order[i]));
+		}
+		final boolean byLat = maxLat - minLat >= maxLong - minLong;
+		final int mid = (lo + hi) >>> 1;
+		select(order, lo, hi, mid, byLat);
+		bisect(order, lo, mid, id * 2, at + 1);
+		bisect(order, mid, hi, id * 2 + 1, at + 1);
+	}
+	
+	/**
+	 * Rearranges a range of nodes so the node at k is where it would be if the range were sorted by one coordinate,
+	 * with no node before it greater and none after it less
+	 * 
+	 * @param order the nodes
+	 * @param lo the start of the range
+	 * @param hi the end of the range
+	 * @param k the index to put in place
+	 * @param byLat true to compare latitudes, false to compare longitudes
+	 */
+	private void select(final int[] order, final int lo, final int hi, final int k, final boolean byLat) {
+		int left = lo;
+		int right = hi - 1;
+		while (left < right) {
+			final double pivot = coordinate(order[(left + right) >>> 1], byLat);
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (coordinate(order[i], byLat) < pivot) {
+					i++;
+				}
+				while (coordinate(order[j], byLat) > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					final int swap = order[i];
+					order[i++] = order[j];
+					order[j--] = swap;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * @param node a node ordinal
+	 * @param byLat true for the latitude, false for the longitude
+	 * @return the coordinate
+	 */
+	private double coordinate(final int node, final boolean byLat) {
+		return byLat ? graph.getNodes().getLat(node) : graph.getNodes().getLong(node);
+	}
+	
+	/**
+	 * Lists the marked nodes of each cell of a level together, in order of cell
+	 * 
+	 * @param level the level
+	 * @param marked which nodes to list
+	 * @param offsets filled with where each cell's nodes start in the list
+	 * @param index filled with each marked node's index among its cell's nodes, and -1 for the rest
+	 * @return the list
+	 */
+	private int[] group(final int level, final boolean[] marked, final int[] offsets, final int[] index) {
+		Arrays.fill(index, -1);
+		for (int u = 0; u < marked.length; u++) {
+			if (marked[u]) {
+				offsets[getCell(level, u) + 1]++;
+			}
+		}
+		for (int c = 0; c + 1 < offsets.length; c++) {
+			offsets[c + 1] += offsets[c];
+		}
+		final int[] nodes = new int[offsets[offsets.length - 1]];
+		final int[] fill = offsets.clone();
+		for (int u = 0; u < marked.length; u++) {
+			if (marked[u]) {
+				final int cell = getCell(level, u);
+				index[u] = fill[cell] - offsets[cell];
+				nodes[fill[cell]++] = u;
+			}
+		}
+		return nodes;
+	}
+	
+	/**
+	 * @return the graph partitioned
+	 */
+	public RoadGraph getGraph() {
+		return graph;
+	}
+	
+	/**
+	 * @return the number of levels, 0 if the graph fits in one cell
+	 */
+	public int getLevels() {
+		return levels;
+	}
+	
+	/**
+	 * @param level a level, from 1
+	 * @return the number of cells in the level
+	 */
+	public int cellCount(final int level) {
+		return 1 << (depth - shift * (level - 1));
+	}
+	
+	/**
+	 * @param level a level, from 1
+	 * @param node a node ordinal
+	 * @return the cell the node is in at that level
+	 */
+	public int getCell(final int level, final int node) {
+		return leaf[node] >> (shift * (level - 1));
+	}
+	
+	/**
+	 * @param level a level, from 1
+	 * @param node a node ordinal
+	 * @return the node's index among the entries of its cell at that level, or -1 if it isn't one
+	 */
+	int getEntryIndex(final int level, final int node) {
+		return entryIndex[level - 1][node];
+	}
+	
+	/**
+	 * @param level a level, from 1
+	 * @param node a node ordinal
+	 * @return the node's index among the exits of its cell at that level, or -1 if it isn't one
+	 */
+	int getExitIndex(final int level, final int node) {
+		return exitIndex[level - 1][node];
+	}
+	
+	/**
+	 * @param level a level, from 1
+	 * @param cell a cell of the level
+	 * @return the number of exits of the cell
+	 */
+	int exitCount(final int level, final int cell) {
+		return exitOffsets[level - 1][cell + 1] - exitOffsets[level - 1][cell];
+	}
+	
+	/**
+	 * @param level a level, from 1
+	 * @param cell a cell of the level
+	 * @param i an index among the cell's exits
+	 * @return the exit
+	 */
+	int getExit(final int level, final int cell, final int i) {
+		return exitNodes[level - 1][exitOffsets[level - 1][cell] + i];
+	}
+	
+	/**
+	 * @return the metric of the last customization, or null if the overlay hasn't been customized yet
+	 */
+	public OverlayMetric getMetric() {
+		return metric;
+	}
+	
+	/**
+	 * Customizes the overlay to some traffic, recomputing the cells whose edges' weights changed since the last
+	 * customization (or every cell, the first time), and publishes the new metric
+	 * 
+	 * @param traffic traffic multipliers by way name, or null
+	 * @return the new metric, or the current one if it already matches the traffic
+	 */
+	public synchronized OverlayMetric customize(final Map<String, Double> traffic) {
+		final Map<String, Double> applied = (traffic == null) ? new HashMap<String, Double>() : new HashMap<>(traffic);
+		final OverlayMetric old = metric;
+		if (old != null && old.matches(applied)) {
+			return old;
+		}
+		final boolean[][] dirty = new boolean[levels][];
+		final double[][][] cliques = new double[levels][][];
+		for (int level = 1; level <= levels; level++) {
+			dirty[level - 1] = new boolean[cellCount(level)];
+			if (old == null) {
+				Arrays.fill(dirty[level - 1], true);
+				cliques[level - 1] = new double[cellCount(level)][];
+			} else {
+				cliques[level - 1] = old.getCliques()[level - 1].clone();
+			}
+		}
+		final double[] weights = new double[graph.edgeCount()];
+		for (int u = 0; u < graph.size(); u++) {
+			for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+				weights[e] = graph.getWeight(e, applied);
+				if (old == null || weights[e] == old.getWeight(e)) {
+					continue;
+				}
+				// The edge counts in every cell holding both its ends. An edge between two cells of one level can
+				// still be inside a cell of a level above, so every level is checked
+				final int v = graph.getTarget(e);
+				for (int level = 1; level <= levels; level++) {
+					if (getCell(level, u) == getCell(level, v)) {
+						dirty[level - 1][getCell(level, u)] = true;
+					}
+				}
+			}
+		}
+		for (int level = 1; level <= levels; level++) {
+			for (int cell = 0; cell < cellCount(level); cell++) {
+				if (dirty[level - 1][cell]) {
+					cliques[level - 1][cell] = customizeCell(level, cell, weights, cliques);
+					if (level < levels) {
+						dirty[level][cell >> shift] = true;
+					}
+				}
+			}
+		}
+		metric = new OverlayMetric(weights, cliques, applied);
+		return metric;
+	}
+	
+	/**
+	 * Finds the distances inside a cell from each of its entries to each of its exits, searching the level below:
+	 * graph edges for level 1, and otherwise the distances inside its cells and the edges between them
+	 * 
+	 * @param level the level
+	 * @param cell the cell
+	 * @param weights the weight of every graph edge
+	 * @param cliques the distances of every cell by level, already customized below this level
+	 * @return the distances, row by entry
+	 */
+	private double[] customizeCell(final int level, final int cell, final double[] weights,
+			final double[][][] cliques) {
+		final int entries = entryOffsets[level - 1][cell + 1] - entryOffsets[level - 1][cell];
+		final int exits = exitCount(level, cell);
+		final double[] clique = new double[entries * exits];
+		for (int i = 0; i < entries; i++) {
+			heap.clear();
+			if (search == Integer.MAX_VALUE) {
+				Arrays.fill(reached, 0);
+				search = 0;
+			}
+			search++;
+			relax(entryNodes[level - 1][entryOffsets[level - 1][cell] + i], 0);
+			int left = exits;
+			while (!heap.isEmpty() && left > 0) {
+				final int u = heap.poll();
+				final double d = distances[u];
+				// Every node searched is in the cell, so the search is done once it has settled all the exits
+				if (getExitIndex(level, u) != -1) {
+					left--;
+				}
+				if (level == 1) {
+					for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+						final int v = graph.getTarget(e);
+						if (getCell(1, v) == cell) {
+							relax(v, d + weights[e]);
+						}
+					}
+					continue;
+				}
+				final int below = level - 1;
+				final int sub = getCell(below, u);
+				final int row = getEntryIndex(below, u);
+				if (row != -1) {
+					final double[] inside = cliques[below - 1][sub];
+					final int count = exitCount(below, sub);
+					for (int j = 0; j < count; j++) {
+						final double w = inside[row * count + j];
+						if (w != Double.POSITIVE_INFINITY) {
+							relax(getExit(below, sub, j), d + w);
+						}
+					}
+				}
+				if (getExitIndex(below, u) != -1) {
+					for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+						final int v = graph.getTarget(e);
+						if (getCell(below, v) != sub && getCell(level, v) == cell) {
+							relax(v, d + weights[e]);
+						}
+					}
+				}
+			}
+			for (int j = 0; j < exits; j++) {
+				final int x = getExit(level, cell, j);
+				clique[i * exits + j] = (reached[x] == search) ? distances[x] : Double.POSITIVE_INFINITY;
+			}
+		}
+		return clique;
+	}
+	
+	/**
+	 * Lowers a node's distance in the customization search if a new way to it is shorter
+	 * 
+	 * @param node the node
+	 * @param distance the new distance
+	 */
+	private void relax(final int node, final double distance) {
+		if (reached[node] == search && distances[node] <= distance) {
+			return;
+		}
+		reached[node] = search;
+		distances[node] = distance;
+		heap.push(node, distance);
+	}
+}
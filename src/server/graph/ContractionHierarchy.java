@@ -0,0 +1,288 @@
+package server.graph;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A Contraction Hierarchy over a RoadGraph with neutral traffic. Every node has a rank, and the hierarchy's edges are
+ * the graph's edges plus shortcuts, each standing for a shortest path of two lower edges through a lower ranked node.
+ * A shortest path then always climbs to a top node and comes down again, so a query only searches upward from both
+ * ends (see HierarchySearch) and settles a few hundred nodes at most. A path of shortcuts is unpacked back into graph
+ * edges through each shortcut's two children.<br>
+ * Preprocessing takes a while, so the hierarchy is written next to the ways file as a Sidecar, stamped with the
+ * length and modification time of the data files like the snapshot, and only loaded back if they still match.<br>
+ * Body layout (big endian): the edge count, every rank, then the from, to, weight and two children of every edge
+ * 
+ * @author aiguha
+ */
+public class ContractionHierarchy {
+	
+	public static final String	SUFFIX	= ".ch";
+	
+	private static final int	MAGIC	= 0x54434831;
+	private static final int	VERSION	= 1;
+	
+	private final int			size;
+	private final int[]			rank;
+	// Every edge: original edges have child1 -1 and their RoadGraph edge in child2
+	private final int[]			from;
+	private final int[]			to;
+	private final double[]		weights;
+	private final int[]			child1;
+	private final int[]			child2;
+	// Upward edges leaving each node, and upward edges entering each node (reversed), as compressed rows
+	private final int[]			upOffsets;
+	private final int[]			upEdges;
+	private final int[]			downOffsets;
+	private final int[]			downEdges;
+	
+	/**
+	 * Creates a hierarchy from its ranks and edges
+	 * 
+	 * @param size the number of nodes
+	 * @param rank the rank of each node
+	 * @param from the node each edge leaves
+	 * @param to the node each edge enters
+	 * @param weights the weight of each edge
+	 * @param child1 the first edge each shortcut stands for, or -1 for original edges
+	 * @param child2 the second edge each shortcut stands for, or the RoadGraph edge of original edges
+	 */
+	ContractionHierarchy(final int size, final int[] rank, final int[] from, final int[] to, final double[] weights,
+			final int[] child1, final int[] child2) {
+		this.size = size;
+		this.rank = rank;
+		this.from = from;
+		this.to = to;
+		this.weights = weights;
+		this.child1 = child1;
+		this.child2 = child2;
+		upOffsets = new int[size + 1];
+		downOffsets = new int[size + 1];
+		for (int e = 0; e < from.length; e++) {
+			if (rank[from[e]] < rank[to[e]]) {
+				upOffsets[from[e] + 1]++;
+			} else {
+				downOffsets[to[e] + 1]++;
+			}
+		}
+		for (int u = 0; u < size; u++) {
+			upOffsets[u + 1] += upOffsets[u];
+			downOffsets[u + 1] += downOffsets[u];
+		}
+		upEdges = new int[upOffsets[size]];
+		downEdges = new int[downOffsets[size]];
+		final int[] upFill = upOffsets.clone();
+		final int[] downFill = downOffsets.clone();
+		for (int e = 0; e < from.length; e++) {
+			if (rank[from[e]] < rank[to[e]]) {
+				upEdges[upFill[from[e]]++] = e;
+			} else {
+				downEdges[downFill[to[e]]++] = e;
+			}
+		}
+	}
+	
+	/**
+	 * Contracts every node of a road graph. Takes a few seconds on a city
+	 * 
+	 * @param graph the road graph
+	 * @return the hierarchy
+	 */
+	public static ContractionHierarchy build(final RoadGraph graph) {
+		return new HierarchyBuilder(graph).build();
+	}
+	
+	/**
+	 * @param waysFile the ways file
+	 * @return the hierarchy file belonging to this data-set
+	 */
+	public static File fileFor(final String waysFile) {
+		return new File(waysFile + SUFFIX);
+	}
+	
+	/**
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return the number of edges, shortcuts included
+	 */
+	public int edgeCount() {
+		return from.length;
+	}
+	
+	/**
+	 * @param node a node ordinal
+	 * @return the node's rank, higher for more important nodes
+	 */
+	public int getRank(final int node) {
+		return rank[node];
+	}
+	
+	/**
+	 * @param node a node ordinal
+	 * @return the first upward edge leaving the node
+	 */
+	int firstUp(final int node) {
+		return upOffsets[node];
+	}
+	
+	/**
+	 * @param node a node ordinal
+	 * @return just past the last upward edge leaving the node
+	 */
+	int endUp(final int node) {
+		return upOffsets[node + 1];
+	}
+	
+	/**
+	 * @param i an index into the upward edges
+	 * @return the edge
+	 */
+	int upEdge(final int i) {
+		return upEdges[i];
+	}
+	
+	/**
+	 * @param node a node ordinal
+	 * @return the first upward edge entering the node
+	 */
+	int firstDown(final int node) {
+		return downOffsets[node];
+	}
+	
+	/**
+	 * @param node a node ordinal
+	 * @return just past the last upward edge entering the node
+	 */
+	int endDown(final int node) {
+		return downOffsets[node + 1];
+	}
+	
+	/**
+	 * @param i an index into the upward edges entering nodes
+	 * @return the edge
+	 */
+	int downEdge(final int i) {
+		return downEdges[i];
+	}
+	
+	/**
+	 * @param edge an edge
+	 * @return the node the edge leaves
+	 */
+	int getFrom(final int edge) {
+		return from[edge];
+	}
+	
+	/**
+	 * @param edge an edge
+	 * @return the node the edge enters
+	 */
+	int getTo(final int edge) {
+		return to[edge];
+	}
+	
+	/**
+	 * @param edge an edge
+	 * @return the weight of the edge
+	 */
+	double getWeight(final int edge) {
+		return weights[edge];
+	}
+	
+	/**
+	 * @param edge an edge
+	 * @return the first edge a shortcut stands for, or -1 if the edge is a graph edge
+	 */
+	int getFirstChild(final int edge) {
+		return child1[edge];
+	}
+	
+	/**
+	 * @param edge an edge
+	 * @return the second edge a shortcut stands for, or the RoadGraph edge of a graph edge
+	 */
+	int getSecondChild(final int edge) {
+		return child2[edge];
+	}
+	
+	/**
+	 * Writes the hierarchy as a Sidecar file, so a reader never sees a half written hierarchy
+	 * 
+	 * @param target the file to write
+	 * @param sources the ways, nodes and index files, in that order
+	 * @param graph the road graph the hierarchy was built from
+	 * @throws IOException file io failed
+	 */
+	public void write(final File target, final File[] sources, final RoadGraph graph) throws IOException {
+		Sidecar.write(target, MAGIC, VERSION, sources, graph, new Sidecar.Body() {
+			
+			@Override
+			public void writeTo(final DataOutputStream out) throws IOException {
+				out.writeInt(from.length);
+				for (final int r : rank) {
+					out.writeInt(r);
+				}
+				for (final int[] column : new int[][] { from, to }) {
+					for (final int value : column) {
+						out.writeInt(value);
+					}
+				}
+				for (final double weight : weights) {
+					out.writeDouble(weight);
+				}
+				for (final int[] column : new int[][] { child1, child2 }) {
+					for (final int value : column) {
+						out.writeInt(value);
+					}
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Loads a hierarchy if it exists and still matches its sources and graph
+	 * 
+	 * @param file the hierarchy file
+	 * @param sources the ways, nodes and index files, in that order
+	 * @param graph the road graph of the sources
+	 * @return the hierarchy, or null if it is missing, stale or corrupt
+	 * @throws IOException file io failed
+	 */
+	public static ContractionHierarchy load(final File file, final File[] sources, final RoadGraph graph)
+			throws IOException {
+		final ByteBuffer buffer = Sidecar.read(file, MAGIC, VERSION, sources, graph);
+		if (buffer == null || buffer.limit() < 4) {
+			return null;
+		}
+		final int nodes = graph.size();
+		final int edges = buffer.getInt(0);
+		if (edges < 0 || buffer.limit() - 4 != nodes * 4L + edges * 24L) {
+			return null;
+		}
+		buffer.position(4);
+		final int[] rank = new int[nodes];
+		final int[] from = new int[edges];
+		final int[] to = new int[edges];
+		final double[] weights = new double[edges];
+		final int[] child1 = new int[edges];
+		final int[] child2 = new int[edges];
+		for (final int[] column : new int[][] { rank, from, to }) {
+			buffer.asIntBuffer().get(column);
+			buffer.position(buffer.position() + column.length * 4);
+		}
+		buffer.asDoubleBuffer().get(weights);
+		buffer.position(buffer.position() + edges * 8);
+		for (final int[] column : new int[][] { child1, child2 }) {
+			buffer.asIntBuffer().get(column);
+			buffer.position(buffer.position() + column.length * 4);
+		}
+		return new ContractionHierarchy(nodes, rank, from, to, weights, child1, child2);
+	}
+}
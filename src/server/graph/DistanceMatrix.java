@@ -0,0 +1,147 @@
+package server.graph;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the distances from each of a list of origins to each of a list of destinations over a RoadGraph. Each
+ * origin gets one Dijkstra search that stops once every destination is settled, instead of a search per pair. The
+ * origins are split among a fork join pool of the matrix's own, and each thread searches with its own RoadSearch. The
+ * pool has a thread per processor, each released once it's idle for a while, so the graph-sized arrays of their
+ * searches are neither held by the common pool's threads nor kept forever. The pool's threads aren't the one that
+ * asked, so each checks that thread between origins, and the whole matrix is given up once it's interrupted
+ * 
+ * @author aiguha
+ */
+public class DistanceMatrix extends RecursiveAction {
+	
+	private static final long			serialVersionUID	= 1L;
+	
+	/**
+	 * The most origins, and most destinations, a matrix is asked for by default
+	 */
+	public static final int				DEFAULT_LIMIT		= 1000;
+	
+	private static final int			PARALLELISM			= Runtime.getRuntime().availableProcessors();
+	
+	// Runs the searches of every matrix, with a thread per processor
+	private static final ForkJoinPool	pool				= new ForkJoinPool(PARALLELISM);
+	
+	private final RoadGraph				graph;
+	private final int[]					origins;
+	private final int[]					destinations;
+	// The destinations in the graph, sorted and without repeats
+	private final int[]					targets;
+	private final Map<String, Double>	traffic;
+	private final double[][]			rows;
+	private final int					from;
+	private final int					to;
+	// The thread measuring the matrix, and whether the matrix was given up
+	private final Thread				caller;
+	private final AtomicBoolean			aborted;
+	
+	/**
+	 * Creates a task over a range of the origins
+	 * 
+	 * @param graph the road graph
+	 * @param origins the ordinals of all the origins
+	 * @param destinations the ordinals of all the destinations
+	 * @param targets the destinations in the graph, sorted and without repeats
+	 * @param traffic traffic multipliers by way name, or null
+	 * @param rows the rows to fill, one for each origin
+	 * @param from the first origin of the range
+	 * @param to just past the last origin of the range
+	 * @param caller the thread measuring the matrix
+	 * @param aborted set once the matrix is given up
+	 */
+	private DistanceMatrix(final RoadGraph graph, final int[] origins, final int[] destinations, final int[] targets,
+			final Map<String, Double> traffic, final double[][] rows, final int from, final int to,
+			final Thread caller, final AtomicBoolean aborted) {
+		this.graph = graph;
+		this.origins = origins;
+		this.destinations = destinations;
+		this.targets = targets;
+		this.traffic = traffic;
+		this.rows = rows;
+		this.from = from;
+		this.to = to;
+		this.caller = caller;
+		this.aborted = aborted;
+	}
+	
+	/**
+	 * Measures the distance from every origin to every destination
+	 * 
+	 * @param graph the road graph
+	 * @param origins the ordinals of the origins, -1 for a node outside the graph
+	 * @param destinations the ordinals of the destinations, -1 for a node outside the graph
+	 * @param traffic traffic multipliers by way name, or null
+	 * @return the distances by origin then destination, Double.POSITIVE_INFINITY where there is no path, or null if the
+	 *         thread was interrupted
+	 */
+	public static double[][] measure(final RoadGraph graph, final int[] origins, final int[] destinations,
+			final Map<String, Double> traffic) {
+		final int[] sorted = destinations.clone();
+		Arrays.sort(sorted);
+		int count = 0;
+		for (final int d : sorted) {
+			if (d != -1 && (count == 0 || sorted[count - 1] != d)) {
+				sorted[count++] = d;
+			}
+		}
+		final double[][] rows = new double[origins.length][destinations.length];
+		final AtomicBoolean aborted = new AtomicBoolean();
+		final DistanceMatrix task = new DistanceMatrix(graph, origins, destinations, Arrays.copyOf(sorted, count),
+				traffic, rows, 0, origins.length, Thread.currentThread(), aborted);
+		pool.invoke(task);
+		return (aborted.get() || Thread.currentThread().isInterrupted()) ? null : rows;
+	}
+	
+	@Override
+	protected void compute() {
+		if (to - from > 1) {
+			final int mid = from + (to - from) / 2;
+			invokeAll(new DistanceMatrix(graph, origins, destinations, targets, traffic, rows, from, mid, caller,
+					aborted), new DistanceMatrix(graph, origins, destinations, targets, traffic, rows, mid, to, caller,
+					aborted));
+			return;
+		}
+		for (int i = from; i < to; i++) {
+			if (aborted.get()) {
+				return;
+			}
+			if (caller.isInterrupted() || !fillRow(i)) {
+				aborted.set(true);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Searches from one origin and fills its row
+	 * 
+	 * @param i the origin
+	 * @return false if the search was interrupted, leaving the row unfilled, true otherwise
+	 */
+	private boolean fillRow(final int i) {
+		final double[] row = rows[i];
+		final int origin = origins[i];
+		if (origin == -1) {
+			Arrays.fill(row, Double.POSITIVE_INFINITY);
+			return true;
+		}
+		final RoadSearch search = RoadSearch.forGraph(graph);
+		if (!search.distancesTo(origin, targets, traffic)) {
+			return false;
+		}
+		for (int j = 0; j < row.length; j++) {
+			final int destination = destinations[j];
+			final double distance = (destination == -1) ? Double.MAX_VALUE : search.getDistance(destination);
+			row[j] = (distance == Double.MAX_VALUE) ? Double.POSITIVE_INFINITY : distance;
+		}
+		return true;
+	}
+}
@@ -23,6 +23,11 @@ public class Graph<T extends Graphable<T>, S extends Weighable<S>> {
 	// Data Provider: allows dynamic graph construction
 	private final DataProvider<T, S>	provider;
 	
+	// Scale of the straight line heuristic, or -1 for the truncated one
+	private final double				heuristicScale;
+	// Number of nodes expanded by the last search
+	private int							expanded;
+	
 	/**
 	 * Initializes Graph
 	 * 
@@ -35,6 +40,23 @@ public class Graph<T extends Graphable<T>, S extends Weighable<S>> {
 	 */
 	public Graph(final GraphNode<T, S> start, final GraphNode<T, S> end, final DataProvider<T, S> prov)
 			throws IOException, GraphException, DataProviderException {
+		this(start, end, prov, -1);
+	}
+	
+	/**
+	 * Initializes Graph to search with the exact straight line heuristic of ASTARComparator
+	 * 
+	 * @param start the starting node
+	 * @param end the ending node
+	 * @param prov the data provider
+	 * @param heuristicScale the multiplier of the straight line distance (no more than the lowest weight per unit of
+	 *            distance, to find shortest paths), or -1 for the truncated heuristic
+	 * @throws IOException file io failed
+	 * @throws GraphException init failed
+	 * @throws DataProviderException data provider threw exception
+	 */
+	public Graph(final GraphNode<T, S> start, final GraphNode<T, S> end, final DataProvider<T, S> prov,
+			final double heuristicScale) throws IOException, GraphException, DataProviderException {
 		if (start == null || end == null) {
 			throw new GraphException("Provided arguments " + start + " and " + end + " must both exist.");
 		}
@@ -44,6 +66,7 @@ public class Graph<T extends Graphable<T>, S extends Weighable<S>> {
 			throw new GraphException("Graph Initialization Failed. Invalid Arguments.");
 		}
 		this.provider = prov;
+		this.heuristicScale = heuristicScale;
 	}
 	
 	public GraphNode<T, S> getStart() {
@@ -54,6 +77,13 @@ public class Graph<T extends Graphable<T>, S extends Weighable<S>> {
 		return this.end;
 	}
 	
+	/**
+	 * @return the number of nodes the last search expanded
+	 */
+	public int getExpanded() {
+		return expanded;
+	}
+	
 	/**
 	 * Uses the DataProvider to construct the next level of the graph, i.e, constructs cur's adjacent vertices and
 	 * connecting edges
@@ -82,7 +112,10 @@ public class Graph<T extends Graphable<T>, S extends Weighable<S>> {
 	private void calculatePaths() throws GraphException, DataProviderException, IOException {
 		// Set distance of start of zero
 		this.start.setDistance(0);
-		final PriorityQueue<GraphNode<T, S>> pq = new PriorityQueue<>(20, new ASTARComparator<>(end));
+		final ASTARComparator<T, S> comparator = (heuristicScale < 0) ? new ASTARComparator<T, S>(end)
+				: new ASTARComparator<T, S>(end, heuristicScale);
+		final PriorityQueue<GraphNode<T, S>> pq = new PriorityQueue<>(20, comparator);
+		expanded = 0;
 		// Keep track of visited nodes
 		final HashSet<GraphNode<T, S>> visited = new HashSet<>();
 		pq.add(start);
@@ -99,6 +132,7 @@ public class Graph<T extends Graphable<T>, S extends Weighable<S>> {
 				break;
 			}
 			// Building the neighbor Edges & Nodes of curSource
+			expanded++;
 			buildLevel(curSource);
 			for (final GraphEdge<T, S> e : curSource.getEdges()) {
 				final GraphNode<T, S> target = e.getTarget();
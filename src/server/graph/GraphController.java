@@ -1,10 +1,23 @@
 package server.graph;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
+import server.io.IOController;
+import server.io.NodeTable;
+import server.io.WayTable;
+import data.LatLongPoint;
 import data.MapException;
 import data.MapNode;
 import data.MapWay;
@@ -18,6 +31,55 @@ public class GraphController {
 	
 	private static ConcurrentHashMap<String, Double>	trafficMap;
 	
+	// Adjacency of the whole network, rebuilt when the IOController is set up with new data
+	private static RoadGraph							roadGraph;
+	// The build of the road graph that requests for it wait on, and the node table of the data it's built from
+	private static FutureTask<RoadGraph>				graphBuild;
+	private static NodeTable							graphNodes;
+	// Contraction hierarchy of the road graph, if one was written for the data
+	private static ContractionHierarchy					hierarchy;
+	// Landmarks of the road graph, if they were written for the data
+	private static Landmarks							landmarks;
+	// Cell overlay of the road graph, partitioned the first time traffic changes and customized in the background
+	private static CellOverlay							overlay;
+	private static Thread								customizer;
+	// Segments of the road graph, indexed when the graph is built
+	private static SegmentIndex							segments;
+	// Holds at most one request, so changes arriving during a customization are all handled by the next one
+	private static final BlockingQueue<Boolean>			customizeRequests	= new ArrayBlockingQueue<>(1);
+	// Whether routes between nodes that search the road graph search it from both ends
+	private static boolean								bidirectional		= false;
+	// Most origins, and most destinations, a distance matrix request may have
+	private static int									matrixLimit			= DistanceMatrix.DEFAULT_LIMIT;
+	
+	/**
+	 * Turns bidirectional search on or off for routes between nodes that search the road graph (those with traffic
+	 * before the cell overlay catches up, or without a contraction hierarchy). It expands fewer nodes with landmarks,
+	 * but each costs more. Takes effect at the next route
+	 * 
+	 * @param both true to search from both ends
+	 */
+	public static void setBidirectional(final boolean both) {
+		bidirectional = both;
+	}
+	
+	/**
+	 * Sets the most origins, and the most destinations, a distance matrix request may have. A matrix holds a distance
+	 * for every pair and takes a search per origin, so this bounds the memory and time one request can ask for
+	 * 
+	 * @param limit the most points of each kind
+	 */
+	public static void setMatrixLimit(final int limit) {
+		matrixLimit = limit;
+	}
+	
+	/**
+	 * @return the most origins, and the most destinations, a distance matrix request may have
+	 */
+	public static int getMatrixLimit() {
+		return matrixLimit;
+	}
+	
 	/**
 	 * Sets the traffic concurrent hash map
 	 * 
@@ -25,58 +87,642 @@ public class GraphController {
 	 */
 	public static void setTrafficMap(final ConcurrentHashMap<String, Double> t) {
 		trafficMap = t;
+		if (!isNeutral(t)) {
+			trafficChanged();
+		}
 	}
 	
 	/**
-	 * Returns the shortest path between s and e Creates a new Graph object, which reuses the class variable
-	 * DataProvider to construct the graph and calculate shortest paths using A*
+	 * Notes that the traffic map changed, so the cell overlay is customized to it in the background. The
+	 * TrafficController calls this for every update, and routes never do. The overlay only serves routes while the
+	 * traffic is exactly what it was customized to, so routes with traffic search the road graph with A* until it
+	 * catches up, and all the time while a feed changes the traffic faster than the overlay can be customized
+	 */
+	public static void trafficChanged() {
+		synchronized (customizeRequests) {
+			if (customizer == null || !customizer.isAlive()) {
+				customizer = new Thread() {
+					
+					@Override
+					public void run() {
+						while (true) {
+							try {
+								customizeRequests.take();
+							} catch (final InterruptedException e) {
+								return;
+							}
+							customizeOverlay();
+						}
+					}
+				};
+				customizer.setDaemon(true);
+				customizer.start();
+			}
+		}
+		customizeRequests.offer(Boolean.TRUE);
+	}
+	
+	/**
+	 * Customizes the cell overlay of the current road graph to the current traffic, partitioning the graph first if
+	 * it's new
+	 */
+	private static void customizeOverlay() {
+		final RoadGraph graph;
+		CellOverlay current;
+		synchronized (GraphController.class) {
+			graph = roadGraph;
+			current = overlay;
+		}
+		if (graph == null) {
+			return;
+		}
+		if (current == null || current.getGraph() != graph) {
+			current = new CellOverlay(graph);
+			synchronized (GraphController.class) {
+				if (roadGraph != graph) {
+					return;
+				}
+				overlay = current;
+			}
+		}
+		current.customize(trafficMap);
+	}
+	
+	/**
+	 * @return the cell overlay of the road graph, or null if traffic hasn't changed since the graph was built
+	 */
+	public synchronized static CellOverlay getOverlay() {
+		return (overlay != null && overlay.getGraph() == roadGraph) ? overlay : null;
+	}
+	
+	/**
+	 * Starts building the road graph of the current data on a thread of its own, unless it's built or being built
+	 * already, so the server answers other requests meanwhile and the first route only waits for the rest of the build
 	 * 
-	 * @param s the starting node
-	 * @param e the end node
-	 * @return returns the shortest path in GraphEdges
-	 * @throws IOException thrown internally
-	 * @throws GraphException thrown internally
-	 * @throws MapException if a DataProviderException was encountered
-	 */
-	private static List<GraphEdge<MapNode, MapWay>> getShortestPathEdges(final MapNode s, final MapNode e)
-			throws IOException, GraphException, MapException {
-		final MapsDataProvider provider = new MapsDataProvider(trafficMap);
-		final GraphNode<MapNode, MapWay> start = provider.getNode(s);
-		final GraphNode<MapNode, MapWay> end = provider.getNode(e);
-		Graph<MapNode, MapWay> g;
+	 * @throws IOException if the nodes couldn't be read
+	 * @throws MapException if the nodes couldn't be parsed
+	 */
+	public static void buildRoadGraph() throws IOException, MapException {
+		final Thread builder = new Thread(currentBuild());
+		builder.setDaemon(true);
+		builder.start();
+	}
+	
+	/**
+	 * Returns the road graph of the current data, building it on this thread the first time it's asked for, or
+	 * waiting for the thread already building it. Building reads every way into the IOController's way table, unless
+	 * preload mode already did at setup, loads the contraction hierarchy and landmarks if they were written for the
+	 * data, and indexes the graph's segments. Routing needs every edge, so from then on the table holds all the ways.
+	 * No lock is held while building or waiting, so nothing but the requests that need the graph wait for it
+	 * 
+	 * @return the road graph
+	 * @throws IOException if the data files couldn't be read, or the thread was interrupted while waiting
+	 * @throws MapException if the data files couldn't be parsed
+	 */
+	public static RoadGraph getRoadGraph() throws IOException, MapException {
+		final FutureTask<RoadGraph> build = currentBuild();
+		build.run();
 		try {
-			g = new Graph<>(start, end, provider);
-			return g.shortestPath();
-		} catch (final DataProviderException e1) {
-			throw new MapException("<GraphController> " + e1.getMessage());
+			return build.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for the road graph");
+		} catch (final ExecutionException e) {
+			// Forgotten, so the next request tries again
+			synchronized (GraphController.class) {
+				if (graphBuild == build) {
+					graphBuild = null;
+				}
+			}
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof MapException) {
+				throw (MapException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw (RuntimeException) e.getCause();
+		}
+	}
+	
+	/**
+	 * @return the build of the road graph of the current data, a new one if the IOController was set up with new data
+	 * @throws IOException if the nodes couldn't be read
+	 * @throws MapException if the nodes couldn't be parsed
+	 */
+	private synchronized static FutureTask<RoadGraph> currentBuild() throws IOException, MapException {
+		final NodeTable nodes = IOController.getNodeTable();
+		if (graphBuild == null || graphNodes != nodes) {
+			graphNodes = nodes;
+			graphBuild = new FutureTask<>(new Callable<RoadGraph>() {
+				
+				@Override
+				public RoadGraph call() throws IOException, MapException {
+					return build(nodes);
+				}
+			});
 		}
+		return graphBuild;
 	}
 	
 	/**
-	 * Returns the shortest path between s and e Creates a new Graph object, which reuses the class variable
-	 * DataProvider to construct the graph and calculate shortest paths using A*
+	 * Builds the road graph over a table of nodes, with its hierarchy, landmarks and segment index, and makes them the
+	 * current ones unless the IOController was set up with new data meanwhile
+	 * 
+	 * @param nodes the node table
+	 * @return the road graph
+	 * @throws IOException if the data files couldn't be read
+	 * @throws MapException if the data files couldn't be parsed
+	 */
+	private static RoadGraph build(final NodeTable nodes) throws IOException, MapException {
+		final RoadGraph graph = new RoadGraph(nodes, IOController.getWayTable());
+		final File[] sources = IOController.sourceFiles();
+		final ContractionHierarchy ch = ContractionHierarchy.load(ContractionHierarchy.fileFor(sources[0].getPath()),
+				sources, graph);
+		final Landmarks alt = Landmarks.load(Landmarks.fileFor(sources[0].getPath()), sources, graph);
+		final SegmentIndex index = new SegmentIndex(graph);
+		synchronized (GraphController.class) {
+			if (graphNodes != nodes) {
+				return graph;
+			}
+			roadGraph = graph;
+			hierarchy = ch;
+			landmarks = alt;
+			segments = index;
+		}
+		// Traffic that came before the graph couldn't be customized to
+		if (!isNeutral(trafficMap)) {
+			trafficChanged();
+		}
+		return graph;
+	}
+	
+	/**
+	 * @return the segment index of the road graph of the current data
+	 * @throws IOException if the data files couldn't be read
+	 * @throws MapException if the data files couldn't be parsed
+	 */
+	public static SegmentIndex getSegmentIndex() throws IOException, MapException {
+		final RoadGraph graph = getRoadGraph();
+		synchronized (GraphController.class) {
+			if (segments != null && segments.getGraph() == graph) {
+				return segments;
+			}
+		}
+		// Only if the IOController was set up with new data while the graph was built
+		return new SegmentIndex(graph);
+	}
+	
+	/**
+	 * @return the contraction hierarchy of the current data, or null if none was written for it
+	 * @throws IOException if the data files couldn't be read
+	 * @throws MapException if the data files couldn't be parsed
+	 */
+	public static ContractionHierarchy getHierarchy() throws IOException, MapException {
+		getRoadGraph();
+		synchronized (GraphController.class) {
+			return hierarchy;
+		}
+	}
+	
+	/**
+	 * Contracts the road graph of the current data and writes the hierarchy next to the ways file, for routes with
+	 * neutral traffic to use from now on and whenever the server starts with the same data
+	 * 
+	 * @return the hierarchy file
+	 * @throws IOException if the data files couldn't be read or the hierarchy couldn't be written
+	 * @throws MapException if the data files couldn't be parsed
+	 */
+	public static File writeHierarchy() throws IOException, MapException {
+		final RoadGraph graph = getRoadGraph();
+		final ContractionHierarchy built = ContractionHierarchy.build(graph);
+		final File[] sources = IOController.sourceFiles();
+		final File target = ContractionHierarchy.fileFor(sources[0].getPath());
+		built.write(target, sources, graph);
+		synchronized (GraphController.class) {
+			if (roadGraph == graph) {
+				hierarchy = built;
+			}
+		}
+		return target;
+	}
+	
+	/**
+	 * @return the landmarks of the current data, or null if none were written for it
+	 * @throws IOException if the data files couldn't be read
+	 * @throws MapException if the data files couldn't be parsed
+	 */
+	public static Landmarks getLandmarks() throws IOException, MapException {
+		getRoadGraph();
+		synchronized (GraphController.class) {
+			return landmarks;
+		}
+	}
+	
+	/**
+	 * Picks landmarks of the road graph of the current data and writes their distance tables next to the ways file,
+	 * for routes with traffic to search with from now on and whenever the server starts with the same data
+	 * 
+	 * @param count the number of landmarks
+	 * @return the landmarks file
+	 * @throws IOException if the data files couldn't be read or the landmarks couldn't be written
+	 * @throws MapException if the data files couldn't be parsed
+	 */
+	public static File writeLandmarks(final int count) throws IOException, MapException {
+		final RoadGraph graph = getRoadGraph();
+		final Landmarks built = Landmarks.build(graph, count);
+		final File[] sources = IOController.sourceFiles();
+		final File target = Landmarks.fileFor(sources[0].getPath());
+		built.write(target, sources, graph);
+		synchronized (GraphController.class) {
+			if (roadGraph == graph) {
+				landmarks = built;
+			}
+		}
+		return target;
+	}
+	
+	/**
+	 * Checks whether traffic leaves every way at its base weight
+	 * 
+	 * @param traffic traffic multipliers by way name, or null
+	 * @return true if there is no traffic map or every multiplier in it is 1
+	 */
+	private static boolean isNeutral(final ConcurrentHashMap<String, Double> traffic) {
+		if (traffic != null) {
+			for (final Double multiplier : traffic.values()) {
+				if (multiplier != 1.0) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the shortest path between s and e. With neutral traffic and a contraction hierarchy, this is a query of
+	 * the hierarchy. Otherwise it's a query of the cell overlay if that has been customized to exactly the current
+	 * traffic, or else the road graph is searched with the current thread's RoadSearch, guided by the landmarks if
+	 * there are any, and from both ends if bidirectional search is on
 	 * 
 	 * @param s the starting node
 	 * @param e the end node
-	 * @return returns the shortest path in MapWays
-	 * @throws IOException thrown internally
-	 * @throws MapException if a DataProviderException was encountered
+	 * @return returns the shortest path in MapWays (empty if there is none), or null if either node is null or the
+	 *         thread was interrupted
+	 * @throws IOException if the road graph couldn't be built
+	 * @throws MapException if the road graph couldn't be built
 	 */
 	public static List<MapWay> getShortestPathWays(final MapNode s, final MapNode e) throws IOException, MapException {
-		List<GraphEdge<MapNode, MapWay>> path;
-		try {
-			path = getShortestPathEdges(s, e);
-		} catch (final GraphException e1) {
+		if (s == null || e == null) {
 			return null;
 		}
+		final RoadGraph graph = getRoadGraph();
+		final ContractionHierarchy ch;
+		final Landmarks alt;
+		final CellOverlay cells;
+		synchronized (GraphController.class) {
+			// Unless the IOController was set up with new data since, these are the graph's
+			final boolean current = roadGraph == graph;
+			ch = current ? hierarchy : null;
+			alt = current ? landmarks : null;
+			cells = current ? getOverlay() : null;
+		}
+		final int source = graph.find(s);
+		final int target = graph.find(e);
+		final List<MapWay> toReturn = new ArrayList<>();
+		// Nodes outside the graph have no edges, so can't be routed between
+		if (source == -1 || target == -1) {
+			return toReturn;
+		}
+		final ConcurrentHashMap<String, Double> traffic = trafficMap;
+		final int[] path;
+		final OverlayMetric metric = (cells != null) ? cells.getMetric() : null;
+		if (ch != null && isNeutral(traffic)) {
+			path = HierarchySearch.forHierarchy(ch).shortestPath(source, target);
+		} else if (metric != null && metric.matches(traffic)) {
+			path = OverlaySearch.forOverlay(cells).shortestPath(source, target, metric);
+		} else {
+			final RoadSearch search = RoadSearch.forGraph(graph);
+			path = bidirectional ? search.bidirectionalPath(source, target, traffic, alt) : search.shortestPath(
+					source, target, traffic, alt);
+		}
 		if (path == null || Thread.currentThread().isInterrupted()) {
 			return null;
 		}
+		for (final int edge : path) {
+			final MapWay way = graph.getWay(edge);
+			if (traffic != null) {
+				way.updateTraffic(traffic.get(way.getName()));
+			}
+			toReturn.add(way);
+		}
+		return toReturn;
+	}
+	
+	/**
+	 * Returns the shortest path between two points, each snapped to the nearest point of any road rather than to the
+	 * nearest node. A point partway along a road can leave it by either end the road allows, at the cost of the part
+	 * of the road it travels, and likewise for reaching the end point. With traffic (or no contraction hierarchy and
+	 * no customized overlay) one search of the road graph starts from every way of leaving and finishes at every way
+	 * of arriving. Otherwise the hierarchy or overlay is queried for each of the at most four pairs of ends. Two
+	 * points on the same road, one ahead of the other, are also joined along the road directly. The ways the points lie
+	 * on are cut short at them, so the path starts and ends at the points themselves
+	 * 
+	 * @param s the starting point
+	 * @param e the end point
+	 * @return the shortest path in MapWays, starting with the part of the way the start lies on and ending with the
+	 *         part of the way the end lies on (empty if there is none), or null if either point is null or the thread
+	 *         was interrupted
+	 * @throws IOException if the road graph couldn't be built
+	 * @throws MapException if the road graph couldn't be built
+	 */
+	public static List<MapWay> getShortestPathWays(final LatLongPoint s, final LatLongPoint e) throws IOException,
+			MapException {
+		if (s == null || e == null) {
+			return null;
+		}
+		final SegmentIndex index = getSegmentIndex();
+		final RoadGraph graph = index.getGraph();
+		final ContractionHierarchy ch;
+		final Landmarks alt;
+		final CellOverlay cells;
+		synchronized (GraphController.class) {
+			// Unless the IOController was set up with new data since, these are the graph's
+			final boolean current = roadGraph == graph;
+			ch = current ? hierarchy : null;
+			alt = current ? landmarks : null;
+			cells = current ? getOverlay() : null;
+		}
 		final List<MapWay> toReturn = new ArrayList<>();
-		for (final GraphEdge<MapNode, MapWay> curEdge : path) {
-			toReturn.add(curEdge.getContent());
+		final SegmentSnap from = index.nearest(s.getLat(), s.getLong());
+		final SegmentSnap to = index.nearest(e.getLat(), e.getLong());
+		if (from == null || to == null) {
+			return toReturn;
+		}
+		final ConcurrentHashMap<String, Double> traffic = trafficMap;
+		// The nodes the start can leave its road by and the end be reached from, what each costs, and the edges and
+		// fractions along them the points lie on
+		final int[] sources = new int[2];
+		final double[] sourceCosts = new double[2];
+		final int[] leaving = new int[2];
+		final double[] leavingAt = new double[2];
+		final int sourceCount = ends(graph, from, false, traffic, sources, sourceCosts, leaving, leavingAt);
+		final int[] targets = new int[2];
+		final double[] targetCosts = new double[2];
+		final int[] arriving = new int[2];
+		final double[] arrivingAt = new double[2];
+		final int targetCount = ends(graph, to, true, traffic, targets, targetCosts, arriving, arrivingAt);
+		int[] path = null;
+		double best = Double.MAX_VALUE;
+		int first = -1;
+		int last = -1;
+		// The end reached straight along the edge the start is on, if that's the shortest
+		int direct = -1;
+		final OverlayMetric metric = (cells != null) ? cells.getMetric() : null;
+		final boolean neutral = isNeutral(traffic);
+		if ((ch != null && neutral) || (metric != null && metric.matches(traffic))) {
+			for (int i = 0; i < sourceCount; i++) {
+				for (int j = 0; j < targetCount; j++) {
+					final int[] found;
+					final double length;
+					if (ch != null && neutral) {
+						final HierarchySearch search = HierarchySearch.forHierarchy(ch);
+						found = search.shortestPath(sources[i], targets[j]);
+						length = search.getLength();
+					} else {
+						final OverlaySearch search = OverlaySearch.forOverlay(cells);
+						found = search.shortestPath(sources[i], targets[j], metric);
+						length = search.getLength();
+					}
+					if (found == null) {
+						return null;
+					}
+					if (length != Double.MAX_VALUE && sourceCosts[i] + length + targetCosts[j] < best) {
+						best = sourceCosts[i] + length + targetCosts[j];
+						path = found;
+						first = i;
+						last = j;
+					}
+				}
+			}
+		} else {
+			final RoadSearch search = RoadSearch.forGraph(graph);
+			final int[] found = search.shortestPath(Arrays.copyOf(sources, sourceCount), Arrays.copyOf(sourceCosts,
+					sourceCount), Arrays.copyOf(targets, targetCount), Arrays.copyOf(targetCosts, targetCount),
+					traffic, alt);
+			if (found == null) {
+				return null;
+			}
+			if (search.getLength() != Double.MAX_VALUE) {
+				best = search.getLength();
+				path = found;
+				first = cheapest((found.length == 0) ? search.getFinish() : graph.getSource(found[0]), sources,
+						sourceCosts, sourceCount);
+				last = cheapest(search.getFinish(), targets, targetCosts, targetCount);
+			}
+		}
+		if (Thread.currentThread().isInterrupted()) {
+			return null;
+		}
+		// Straight along the one edge both points lie on, if the end is ahead of the start
+		for (int i = 0; i < sourceCount; i++) {
+			for (int j = 0; j < targetCount; j++) {
+				final double along = arrivingAt[j] - leavingAt[i];
+				if (leaving[i] != -1 && leaving[i] == arriving[j] && along >= 0
+					&& along * graph.getWeight(leaving[i], traffic) <= best) {
+					best = along * graph.getWeight(leaving[i], traffic);
+					path = null;
+					first = i;
+					last = -1;
+					direct = j;
+				}
+			}
+		}
+		if (first == -1) {
+			return toReturn;
+		}
+		if (last == -1) {
+			// Unless both points are the same
+			if (best > 0) {
+				toReturn.add(withTraffic(part(graph, leaving[first], leavingAt[first], arrivingAt[direct]), traffic));
+			}
+			return toReturn;
+		}
+		// The parts of the ways the points lie on, unless a point is at the very node the path leaves or reaches
+		if (sourceCosts[first] > 0) {
+			toReturn.add(withTraffic(part(graph, leaving[first], leavingAt[first], 1), traffic));
+		}
+		for (final int edge : path) {
+			toReturn.add(withTraffic(graph.getWay(edge), traffic));
+		}
+		if (targetCosts[last] > 0) {
+			toReturn.add(withTraffic(part(graph, arriving[last], 0, arrivingAt[last]), traffic));
 		}
 		return toReturn;
 	}
 	
+	/**
+	 * Finds the nodes a point on a road can leave it by, or be reached from. A point on an edge leaves it by the
+	 * edge's target at the cost of the rest of the edge, or is reached from the edge's source at the cost of the
+	 * start of it, and likewise along the edge the other way if the road has one. A point at the node a one way road
+	 * can't be followed to is at that node for nothing
+	 * 
+	 * @param graph the road graph
+	 * @param snap the point
+	 * @param arrive true for the nodes the point is reached from, false for the nodes it leaves by
+	 * @param traffic traffic multipliers by way name, or null
+	 * @param nodes the array to fill with the nodes
+	 * @param costs the array to fill with the cost of each
+	 * @param edges the array to fill with the edge the point is on for each, or -1 if it's at the node
+	 * @param at the array to fill with how far along each edge the point is
+	 * @return the number of nodes, 1 or 2
+	 */
+	private static int ends(final RoadGraph graph, final SegmentSnap snap, final boolean arrive,
+			final Map<String, Double> traffic, final int[] nodes, final double[] costs, final int[] edges,
+			final double[] at) {
+		final int edge = snap.getEdge();
+		final int reverse = reverse(graph, edge);
+		edges[0] = edge;
+		edges[1] = reverse;
+		at[0] = snap.getFraction();
+		at[1] = 1 - snap.getFraction();
+		for (int i = 0; i < 2; i++) {
+			if (edges[i] != -1) {
+				nodes[i] = arrive ? graph.getSource(edges[i]) : graph.getTarget(edges[i]);
+				costs[i] = (arrive ? at[i] : 1 - at[i]) * graph.getWeight(edges[i], traffic);
+			}
+		}
+		if (reverse != -1) {
+			return 2;
+		}
+		if (snap.getFraction() == (arrive ? 1 : 0)) {
+			nodes[1] = arrive ? graph.getTarget(edge) : graph.getSource(edge);
+			costs[1] = 0;
+			return 2;
+		}
+		return 1;
+	}
+	
+	/**
+	 * Finds the edge of the same road the other way. Other roads between the same two nodes, like a one way alley
+	 * beside a one way street, are not the road the other way
+	 * 
+	 * @param graph the road graph
+	 * @param edge an edge
+	 * @return the edge the other way between the same two nodes whose way has the same name, or -1 if there is none
+	 */
+	private static int reverse(final RoadGraph graph, final int edge) {
+		final int source = graph.getSource(edge);
+		final int target = graph.getTarget(edge);
+		final WayTable ways = graph.getWays();
+		final String name = ways.getName(graph.getWayOrdinal(edge));
+		for (int other = graph.firstEdge(target); other < graph.endEdge(target); other++) {
+			if (graph.getTarget(other) == source && name.equals(ways.getName(graph.getWayOrdinal(other)))) {
+				return other;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Cuts the way of an edge short. A cut end is a node of its own, not in the data, whose id is the way's id and how
+	 * far along it the node is
+	 * 
+	 * @param graph the road graph
+	 * @param edge an edge
+	 * @param from how far along the edge the part starts, from 0 to 1
+	 * @param to how far along the edge the part ends, from 0 to 1
+	 * @return the edge's way from one point along it to the other, the way itself if that's all of it
+	 */
+	private static MapWay part(final RoadGraph graph, final int edge, final double from, final double to) {
+		final MapWay way = graph.getWay(edge);
+		if (from == 0 && to == 1) {
+			return way;
+		}
+		return MapWay.create(way.getName(), way.getID(), pointAlong(way, from), pointAlong(way, to));
+	}
+	
+	/**
+	 * @param way a way
+	 * @param t how far along it, from 0 to 1
+	 * @return the way's start at 0, its end at 1, or a node of its own in between
+	 */
+	private static MapNode pointAlong(final MapWay way, final double t) {
+		if (t == 0) {
+			return way.getStart();
+		}
+		if (t == 1) {
+			return way.getEnd();
+		}
+		final MapNode start = way.getStart();
+		final MapNode end = way.getEnd();
+		final LatLongPoint p = new LatLongPoint(start.getLatitude() + t * (end.getLatitude() - start.getLatitude()),
+				start.getLongitude() + t * (end.getLongitude() - start.getLongitude()));
+		return MapNode.create(way.getID() + "@" + t, p, null);
+	}
+	
+	/**
+	 * @param node a node
+	 * @param nodes some nodes
+	 * @param costs the cost of each
+	 * @param count the number of nodes
+	 * @return the index of the cheapest of the nodes that is the node, or -1 if none is
+	 */
+	private static int cheapest(final int node, final int[] nodes, final double[] costs, final int count) {
+		int found = -1;
+		for (int i = 0; i < count; i++) {
+			if (nodes[i] == node && (found == -1 || costs[i] < costs[found])) {
+				found = i;
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * @param way a way
+	 * @param traffic traffic multipliers by way name, or null
+	 * @return the way, its traffic updated from the map
+	 */
+	private static MapWay withTraffic(final MapWay way, final Map<String, Double> traffic) {
+		if (traffic != null) {
+			way.updateTraffic(traffic.get(way.getName()));
+		}
+		return way;
+	}
+	
+	/**
+	 * Measures the travel distance from every origin to every destination under the current traffic, with one search
+	 * of the road graph per origin, run in parallel
+	 * 
+	 * @param origins the nodes to measure from
+	 * @param destinations the nodes to measure to
+	 * @return the distances by origin then destination, Double.POSITIVE_INFINITY where there is no path (or a node is
+	 *         null or outside the graph), or null if the thread was interrupted
+	 * @throws IOException if the road graph couldn't be built
+	 * @throws MapException if the road graph couldn't be built
+	 */
+	public static double[][] getDistanceMatrix(final List<MapNode> origins, final List<MapNode> destinations)
+			throws IOException, MapException {
+		final RoadGraph graph = getRoadGraph();
+		final ConcurrentHashMap<String, Double> traffic = trafficMap;
+		return DistanceMatrix.measure(graph, ordinals(graph, origins), ordinals(graph, destinations),
+				isNeutral(traffic) ? null : traffic);
+	}
+	
+	/**
+	 * @param graph the road graph
+	 * @param nodes some nodes
+	 * @return the ordinal of each node in the graph, or -1 where it's null or outside the graph
+	 */
+	private static int[] ordinals(final RoadGraph graph, final List<MapNode> nodes) {
+		final int[] found = new int[nodes.size()];
+		for (int i = 0; i < found.length; i++) {
+			final MapNode node = nodes.get(i);
+			found[i] = (node == null) ? -1 : graph.find(node);
+		}
+		return found;
+	}
+	
 }
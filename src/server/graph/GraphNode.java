@@ -5,7 +5,8 @@ import java.util.List;
 import java.util.Objects;
 
 /**
- * This class represents nodes in this package's Graph implementation
+ * This class represents nodes in this package's Graph implementation. Nodes are equal when their values' ids are,
+ * whatever their distances, but their natural ordering is by distance first, so it is inconsistent with equals
  * 
  * @author aiguha
  * @param <T> type contained in GraphNodes for the particular Graph
@@ -83,10 +84,19 @@ public class GraphNode<T extends Graphable<T>, S extends Weighable<S>> implement
 		return String.format(holder, value, edges, parentEdge, distance);
 	}
 	
+	/**
+	 * Orders nodes by their distance from the start, then by their values' ids. This is inconsistent with equals: two
+	 * nodes for the same id at different distances are equal but don't compare as 0. Searches order their frontiers
+	 * with comparators of their own, so don't keep nodes in sorted sets or maps, where a node's distance changing
+	 * would lose it anyway
+	 * 
+	 * @param o another node
+	 * @return the order of the two nodes
+	 */
 	@Override
 	public int compareTo(final GraphNode<T, S> o) {
 		final int distComp = Double.compare(this.getDistance(), o.getDistance());
-		// Two Nodes should be equal only if their ids (in addition to distance) are equal
+		// Ties in distance are broken by id, so only nodes for the same id at the same distance compare as 0
 		final int idComp = this.getValue().getID().compareTo(o.getValue().getID());
 		if (distComp != 0) {
 			return distComp;
@@ -102,13 +112,13 @@ public class GraphNode<T extends Graphable<T>, S extends Weighable<S>> implement
 			return false;
 		} else {
 			final GraphNode<?, ?> that = (GraphNode<?, ?>) o;
-			// Ensures Consistency between Equals and CompareTo
-			return (this.distance == that.distance) && (this.getValue().equals(that.getValue()));
+			// Only the value's id, as the distance changes while the node sits in a search's sets and maps
+			return this.getValue().getID().equals(that.getValue().getID());
 		}
 	}
 	
 	@Override
 	public int hashCode() {
-		return Objects.hash(value, distance);
+		return Objects.hash(value.getID());
 	}
 }
@@ -0,0 +1,402 @@
+package server.graph;
+
+import java.util.Arrays;
+
+/**
+ * Contracts the nodes of a RoadGraph one at a time to build a ContractionHierarchy. Contracting a node removes it
+ * from the remaining graph, adding a shortcut between two of its neighbors wherever the path through it is the only
+ * shortest one (a local "witness" search finds any other). Nodes are contracted cheapest first, judged by how many
+ * edges contracting them would add against how many it removes, by how many graph edges those stand for, and by how
+ * deep in the hierarchy they would sit. Contracting a node recomputes the priorities of its neighbors if it has few,
+ * and any other priority gone stale is caught lazily when its node comes up.<br>
+ * Witness searches are nearly all of the work, so each node's remaining edges keep their other end and weight next to
+ * the edge itself rather than behind it
+ * 
+ * @author aiguha
+ */
+class HierarchyBuilder {
+	
+	// Most nodes a witness search settles before giving up (and adding the shortcut anyway). Estimating a priority
+	// only needs a rough count, so it searches far less than an actual contraction
+	private static final int	SETTLE_LIMIT	= 500;
+	private static final int	ESTIMATE_LIMIT	= 50;
+	// Most neighbors whose priorities are recomputed as soon as a node is contracted. The last nodes of a dense graph
+	// have hundreds, and recomputing all of them would be most of the work
+	private static final int	UPDATE_LIMIT	= 8;
+	
+	private final int			size;
+	
+	// Every edge so far, original or shortcut. An original edge has child1 -1 and its RoadGraph edge in child2
+	private int[]				from;
+	private int[]				to;
+	private double[]			weights;
+	private int[]				child1;
+	private int[]				child2;
+	// Number of RoadGraph edges each edge stands for
+	private int[]				hops;
+	private int					edgeCount;
+	
+	// Edges of the remaining graph leaving each node, with the node each enters and its weight
+	private final int[][]		outEdges;
+	private final int[][]		outTargets;
+	private final double[][]	outWeights;
+	private final int[]			outSize;
+	// Edges of the remaining graph entering each node, with the node each leaves
+	private final int[][]		inEdges;
+	private final int[][]		inSources;
+	private final int[]			inSize;
+	
+	// Length of the longest chain of contracted nodes below each node
+	private final int[]			level;
+	private final int[]			rank;
+	
+	// Witness search state, stamped per search
+	private final IndexedHeap	heap;
+	private final double[]		distances;
+	private final int[]			reached;
+	// Search that last looked for each node as a target
+	private final int[]			wanted;
+	private int					search;
+	
+	/**
+	 * Creates the remaining graph from a road graph with neutral traffic, keeping the lightest of parallel edges
+	 * 
+	 * @param graph the road graph
+	 */
+	HierarchyBuilder(final RoadGraph graph) {
+		size = graph.size();
+		final int edges = graph.edgeCount();
+		from = new int[edges];
+		to = new int[edges];
+		weights = new double[edges];
+		child1 = new int[edges];
+		child2 = new int[edges];
+		hops = new int[edges];
+		outEdges = new int[size][];
+		outTargets = new int[size][];
+		outWeights = new double[size][];
+		outSize = new int[size];
+		inEdges = new int[size][];
+		inSources = new int[size][];
+		inSize = new int[size];
+		level = new int[size];
+		rank = new int[size];
+		heap = new IndexedHeap(size);
+		distances = new double[size];
+		reached = new int[size];
+		wanted = new int[size];
+		for (int u = 0; u < size; u++) {
+			final int degree = Math.max(2, graph.endEdge(u) - graph.firstEdge(u));
+			outEdges[u] = new int[degree];
+			outTargets[u] = new int[degree];
+			outWeights[u] = new double[degree];
+			inEdges[u] = new int[2];
+			inSources[u] = new int[2];
+		}
+		for (int u = 0; u < size; u++) {
+			for (int e = graph.firstEdge(u); e < graph.endEdge(u); e++) {
+				final int v = graph.getTarget(e);
+				final double w = graph.getWeight(e, null);
+				final int parallel = findEdge(u, v);
+				if (parallel == -1) {
+					addEdge(u, v, w, -1, e, 1);
+				} else if (w < outWeights[u][parallel]) {
+					setEdge(u, parallel, w, -1, e, 1);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Finds an edge of the remaining graph
+	 * 
+	 * @param u the node it leaves
+	 * @param v the node it enters
+	 * @return the edge's index in u's list of edges leaving it, or -1 if there is none
+	 */
+	private int findEdge(final int u, final int v) {
+		final int[] targets = outTargets[u];
+		for (int i = 0; i < outSize[u]; i++) {
+			if (targets[i] == v) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Adds an edge to the remaining graph
+	 * 
+	 * @param u the node it leaves
+	 * @param v the node it enters
+	 * @param weight its weight
+	 * @param first the first edge it shortcuts, or -1 for an original edge
+	 * @param second the second edge it shortcuts, or the RoadGraph edge of an original edge
+	 * @param count the number of RoadGraph edges it stands for
+	 */
+	private void addEdge(final int u, final int v, final double weight, final int first, final int second,
+			final int count) {
+		if (edgeCount == from.length) {
+			final int capacity = Math.max(16, edgeCount + (edgeCount >> 1));
+			from = Arrays.copyOf(from, capacity);
+			to = Arrays.copyOf(to, capacity);
+			weights = Arrays.copyOf(weights, capacity);
+			child1 = Arrays.copyOf(child1, capacity);
+			child2 = Arrays.copyOf(child2, capacity);
+			hops = Arrays.copyOf(hops, capacity);
+		}
+		final int e = edgeCount++;
+		from[e] = u;
+		to[e] = v;
+		if (outSize[u] == outEdges[u].length) {
+			final int capacity = outSize[u] * 2;
+			outEdges[u] = Arrays.copyOf(outEdges[u], capacity);
+			outTargets[u] = Arrays.copyOf(outTargets[u], capacity);
+			outWeights[u] = Arrays.copyOf(outWeights[u], capacity);
+		}
+		outEdges[u][outSize[u]] = e;
+		outTargets[u][outSize[u]] = v;
+		setEdge(u, outSize[u]++, weight, first, second, count);
+		if (inSize[v] == inEdges[v].length) {
+			inEdges[v] = Arrays.copyOf(inEdges[v], inSize[v] * 2);
+			inSources[v] = Arrays.copyOf(inSources[v], inSize[v] * 2);
+		}
+		inEdges[v][inSize[v]] = e;
+		inSources[v][inSize[v]++] = u;
+	}
+	
+	/**
+	 * Sets what an edge of the remaining graph weighs and stands for
+	 * 
+	 * @param u the node it leaves
+	 * @param i its index in u's list of edges leaving it
+	 * @param weight its weight
+	 * @param first the first edge it shortcuts, or -1 for an original edge
+	 * @param second the second edge it shortcuts, or the RoadGraph edge of an original edge
+	 * @param count the number of RoadGraph edges it stands for
+	 */
+	private void setEdge(final int u, final int i, final double weight, final int first, final int second,
+			final int count) {
+		final int e = outEdges[u][i];
+		outWeights[u][i] = weight;
+		weights[e] = weight;
+		child1[e] = first;
+		child2[e] = second;
+		hops[e] = count;
+	}
+	
+	/**
+	 * Contracts every node
+	 * 
+	 * @return the hierarchy
+	 */
+	ContractionHierarchy build() {
+		final IndexedHeap queue = new IndexedHeap(size);
+		for (int v = 0; v < size; v++) {
+			queue.push(v, contract(v, false));
+		}
+		int next = 0;
+		while (!queue.isEmpty()) {
+			final double key = queue.getKey(queue.peek());
+			final int v = queue.poll();
+			// Lazy update: a node whose priority grew goes back in if it's no longer the cheapest
+			final double priority = contract(v, false);
+			if (priority > key && !queue.isEmpty() && priority > queue.getKey(queue.peek())) {
+				queue.push(v, priority);
+				continue;
+			}
+			contract(v, true);
+			rank[v] = next++;
+			// The neighbors' edge lists change, so their priorities are recomputed right away, unless there are so
+			// many that the lazy update is cheaper
+			final int[] neighbors = removeNode(v);
+			if (neighbors.length <= UPDATE_LIMIT) {
+				for (final int n : neighbors) {
+					queue.update(n, contract(n, false));
+				}
+			}
+		}
+		return new ContractionHierarchy(size, rank, Arrays.copyOf(from, edgeCount), Arrays.copyOf(to, edgeCount),
+				Arrays.copyOf(weights, edgeCount), Arrays.copyOf(child1, edgeCount), Arrays.copyOf(child2, edgeCount));
+	}
+	
+	/**
+	 * Takes a contracted node out of its neighbors' edge lists
+	 * 
+	 * @param v the node
+	 * @return the neighbors, each once
+	 */
+	private int[] removeNode(final int v) {
+		final int[] neighbors = new int[inSize[v] + outSize[v]];
+		int count = 0;
+		for (int i = 0; i < inSize[v]; i++) {
+			final int u = inSources[v][i];
+			final int at = indexOf(outEdges[u], outSize[u], inEdges[v][i]);
+			final int last = --outSize[u];
+			outEdges[u][at] = outEdges[u][last];
+			outTargets[u][at] = outTargets[u][last];
+			outWeights[u][at] = outWeights[u][last];
+			count = touch(neighbors, count, u, v);
+		}
+		for (int i = 0; i < outSize[v]; i++) {
+			final int x = outTargets[v][i];
+			final int at = indexOf(inEdges[x], inSize[x], outEdges[v][i]);
+			final int last = --inSize[x];
+			inEdges[x][at] = inEdges[x][last];
+			inSources[x][at] = inSources[x][last];
+			count = touch(neighbors, count, x, v);
+		}
+		return Arrays.copyOf(neighbors, count);
+	}
+	
+	/**
+	 * Records that a neighbor of a node lost it, once per neighbor
+	 * 
+	 * @param neighbors the neighbors recorded so far
+	 * @param count the number recorded
+	 * @param n the neighbor
+	 * @param v the contracted node
+	 * @return the new number recorded
+	 */
+	private int touch(final int[] neighbors, final int count, final int n, final int v) {
+		for (int i = 0; i < count; i++) {
+			if (neighbors[i] == n) {
+				return count;
+			}
+		}
+		level[n] = Math.max(level[n], level[v] + 1);
+		neighbors[count] = n;
+		return count + 1;
+	}
+	
+	/**
+	 * Finds an edge in an edge list
+	 * 
+	 * @param list the list
+	 * @param length the length of the list
+	 * @param edge the edge
+	 * @return its index
+	 */
+	private static int indexOf(final int[] list, final int length, final int edge) {
+		for (int i = 0; i < length; i++) {
+			if (list[i] == edge) {
+				return i;
+			}
+		}
+		throw new IllegalStateException("Edge " + edge + " is not in the list");
+	}
+	
+	/**
+	 * Finds the shortcuts contracting a node needs, and adds them if asked to
+	 * 
+	 * @param v the node
+	 * @param add true to add the shortcuts, false to only count them
+	 * @return the node's priority: twice the ratio of edges added to edges removed, four times the same ratio counting
+	 *         the graph edges they stand for, plus the node's level
+	 */
+	private double contract(final int v, final boolean add) {
+		int added = 0;
+		int addedHops = 0;
+		final int[] targets = outTargets[v];
+		final double[] outgoing = outWeights[v];
+		for (int i = 0; i < inSize[v]; i++) {
+			final int inEdge = inEdges[v][i];
+			final int u = inSources[v][i];
+			final double toV = weights[inEdge];
+			double limit = -1;
+			for (int j = 0; j < outSize[v]; j++) {
+				if (targets[j] != u) {
+					limit = Math.max(limit, toV + outgoing[j]);
+				}
+			}
+			// Nothing to reach through v but u itself
+			if (limit < 0) {
+				continue;
+			}
+			witnessSearch(u, v, limit, add ? SETTLE_LIMIT : ESTIMATE_LIMIT);
+			for (int j = 0; j < outSize[v]; j++) {
+				final int x = targets[j];
+				final double via = toV + outgoing[j];
+				if (x == u || (reached[x] == search && distances[x] <= via)) {
+					continue;
+				}
+				final int outEdge = outEdges[v][j];
+				final int count = hops[inEdge] + hops[outEdge];
+				// A heavier edge already there is replaced rather than joined by a parallel one. Nothing refers to it
+				// yet, since only edges of contracted nodes are ever shortcut
+				final int parallel = findEdge(u, x);
+				if (parallel == -1) {
+					added++;
+					addedHops += count;
+					if (add) {
+						addEdge(u, x, via, inEdge, outEdge, count);
+					}
+				} else if (add && via < outWeights[u][parallel]) {
+					setEdge(u, parallel, via, inEdge, outEdge, count);
+				}
+			}
+		}
+		final int removed = inSize[v] + outSize[v];
+		if (removed == 0) {
+			return level[v];
+		}
+		int removedHops = 0;
+		for (int i = 0; i < inSize[v]; i++) {
+			removedHops += hops[inEdges[v][i]];
+		}
+		for (int i = 0; i < outSize[v]; i++) {
+			removedHops += hops[outEdges[v][i]];
+		}
+		return 2.0 * added / removed + 4.0 * addedHops / removedHops + level[v];
+	}
+	
+	/**
+	 * Runs Dijkstra's algorithm from a node over the remaining graph without another node, until it has settled every
+	 * node the other one leads to, passed a distance or settled enough nodes
+	 * 
+	 * @param source the node to search from
+	 * @param skip the node to leave out
+	 * @param limit the distance to stop at
+	 * @param settleLimit the most nodes to settle
+	 */
+	private void witnessSearch(final int source, final int skip, final double limit, final int settleLimit) {
+		heap.clear();
+		search++;
+		int targets = 0;
+		for (int j = 0; j < outSize[skip]; j++) {
+			final int x = outTargets[skip][j];
+			if (x != source && wanted[x] != search) {
+				wanted[x] = search;
+				targets++;
+			}
+		}
+		reached[source] = search;
+		distances[source] = 0;
+		heap.push(source, 0);
+		int settled = 0;
+		while (!heap.isEmpty() && settled < settleLimit) {
+			final int cur = heap.poll();
+			final double distance = distances[cur];
+			if (distance > limit) {
+				break;
+			}
+			// Further nodes can't shorten the way to a target once it's settled
+			if (wanted[cur] == search && --targets == 0) {
+				break;
+			}
+			settled++;
+			final int[] next = outTargets[cur];
+			final double[] edgeWeights = outWeights[cur];
+			for (int i = 0; i < outSize[cur]; i++) {
+				final int n = next[i];
+				final double d = distance + edgeWeights[i];
+				if (n == skip || (reached[n] == search && distances[n] <= d)) {
+					continue;
+				}
+				reached[n] = search;
+				distances[n] = d;
+				heap.push(n, d);
+			}
+		}
+	}
+}
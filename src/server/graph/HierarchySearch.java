@@ -0,0 +1,226 @@
+package server.graph;
+
+import java.util.Arrays;
+
+/**
+ * Bidirectional shortest path query over a ContractionHierarchy. Dijkstra's algorithm runs upward from the source
+ * over edges leaving each node and upward from the target over edges entering each node, taking turns. Every node
+ * reached from both sides is a candidate meeting point, and a side stops once the smallest distance on its frontier
+ * is no better than the best path found so far. The shortcuts of the best path are then unpacked into RoadGraph
+ * edges. Like RoadSearch it works on ordinals in reused arrays, so each thread gets its own from forHierarchy
+ * 
+ * @author aiguha
+ */
+public class HierarchySearch {
+	
+	private static final int[]							NO_EDGES	= new int[0];
+	
+	private static final ThreadLocal<HierarchySearch>	searches	= new ThreadLocal<>();
+	
+	private final ContractionHierarchy					hierarchy;
+	// Forward state is index 0, backward state index 1
+	private final IndexedHeap[]							frontiers;
+	private final double[][]							distances;
+	// Hierarchy edge each reached node was last reached by, or -1 for the source and target
+	private final int[][]								parents;
+	private final int[][]								reached;
+	private int											search;
+	private int											settled;
+	private double										length;
+	// Unpacking stack and output
+	private int[]										stack		= new int[64];
+	private int[]										path		= new int[64];
+	
+	/**
+	 * Creates a search over a hierarchy
+	 * 
+	 * @param hierarchy the hierarchy
+	 */
+	public HierarchySearch(final ContractionHierarchy hierarchy) {
+		this.hierarchy = hierarchy;
+		final int size = hierarchy.size();
+		frontiers = new IndexedHeap[] { new IndexedHeap(size), new IndexedHeap(size) };
+		distances = new double[2][size];
+		parents = new int[2][size];
+		reached = new int[2][size];
+	}
+	
+	/**
+	 * Gets the current thread's search over a hierarchy, creating it if the thread has none for this hierarchy yet
+	 * 
+	 * @param hierarchy the hierarchy
+	 * @return the search
+	 */
+	public static HierarchySearch forHierarchy(final ContractionHierarchy hierarchy) {
+		HierarchySearch s = searches.get();
+		if (s == null || s.hierarchy != hierarchy) {
+			s = new HierarchySearch(hierarchy);
+			searches.set(s);
+		}
+		return s;
+	}
+	
+	/**
+	 * Starts a new search, forgetting what earlier ones reached
+	 */
+	private void begin() {
+		frontiers[0].clear();
+		frontiers[1].clear();
+		settled = 0;
+		if (search == Integer.MAX_VALUE) {
+			Arrays.fill(reached[0], 0);
+			Arrays.fill(reached[1], 0);
+			search = 0;
+		}
+		search++;
+	}
+	
+	/**
+	 * Lowers a node's distance on one side if a new way to it is shorter
+	 * 
+	 * @param side 0 for forward, 1 for backward
+	 * @param node the node
+	 * @param distance the new distance
+	 * @param parent the edge the new way arrives by
+	 */
+	private void relax(final int side, final int node, final double distance, final int parent) {
+		if (reached[side][node] == search && distances[side][node] <= distance) {
+			return;
+		}
+		reached[side][node] = search;
+		distances[side][node] = distance;
+		parents[side][node] = parent;
+		frontiers[side].push(node, distance);
+	}
+	
+	/**
+	 * Finds the shortest path between two nodes with neutral traffic
+	 * 
+	 * @param source the ordinal of the start node
+	 * @param target the ordinal of the end node
+	 * @return the RoadGraph edges of the path in order, empty if there is none (or source is target), or null if the
+	 *         thread was interrupted
+	 */
+	public int[] shortestPath(final int source, final int target) {
+		begin();
+		relax(0, source, 0, -1);
+		relax(1, target, 0, -1);
+		double best = Double.MAX_VALUE;
+		int meet = -1;
+		final Thread thread = Thread.currentThread();
+		int side = 0;
+		while (true) {
+			if (thread.isInterrupted()) {
+				return null;
+			}
+			// Each side is done once its frontier can't beat the best path
+			final boolean forward = !frontiers[0].isEmpty() && frontiers[0].getKey(frontiers[0].peek()) < best;
+			final boolean backward = !frontiers[1].isEmpty() && frontiers[1].getKey(frontiers[1].peek()) < best;
+			if (!forward && !backward) {
+				break;
+			}
+			if (!(side == 0 ? forward : backward)) {
+				side = 1 - side;
+			}
+			final int cur = frontiers[side].poll();
+			settled++;
+			final double distance = distances[side][cur];
+			if (reached[1 - side][cur] == search && distance + distances[1 - side][cur] < best) {
+				best = distance + distances[1 - side][cur];
+				meet = cur;
+			}
+			if (side == 0) {
+				for (int i = hierarchy.firstUp(cur); i < hierarchy.endUp(cur); i++) {
+					final int edge = hierarchy.upEdge(i);
+					relax(0, hierarchy.getTo(edge), distance + hierarchy.getWeight(edge), edge);
+				}
+			} else {
+				for (int i = hierarchy.firstDown(cur); i < hierarchy.endDown(cur); i++) {
+					final int edge = hierarchy.downEdge(i);
+					relax(1, hierarchy.getFrom(edge), distance + hierarchy.getWeight(edge), edge);
+				}
+			}
+			side = 1 - side;
+		}
+		length = best;
+		if (meet == -1) {
+			return NO_EDGES;
+		}
+		return unpack(meet);
+	}
+	
+	/**
+	 * Unpacks the hierarchy edges from the source to a meeting node and from it to the target into graph edges
+	 * 
+	 * @param meet the meeting node
+	 * @return the RoadGraph edges of the path in order
+	 */
+	private int[] unpack(final int meet) {
+		// The forward half is found meeting node first, so it's pushed in that order and comes off the stack reversed
+		int top = 0;
+		for (int node = meet; parents[0][node] != -1; node = hierarchy.getFrom(parents[0][node])) {
+			top = push(top, parents[0][node]);
+		}
+		int length = drain(top, 0);
+		for (int node = meet; parents[1][node] != -1; node = hierarchy.getTo(parents[1][node])) {
+			length = drain(push(0, parents[1][node]), length);
+		}
+		return Arrays.copyOf(path, length);
+	}
+	
+	/**
+	 * Pushes an edge onto the unpacking stack
+	 * 
+	 * @param top the size of the stack
+	 * @param edge the edge
+	 * @return the new size
+	 */
+	private int push(final int top, final int edge) {
+		if (top == stack.length) {
+			stack = Arrays.copyOf(stack, top * 2);
+		}
+		stack[top] = edge;
+		return top + 1;
+	}
+	
+	/**
+	 * Unpacks the edges on the stack, last pushed first, appending their graph edges to the path
+	 * 
+	 * @param size the size of the stack
+	 * @param length the length of the path so far
+	 * @return the new length of the path
+	 */
+	private int drain(final int size, final int length) {
+		int top = size;
+		int at = length;
+		while (top > 0) {
+			final int edge = stack[--top];
+			final int first = hierarchy.getFirstChild(edge);
+			if (first == -1) {
+				if (at == path.length) {
+					path = Arrays.copyOf(path, at * 2);
+				}
+				path[at++] = hierarchy.getSecondChild(edge);
+			} else {
+				// The second child goes under the first, so the first comes off next
+				top = push(top, hierarchy.getSecondChild(edge));
+				top = push(top, first);
+			}
+		}
+		return at;
+	}
+	
+	/**
+	 * @return the length of the path the last search found, or Double.MAX_VALUE if there was none
+	 */
+	public double getLength() {
+		return length;
+	}
+	
+	/**
+	 * @return the number of nodes the last search settled on both sides
+	 */
+	public int getSettled() {
+		return settled;
+	}
+}
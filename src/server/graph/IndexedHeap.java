@@ -0,0 +1,183 @@
+package server.graph;
+
+import java.util.Arrays;
+
+/**
+ * A 4-ary min heap of the ints 0 to capacity - 1, each with a double key. Knows where each item sits, so an item's key
+ * can be lowered in place instead of removing and re-adding it, and needs no objects per item. A 4-ary heap is
+ * shallower than a binary one, which suits searches that lower keys far more often than they poll
+ * 
+ * @author aiguha
+ */
+public class IndexedHeap {
+	
+	private static final int	ARITY	= 4;
+	
+	private final int[]			heap;
+	// Slot of each item in heap, or -1 if it isn't in the heap
+	private final int[]			positions;
+	private final double[]		keys;
+	private int					size;
+	
+	/**
+	 * Creates an empty heap
+	 * 
+	 * @param capacity one more than the largest item
+	 */
+	public IndexedHeap(final int capacity) {
+		heap = new int[capacity];
+		positions = new int[capacity];
+		keys = new double[capacity];
+		Arrays.fill(positions, -1);
+	}
+	
+	/**
+	 * @return the number of items in the heap
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return true if there are no items in the heap
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * @param item an item
+	 * @return true if the item is in the heap
+	 */
+	public boolean contains(final int item) {
+		return positions[item] != -1;
+	}
+	
+	/**
+	 * @param item an item in the heap
+	 * @return the item's key
+	 */
+	public double getKey(final int item) {
+		return keys[item];
+	}
+	
+	/**
+	 * Adds an item, or lowers its key if it's already in the heap. A key higher than the one the item has is ignored
+	 * 
+	 * @param item the item
+	 * @param key the item's key
+	 */
+	public void push(final int item, final double key) {
+		int at = positions[item];
+		if (at == -1) {
+			at = size++;
+		} else if (key >= keys[item]) {
+			return;
+		}
+		keys[item] = key;
+		siftUp(item, at);
+	}
+	
+	/**
+	 * Adds an item, or changes its key either way if it's already in the heap
+	 * 
+	 * @param item the item
+	 * @param key the item's key
+	 */
+	public void update(final int item, final double key) {
+		final int at = positions[item];
+		if (at == -1 || key < keys[item]) {
+			push(item, key);
+			return;
+		}
+		keys[item] = key;
+		siftDown(item, at);
+	}
+	
+	/**
+	 * Moves an item up from a slot until its parent's key is no higher
+	 * 
+	 * @param item the item
+	 * @param from the slot to start from
+	 */
+	private void siftUp(final int item, final int from) {
+		final double key = keys[item];
+		int at = from;
+		while (at > 0) {
+			final int parent = (at - 1) / ARITY;
+			final int above = heap[parent];
+			if (keys[above] <= key) {
+				break;
+			}
+			heap[at] = above;
+			positions[above] = at;
+			at = parent;
+		}
+		heap[at] = item;
+		positions[item] = at;
+	}
+	
+	/**
+	 * Moves an item down from a slot until none of its children's keys are lower
+	 * 
+	 * @param item the item
+	 * @param from the slot to start from
+	 */
+	private void siftDown(final int item, final int from) {
+		final double key = keys[item];
+		int at = from;
+		while (true) {
+			final int first = at * ARITY + 1;
+			if (first >= size) {
+				break;
+			}
+			int min = first;
+			final int end = Math.min(first + ARITY, size);
+			for (int child = first + 1; child < end; child++) {
+				if (keys[heap[child]] < keys[heap[min]]) {
+					min = child;
+				}
+			}
+			if (keys[heap[min]] >= key) {
+				break;
+			}
+			heap[at] = heap[min];
+			positions[heap[at]] = at;
+			at = min;
+		}
+		heap[at] = item;
+		positions[item] = at;
+	}
+	
+	/**
+	 * @return the item with the lowest key, without removing it
+	 */
+	public int peek() {
+		return heap[0];
+	}
+	
+	/**
+	 * Removes the item with the lowest key
+	 * 
+	 * @return the item
+	 */
+	public int poll() {
+		final int top = heap[0];
+		positions[top] = -1;
+		final int last = heap[--size];
+		if (size > 0) {
+			siftDown(last, 0);
+		}
+		return top;
+	}
+	
+	/**
+	 * Removes every item, in time proportional to the number of items left rather than the capacity
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			positions[heap[i]] = -1;
+		}
+		size = 0;
+	}
+}
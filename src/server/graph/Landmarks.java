@@ -0,0 +1,274 @@
+package server.graph;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Landmark distance tables over a RoadGraph with neutral traffic, for the ALT heuristic (A*, landmarks and the
+ * triangle inequality). A few landmark nodes are picked far apart, and the distance from each landmark to every node
+ * and from every node to each landmark is kept. The distance from v to t is then at least d(L, t) - d(L, v) and d(v, L)
+ * - d(t, L) for every landmark L, which bounds paths far more tightly than a straight line where the roads wind.<br>
+ * The tables are floats, each rounded down as the search that made it goes, so every table is itself a feasible
+ * potential: no edge is shorter than the difference it spans. The bounds are then never too long, and consistent, so
+ * A* with them settles each node once. Traffic only makes edges heavier than the lowest multiplier allows for, so the
+ * bounds times that multiplier hold under any traffic without recomputing.<br>
+ * Like a ContractionHierarchy the tables are written next to the ways file as a Sidecar, stamped with the data
+ * files, and only loaded back if they still match.<br>
+ * Body layout (big endian): the landmark count, every landmark, then the distances from and to the landmarks of
+ * every node
+ * 
+ * @author aiguha
+ */
+public class Landmarks {
+	
+	public static final String	SUFFIX	= ".alt";
+	
+	private static final int	MAGIC	= 0x54414c31;
+	private static final int	VERSION	= 1;
+	
+	private final int[]			landmarks;
+	// Node v's distances from and to landmark i are at v * landmarks.length + i
+	private final float[]		from;
+	private final float[]		to;
+	
+	/**
+	 * Creates landmarks from their distance tables
+	 * 
+	 * @param landmarks the landmark nodes
+	 * @param from the distance from each landmark to each node, by node then landmark
+	 * @param to the distance from each node to each landmark, by node then landmark
+	 */
+	Landmarks(final int[] landmarks, final float[] from, final float[] to) {
+		this.landmarks = landmarks;
+		this.from = from;
+		this.to = to;
+	}
+	
+	/**
+	 * Picks landmarks far apart and measures the distances to and from them. The first landmark is the node farthest
+	 * from the first node with an edge, and each next one the node farthest, there and back, from its nearest landmark
+	 * so far. Fewer are picked if every node reached is a landmark already
+	 * 
+	 * @param graph the road graph
+	 * @param count the number of landmarks
+	 * @return the landmarks
+	 */
+	public static Landmarks build(final RoadGraph graph, final int count) {
+		final int size = graph.size();
+		final IndexedHeap heap = new IndexedHeap(size);
+		final float[] there = new float[size];
+		final float[] back = new float[size];
+		final float[][] fromTables = new float[count][];
+		final float[][] toTables = new float[count][];
+		final int[] picked = new int[count];
+		// Distance from each node to its nearest landmark and back, or infinity if none reaches it
+		final double[] nearest = new double[size];
+		Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+		int start = 0;
+		while (start < size && graph.firstEdge(start) == graph.endEdge(start)) {
+			start++;
+		}
+		int landmark = (start == size) ? -1 : farthest(search(graph, start, false, heap, there));
+		int found = 0;
+		while (found < count && landmark != -1) {
+			picked[found] = landmark;
+			fromTables[found] = search(graph, landmark, false, heap, there).clone();
+			toTables[found] = search(graph, landmark, true, heap, back).clone();
+			found++;
+			landmark = -1;
+			double farthest = 0;
+			for (int v = 0; v < size; v++) {
+				final float d = fromTables[found - 1][v];
+				final float e = toTables[found - 1][v];
+				if (d != Float.POSITIVE_INFINITY && e != Float.POSITIVE_INFINITY) {
+					nearest[v] = Math.min(nearest[v], (double) d + e);
+				}
+				if (nearest[v] != Double.POSITIVE_INFINITY && nearest[v] > farthest) {
+					farthest = nearest[v];
+					landmark = v;
+				}
+			}
+		}
+		final float[] from = new float[size * found];
+		final float[] to = new float[size * found];
+		for (int i = 0; i < found; i++) {
+			for (int v = 0; v < size; v++) {
+				from[v * found + i] = fromTables[i][v];
+				to[v * found + i] = toTables[i][v];
+			}
+		}
+		return new Landmarks(Arrays.copyOf(picked, found), from, to);
+	}
+	
+	/**
+	 * Runs Dijkstra's algorithm from a node over every node it reaches, rounding each distance down to a float as it
+	 * goes, so no edge is shorter than the difference between the rounded distances of its ends
+	 * 
+	 * @param graph the road graph
+	 * @param source the node to start from
+	 * @param backward true to follow edges backwards, measuring the distances to the source
+	 * @param heap an empty heap as big as the graph
+	 * @param distances the array to fill
+	 * @return distances, with infinity where the source doesn't reach
+	 */
+	private static float[] search(final RoadGraph graph, final int source, final boolean backward,
+			final IndexedHeap heap, final float[] distances) {
+		Arrays.fill(distances, Float.POSITIVE_INFINITY);
+		distances[source] = 0;
+		heap.push(source, 0);
+		while (!heap.isEmpty()) {
+			final int cur = heap.poll();
+			final int first = backward ? graph.firstInEdge(cur) : graph.firstEdge(cur);
+			final int end = backward ? graph.endInEdge(cur) : graph.endEdge(cur);
+			for (int i = first; i < end; i++) {
+				final int edge = backward ? graph.getInEdge(i) : i;
+				final int next = backward ? graph.getSource(edge) : graph.getTarget(edge);
+				final double exact = distances[cur] + graph.getWeight(edge, null);
+				float rounded = (float) exact;
+				if (rounded > exact) {
+					rounded = Math.nextDown(rounded);
+				}
+				if (rounded < distances[next]) {
+					distances[next] = rounded;
+					heap.push(next, rounded);
+				}
+			}
+		}
+		return distances;
+	}
+	
+	/**
+	 * @param distances distances from a search
+	 * @return the node with the greatest finite distance, or -1 if there is none but the source
+	 */
+	private static int farthest(final float[] distances) {
+		int node = -1;
+		float farthest = 0;
+		for (int v = 0; v < distances.length; v++) {
+			if (distances[v] != Float.POSITIVE_INFINITY && distances[v] > farthest) {
+				farthest = distances[v];
+				node = v;
+			}
+		}
+		return node;
+	}
+	
+	/**
+	 * @param waysFile the ways file
+	 * @return the landmarks file belonging to this data-set
+	 */
+	public static File fileFor(final String waysFile) {
+		return new File(waysFile + SUFFIX);
+	}
+	
+	/**
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return (landmarks.length == 0) ? 0 : from.length / landmarks.length;
+	}
+	
+	/**
+	 * @return the number of landmarks
+	 */
+	public int count() {
+		return landmarks.length;
+	}
+	
+	/**
+	 * @param i a landmark, from 0 to count
+	 * @return the landmark's node ordinal
+	 */
+	public int getLandmark(final int i) {
+		return landmarks[i];
+	}
+	
+	/**
+	 * Bounds the distance between two nodes with neutral traffic from below, by the triangle inequality over every
+	 * landmark that reaches or is reached by both
+	 * 
+	 * @param node the node a path leaves
+	 * @param target the node it reaches
+	 * @return the bound, at least 0
+	 */
+	public double lowerBound(final int node, final int target) {
+		final int k = landmarks.length;
+		final int v = node * k;
+		final int t = target * k;
+		double bound = 0;
+		for (int i = 0; i < k; i++) {
+			final float toTarget = from[t + i];
+			final float toNode = from[v + i];
+			if (toTarget != Float.POSITIVE_INFINITY && toNode != Float.POSITIVE_INFINITY) {
+				bound = Math.max(bound, (double) toTarget - toNode);
+			}
+			final float fromNode = to[v + i];
+			final float fromTarget = to[t + i];
+			if (fromNode != Float.POSITIVE_INFINITY && fromTarget != Float.POSITIVE_INFINITY) {
+				bound = Math.max(bound, (double) fromNode - fromTarget);
+			}
+		}
+		return bound;
+	}
+	
+	/**
+	 * Writes the landmarks as a Sidecar file, so a reader never sees half written tables
+	 * 
+	 * @param target the file to write
+	 * @param sources the ways, nodes and index files, in that order
+	 * @param graph the road graph the landmarks were built from
+	 * @throws IOException file io failed
+	 */
+	public void write(final File target, final File[] sources, final RoadGraph graph) throws IOException {
+		Sidecar.write(target, MAGIC, VERSION, sources, graph, new Sidecar.Body() {
+			
+			@Override
+			public void writeTo(final DataOutputStream out) throws IOException {
+				out.writeInt(landmarks.length);
+				for (final int landmark : landmarks) {
+					out.writeInt(landmark);
+				}
+				for (final float[] column : new float[][] { from, to }) {
+					for (final float value : column) {
+						out.writeFloat(value);
+					}
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Loads landmarks if they exist and still match their sources and graph
+	 * 
+	 * @param file the landmarks file
+	 * @param sources the ways, nodes and index files, in that order
+	 * @param graph the road graph of the sources
+	 * @return the landmarks, or null if they are missing, stale or corrupt
+	 * @throws IOException file io failed
+	 */
+	public static Landmarks load(final File file, final File[] sources, final RoadGraph graph) throws IOException {
+		final ByteBuffer buffer = Sidecar.read(file, MAGIC, VERSION, sources, graph);
+		if (buffer == null || buffer.limit() < 4) {
+			return null;
+		}
+		final int nodes = graph.size();
+		final int count = buffer.getInt(0);
+		if (count < 0 || buffer.limit() - 4 != count * 4L + nodes * (long) count * 8L) {
+			return null;
+		}
+		buffer.position(4);
+		final int[] landmarks = new int[count];
+		final float[] from = new float[nodes * count];
+		final float[] to = new float[nodes * count];
+		buffer.asIntBuffer().get(landmarks);
+		buffer.position(buffer.position() + count * 4);
+		for (final float[] column : new float[][] { from, to }) {
+			buffer.asFloatBuffer().get(column);
+			buffer.position(buffer.position() + column.length * 4);
+		}
+		return new Landmarks(landmarks, from, to);
+	}
+}
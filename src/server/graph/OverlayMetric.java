@@ -0,0 +1,87 @@
+package server.graph;
+
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * The weights of a CellOverlay under one state of traffic: the weight of every RoadGraph edge, and for every cell of
+ * every level the shortest distance inside the cell from each of its entry nodes to each of its exit nodes. A metric
+ * is never changed once published. Customizing the overlay to new traffic makes a new one, sharing the distances of
+ * every cell the new traffic didn't touch, so searches can keep using the old one meanwhile
+ * 
+ * @author aiguha
+ */
+public class OverlayMetric {
+	
+	private final double[]				edgeWeights;
+	// Level - 1, then cell, then entry * exits + exit
+	private final double[][][]			cliques;
+	private final Map<String, Double>	traffic;
+	
+	/**
+	 * Creates a metric
+	 * 
+	 * @param edgeWeights the weight of every graph edge
+	 * @param cliques the entry to exit distances of every cell by level
+	 * @param traffic the traffic the weights were computed with, not to be changed afterwards
+	 */
+	OverlayMetric(final double[] edgeWeights, final double[][][] cliques, final Map<String, Double> traffic) {
+		this.edgeWeights = edgeWeights;
+		this.cliques = cliques;
+		this.traffic = traffic;
+	}
+	
+	/**
+	 * @param edge a RoadGraph edge
+	 * @return the edge's weight
+	 */
+	double getWeight(final int edge) {
+		return edgeWeights[edge];
+	}
+	
+	/**
+	 * @param level a level, from 1
+	 * @param cell a cell of the level
+	 * @return the cell's entry to exit distances, row by entry, or Double.POSITIVE_INFINITY where an exit can't be
+	 *         reached inside the cell
+	 */
+	double[] getClique(final int level, final int cell) {
+		return cliques[level - 1][cell];
+	}
+	
+	/**
+	 * @return the entry to exit distances of every cell by level
+	 */
+	double[][][] getCliques() {
+		return cliques;
+	}
+	
+	/**
+	 * @return the weight of every graph edge
+	 */
+	double[] getWeights() {
+		return edgeWeights;
+	}
+	
+	/**
+	 * Checks whether the metric was customized to the given traffic, so a search over it finds the same distances as
+	 * a search of the road graph with that traffic
+	 * 
+	 * @param current traffic multipliers by way name, or null
+	 * @return true if current has exactly the multipliers this metric was computed with
+	 */
+	public boolean matches(final Map<String, Double> current) {
+		if (current == null) {
+			return traffic.isEmpty();
+		}
+		if (current.size() != traffic.size()) {
+			return false;
+		}
+		for (final Entry<String, Double> entry : traffic.entrySet()) {
+			if (!entry.getValue().equals(current.get(entry.getKey()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,295 @@
+package server.graph;
+
+import java.util.Arrays;
+
+/**
+ * Shortest path query over a customized CellOverlay. Dijkstra's algorithm scans each node at its query level: the
+ * highest level at which its cell holds neither the source nor the target. Nodes sharing a cell of level 1 with
+ * either end are scanned over every graph edge, and any other node only jumps across its cell at its query level
+ * (if it's an entry) or leaves the cell (if it's an exit). The search thus sees the cells around the ends in detail
+ * and the rest of the map only as cells of higher and higher levels. Jumps across a cell are unpacked into graph edges
+ * afterwards by searching the cell alone.<br>
+ * Like RoadSearch it works on ordinals in reused arrays, so each thread gets its own from forOverlay
+ * 
+ * @author aiguha
+ */
+public class OverlaySearch {
+	
+	private static final int[]						NO_EDGES	= new int[0];
+	
+	private static final ThreadLocal<OverlaySearch>	searches	= new ThreadLocal<>();
+	
+	private final CellOverlay						overlay;
+	private final RoadGraph							graph;
+	private final IndexedHeap						frontier;
+	private final double[]							distances;
+	// Graph edge each reached node was last reached by, -1 for the source, or -1 - level for a jump across a cell
+	// from the entry in jumpedFrom
+	private final int[]								parents;
+	private final int[]								jumpedFrom;
+	private final int[]								reached;
+	private int										search;
+	private int										settled;
+	private double									length;
+	// Cells of the source and target by level - 1
+	private int[]									sourceCells;
+	private int[]									targetCells;
+	// Steps of the path found, by parent, and the graph edges they unpack into
+	private int[]									steps		= new int[64];
+	private int[]									path		= new int[64];
+	
+	/**
+	 * Creates a search over an overlay
+	 * 
+	 * @param overlay the overlay
+	 */
+	public OverlaySearch(final CellOverlay overlay) {
+		this.overlay = overlay;
+		graph = overlay.getGraph();
+		final int size = graph.size();
+		frontier = new IndexedHeap(size);
+		distances = new double[size];
+		parents = new int[size];
+		jumpedFrom = new int[size];
+		reached = new int[size];
+		sourceCells = new int[overlay.getLevels()];
+		targetCells = new int[overlay.getLevels()];
+	}
+	
+	/**
+	 * Gets the current thread's search over an overlay, creating it if the thread has none for this overlay yet
+	 * 
+	 * @param overlay the overlay
+	 * @return the search
+	 */
+	public static OverlaySearch forOverlay(final CellOverlay overlay) {
+		OverlaySearch s = searches.get();
+		if (s == null || s.overlay != overlay) {
+			s = new OverlaySearch(overlay);
+			searches.set(s);
+		}
+		return s;
+	}
+	
+	/**
+	 * Starts a new search, forgetting what earlier ones reached
+	 */
+	private void begin() {
+		frontier.clear();
+		if (search == Integer.MAX_VALUE) {
+			Arrays.fill(reached, 0);
+			search = 0;
+		}
+		search++;
+	}
+	
+	/**
+	 * Lowers a node's distance if a new way to it is shorter
+	 * 
+	 * @param node the node
+	 * @param distance the new distance
+	 * @param parent the graph edge the new way arrives by, or -1 - level for a jump across a cell
+	 * @param from the entry jumped from, if it's a jump
+	 */
+	private void relax(final int node, final double distance, final int parent, final int from) {
+		if (reached[node] == search && distances[node] <= distance) {
+			return;
+		}
+		reached[node] = search;
+		distances[node] = distance;
+		parents[node] = parent;
+		jumpedFrom[node] = from;
+		frontier.push(node, distance);
+	}
+	
+	/**
+	 * @param node a node ordinal
+	 * @return the highest level at which the node's cell holds neither end of the search, or 0 if there is none
+	 */
+	private int queryLevel(final int node) {
+		for (int level = overlay.getLevels(); level > 0; level--) {
+			final int cell = overlay.getCell(level, node);
+			if (cell != sourceCells[level - 1] && cell != targetCells[level - 1]) {
+				return level;
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * Finds the shortest path between two nodes under the traffic a metric was customized to
+	 * 
+	 * @param source the ordinal of the start node
+	 * @param target the ordinal of the end node
+	 * @param metric a metric of the overlay
+	 * @return the edges of the path in order, empty if there is none (or source is target), or null if the thread was
+	 *         interrupted
+	 */
+	public int[] shortestPath(final int source, final int target, final OverlayMetric metric) {
+		begin();
+		settled = 0;
+		length = Double.MAX_VALUE;
+		for (int level = 1; level <= overlay.getLevels(); level++) {
+			sourceCells[level - 1] = overlay.getCell(level, source);
+			targetCells[level - 1] = overlay.getCell(level, target);
+		}
+		relax(source, 0, -1, -1);
+		final Thread thread = Thread.currentThread();
+		while (!frontier.isEmpty()) {
+			if (thread.isInterrupted()) {
+				frontier.clear();
+				return null;
+			}
+			final int cur = frontier.poll();
+			settled++;
+			if (cur == target) {
+				frontier.clear();
+				length = distances[target];
+				return unpack(target, metric);
+			}
+			final double distance = distances[cur];
+			final int level = queryLevel(cur);
+			if (level == 0) {
+				for (int edge = graph.firstEdge(cur); edge < graph.endEdge(cur); edge++) {
+					relax(graph.getTarget(edge), distance + metric.getWeight(edge), edge, -1);
+				}
+				continue;
+			}
+			final int cell = overlay.getCell(level, cur);
+			final int row = overlay.getEntryIndex(level, cur);
+			if (row != -1) {
+				final double[] clique = metric.getClique(level, cell);
+				final int exits = overlay.exitCount(level, cell);
+				for (int j = 0; j < exits; j++) {
+					final double w = clique[row * exits + j];
+					final int exit = overlay.getExit(level, cell, j);
+					if (w != Double.POSITIVE_INFINITY && exit != cur) {
+						relax(exit, distance + w, -1 - level, cur);
+					}
+				}
+			}
+			if (overlay.getExitIndex(level, cur) != -1) {
+				for (int edge = graph.firstEdge(cur); edge < graph.endEdge(cur); edge++) {
+					final int next = graph.getTarget(edge);
+					if (overlay.getCell(level, next) != cell) {
+						relax(next, distance + metric.getWeight(edge), edge, -1);
+					}
+				}
+			}
+		}
+		return NO_EDGES;
+	}
+	
+	/**
+	 * Walks the parents back from the target, then unpacks each jump across a cell into graph edges
+	 * 
+	 * @param target the target
+	 * @param metric the metric searched
+	 * @return the edges of the path in order
+	 */
+	private int[] unpack(final int target, final OverlayMetric metric) {
+		// Each step is a graph edge, or a jump given as its level (negated, less one), entry and exit
+		int count = 0;
+		for (int node = target; parents[node] != -1;) {
+			final int parent = parents[node];
+			if (count + 3 > steps.length) {
+				steps = Arrays.copyOf(steps, steps.length * 2);
+			}
+			if (parent >= 0) {
+				steps[count++] = parent;
+				node = graph.getSource(parent);
+			} else {
+				steps[count++] = node;
+				steps[count++] = jumpedFrom[node];
+				steps[count++] = parent;
+				node = jumpedFrom[node];
+			}
+		}
+		int at = 0;
+		while (count > 0) {
+			final int step = steps[--count];
+			if (step >= 0) {
+				at = append(at, step);
+			} else {
+				final int entry = steps[--count];
+				final int exit = steps[--count];
+				at = inside(-1 - step, entry, exit, metric, at);
+			}
+		}
+		return Arrays.copyOf(path, at);
+	}
+	
+	/**
+	 * Appends a graph edge to the path
+	 * 
+	 * @param at the length of the path so far
+	 * @param edge the edge
+	 * @return the new length
+	 */
+	private int append(final int at, final int edge) {
+		if (at == path.length) {
+			path = Arrays.copyOf(path, at * 2);
+		}
+		path[at] = edge;
+		return at + 1;
+	}
+	
+	/**
+	 * Finds the shortest path inside a cell between one of its entries and one of its exits, and appends its graph
+	 * edges to the path
+	 * 
+	 * @param level the level of the cell
+	 * @param entry the entry
+	 * @param exit the exit
+	 * @param metric the metric searched
+	 * @param length the length of the path so far
+	 * @return the new length
+	 */
+	private int inside(final int level, final int entry, final int exit, final OverlayMetric metric,
+			final int length) {
+		begin();
+		final int cell = overlay.getCell(level, entry);
+		relax(entry, 0, -1, -1);
+		while (!frontier.isEmpty()) {
+			final int cur = frontier.poll();
+			if (cur == exit) {
+				break;
+			}
+			final double distance = distances[cur];
+			for (int edge = graph.firstEdge(cur); edge < graph.endEdge(cur); edge++) {
+				final int next = graph.getTarget(edge);
+				if (overlay.getCell(level, next) == cell) {
+					relax(next, distance + metric.getWeight(edge), edge, -1);
+				}
+			}
+		}
+		frontier.clear();
+		int hops = 0;
+		for (int edge = parents[exit]; edge != -1; edge = parents[graph.getSource(edge)]) {
+			hops++;
+		}
+		int at = length;
+		for (int i = 0; i < hops; i++) {
+			at = append(at, 0);
+		}
+		int fill = at;
+		for (int edge = parents[exit]; edge != -1; edge = parents[graph.getSource(edge)]) {
+			path[--fill] = edge;
+		}
+		return at;
+	}
+	
+	/**
+	 * @return the length of the path the last search found, or Double.MAX_VALUE if there was none
+	 */
+	public double getLength() {
+		return length;
+	}
+	
+	/**
+	 * @return the number of nodes the last search settled
+	 */
+	public int getSettled() {
+		return settled;
+	}
+}
@@ -0,0 +1,302 @@
+package server.graph;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import server.io.NodeTable;
+import server.io.WayTable;
+import data.MapNode;
+import data.MapWay;
+
+/**
+ * The whole road network as a compressed sparse row adjacency, built once from the node and way tables. Nodes are
+ * their NodeTable ordinals, and the edges leaving node u are the range offsets[u] to offsets[u + 1] of the edge arrays,
+ * which hold each edge's target node, the WayTable ordinal of its way and its base length (its weight with neutral
+ * traffic). The edges of a node are in the same order, and skip the same ways, as MapsDataProvider would give them,
+ * so searches over either find the same paths. The edges entering each node are kept the same way, as rows of edge
+ * numbers, for searches that run backwards from a target. Immutable, so one graph can serve any number of searches
+ * at once
+ * 
+ * @author aiguha
+ */
+public class RoadGraph {
+	
+	private final NodeTable	nodes;
+	private final WayTable	ways;
+	private final int[]		offsets;
+	private final int[]		targets;
+	private final int[]		wayOrdinals;
+	private final float[]	lengths;
+	// Edges entering node v are inEdges[inOffsets[v]] to inEdges[inOffsets[v + 1] - 1], in edge order, and the node
+	// each leaves is at the same position of inSources
+	private final int[]		inOffsets;
+	private final int[]		inEdges;
+	private final int[]		inSources;
+	// Lowest ratio of an edge's length to the straight line distance it covers, at most 1
+	private final double	stretch;
+	
+	/**
+	 * Builds the graph of every way in a table
+	 * 
+	 * @param nodes the table of all nodes
+	 * @param ways the table of all ways, over the same nodes
+	 */
+	public RoadGraph(final NodeTable nodes, final WayTable ways) {
+		this.nodes = nodes;
+		this.ways = ways;
+		final int size = nodes.size();
+		int bound = 0;
+		for (int u = 0; u < size; u++) {
+			bound += nodes.get(u).getWays().size();
+		}
+		offsets = new int[size + 1];
+		final int[] edgeTargets = new int[bound];
+		final int[] edgeWays = new int[bound];
+		final float[] edgeLengths = new float[bound];
+		int count = 0;
+		double minStretch = 1;
+		for (int u = 0; u < size; u++) {
+			offsets[u] = count;
+			final List<String> wayIDs = nodes.get(u).getWays();
+			for (int i = 0; i < wayIDs.size(); i++) {
+				final int way = ways.find(wayIDs.get(i));
+				// Ways that couldn't be created are left out, as are ways that lead back to u
+				if (way == -1 || ways.getName(way) == null) {
+					continue;
+				}
+				final int start = ways.getStart(way);
+				final int end = ways.getEnd(way);
+				if (start == -1 || end == -1 || end == u) {
+					continue;
+				}
+				edgeTargets[count] = end;
+				edgeWays[count] = way;
+				final double length = nodes.get(start).distanceFrom(nodes.get(end));
+				// A way needn't start at the node that lists it, so an edge can be shorter than the distance it covers
+				final double covered = nodes.get(u).distanceFrom(nodes.get(end));
+				if (covered > 0) {
+					minStretch = Math.min(minStretch, length / covered);
+				}
+				edgeLengths[count] = (float) length;
+				count++;
+			}
+		}
+		offsets[size] = count;
+		targets = Arrays.copyOf(edgeTargets, count);
+		wayOrdinals = Arrays.copyOf(edgeWays, count);
+		lengths = Arrays.copyOf(edgeLengths, count);
+		stretch = minStretch;
+		// Counts the edges entering each node, then places them by target
+		inOffsets = new int[size + 1];
+		for (int edge = 0; edge < count; edge++) {
+			inOffsets[targets[edge] + 1]++;
+		}
+		for (int v = 0; v < size; v++) {
+			inOffsets[v + 1] += inOffsets[v];
+		}
+		inEdges = new int[count];
+		inSources = new int[count];
+		final int[] fill = Arrays.copyOf(inOffsets, size);
+		for (int v = 0; v < size; v++) {
+			for (int edge = offsets[v]; edge < offsets[v + 1]; edge++) {
+				inSources[fill[targets[edge]]] = v;
+				inEdges[fill[targets[edge]]++] = edge;
+			}
+		}
+	}
+	
+	/**
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return offsets.length - 1;
+	}
+	
+	/**
+	 * @return the number of edges
+	 */
+	public int edgeCount() {
+		return targets.length;
+	}
+	
+	/**
+	 * @return the table of the graph's nodes
+	 */
+	public NodeTable getNodes() {
+		return nodes;
+	}
+	
+	/**
+	 * @return the table of the graph's ways
+	 */
+	public WayTable getWays() {
+		return ways;
+	}
+	
+	/**
+	 * Finds the ordinal of a node
+	 * 
+	 * @param node the node
+	 * @return the ordinal, or -1 if the node isn't in the graph
+	 */
+	public int find(final MapNode node) {
+		return nodes.find(node.getID());
+	}
+	
+	/**
+	 * @param node a node ordinal
+	 * @return the first edge leaving the node
+	 */
+	public int firstEdge(final int node) {
+		return offsets[node];
+	}
+	
+	/**
+	 * @param node a node ordinal
+	 * @return just past the last edge leaving the node
+	 */
+	public int endEdge(final int node) {
+		return offsets[node + 1];
+	}
+	
+	/**
+	 * @param edge an edge
+	 * @return the ordinal of the node the edge leads to
+	 */
+	public int getTarget(final int edge) {
+		return targets[edge];
+	}
+	
+	/**
+	 * @param node a node ordinal
+	 * @return the position in the incoming edges of the first edge entering the node
+	 */
+	public int firstInEdge(final int node) {
+		return inOffsets[node];
+	}
+	
+	/**
+	 * @param node a node ordinal
+	 * @return just past the position of the last edge entering the node
+	 */
+	public int endInEdge(final int node) {
+		return inOffsets[node + 1];
+	}
+	
+	/**
+	 * @param position a position in the incoming edges, from firstInEdge to endInEdge of some node
+	 * @return the edge at that position, which enters the node
+	 */
+	public int getInEdge(final int position) {
+		return inEdges[position];
+	}
+	
+	/**
+	 * @param position a position in the incoming edges, from firstInEdge to endInEdge of some node
+	 * @return the node the edge at that position leaves, without the binary search of getSource
+	 */
+	public int getInSource(final int position) {
+		return inSources[position];
+	}
+	
+	/**
+	 * Finds the node an edge leaves, by binary searching the offsets
+	 * 
+	 * @param edge an edge
+	 * @return the ordinal of the node the edge leaves
+	 */
+	public int getSource(final int edge) {
+		int lo = 0;
+		int hi = offsets.length - 1;
+		// Finds the last node whose first edge is at or before edge, skipping nodes with no edges
+		while (lo < hi) {
+			final int mid = (lo + hi + 1) >>> 1;
+			if (offsets[mid] <= edge) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return lo;
+	}
+	
+	/**
+	 * @param edge an edge
+	 * @return the way ordinal of the edge
+	 */
+	public int getWayOrdinal(final int edge) {
+		return wayOrdinals[edge];
+	}
+	
+	/**
+	 * @param edge an edge
+	 * @return the length of the edge's way, its weight with neutral traffic
+	 */
+	public float getLength(final int edge) {
+		return lengths[edge];
+	}
+	
+	/**
+	 * Gets the weight of an edge, exactly as the edge's MapWay would give it with its traffic updated from a traffic
+	 * map. Unlike getLength this is computed in doubles, so searches over the arrays find the same paths as searches
+	 * over MapWays
+	 * 
+	 * @param edge an edge
+	 * @param traffic traffic multipliers by way name, or null
+	 * @return the weight of the edge
+	 */
+	public double getWeight(final int edge, final Map<String, Double> traffic) {
+		final int way = wayOrdinals[edge];
+		final int start = ways.getStart(way);
+		final int end = targets[edge];
+		final double dist = Math.pow(nodes.getLat(start) - nodes.getLat(end), 2)
+			+ Math.pow(nodes.getLong(start) - nodes.getLong(end), 2);
+		final double length = Math.abs(Math.sqrt(dist));
+		if (traffic == null) {
+			return length;
+		}
+		final Double multiplier = traffic.get(ways.getName(way));
+		return (multiplier == null) ? length : length * multiplier;
+	}
+	
+	/**
+	 * Finds the largest multiplier of the straight line distance to a target that never overestimates the weight of
+	 * the rest of the path under some traffic, so A* with it still finds shortest paths. Every edge weighs at least its
+	 * straight line distance times the stretch of the graph, times the lowest traffic multiplier (ways with no
+	 * traffic count as 1). The multiplier is also consistent, so a node never has to be expanded twice
+	 * 
+	 * @param traffic traffic multipliers by way name, or null
+	 * @return the multiplier, at least 0
+	 */
+	public double getHeuristicScale(final Map<String, Double> traffic) {
+		return stretch * getLowestMultiplier(traffic);
+	}
+	
+	/**
+	 * Finds how much lighter than with neutral traffic some traffic can make an edge, so lower bounds on distances with
+	 * neutral traffic hold under the traffic once multiplied by it
+	 * 
+	 * @param traffic traffic multipliers by way name, or null
+	 * @return the lowest multiplier (ways with no traffic count as 1), at least 0
+	 */
+	public static double getLowestMultiplier(final Map<String, Double> traffic) {
+		double lowest = 1;
+		if (traffic != null) {
+			for (final Double multiplier : traffic.values()) {
+				lowest = Math.min(lowest, multiplier);
+			}
+		}
+		return Math.max(0, lowest);
+	}
+	
+	/**
+	 * Creates the MapWay of an edge. Each call gives a new MapWay, so its traffic can be set without affecting others
+	 * 
+	 * @param edge an edge
+	 * @return the way
+	 */
+	public MapWay getWay(final int edge) {
+		return ways.getMapWay(wayOrdinals[edge]);
+	}
+}
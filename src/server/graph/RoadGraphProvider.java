@@ -0,0 +1,78 @@
+package server.graph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import data.MapNode;
+import data.MapWay;
+
+/**
+ * Class that supplies MapData for Graphs from a prebuilt RoadGraph, so expanding a node reads its edges from the
+ * graph's arrays instead of searching the ways file for each of its ways. Holds the GraphNodes of one search, so use a
+ * new provider per search
+ * 
+ * @author aiguha
+ */
+public class RoadGraphProvider implements DataProvider<MapNode, MapWay> {
+	
+	private final RoadGraph										graph;
+	private final HashMap<String, GraphNode<MapNode, MapWay>>	graphNodeStore;
+	private final ConcurrentHashMap<String, Double>				trafficMap;
+	
+	/**
+	 * Constructs a RoadGraphProvider for one search over a graph
+	 * 
+	 * @param graph the road graph
+	 * @param trafficMap the map of traffic data
+	 */
+	public RoadGraphProvider(final RoadGraph graph, final ConcurrentHashMap<String, Double> trafficMap) {
+		this.graph = graph;
+		graphNodeStore = new HashMap<>();
+		this.trafficMap = trafficMap;
+	}
+	
+	@Override
+	public GraphNode<MapNode, MapWay> getNode(final MapNode t) {
+		if (t == null) {
+			return null;
+		}
+		// Returns same GraphNode if it exists
+		GraphNode<MapNode, MapWay> toReturn = graphNodeStore.get(t.getID());
+		if (toReturn == null) {
+			toReturn = new GraphNode<>(t);
+			graphNodeStore.put(t.getID(), toReturn);
+		}
+		return toReturn;
+	}
+	
+	/**
+	 * Updates traffic if trafficMap is non-null
+	 * 
+	 * @param way the way to update
+	 */
+	public void updateWayTraffic(final MapWay way) {
+		if (trafficMap != null) {
+			way.updateTraffic(trafficMap.get(way.getName()));
+		}
+	}
+	
+	@Override
+	public List<GraphEdge<MapNode, MapWay>> getNeighborVertices(final GraphNode<MapNode, MapWay> cur) {
+		final int node = graph.find(cur.getValue());
+		if (node == -1) {
+			return new ArrayList<>(0);
+		}
+		final int first = graph.firstEdge(node);
+		final int end = graph.endEdge(node);
+		final List<GraphEdge<MapNode, MapWay>> edges = new ArrayList<>(end - first);
+		for (int edge = first; edge < end; edge++) {
+			final MapWay way = graph.getWay(edge);
+			updateWayTraffic(way);
+			edges.add(new GraphEdge<>(way, cur, getNode(way.getEnd())));
+		}
+		return edges;
+	}
+	
+}
@@ -0,0 +1,555 @@
+package server.graph;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A* search over a RoadGraph that works on node ordinals alone. Distances and parent edges live in arrays indexed by
+ * ordinal and the frontier is an IndexedHeap, so a search allocates nothing but the path it returns. The
+ * arrays are sized to the graph once and reused: each search stamps the nodes it reaches with its own number, so a
+ * node stamped by an earlier search reads as unreached without clearing anything.<br>
+ * A search isn't thread safe, so each thread gets its own from forGraph
+ * 
+ * @author aiguha
+ */
+public class RoadSearch {
+	
+	private static final int[]						NO_EDGES	= new int[0];
+	
+	private static final ThreadLocal<RoadSearch>	searches	= new ThreadLocal<>();
+	
+	private final RoadGraph							graph;
+	private final IndexedHeap						frontier;
+	private final double[]							distances;
+	// Scaled straight line distance from each reached node to the target
+	private final double[]							estimates;
+	// Edge each reached node was last reached by, or -1 for the source
+	private final int[]								parents;
+	// Number of the search that last reached and settled each node
+	private final int[]								reached;
+	private final int[]								settled;
+	private int										search;
+	private int										expanded;
+	// Target, heuristic scale, and landmarks with their scale, of the current search
+	private int										target;
+	private double									scale;
+	private Landmarks								landmarks;
+	private double									landmarkScale;
+	// Targets and the cost of finishing at each when the current search has more than one, and the best finish
+	private int[]									ends;
+	private double[]								endCosts;
+	private double									length;
+	private int										finish;
+	// The backward half of a bidirectional search, made the first time one runs: its frontier, the distance from each
+	// node it reached to the target, the potential of each, the edge each leaves by toward the target (-1 for the
+	// target), and the number of the search that last reached and settled each node
+	private IndexedHeap								backFrontier;
+	private double[]								backDistances;
+	private double[]								backEstimates;
+	private int[]									children;
+	private int[]									backReached;
+	private int[]									backSettled;
+	// Source of the current search if it's bidirectional, or -1
+	private int										origin;
+	
+	/**
+	 * Creates a search over a graph
+	 * 
+	 * @param graph the road graph
+	 */
+	public RoadSearch(final RoadGraph graph) {
+		this.graph = graph;
+		final int size = graph.size();
+		frontier = new IndexedHeap(size);
+		distances = new double[size];
+		estimates = new double[size];
+		parents = new int[size];
+		reached = new int[size];
+		settled = new int[size];
+	}
+	
+	/**
+	 * Gets the current thread's search over a graph, creating it if the thread has none for this graph yet
+	 * 
+	 * @param graph the road graph
+	 * @return the search
+	 */
+	public static RoadSearch forGraph(final RoadGraph graph) {
+		RoadSearch s = searches.get();
+		if (s == null || s.graph != graph) {
+			s = new RoadSearch(graph);
+			searches.set(s);
+		}
+		return s;
+	}
+	
+	/**
+	 * @return the graph searched
+	 */
+	public RoadGraph getGraph() {
+		return graph;
+	}
+	
+	/**
+	 * Starts a new search, forgetting what earlier ones reached
+	 */
+	private void begin() {
+		frontier.clear();
+		expanded = 0;
+		origin = -1;
+		if (search == Integer.MAX_VALUE) {
+			Arrays.fill(reached, 0);
+			Arrays.fill(settled, 0);
+			if (backFrontier != null) {
+				Arrays.fill(backReached, 0);
+				Arrays.fill(backSettled, 0);
+			}
+			search = 0;
+		}
+		search++;
+	}
+	
+	/**
+	 * Lowers a node's distance if a new way to it is shorter
+	 * 
+	 * @param node the node
+	 * @param distance the new distance
+	 * @param parent the edge the new way arrives by
+	 */
+	private void relax(final int node, final double distance, final int parent) {
+		if (reached[node] != search) {
+			reached[node] = search;
+			estimates[node] = estimate(node);
+		} else if (distances[node] <= distance) {
+			return;
+		}
+		distances[node] = distance;
+		parents[node] = parent;
+		frontier.push(node, distance + estimates[node]);
+	}
+	
+	/**
+	 * Lowers a node's distance to the target in the backward half of a bidirectional search, if a new way from it is
+	 * shorter
+	 * 
+	 * @param node the node
+	 * @param distance the new distance
+	 * @param child the edge the new way leaves by
+	 */
+	private void relaxBack(final int node, final double distance, final int child) {
+		if (backReached[node] != search) {
+			backReached[node] = search;
+			backEstimates[node] = estimate(node);
+		} else if (backDistances[node] <= distance) {
+			return;
+		}
+		backDistances[node] = distance;
+		children[node] = child;
+		backFrontier.push(node, distance - backEstimates[node]);
+	}
+	
+	/**
+	 * Estimates the rest of the way from a node to the target, by the larger of the scaled straight line distance and
+	 * the scaled landmark bound. Both never overestimate and are consistent, so the larger is too. With several
+	 * targets it's the least estimate to any of them plus the cost of finishing there, which is still consistent. In a
+	 * bidirectional search it's the potential of the node instead, half the way from the estimate from the source to
+	 * the estimate to the target: the forward half adds it and the backward half subtracts it, so both see the same
+	 * reduced weights and each is an A* search with a consistent heuristic
+	 * 
+	 * @param node the node
+	 * @return the estimate
+	 */
+	private double estimate(final int node) {
+		if (origin != -1) {
+			return (estimate(node, target) - estimate(origin, node)) / 2;
+		}
+		if (ends == null) {
+			return estimate(node, target);
+		}
+		double lowest = Double.MAX_VALUE;
+		for (int i = 0; i < ends.length; i++) {
+			lowest = Math.min(lowest, estimate(node, ends[i]) + endCosts[i]);
+		}
+		return lowest;
+	}
+	
+	/**
+	 * Estimates the way from a node to a target, by the larger of the scaled straight line distance and the scaled
+	 * landmark bound
+	 * 
+	 * @param node the node
+	 * @param target the target
+	 * @return the estimate
+	 */
+	private double estimate(final int node, final int target) {
+		final double line = (scale == 0) ? 0 : scale * straightLine(node, target);
+		if (landmarks == null || landmarkScale == 0) {
+			return line;
+		}
+		return Math.max(line, landmarkScale * landmarks.lowerBound(node, target));
+	}
+	
+	/**
+	 * Measures the straight line between two nodes, the same way MapWay.getWeight measures a way
+	 * 
+	 * @param a a node ordinal
+	 * @param b another node ordinal
+	 * @return the distance between them
+	 */
+	private double straightLine(final int a, final int b) {
+		final double dLat = graph.getNodes().getLat(a) - graph.getNodes().getLat(b);
+		final double dLong = graph.getNodes().getLong(a) - graph.getNodes().getLong(b);
+		return Math.sqrt(dLat * dLat + dLong * dLong);
+	}
+	
+	/**
+	 * Finds the shortest path between two nodes with A*, guided by the straight line distance to the target scaled so
+	 * that it never overestimates (see RoadGraph.getHeuristicScale)
+	 * 
+	 * @param source the ordinal of the start node
+	 * @param target the ordinal of the end node
+	 * @param traffic traffic multipliers by way name, or null
+	 * @return the edges of the path in order, empty if there is none (or source is target), or null if the thread was
+	 *         interrupted
+	 */
+	public int[] shortestPath(final int source, final int target, final Map<String, Double> traffic) {
+		return shortestPath(source, target, traffic, graph.getHeuristicScale(traffic));
+	}
+	
+	/**
+	 * Finds the shortest path between two nodes with A*, stopping as soon as the target is settled. A scale of 0 makes
+	 * this Dijkstra's algorithm. A scale above the graph's heuristic scale may expand fewer nodes but can miss the
+	 * shortest path
+	 * 
+	 * @param source the ordinal of the start node
+	 * @param target the ordinal of the end node
+	 * @param traffic traffic multipliers by way name, or null
+	 * @param heuristicScale the multiplier of the straight line distance to the target
+	 * @return the edges of the path in order, empty if there is none (or source is target), or null if the thread was
+	 *         interrupted
+	 */
+	public int[] shortestPath(final int source, final int target, final Map<String, Double> traffic,
+			final double heuristicScale) {
+		return search(source, target, traffic, heuristicScale, null);
+	}
+	
+	/**
+	 * Finds the shortest path between two nodes with A*, guided by the straight line distance to the target and by the
+	 * landmark bounds, each scaled so that it never overestimates under the traffic
+	 * 
+	 * @param source the ordinal of the start node
+	 * @param target the ordinal of the end node
+	 * @param traffic traffic multipliers by way name, or null
+	 * @param with landmarks of the graph, or null to use the straight line alone
+	 * @return the edges of the path in order, empty if there is none (or source is target), or null if the thread was
+	 *         interrupted
+	 */
+	public int[] shortestPath(final int source, final int target, final Map<String, Double> traffic,
+			final Landmarks with) {
+		return search(source, target, traffic, graph.getHeuristicScale(traffic), with);
+	}
+	
+	/**
+	 * Runs A* until the target is settled
+	 * 
+	 * @param source the ordinal of the start node
+	 * @param target the ordinal of the end node
+	 * @param traffic traffic multipliers by way name, or null
+	 * @param heuristicScale the multiplier of the straight line distance to the target
+	 * @param with landmarks of the graph, or null
+	 * @return the edges of the path in order, empty if there is none (or source is target), or null if the thread was
+	 *         interrupted
+	 */
+	private int[] search(final int source, final int target, final Map<String, Double> traffic,
+			final double heuristicScale, final Landmarks with) {
+		begin();
+		this.target = target;
+		ends = null;
+		scale = Math.max(0, heuristicScale);
+		landmarks = with;
+		landmarkScale = RoadGraph.getLowestMultiplier(traffic);
+		relax(source, 0, -1);
+		final Thread thread = Thread.currentThread();
+		while (!frontier.isEmpty()) {
+			if (thread.isInterrupted()) {
+				frontier.clear();
+				return null;
+			}
+			final int cur = frontier.poll();
+			settled[cur] = search;
+			if (cur == target) {
+				frontier.clear();
+				return path(target);
+			}
+			expanded++;
+			final double distance = distances[cur];
+			final int end = graph.endEdge(cur);
+			for (int edge = graph.firstEdge(cur); edge < end; edge++) {
+				final int next = graph.getTarget(edge);
+				// Need not revisit settled nodes
+				if (settled[next] != search) {
+					relax(next, distance + graph.getWeight(edge, traffic), edge);
+				}
+			}
+		}
+		return NO_EDGES;
+	}
+	
+	/**
+	 * Finds the shortest path between two nodes with A* run forwards from the source and backwards from the target at
+	 * once, expanding whichever frontier has the smaller key, until the smallest keys of the two add up to no less than
+	 * the best path found joining them. The keys are distances plus potentials that cancel across the frontiers, so
+	 * that sum bounds every path not yet seen. Each half is guided by the straight line distances and the landmark
+	 * bounds, both scaled so that they never overestimate under the traffic. The length of the path is then read with
+	 * getLength
+	 * 
+	 * @param source the ordinal of the start node
+	 * @param target the ordinal of the end node
+	 * @param traffic traffic multipliers by way name, or null
+	 * @param with landmarks of the graph, or null to use the straight line alone
+	 * @return the edges of the path in order, empty if there is none (or source is target), or null if the thread was
+	 *         interrupted
+	 */
+	public int[] bidirectionalPath(final int source, final int target, final Map<String, Double> traffic,
+			final Landmarks with) {
+		if (backFrontier == null) {
+			final int size = graph.size();
+			backFrontier = new IndexedHeap(size);
+			backDistances = new double[size];
+			backEstimates = new double[size];
+			children = new int[size];
+			backReached = new int[size];
+			backSettled = new int[size];
+		}
+		begin();
+		backFrontier.clear();
+		this.target = target;
+		ends = null;
+		origin = source;
+		scale = Math.max(0, graph.getHeuristicScale(traffic));
+		landmarks = with;
+		landmarkScale = RoadGraph.getLowestMultiplier(traffic);
+		relax(source, 0, -1);
+		relaxBack(target, 0, -1);
+		// Length of the best path found, and a node on it both halves reached
+		double best = (source == target) ? 0 : Double.MAX_VALUE;
+		int meeting = (source == target) ? source : -1;
+		final Thread thread = Thread.currentThread();
+		while (!frontier.isEmpty() && !backFrontier.isEmpty()) {
+			if (thread.isInterrupted()) {
+				frontier.clear();
+				backFrontier.clear();
+				return null;
+			}
+			final double forwardKey = frontier.getKey(frontier.peek());
+			final double backwardKey = backFrontier.getKey(backFrontier.peek());
+			if (forwardKey + backwardKey >= best) {
+				break;
+			}
+			expanded++;
+			if (forwardKey <= backwardKey) {
+				final int cur = frontier.poll();
+				settled[cur] = search;
+				final double distance = distances[cur];
+				final int end = graph.endEdge(cur);
+				for (int edge = graph.firstEdge(cur); edge < end; edge++) {
+					final int next = graph.getTarget(edge);
+					if (settled[next] != search) {
+						relax(next, distance + graph.getWeight(edge, traffic), edge);
+						if (backReached[next] == search && distances[next] + backDistances[next] < best) {
+							best = distances[next] + backDistances[next];
+							meeting = next;
+						}
+					}
+				}
+			} else {
+				final int cur = backFrontier.poll();
+				backSettled[cur] = search;
+				final double distance = backDistances[cur];
+				final int end = graph.endInEdge(cur);
+				for (int i = graph.firstInEdge(cur); i < end; i++) {
+					final int edge = graph.getInEdge(i);
+					final int previous = graph.getInSource(i);
+					if (backSettled[previous] != search) {
+						relaxBack(previous, distance + graph.getWeight(edge, traffic), edge);
+						if (reached[previous] == search && distances[previous] + backDistances[previous] < best) {
+							best = distances[previous] + backDistances[previous];
+							meeting = previous;
+						}
+					}
+				}
+			}
+		}
+		frontier.clear();
+		backFrontier.clear();
+		length = best;
+		return (meeting == -1) ? NO_EDGES : join(meeting);
+	}
+	
+	/**
+	 * Finds the shortest path from any of several sources to any of several targets with A*, where starting at each
+	 * source and finishing at each target has a cost of its own. This routes between points partway along edges: the
+	 * sources are the nodes a point can leave by, each costing the part of its edge still to go, and the targets the
+	 * nodes a point can be reached from. The search stops once nothing left on the frontier could beat the cheapest
+	 * finish found, whose total cost and target are then read with getLength and getFinish
+	 * 
+	 * @param sources the ordinals of the sources
+	 * @param sourceCosts the cost of starting at each source
+	 * @param targets the ordinals of the targets
+	 * @param targetCosts the cost of finishing at each target
+	 * @param traffic traffic multipliers by way name, or null
+	 * @param with landmarks of the graph, or null to use the straight line alone
+	 * @return the edges of the path in order, from a source to a target (empty if the best source is the best target
+	 *         or there is no path), or null if the thread was interrupted
+	 */
+	public int[] shortestPath(final int[] sources, final double[] sourceCosts, final int[] targets,
+			final double[] targetCosts, final Map<String, Double> traffic, final Landmarks with) {
+		begin();
+		ends = targets;
+		endCosts = targetCosts;
+		scale = Math.max(0, graph.getHeuristicScale(traffic));
+		landmarks = with;
+		landmarkScale = RoadGraph.getLowestMultiplier(traffic);
+		length = Double.MAX_VALUE;
+		finish = -1;
+		for (int i = 0; i < sources.length; i++) {
+			relax(sources[i], sourceCosts[i], -1);
+		}
+		final Thread thread = Thread.currentThread();
+		while (!frontier.isEmpty() && frontier.getKey(frontier.peek()) < length) {
+			if (thread.isInterrupted()) {
+				frontier.clear();
+				return null;
+			}
+			final int cur = frontier.poll();
+			settled[cur] = search;
+			final double distance = distances[cur];
+			for (int i = 0; i < targets.length; i++) {
+				if (targets[i] == cur && distance + targetCosts[i] < length) {
+					length = distance + targetCosts[i];
+					finish = cur;
+				}
+			}
+			expanded++;
+			final int end = graph.endEdge(cur);
+			for (int edge = graph.firstEdge(cur); edge < end; edge++) {
+				final int next = graph.getTarget(edge);
+				if (settled[next] != search) {
+					relax(next, distance + graph.getWeight(edge, traffic), edge);
+				}
+			}
+		}
+		frontier.clear();
+		ends = null;
+		return (finish == -1) ? NO_EDGES : path(finish);
+	}
+	
+	/**
+	 * Runs Dijkstra's algorithm from a node until every one of a set of targets is settled, or every node it reaches
+	 * is, so one search measures the distances to all of them. They are then read with getDistance
+	 * 
+	 * @param source the ordinal of the start node
+	 * @param targets the ordinals of the targets, sorted and without repeats
+	 * @param traffic traffic multipliers by way name, or null
+	 * @return false if the thread was interrupted, true otherwise
+	 */
+	public boolean distancesTo(final int source, final int[] targets, final Map<String, Double> traffic) {
+		begin();
+		ends = null;
+		scale = 0;
+		landmarks = null;
+		int remaining = targets.length;
+		relax(source, 0, -1);
+		final Thread thread = Thread.currentThread();
+		while (remaining > 0 && !frontier.isEmpty()) {
+			if (thread.isInterrupted()) {
+				frontier.clear();
+				return false;
+			}
+			final int cur = frontier.poll();
+			settled[cur] = search;
+			if (Arrays.binarySearch(targets, cur) >= 0 && --remaining == 0) {
+				break;
+			}
+			expanded++;
+			final double distance = distances[cur];
+			final int end = graph.endEdge(cur);
+			for (int edge = graph.firstEdge(cur); edge < end; edge++) {
+				final int next = graph.getTarget(edge);
+				if (settled[next] != search) {
+					relax(next, distance + graph.getWeight(edge, traffic), edge);
+				}
+			}
+		}
+		frontier.clear();
+		return true;
+	}
+	
+	/**
+	 * Walks the parent edges back from a settled node
+	 * 
+	 * @param node the last node of the path
+	 * @return the edges leading to it from the source, in order
+	 */
+	private int[] path(final int node) {
+		int hops = 0;
+		for (int edge = parents[node]; edge != -1; edge = parents[graph.getSource(edge)]) {
+			hops++;
+		}
+		final int[] edges = new int[hops];
+		for (int edge = parents[node]; edge != -1; edge = parents[graph.getSource(edge)]) {
+			edges[--hops] = edge;
+		}
+		return edges;
+	}
+	
+	/**
+	 * Joins the halves of a bidirectional search where they met
+	 * 
+	 * @param meeting a node both halves reached
+	 * @return the edges leading to it from the source, then the edges leading on from it to the target, in order
+	 */
+	private int[] join(final int meeting) {
+		final int[] head = path(meeting);
+		int hops = 0;
+		for (int node = meeting; children[node] != -1; node = graph.getTarget(children[node])) {
+			hops++;
+		}
+		final int[] edges = Arrays.copyOf(head, head.length + hops);
+		int i = head.length;
+		for (int node = meeting; children[node] != -1; node = graph.getTarget(children[node])) {
+			edges[i++] = children[node];
+		}
+		return edges;
+	}
+	
+	/**
+	 * @param node a node ordinal
+	 * @return the node's distance from the source of the last search, or Double.MAX_VALUE if it wasn't reached
+	 */
+	public double getDistance(final int node) {
+		return (reached[node] == search) ? distances[node] : Double.MAX_VALUE;
+	}
+	
+	/**
+	 * @return the total cost of the path the last bidirectional search or search from several sources found, or
+	 *         Double.MAX_VALUE if there was none
+	 */
+	public double getLength() {
+		return length;
+	}
+	
+	/**
+	 * @return the target the path the last search from several sources found finishes at, or -1 if there was none
+	 */
+	public int getFinish() {
+		return finish;
+	}
+	
+	/**
+	 * @return the number of nodes the last search expanded
+	 */
+	public int getExpanded() {
+		return expanded;
+	}
+}
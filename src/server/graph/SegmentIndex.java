@@ -0,0 +1,295 @@
+package server.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An R-tree over the edges of a RoadGraph, each a straight segment between its two nodes, for finding the point of
+ * the road network nearest a point rather than the nearest node. The tree is packed once with Sort-Tile-Recursive
+ * (STR): the entries are sorted by latitude into vertical slices, each slice by longitude, and runs of FANOUT become
+ * the nodes of the level above, which are packed the same way until one node is left. Packed nodes are full and
+ * barely overlap, and every level lives in flat arrays.<br>
+ * Like the rest of the graph, distances are straight lines over latitude and longitude, as MapWay.getWeight measures
+ * them. An index is never changed once built, so any number of threads can query it at once
+ * 
+ * @author aiguha
+ */
+public class SegmentIndex {
+	
+	private static final int	FANOUT	= 16;
+	
+	private final RoadGraph		graph;
+	// The edges in packed order, and their end points in the same order as source lat, long, target lat, long
+	private final int[]			edges;
+	private final double[]		ends;
+	// Each level from the leaves up: the box of every node as min lat, min long, max lat, max long, and the range of
+	// its children, which are edges (by packed position) for the leaves and nodes of the level below otherwise
+	private final double[][]	boxes;
+	private final int[][]		children;
+	
+	/**
+	 * Packs the edges of a graph into a tree
+	 * 
+	 * @param graph the road graph
+	 */
+	public SegmentIndex(final RoadGraph graph) {
+		this.graph = graph;
+		final int count = graph.edgeCount();
+		final double[] segments = new double[4 * count];
+		for (int v = 0; v < graph.size(); v++) {
+			for (int edge = graph.firstEdge(v); edge < graph.endEdge(v); edge++) {
+				final int target = graph.getTarget(edge);
+				segments[4 * edge] = graph.getNodes().getLat(v);
+				segments[4 * edge + 1] = graph.getNodes().getLong(v);
+				segments[4 * edge + 2] = graph.getNodes().getLat(target);
+				segments[4 * edge + 3] = graph.getNodes().getLong(target);
+			}
+		}
+		final double[] entries = new double[4 * count];
+		for (int i = 0; i < count; i++) {
+			entries[4 * i] = Math.min(segments[4 * i], segments[4 * i + 2]);
+			entries[4 * i + 1] = Math.min(segments[4 * i + 1], segments[4 * i + 3]);
+			entries[4 * i + 2] = Math.max(segments[4 * i], segments[4 * i + 2]);
+			entries[4 * i + 3] = Math.max(segments[4 * i + 1], segments[4 * i + 3]);
+		}
+		edges = pack(entries, count);
+		ends = new double[4 * count];
+		for (int i = 0; i < count; i++) {
+			System.arraycopy(segments, 4 * edges[i], ends, 4 * i, 4);
+		}
+		final List<double[]> levelBoxes = new ArrayList<>();
+		final List<int[]> levelChildren = new ArrayList<>();
+		double[] below = permute(entries, edges, 4);
+		int size = count;
+		while (size > 1 || (size == 1 && levelBoxes.isEmpty())) {
+			final int parents = (size + FANOUT - 1) / FANOUT;
+			double[] box = new double[4 * parents];
+			int[] range = new int[2 * parents];
+			for (int p = 0; p < parents; p++) {
+				final int from = p * FANOUT;
+				final int to = Math.min(size, from + FANOUT);
+				range[2 * p] = from;
+				range[2 * p + 1] = to;
+				System.arraycopy(below, 4 * from, box, 4 * p, 4);
+				for (int i = from + 1; i < to; i++) {
+					box[4 * p] = Math.min(box[4 * p], below[4 * i]);
+					box[4 * p + 1] = Math.min(box[4 * p + 1], below[4 * i + 1]);
+					box[4 * p + 2] = Math.max(box[4 * p + 2], below[4 * i + 2]);
+					box[4 * p + 3] = Math.max(box[4 * p + 3], below[4 * i + 3]);
+				}
+			}
+			if (parents > 1) {
+				final int[] order = pack(box, parents);
+				box = permute(box, order, 4);
+				range = permute(range, order);
+			}
+			levelBoxes.add(box);
+			levelChildren.add(range);
+			below = box;
+			size = parents;
+		}
+		boxes = levelBoxes.toArray(new double[levelBoxes.size()][]);
+		children = levelChildren.toArray(new int[levelChildren.size()][]);
+	}
+	
+	/**
+	 * Orders boxes the way STR packs them: into slices by the latitude of their centers, each slice holding enough
+	 * boxes for about the square root of the number of parents, and within each slice by the longitude of their
+	 * centers
+	 * 
+	 * @param box the boxes, four values each
+	 * @param count the number of boxes
+	 * @return the box indices in packed order
+	 */
+	private static int[] pack(final double[] box, final int count) {
+		final Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = Integer.valueOf(i);
+		}
+		Arrays.sort(order, byCenter(box, 0));
+		final int parents = (count + FANOUT - 1) / FANOUT;
+		final int width = (int) Math.ceil(Math.sqrt(parents)) * FANOUT;
+		for (int from = 0; from < count; from += width) {
+			Arrays.sort(order, from, Math.min(count, from + width), byCenter(box, 1));
+		}
+		final int[] packed = new int[count];
+		for (int i = 0; i < count; i++) {
+			packed[i] = order[i].intValue();
+		}
+		return packed;
+	}
+	
+	/**
+	 * @param box boxes, four values each
+	 * @param axis 0 for latitude, 1 for longitude
+	 * @return a comparator of box indices by the centers of their boxes along the axis
+	 */
+	private static Comparator<Integer> byCenter(final double[] box, final int axis) {
+		return new Comparator<Integer>() {
+			
+			@Override
+			public int compare(final Integer a, final Integer b) {
+				// Centers are compared doubled, which orders them the same
+				final int i = 4 * a.intValue() + axis;
+				final int j = 4 * b.intValue() + axis;
+				return Double.compare(box[i] + box[i + 2], box[j] + box[j + 2]);
+			}
+		};
+	}
+	
+	/**
+	 * @param values groups of values
+	 * @param order the new order of the groups
+	 * @param width the number of values in a group
+	 * @return the groups in the new order
+	 */
+	private static double[] permute(final double[] values, final int[] order, final int width) {
+		final double[] permuted = new double[values.length];
+		for (int i = 0; i < order.length; i++) {
+			System.arraycopy(values, width * order[i], permuted, width * i, width);
+		}
+		return permuted;
+	}
+	
+	/**
+	 * @param ranges pairs of values
+	 * @param order the new order of the pairs
+	 * @return the pairs in the new order
+	 */
+	private static int[] permute(final int[] ranges, final int[] order) {
+		final int[] permuted = new int[ranges.length];
+		for (int i = 0; i < order.length; i++) {
+			permuted[2 * i] = ranges[2 * order[i]];
+			permuted[2 * i + 1] = ranges[2 * order[i] + 1];
+		}
+		return permuted;
+	}
+	
+	/**
+	 * @return the graph indexed
+	 */
+	public RoadGraph getGraph() {
+		return graph;
+	}
+	
+	/**
+	 * @return the number of edges indexed
+	 */
+	public int size() {
+		return edges.length;
+	}
+	
+	/**
+	 * Finds the point of any edge nearest a point. The tree is searched depth first, into the nearest child of each
+	 * node first, skipping every node whose box is no nearer than the best segment found so far
+	 * 
+	 * @param lat the latitude
+	 * @param lon the longitude
+	 * @return the nearest point, or null if the graph has no edges
+	 */
+	public SegmentSnap nearest(final double lat, final double lon) {
+		if (boxes.length == 0) {
+			return null;
+		}
+		// Level and node pairs. Each level pushes at most FANOUT nodes before its nearest is popped
+		final int[] stack = new int[2 * FANOUT * boxes.length];
+		int size = 0;
+		stack[size++] = boxes.length - 1;
+		stack[size++] = 0;
+		double best = Double.POSITIVE_INFINITY;
+		int found = -1;
+		while (size > 0) {
+			final int node = stack[--size];
+			final int level = stack[--size];
+			if (boxDistance(boxes[level], node, lat, lon) >= best) {
+				continue;
+			}
+			final int first = children[level][2 * node];
+			final int end = children[level][2 * node + 1];
+			if (level == 0) {
+				for (int i = first; i < end; i++) {
+					final double d = squared(i, fraction(i, lat, lon), lat, lon);
+					if (d < best) {
+						best = d;
+						found = i;
+					}
+				}
+				continue;
+			}
+			int nearest = -1;
+			double nearestDistance = best;
+			for (int child = first; child < end; child++) {
+				final double d = boxDistance(boxes[level - 1], child, lat, lon);
+				if (d < nearestDistance) {
+					if (nearest != -1) {
+						stack[size++] = level - 1;
+						stack[size++] = nearest;
+					}
+					nearest = child;
+					nearestDistance = d;
+				} else if (d < best) {
+					stack[size++] = level - 1;
+					stack[size++] = child;
+				}
+			}
+			// Pushed last, so searched first
+			if (nearest != -1) {
+				stack[size++] = level - 1;
+				stack[size++] = nearest;
+			}
+		}
+		final double t = fraction(found, lat, lon);
+		final double dLat = ends[4 * found + 2] - ends[4 * found];
+		final double dLong = ends[4 * found + 3] - ends[4 * found + 1];
+		return new SegmentSnap(edges[found], t, ends[4 * found] + t * dLat, ends[4 * found + 1] + t * dLong,
+				Math.sqrt(best));
+	}
+	
+	/**
+	 * @param box the boxes of a level
+	 * @param node a node of the level
+	 * @param lat the latitude
+	 * @param lon the longitude
+	 * @return the squared distance from the point to the node's box, 0 if it's inside
+	 */
+	private static double boxDistance(final double[] box, final int node, final double lat, final double lon) {
+		final double dLat = Math.max(0, Math.max(box[4 * node] - lat, lat - box[4 * node + 2]));
+		final double dLong = Math.max(0, Math.max(box[4 * node + 1] - lon, lon - box[4 * node + 3]));
+		return dLat * dLat + dLong * dLong;
+	}
+	
+	/**
+	 * Projects a point onto a segment
+	 * 
+	 * @param i the packed position of the segment
+	 * @param lat the latitude
+	 * @param lon the longitude
+	 * @return how far along the segment the point nearest the given one is, from 0 to 1 (0 if the segment has no
+	 *         length)
+	 */
+	private double fraction(final int i, final double lat, final double lon) {
+		final double dLat = ends[4 * i + 2] - ends[4 * i];
+		final double dLong = ends[4 * i + 3] - ends[4 * i + 1];
+		final double squared = dLat * dLat + dLong * dLong;
+		if (squared == 0) {
+			return 0;
+		}
+		final double t = ((lat - ends[4 * i]) * dLat + (lon - ends[4 * i + 1]) * dLong) / squared;
+		return Math.max(0, Math.min(1, t));
+	}
+	
+	/**
+	 * @param i the packed position of a segment
+	 * @param t how far along it, from 0 to 1
+	 * @param lat the latitude
+	 * @param lon the longitude
+	 * @return the squared distance from the point to that point of the segment
+	 */
+	private double squared(final int i, final double t, final double lat, final double lon) {
+		final double dLat = ends[4 * i] + t * (ends[4 * i + 2] - ends[4 * i]) - lat;
+		final double dLong = ends[4 * i + 1] + t * (ends[4 * i + 3] - ends[4 * i + 1]) - lon;
+		return dLat * dLat + dLong * dLong;
+	}
+}
@@ -0,0 +1,68 @@
+package server.graph;
+
+/**
+ * The point of a RoadGraph edge nearest some query point, as found by a SegmentIndex
+ * 
+ * @author aiguha
+ */
+public class SegmentSnap {
+	
+	private final int		edge;
+	private final double	fraction;
+	private final double	latitude;
+	private final double	longitude;
+	private final double	distance;
+	
+	/**
+	 * Creates a snap
+	 * 
+	 * @param edge the edge snapped to
+	 * @param fraction how far along the edge the point is, from 0 at its source to 1 at its target
+	 * @param latitude the latitude of the point
+	 * @param longitude the longitude of the point
+	 * @param distance the straight line distance from the query to the point
+	 */
+	SegmentSnap(final int edge, final double fraction, final double latitude, final double longitude,
+			final double distance) {
+		this.edge = edge;
+		this.fraction = fraction;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.distance = distance;
+	}
+	
+	/**
+	 * @return the edge snapped to
+	 */
+	public int getEdge() {
+		return edge;
+	}
+	
+	/**
+	 * @return how far along the edge the point is, from 0 at its source to 1 at its target
+	 */
+	public double getFraction() {
+		return fraction;
+	}
+	
+	/**
+	 * @return the latitude of the point
+	 */
+	public double getLatitude() {
+		return latitude;
+	}
+	
+	/**
+	 * @return the longitude of the point
+	 */
+	public double getLongitude() {
+		return longitude;
+	}
+	
+	/**
+	 * @return the straight line distance from the query to the point, measured like MapWay.getWeight
+	 */
+	public double getDistance() {
+		return distance;
+	}
+}
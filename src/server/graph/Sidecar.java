@@ -0,0 +1,128 @@
+package server.graph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads and writes the files built from a RoadGraph and kept next to the ways file, like a ContractionHierarchy or
+ * Landmarks, so they are only loaded back while they still match the data they were built from.<br>
+ * Layout (big endian): magic, version, the length and modification time of each source file, the node and edge counts
+ * of the graph, then the body, and a CRC32 of all of that. A file is written to a temporary file first and then moved
+ * into place, so a reader never sees half of one
+ * 
+ * @author aiguha
+ */
+class Sidecar {
+	
+	/**
+	 * Writes the body of a sidecar file
+	 */
+	interface Body {
+		
+		/**
+		 * @param out the stream to write the body to
+		 * @throws IOException file io failed
+		 */
+		void writeTo(DataOutputStream out) throws IOException;
+	}
+	
+	/**
+	 * Writes a sidecar file
+	 * 
+	 * @param target the file to write
+	 * @param magic the magic number of the kind of file
+	 * @param version the version of the kind of file
+	 * @param sources the ways, nodes and index files, in that order
+	 * @param graph the road graph the body was built from
+	 * @param body writes the body
+	 * @throws IOException file io failed
+	 */
+	static void write(final File target, final int magic, final int version, final File[] sources,
+			final RoadGraph graph, final Body body) throws IOException {
+		final File temp = new File(target.getPath() + ".tmp");
+		final CRC32 crc = new CRC32();
+		try (FileOutputStream file = new FileOutputStream(temp)) {
+			final DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file,
+					1 << 16), crc));
+			out.writeInt(magic);
+			out.writeInt(version);
+			for (final File source : sources) {
+				out.writeLong(source.length());
+				out.writeLong(source.lastModified());
+			}
+			out.writeInt(graph.size());
+			out.writeInt(graph.edgeCount());
+			body.writeTo(out);
+			out.flush();
+			final DataOutputStream tail = new DataOutputStream(file);
+			tail.writeLong(crc.getValue());
+			tail.flush();
+		}
+		if (!temp.renameTo(target)) {
+			target.delete();
+			if (!temp.renameTo(target)) {
+				temp.delete();
+				throw new IOException("Could not write " + target);
+			}
+		}
+	}
+	
+	/**
+	 * Maps a sidecar file and checks it still matches its sources and graph
+	 * 
+	 * @param file the file
+	 * @param magic the magic number of the kind of file
+	 * @param version the version of the kind of file
+	 * @param sources the ways, nodes and index files, in that order
+	 * @param graph the road graph of the sources
+	 * @return the body, from position 0 to its end, or null if the file is missing, stale or corrupt
+	 * @throws IOException file io failed
+	 */
+	static ByteBuffer read(final File file, final int magic, final int version, final File[] sources,
+			final RoadGraph graph) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+		final MappedByteBuffer buffer;
+		try (RandomAccessFile r = new RandomAccessFile(file, "r"); FileChannel channel = r.getChannel()) {
+			if (channel.size() > Integer.MAX_VALUE || channel.size() < 8) {
+				return null;
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		final int end = buffer.limit() - 8;
+		final int start = 8 + 16 * sources.length + 8;
+		if (end < start || buffer.getInt(0) != magic || buffer.getInt(4) != version) {
+			return null;
+		}
+		int pos = 8;
+		for (final File source : sources) {
+			if (buffer.getLong(pos) != source.length() || buffer.getLong(pos + 8) != source.lastModified()) {
+				return null;
+			}
+			pos += 16;
+		}
+		if (buffer.getInt(pos) != graph.size() || buffer.getInt(pos + 4) != graph.edgeCount()) {
+			return null;
+		}
+		final CRC32 crc = new CRC32();
+		final ByteBuffer checked = buffer.duplicate();
+		checked.limit(end);
+		crc.update(checked);
+		if (buffer.getLong(end) != crc.getValue()) {
+			return null;
+		}
+		buffer.position(start);
+		buffer.limit(end);
+		return buffer.slice();
+	}
+}
@@ -5,10 +5,16 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
+import data.Pair;
+
 /**
- * Contains functionality to binary search large data-sets (TSV files)
+ * Contains functionality to binary search large data-sets (TSV files). Every search is offered both on a filename
+ * (opening a RandomAccessFile per call) and on a MappedFile (comparing keys in place in the mapped buffer)
  * 
  * @author aiguha
  */
@@ -280,4 +286,463 @@ public class BinaryFileSearcher {
 		return records;
 	}
 	
+	/**
+	 * Finds the first record whose key is not less than search, by binary searching over byte offsets in the mapped
+	 * file. Invariant: every record starting before lo has a smaller key, every record starting at or after hi does
+	 * not
+	 * 
+	 * @param f the mapped file
+	 * @param search the search key, encoded as UTF-8
+	 * @param searchIndex the index of the key column (file is sorted on this)
+	 * @param delimiter the delimiter of the records
+	 * @param matchPartial true if keys should be compared as prefixes of search
+	 * @return the offset of the record, or the limit of the file if every key is smaller
+	 * @throws DataSetException bad data encountered
+	 */
+	public static int lowerBound(final MappedFile f, final byte[] search, final int searchIndex, final byte delimiter,
+			final boolean matchPartial) throws DataSetException {
+		return lowerBound(f, f.getDataStart(), search, searchIndex, delimiter, matchPartial);
+	}
+	
+	/**
+	 * Finds the first record at or after from whose key is not less than search, by binary searching over byte
+	 * offsets in the mapped file. Used by batch lookups, where from is the lower bound of a smaller key
+	 * 
+	 * @param f the mapped file
+	 * @param from a record start that no record with a smaller key comes after
+	 * @param search the search key, encoded as UTF-8
+	 * @param searchIndex the index of the key column (file is sorted on this)
+	 * @param delimiter the delimiter of the records
+	 * @param matchPartial true if keys should be compared as prefixes of search
+	 * @return the offset of the record, or the limit of the file if every key is smaller
+	 * @throws DataSetException bad data encountered
+	 */
+	private static int lowerBound(final MappedFile f, final int from, final byte[] search, final int searchIndex,
+			final byte delimiter, final boolean matchPartial) throws DataSetException {
+		int lo = from;
+		int hi = f.getLimit();
+		while (lo < hi) {
+			final int middle = (lo + hi) >>> 1;
+			final int record = f.recordStartAtOrAfter(middle);
+			if (record >= hi) {
+				// No record starts in [middle, hi)
+				hi = middle;
+			} else if (f.compareField(record, search, searchIndex, delimiter, matchPartial) < 0) {
+				lo = record + 1;
+			} else {
+				hi = record;
+			}
+		}
+		return f.recordStartAtOrAfter(lo);
+	}
+	
+	/**
+	 * Finds the first record whose key is not less than search, jumping straight to the right block of the file with
+	 * a sparse index and scanning only that block. Falls back to binary searching if there is no suitable index
+	 * 
+	 * @param f the mapped file
+	 * @param index a sparse index over the key column of f, or null
+	 * @param search the search key, encoded as UTF-8
+	 * @param searchIndex the index of the key column (file is sorted on this)
+	 * @param delimiter the delimiter of the records
+	 * @param matchPartial true if keys should be compared as prefixes of search
+	 * @return the offset of the record, or the limit of the file if every key is smaller
+	 * @throws DataSetException bad data encountered
+	 */
+	public static int lowerBound(final MappedFile f, final SparseIndex index, final byte[] search,
+			final int searchIndex, final byte delimiter, final boolean matchPartial) throws DataSetException {
+		return lowerBound(f, index, f.getDataStart(), search, searchIndex, delimiter, matchPartial);
+	}
+	
+	/**
+	 * Finds the first record at or after from whose key is not less than search, using a sparse index if there is a
+	 * suitable one
+	 * 
+	 * @param f the mapped file
+	 * @param index a sparse index over the key column of f, or null
+	 * @param from a record start that no record with a smaller key comes after
+	 * @param search the search key, encoded as UTF-8
+	 * @param searchIndex the index of the key column (file is sorted on this)
+	 * @param delimiter the delimiter of the records
+	 * @param matchPartial true if keys should be compared as prefixes of search
+	 * @return the offset of the record, or the limit of the file if every key is smaller
+	 * @throws DataSetException bad data encountered
+	 */
+	private static int lowerBound(final MappedFile f, final SparseIndex index, final int from, final byte[] search,
+			final int searchIndex, final byte delimiter, final boolean matchPartial) throws DataSetException {
+		if (index == null || index.getKeyIndex() != searchIndex) {
+			return lowerBound(f, from, search, searchIndex, delimiter, matchPartial);
+		}
+		int cur = Math.max(from, index.blockStart(search, matchPartial, f.getDataStart()));
+		while (cur < f.getLimit() && f.compareField(cur, search, searchIndex, delimiter, matchPartial) < 0) {
+			cur = f.nextRecordStart(cur);
+		}
+		return cur;
+	}
+	
+	/**
+	 * Finds the first record at or after from whose key is greater than search, by binary searching over byte offsets
+	 * in the mapped file
+	 * 
+	 * @param f the mapped file
+	 * @param from a record start that no record with a greater key comes before
+	 * @param search the search key, encoded as UTF-8
+	 * @param searchIndex the index of the key column (file is sorted on this)
+	 * @param delimiter the delimiter of the records
+	 * @param matchPartial true if keys should be compared as prefixes of search
+	 * @return the offset of the record, or the limit of the file if no key is greater
+	 * @throws DataSetException bad data encountered
+	 */
+	private static int upperBound(final MappedFile f, final int from, final byte[] search, final int searchIndex,
+			final byte delimiter, final boolean matchPartial) throws DataSetException {
+		int lo = from;
+		int hi = f.getLimit();
+		while (lo < hi) {
+			final int middle = (lo + hi) >>> 1;
+			final int record = f.recordStartAtOrAfter(middle);
+			if (record >= hi) {
+				// No record starts in [middle, hi)
+				hi = middle;
+			} else if (f.compareField(record, search, searchIndex, delimiter, matchPartial) <= 0) {
+				lo = record + 1;
+			} else {
+				hi = record;
+			}
+		}
+		return f.recordStartAtOrAfter(lo);
+	}
+	
+	/**
+	 * Collects every record from start onwards whose key compares at most equal to end
+	 * 
+	 * @param f the mapped file
+	 * @param start the offset of the first record
+	 * @param end the last key to include, encoded as UTF-8
+	 * @param searchIndex the index of the key column
+	 * @param delimiter the delimiter of the records
+	 * @param matchPartial true if keys should be compared as prefixes of end
+	 * @return the list of records
+	 * @throws DataSetException bad data encountered
+	 */
+	private static List<String> scanForward(final MappedFile f, final int start, final byte[] end,
+			final int searchIndex, final byte delimiter, final boolean matchPartial) throws DataSetException {
+		final List<String> records = new ArrayList<>();
+		int cur = start;
+		while (cur < f.getLimit() && f.compareField(cur, end, searchIndex, delimiter, matchPartial) <= 0) {
+			final int recordEnd = f.recordEnd(cur);
+			records.add(f.readString(cur, recordEnd));
+			cur = recordEnd + 1;
+		}
+		return records;
+	}
+	
+	/**
+	 * Binary Search on a mapped file. Searches for a record containing search in the relevant index
+	 * 
+	 * @param f the mapped file
+	 * @param search the value to be searched for
+	 * @param searchIndex the index within the record containing the value of interest
+	 * @param delimiter the delimiter of the records
+	 * @return the entire record as a string or null
+	 * @throws DataSetException bad data
+	 */
+	public static String simpleBinarySearch(final MappedFile f, final String search, final int searchIndex,
+			final byte delimiter) throws DataSetException {
+		return simpleBinarySearch(f, null, search, searchIndex, delimiter);
+	}
+	
+	/**
+	 * Searches a mapped file for a record containing search in the relevant index, using a sparse index if given
+	 * 
+	 * @param f the mapped file
+	 * @param index a sparse index over the key column of f, or null
+	 * @param search the value to be searched for
+	 * @param searchIndex the index within the record containing the value of interest
+	 * @param delimiter the delimiter of the records
+	 * @return the entire record as a string or null
+	 * @throws DataSetException bad data
+	 */
+	public static String simpleBinarySearch(final MappedFile f, final SparseIndex index, final String search,
+			final int searchIndex, final byte delimiter) throws DataSetException {
+		if (f == null || search == null || searchIndex < 0) {
+			throw new DataSetException("Internal: Invalid arguments to binarySearch");
+		}
+		final byte[] key = search.getBytes(StandardCharsets.UTF_8);
+		final int record = lowerBound(f, index, key, searchIndex, delimiter, false);
+		if (record >= f.getLimit() || f.compareField(record, key, searchIndex, delimiter, false) != 0) {
+			return null;
+		}
+		return f.readRecord(record);
+	}
+	
+	/**
+	 * Find all matching records in a mapped file
+	 * 
+	 * @param f the mapped file
+	 * @param search the key
+	 * @param searchIndex the index it can be found at
+	 * @param delimiter the delimiter of each record
+	 * @return the entire block of matching records
+	 * @throws DataSetException bad data
+	 */
+	public static List<String> findMatchingRecords(final MappedFile f, final String search, final int searchIndex,
+			final byte delimiter) throws DataSetException {
+		if (f == null || search == null || searchIndex < 0) {
+			throw new DataSetException("Internal: Invalid arguments to findMatchingRecords");
+		}
+		final byte[] key = search.getBytes(StandardCharsets.UTF_8);
+		final int first = lowerBound(f, key, searchIndex, delimiter, false);
+		return scanForward(f, first, key, searchIndex, delimiter, false);
+	}
+	
+	/**
+	 * Get a page of data from the start to end search keys of a mapped file
+	 * 
+	 * @param f the mapped file
+	 * @param start the start search key
+	 * @param end the end search key
+	 * @param searchIndex the index they can be found at
+	 * @param delimiter the delimiter of each record
+	 * @return the page of data within (including) these search keys
+	 * @throws DataSetException bad data
+	 */
+	public static List<String> getPage(final MappedFile f, final String start, final String end,
+			final int searchIndex, final byte delimiter) throws DataSetException {
+		return getPage(f, null, start, end, searchIndex, delimiter);
+	}
+	
+	/**
+	 * Get a page of data from the start to end search keys of a mapped file, using a sparse index if given
+	 * 
+	 * @param f the mapped file
+	 * @param index a sparse index over the key column of f, or null
+	 * @param start the start search key
+	 * @param end the end search key
+	 * @param searchIndex the index they can be found at
+	 * @param delimiter the delimiter of each record
+	 * @return the page of data within (including) these search keys
+	 * @throws DataSetException bad data
+	 */
+	public static List<String> getPage(final MappedFile f, final SparseIndex index, String start, String end,
+			final int searchIndex, final byte delimiter) throws DataSetException {
+		if (f == null || start == null || searchIndex < 0 || end == null) {
+			throw new DataSetException("Internal: Invalid arguments to getPage");
+		}
+		if (start.compareTo(end) > 0) {
+			final String temp = end;
+			end = start;
+			start = temp;
+		}
+		final int first = lowerBound(f, index, start.getBytes(StandardCharsets.UTF_8), searchIndex, delimiter, true);
+		return scanForward(f, first, end.getBytes(StandardCharsets.UTF_8), searchIndex, delimiter, true);
+	}
+	
+	/**
+	 * Orders keys by their UTF-8 bytes, which is the order of the file
+	 * 
+	 * @param keys the encoded keys
+	 * @return the positions of the keys, in ascending key order
+	 */
+	private static Integer[] sortedOrder(final byte[][] keys) {
+		final Integer[] order = new Integer[keys.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			
+			@Override
+			public int compare(final Integer o1, final Integer o2) {
+				final byte[] a = keys[o1];
+				final byte[] b = keys[o2];
+				final int n = Math.min(a.length, b.length);
+				for (int i = 0; i < n; i++) {
+					final int diff = (a[i] & 0xff) - (b[i] & 0xff);
+					if (diff != 0) {
+						return diff;
+					}
+				}
+				return a.length - b.length;
+			}
+		});
+		return order;
+	}
+	
+	/**
+	 * Finds all matching records for several keys in one pass over a mapped file. The keys are searched in ascending
+	 * order, and each search only covers the part of the file after the previous key's records
+	 * 
+	 * @param f the mapped file
+	 * @param searches the keys
+	 * @param searchIndex the index they can be found at
+	 * @param delimiter the delimiter of each record
+	 * @return the block of matching records for each key, in the same order as searches
+	 * @throws DataSetException bad data
+	 */
+	public static List<List<String>> findMatchingRecords(final MappedFile f, final List<String> searches,
+			final int searchIndex, final byte delimiter) throws DataSetException {
+		if (f == null || searches == null || searchIndex < 0) {
+			throw new DataSetException("Internal: Invalid arguments to findMatchingRecords");
+		}
+		final byte[][] keys = new byte[searches.size()][];
+		for (int i = 0; i < keys.length; i++) {
+			if (searches.get(i) == null) {
+				throw new DataSetException("Internal: Invalid arguments to findMatchingRecords");
+			}
+			keys[i] = searches.get(i).getBytes(StandardCharsets.UTF_8);
+		}
+		final List<List<String>> results = new ArrayList<>(Collections.nCopies(keys.length, (List<String>) null));
+		int from = f.getDataStart();
+		for (final int i : sortedOrder(keys)) {
+			from = lowerBound(f, from, keys[i], searchIndex, delimiter, false);
+			results.set(i, scanForward(f, from, keys[i], searchIndex, delimiter, false));
+		}
+		return results;
+	}
+	
+	/**
+	 * Gets several pages of a mapped file in one pass. The pages are searched in ascending order of their start keys,
+	 * and each search only covers the part of the file after the previous page's start
+	 * 
+	 * @param f the mapped file
+	 * @param index a sparse index over the key column of f, or null
+	 * @param ranges the start and end search keys of each page
+	 * @param searchIndex the index they can be found at
+	 * @param delimiter the delimiter of each record
+	 * @return the page of data within (including) each pair of keys, in the same order as ranges
+	 * @throws DataSetException bad data
+	 */
+	public static List<List<String>> getPages(final MappedFile f, final SparseIndex index,
+			final List<Pair<String, String>> ranges, final int searchIndex, final byte delimiter)
+			throws DataSetException {
+		if (f == null || ranges == null || searchIndex < 0) {
+			throw new DataSetException("Internal: Invalid arguments to getPages");
+		}
+		final byte[][] starts = new byte[ranges.size()][];
+		final byte[][] ends = new byte[ranges.size()][];
+		for (int i = 0; i < starts.length; i++) {
+			final String start = ranges.get(i).getLeft();
+			final String end = ranges.get(i).getRight();
+			if (start == null || end == null) {
+				throw new DataSetException("Internal: Invalid arguments to getPages");
+			}
+			final boolean swap = start.compareTo(end) > 0;
+			starts[i] = (swap ? end : start).getBytes(StandardCharsets.UTF_8);
+			ends[i] = (swap ? start : end).getBytes(StandardCharsets.UTF_8);
+		}
+		final List<List<String>> results = new ArrayList<>(Collections.nCopies(starts.length, (List<String>) null));
+		int from = f.getDataStart();
+		for (final int i : sortedOrder(starts)) {
+			from = lowerBound(f, index, from, starts[i], searchIndex, delimiter, true);
+			results.set(i, scanForward(f, from, ends[i], searchIndex, delimiter, true));
+		}
+		return results;
+	}
+	
+	/**
+	 * Finds where several pages of a mapped file lie, without reading any of their records. Each page is the byte
+	 * range of the records within (including) a pair of keys, which a WayRecordDecoder or similar can then read in
+	 * place
+	 * 
+	 * @param f the mapped file
+	 * @param index a sparse index over the key column of f, or null
+	 * @param ranges the start and end search keys of each page
+	 * @param searchIndex the index they can be found at
+	 * @param delimiter the delimiter of each record
+	 * @return the offset of the first record and the offset just past the last record of each page, in the same
+	 *         order as ranges
+	 * @throws DataSetException bad data
+	 */
+	public static List<int[]> getPageBounds(final MappedFile f, final SparseIndex index,
+			final List<Pair<String, String>> ranges, final int searchIndex, final byte delimiter)
+			throws DataSetException {
+		if (f == null || ranges == null || searchIndex < 0) {
+			throw new DataSetException("Internal: Invalid arguments to getPageBounds");
+		}
+		final byte[][] starts = new byte[ranges.size()][];
+		final byte[][] ends = new byte[ranges.size()][];
+		for (int i = 0; i < starts.length; i++) {
+			final String start = ranges.get(i).getLeft();
+			final String end = ranges.get(i).getRight();
+			if (start == null || end == null) {
+				throw new DataSetException("Internal: Invalid arguments to getPageBounds");
+			}
+			final boolean swap = start.compareTo(end) > 0;
+			starts[i] = (swap ? end : start).getBytes(StandardCharsets.UTF_8);
+			ends[i] = (swap ? start : end).getBytes(StandardCharsets.UTF_8);
+		}
+		final List<int[]> results = new ArrayList<>(Collections.nCopies(starts.length, (int[]) null));
+		int from = f.getDataStart();
+		for (final int i : sortedOrder(starts)) {
+			from = lowerBound(f, index, from, starts[i], searchIndex, delimiter, true);
+			final int to = upperBound(f, from, ends[i], searchIndex, delimiter, true);
+			results.set(i, new int[] { from, Math.max(from, to) });
+		}
+		return results;
+	}
+	
+	/**
+	 * Finds all matching records for several keys, sharing one open file between all of the searches
+	 * 
+	 * @param filename the file to search in
+	 * @param searches the keys
+	 * @param searchIndex the index they can be found at
+	 * @param delimiter the delimiter of each record
+	 * @return the block of matching records for each key, in the same order as searches
+	 * @throws DataSetException bad data
+	 * @throws IOException failed file io
+	 */
+	public static List<List<String>> findMatchingRecords(final String filename, final List<String> searches,
+			final int searchIndex, final String delimiter) throws DataSetException, IOException {
+		if (filename == null || searches == null || searchIndex < 0 || delimiter == null) {
+			throw new DataSetException("Internal: Invalid arguments to findMatchingRecords");
+		}
+		final List<List<String>> results = new ArrayList<>();
+		try (RandomAccessFile r = new RandomAccessFile(filename, "r")) {
+			for (final String search : searches) {
+				if (search == null) {
+					throw new DataSetException("Internal: Invalid arguments to findMatchingRecords");
+				}
+				binarySearchHelper(r, search, searchIndex, delimiter, false);
+				results.add(jumpBackwardAndSearchForward(r, search, search, searchIndex, delimiter, false));
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Gets several pages of data, sharing one open file between all of the searches
+	 * 
+	 * @param filename the file
+	 * @param ranges the start and end search keys of each page
+	 * @param searchIndex the index they can be found at
+	 * @param delimiter the delimiter of each record
+	 * @return the page of data within (including) each pair of keys, in the same order as ranges
+	 * @throws DataSetException bad data
+	 * @throws IOException failed file io
+	 */
+	public static List<List<String>> getPages(final String filename, final List<Pair<String, String>> ranges,
+			final int searchIndex, final String delimiter) throws DataSetException, IOException {
+		if (filename == null || ranges == null || searchIndex < 0 || delimiter == null) {
+			throw new DataSetException("Internal: Invalid arguments to getPages");
+		}
+		final List<List<String>> results = new ArrayList<>();
+		try (RandomAccessFile r = new RandomAccessFile(filename, "r")) {
+			for (final Pair<String, String> range : ranges) {
+				String start = range.getLeft();
+				String end = range.getRight();
+				if (start == null || end == null) {
+					throw new DataSetException("Internal: Invalid arguments to getPages");
+				}
+				if (start.compareTo(end) > 0) {
+					final String temp = end;
+					end = start;
+					start = temp;
+				}
+				binarySearchHelper(r, start, searchIndex, delimiter, true);
+				results.add(jumpBackwardAndSearchForward(r, start, end, searchIndex, delimiter, true));
+			}
+		}
+		return results;
+	}
+	
 }
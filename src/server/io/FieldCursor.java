@@ -0,0 +1,148 @@
+package server.io;
+
+/**
+ * A reusable cursor over the fields of one delimited record. Rather than splitting the record into strings, it only
+ * tracks the offsets of the current field, so stepping through a record and comparing its columns doesn't allocate.
+ * Reset it with a new record to reuse it.<br>
+ * Unlike String.split, trailing empty fields are kept, so "a\tb\t" has three fields
+ * 
+ * @author aiguha
+ */
+public class FieldCursor {
+	
+	private final char		delimiter;
+	private CharSequence	record;
+	// Bounds and index of the current field (index -1 before the first call to next)
+	private int				start;
+	private int				end;
+	private int				index;
+	
+	/**
+	 * Creates a cursor with no record
+	 * 
+	 * @param delimiter the field delimiter
+	 */
+	public FieldCursor(final char delimiter) {
+		this.delimiter = delimiter;
+		reset(null);
+	}
+	
+	/**
+	 * Points the cursor just before the first field of a record
+	 * 
+	 * @param newRecord the record, without its line ending
+	 * @return this cursor
+	 */
+	public FieldCursor reset(final CharSequence newRecord) {
+		record = newRecord;
+		start = 0;
+		end = -1;
+		index = -1;
+		return this;
+	}
+	
+	/**
+	 * Moves to the next field
+	 * 
+	 * @return false if the record has no more fields
+	 */
+	public boolean next() {
+		if (record == null || end >= record.length()) {
+			return false;
+		}
+		start = end + 1;
+		int i = start;
+		while (i < record.length() && record.charAt(i) != delimiter) {
+			i++;
+		}
+		end = i;
+		index++;
+		return true;
+	}
+	
+	/**
+	 * Moves to the field with the given index, going back to the start of the record if needed
+	 * 
+	 * @param fieldIndex the index of the field
+	 * @return false if the record has too few fields
+	 */
+	public boolean seek(final int fieldIndex) {
+		if (fieldIndex < index) {
+			reset(record);
+		}
+		while (index < fieldIndex) {
+			if (!next()) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return the offset of the current field in the record
+	 */
+	public int start() {
+		return start;
+	}
+	
+	/**
+	 * @return the offset just past the current field
+	 */
+	public int end() {
+		return end;
+	}
+	
+	/**
+	 * @return the index of the current field
+	 */
+	public int index() {
+		return index;
+	}
+	
+	/**
+	 * Creates a string of the current field
+	 * 
+	 * @return the field's value
+	 */
+	public String value() {
+		return record.subSequence(start, end).toString();
+	}
+	
+	/**
+	 * Compares the current field to a key in place, the same way String.compareTo does
+	 * 
+	 * @param key the key
+	 * @param matchPartial if true, only the first key.length() characters of the field are compared
+	 * @return negative, zero or positive as the field is less than, equal to or greater than the key
+	 */
+	public int compare(final CharSequence key, final boolean matchPartial) {
+		return compare(record, start, end, key, matchPartial);
+	}
+	
+	/**
+	 * Compares a range of a record to a key in place, the same way String.compareTo does
+	 * 
+	 * @param record the record
+	 * @param from the start of the range
+	 * @param to just past the end of the range
+	 * @param key the key
+	 * @param matchPartial if true, only the first key.length() characters of the range are compared
+	 * @return negative, zero or positive as the range is less than, equal to or greater than the key
+	 */
+	static int compare(final CharSequence record, final int from, final int to, final CharSequence key,
+			final boolean matchPartial) {
+		final int len = to - from;
+		final int keyLen = key.length();
+		final int n = Math.min(len, keyLen);
+		for (int i = 0; i < n; i++) {
+			final int diff = record.charAt(from + i) - key.charAt(i);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		if (matchPartial && len >= keyLen) {
+			return 0;
+		}
+		return len - keyLen;
+	}
+}
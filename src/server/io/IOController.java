@@ -1,20 +1,21 @@
 package server.io;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import data.LatLongPoint;
 import data.MapException;
 import data.MapNode;
 import data.MapWay;
+import data.Pair;
+import data.ProtocolManager;
 
 /**
  * Controller for all file searching and parsing. Used by Autocorrect, KDtree and Graphs
@@ -32,6 +33,7 @@ public class IOController {
 	
 	// Delimiters
 	private static final String			primaryDelimiter	= "\\t";
+	private static final byte			primaryByteDelim	= '\t';
 	private static final String			secondaryDelimiter	= ",";
 	
 	// Header Maps
@@ -42,13 +44,32 @@ public class IOController {
 	private static List<String>			allWayNames;
 	private static Map<String, MapNode>	allMapNodes;
 	
-	private static Map<String, MapWay>	mapWayStore;
-	
 	// File names
 	private static String				waysFile;
 	private static String				nodesFile;
 	private static String				indexFile;
 	
+	// Memory mapped views of the files (null if mapping is off or failed)
+	private static boolean				memoryMapped		= true;
+	private static MappedFile			waysData;
+	private static MappedFile			nodesData;
+	private static MappedFile			indexData;
+	
+	// Sparse index of every Nth way (null if the ways file isn't mapped)
+	private static SparseIndex			waysIndex;
+	
+	// Dense tables of every node and way (the way table is loaded at setup in preload mode, and otherwise by the
+	// build of the road graph)
+	private static boolean				preload				= false;
+	private static NodeTable			nodeTable;
+	private static WayTable				wayTable;
+	
+	// Inverted index of street names to node ordinals, for intersections
+	private static StreetIndex			streetIndex;
+	
+	// True if the last setup started from a snapshot
+	private static boolean				fromSnapshot;
+	
 	public static Map<String, Integer> getWaysHeaderMap() {
 		return waysHeaderMap;
 	}
@@ -57,6 +78,50 @@ public class IOController {
 		return indexHeaderMap;
 	}
 	
+	/**
+	 * Turns memory mapping of the data files on or off. Takes effect at the next setup
+	 * 
+	 * @param mapped true if the files should be mapped into memory
+	 */
+	public static void setMemoryMapped(final boolean mapped) {
+		memoryMapped = mapped;
+	}
+	
+	/**
+	 * Turns preload mode on or off. In preload mode every way is read into a WayTable at setup, and ways are served
+	 * from it instead of from the file. Takes effect at the next setup
+	 * 
+	 * @param preloaded true if all ways should be loaded into memory
+	 */
+	public static void setPreload(final boolean preloaded) {
+		preload = preloaded;
+	}
+	
+	/**
+	 * @return true if every way is read into memory at setup
+	 */
+	public static boolean isPreload() {
+		return preload;
+	}
+	
+	/**
+	 * Maps a file into memory if memory mapping is on, falling back to file searches if the file can't be mapped
+	 * 
+	 * @param filename the file to map
+	 * @return the mapped file or null
+	 * @throws IOException file io
+	 */
+	private static MappedFile mapFile(final String filename) throws IOException {
+		if (!memoryMapped) {
+			return null;
+		}
+		try {
+			return new MappedFile(filename);
+		} catch (final DataSetException e) {
+			return null;
+		}
+	}
+	
 	/**
 	 * Sets up the full class
 	 * 
@@ -71,7 +136,6 @@ public class IOController {
 		waysFile = ways;
 		nodesFile = nodes;
 		indexFile = index;
-		mapWayStore = new HashMap<>();
 		try {
 			waysHeaderMap = ParserTools.findHeaders(waysFile, reqWaysHeaders, primaryDelimiter);
 			indexHeaderMap = ParserTools.findHeaders(indexFile, reqIndexHeaders, primaryDelimiter);
@@ -79,14 +143,96 @@ public class IOController {
 		} catch (final DataSetException e) {
 			throw new MapException("<IOController> " + e.getMessage());
 		}
+		waysData = mapFile(waysFile);
+		nodesData = mapFile(nodesFile);
+		indexData = mapFile(indexFile);
+		try {
+			waysIndex = (waysData == null) ? null : SparseIndex.loadOrBuild(waysData, waysHeaderMap.get("id"),
+					primaryByteDelim, SparseIndex.DEFAULT_INTERVAL);
+		} catch (final DataSetException e) {
+			throw new MapException("<IOController> " + e.getMessage());
+		}
+		loadSnapshot();
+		if (preload) {
+			getWayTable();
+			getStreetIndex();
+		}
+	}
+	
+	/**
+	 * @return the ways, nodes and index files, in that order
+	 */
+	public static File[] sourceFiles() {
+		return new File[] { new File(waysFile), new File(nodesFile), new File(indexFile) };
+	}
+	
+	/**
+	 * Starts from the snapshot next to the ways file if there is one and it still matches the files. Otherwise
+	 * everything is parsed from the files as usual
+	 * 
+	 * @throws IOException file io
+	 */
+	private static void loadSnapshot() throws IOException {
+		final Snapshot snapshot = Snapshot.load(Snapshot.fileFor(waysFile), sourceFiles());
+		fromSnapshot = (snapshot != null);
+		if (snapshot == null) {
+			return;
+		}
+		allMapNodes = snapshot.getAllNodes();
+		nodeTable = snapshot.getNodeTable();
+		wayTable = snapshot.getWayTable();
+		allWayNames = new ArrayList<>(snapshot.getIndexNames());
+		streetIndex = new StreetIndex(nodeTable, snapshot.getIndexNames(), Arrays.asList(snapshot.getIndexNodes()),
+				StreetIndex.DEFAULT_CACHE_SIZE);
+	}
+	
+	/**
+	 * @return true if the last setup started from a snapshot instead of the files
+	 */
+	public static boolean isFromSnapshot() {
+		return fromSnapshot;
+	}
+	
+	/**
+	 * Writes a snapshot of the current files next to the ways file, for the next setup to start from
+	 * 
+	 * @return the snapshot file
+	 * @throws IOException file io
+	 * @throws MapException if the files couldn't be parsed
+	 */
+	public synchronized static File writeSnapshot() throws IOException, MapException {
+		final List<String> names = new ArrayList<>();
+		final List<List<String>> nodes = new ArrayList<>();
+		try (BufferedReader b = new BufferedReader(new FileReader(indexFile))) {
+			// Skip Headers
+			String line = b.readLine();
+			while ((line = b.readLine()) != null && !line.trim().isEmpty()) {
+				final Map<String, String> parsedLine = ParserTools.parseLine(line, indexHeaderMap, primaryDelimiter);
+				names.add(parsedLine.get("name"));
+				nodes.add(ParserTools.convertToList(parsedLine.get("nodes"), secondaryDelimiter));
+			}
+		} catch (final DataSetException e) {
+			throw new MapException("<IOController> " + e.getMessage());
+		}
+		final File target = Snapshot.fileFor(waysFile);
+		Snapshot.write(target, sourceFiles(), getNodeTable(), getWayTable(), names, nodes);
+		return target;
 	}
 	
 	public synchronized static void tearDown() {
 		waysFile = null;
 		nodesFile = null;
 		indexFile = null;
+		waysData = null;
+		nodesData = null;
+		indexData = null;
+		waysIndex = null;
+		nodeTable = null;
+		wayTable = null;
+		streetIndex = null;
+		fromSnapshot = false;
 		allMapNodes = null;
-		mapWayStore = null;
+		allWayNames = null;
 		waysHeaderMap = null;
 		indexHeaderMap = null;
 		nodesHeaderMap = null;
@@ -147,6 +293,12 @@ public class IOController {
 			throw new DataSetException("Violates internal contract");
 		}
 		
+		// Parse the mapped file in parallel if there is one
+		if (nodesData != null) {
+			allMapNodes = NodeLoader.load(nodesData, nodesHeaderMap, primaryByteDelim, secondaryDelimiter);
+			return allMapNodes;
+		}
+		
 		// Otherwise, construct all nodes by reading from file
 		allMapNodes = new HashMap<>();
 		final BufferedReader b = new BufferedReader(new FileReader(nodesFile));
@@ -216,6 +368,62 @@ public class IOController {
 		}
 	}
 	
+	/**
+	 * Returns the table of all nodes, creating it from allNodes if needed
+	 * 
+	 * @return the node table
+	 * @throws IOException if there was a reading error
+	 * @throws MapException if there was a DataSetException when parsing the nodes file
+	 */
+	public synchronized static NodeTable getNodeTable() throws IOException, MapException {
+		if (nodeTable == null) {
+			nodeTable = new NodeTable(getAllNodes().values());
+		}
+		return nodeTable;
+	}
+	
+	/**
+	 * Returns the inverted index of street names, reading the whole index file if needed
+	 * 
+	 * @return the street index
+	 * @throws IOException if there was a reading error
+	 * @throws MapException if there was a DataSetException when parsing the index file
+	 */
+	public synchronized static StreetIndex getStreetIndex() throws IOException, MapException {
+		if (streetIndex == null) {
+			try {
+				streetIndex = StreetIndex.load(indexFile, indexHeaderMap, primaryDelimiter, secondaryDelimiter,
+						getNodeTable());
+			} catch (final DataSetException e) {
+				throw new MapException("<IOController> " + e.getMessage());
+			}
+		}
+		return streetIndex;
+	}
+	
+	/**
+	 * Returns the table of all ways, reading the whole ways file if needed
+	 * 
+	 * @return the way table
+	 * @throws IOException if there was a reading error
+	 * @throws MapException if there was a DataSetException when parsing the ways file
+	 */
+	public synchronized static WayTable getWayTable() throws IOException, MapException {
+		if (wayTable != null) {
+			return wayTable;
+		}
+		try {
+			if (waysData != null) {
+				wayTable = WayTable.load(waysData, waysHeaderMap, primaryByteDelim, getNodeTable());
+			} else {
+				wayTable = WayTable.load(waysFile, waysHeaderMap, primaryDelimiter, getNodeTable());
+			}
+		} catch (final DataSetException e) {
+			throw new MapException("<IOController> " + e.getMessage());
+		}
+		return wayTable;
+	}
+	
 	/**
 	 * Wrapper method that returns allWayNames if it exists or calls parseWayNames to create it
 	 * 
@@ -234,6 +442,26 @@ public class IOController {
 		}
 	}
 	
+	/**
+	 * Binary searches for one record, in the mapped file if there is one
+	 * 
+	 * @param data the mapped file or null
+	 * @param index a sparse index over data or null
+	 * @param filename the file to search otherwise
+	 * @param search the search key
+	 * @param searchIndex the index of the key column
+	 * @return the record or null
+	 * @throws IOException file io
+	 * @throws DataSetException bad or missing data
+	 */
+	private static String searchRecord(final MappedFile data, final SparseIndex index, final String filename,
+			final String search, final int searchIndex) throws IOException, DataSetException {
+		if (data != null) {
+			return BinaryFileSearcher.simpleBinarySearch(data, index, search, searchIndex, primaryByteDelim);
+		}
+		return BinaryFileSearcher.simpleBinarySearch(filename, search, searchIndex, primaryDelimiter);
+	}
+	
 	/**
 	 * Given the name of a way, it finds the id of the start node
 	 * 
@@ -246,8 +474,7 @@ public class IOController {
 		if (wayName == null) {
 			throw new DataSetException("Internal: Invalid arguments to getStartMapNodeID.");
 		}
-		final String record = BinaryFileSearcher.simpleBinarySearch(indexFile, wayName, indexHeaderMap.get("name"),
-				primaryDelimiter);
+		final String record = searchRecord(indexData, null, indexFile, wayName, indexHeaderMap.get("name"));
 		if (record == null) {
 			throw new DataSetException("Could not find way: " + wayName);
 		}
@@ -286,8 +513,7 @@ public class IOController {
 		if (wayID == null) {
 			return null;
 		}
-		final String record = BinaryFileSearcher.simpleBinarySearch(waysFile, wayID, waysHeaderMap.get("id"),
-				primaryDelimiter);
+		final String record = searchRecord(waysData, waysIndex, waysFile, wayID, waysHeaderMap.get("id"));
 		if (record == null) {
 			return null;
 		}
@@ -297,7 +523,9 @@ public class IOController {
 	}
 	
 	/**
-	 * Returns a MapWay object, either by getting it from the mapWayStore or searching for it using the searchMapWay
+	 * Returns a MapWay object, searching for it in the ways file using searchMapWay. Nothing is kept between calls,
+	 * so concurrent lookups share no state. Once the way table is loaded (at setup in preload mode, or by the build of
+	 * the road graph otherwise), the MapWay is created from the table instead
 	 * 
 	 * @param wayID the id to be found
 	 * @return the MapWay or null
@@ -308,14 +536,12 @@ public class IOController {
 		if (wayID == null) {
 			return null;
 		}
-		MapWay newWay = mapWayStore.get(wayID);
-		if (newWay == null) {
-			newWay = searchMapWay(wayID);
-			if (newWay != null) {
-				mapWayStore.put(newWay.getID(), newWay);
-			}
+		final WayTable table = wayTable;
+		if (table != null) {
+			final int ordinal = table.find(wayID);
+			return (ordinal == -1) ? null : table.getMapWay(ordinal);
 		}
-		return newWay;
+		return searchMapWay(wayID);
 	}
 	
 	/**
@@ -329,29 +555,7 @@ public class IOController {
 		if (street1 == null || street2 == null) {
 			return null;
 		}
-		try {
-			final List<String> street1Matches = BinaryFileSearcher.findMatchingRecords(indexFile, street1,
-					indexHeaderMap.get("name"), primaryDelimiter);
-			final List<String> street2Matches = BinaryFileSearcher.findMatchingRecords(indexFile, street2,
-					indexHeaderMap.get("name"), primaryDelimiter);
-			for (final String s1 : street1Matches) {
-				for (final String s2 : street2Matches) {
-					final Map<String, String> p1 = ParserTools.parseLine(s1, indexHeaderMap, primaryDelimiter);
-					final Map<String, String> p2 = ParserTools.parseLine(s2, indexHeaderMap, primaryDelimiter);
-					final List<String> l1 = ParserTools.convertToList(p1.get("nodes"), secondaryDelimiter);
-					final List<String> l2 = ParserTools.convertToList(p2.get("nodes"), secondaryDelimiter);
-					final Set<String> set1 = new HashSet<>(l1);
-					// Returns the first valid intersection
-					if (set1.retainAll(l2) && !set1.isEmpty()) {
-						return allMapNodes.get(set1.toArray()[0]);
-					}
-					
-				}
-			}
-		} catch (final DataSetException e) {
-			throw new MapException("<IOController> Internal Error in finding intersections.");
-		}
-		return null;
+		return getStreetIndex().findIntersection(street1, street2);
 	}
 	
 	/**
@@ -370,7 +574,26 @@ public class IOController {
 	}
 	
 	/**
-	 * Returns a block of ways. Does not reuse objects from the MapsDataProvider mapWayStore.
+	 * Finds the ranges of way ids that make up the chunk between two points
+	 * 
+	 * @param p1 the first point
+	 * @param p2 the second point
+	 * @return the start and end ids of each range
+	 */
+	private static List<Pair<String, String>> chunkRanges(final LatLongPoint p1, final LatLongPoint p2) {
+		final String lat1 = firstFourDigits(p1.getLat());
+		final String long1 = firstFourDigits(p1.getLong());
+		final String lat2 = firstFourDigits(p2.getLat());
+		final String long2 = firstFourDigits(p2.getLong());
+		// Combinations of the above
+		final List<Pair<String, String>> ranges = new ArrayList<>();
+		ranges.add(new Pair<>(constructWayID(lat1, long1), constructWayID(lat1, long2)));
+		ranges.add(new Pair<>(constructWayID(lat2, long1), constructWayID(lat2, long2)));
+		return ranges;
+	}
+	
+	/**
+	 * Returns a block of ways.
 	 * 
 	 * @param p1 the first point
 	 * @param p2 the second point
@@ -382,17 +605,36 @@ public class IOController {
 			IOException {
 		final List<String> blockData = new ArrayList<>();
 		final List<MapWay> chunk = new ArrayList<>();
-		final String lat1 = firstFourDigits(p1.getLat());
-		final String long1 = firstFourDigits(p1.getLong());
-		final String lat2 = firstFourDigits(p2.getLat());
-		final String long2 = firstFourDigits(p2.getLong());
-		// Combinations of the above
-		final String start1 = constructWayID(lat1, long1);
-		final String end1 = constructWayID(lat1, long2);
-		final String start2 = constructWayID(lat2, long1);
-		final String end2 = constructWayID(lat2, long2);
-		blockData.addAll(BinaryFileSearcher.getPage(waysFile, start1, end1, waysHeaderMap.get("id"), primaryDelimiter));
-		blockData.addAll(BinaryFileSearcher.getPage(waysFile, start2, end2, waysHeaderMap.get("id"), primaryDelimiter));
+		final List<Pair<String, String>> ranges = chunkRanges(p1, p2);
+		final WayTable table = wayTable;
+		if (table != null && table.isSorted()) {
+			for (final Pair<String, String> range : ranges) {
+				chunk.addAll(table.getPage(range.getLeft(), range.getRight()));
+			}
+			return chunk;
+		}
+		if (waysData != null) {
+			// Read the pages in place, without parsing each record into a map
+			if (allMapNodes == null) {
+				throw new DataSetException("Internal: Invalid order of operations.");
+			}
+			final WayRecordDecoder decoder = new WayRecordDecoder(waysData, waysHeaderMap, primaryByteDelim);
+			for (final int[] bounds : BinaryFileSearcher.getPageBounds(waysData, waysIndex, ranges,
+					waysHeaderMap.get("id"), primaryByteDelim)) {
+				decoder.reset(bounds[0], bounds[1]);
+				while (decoder.next()) {
+					final MapWay newWay = decoder.toMapWay(allMapNodes);
+					if (newWay != null) {
+						chunk.add(newWay);
+					}
+				}
+			}
+			return chunk;
+		}
+		for (final List<String> page : BinaryFileSearcher.getPages(waysFile, ranges, waysHeaderMap.get("id"),
+				primaryDelimiter)) {
+			blockData.addAll(page);
+		}
 		for (final String s : blockData) {
 			final Map<String, String> parsedRecord = ParserTools.parseLine(s, waysHeaderMap, primaryDelimiter);
 			final MapWay newWay = IOController.parseWay(parsedRecord);
@@ -400,6 +642,10 @@ public class IOController {
 				chunk.add(newWay);
 			}
 		}
+		final String start1 = ranges.get(0).getLeft();
+		final String end1 = ranges.get(0).getRight();
+		final String start2 = ranges.get(1).getLeft();
+		final String end2 = ranges.get(1).getRight();
 		if (start1.equals(end1) || start1.equals(end2) || start1.equals(start2) || start2.equals(end1)
 			|| start2.equals(end2) || end1.equals(end2)) {
 			System.out.println(String.format(
@@ -410,6 +656,45 @@ public class IOController {
 		return chunk;
 	}
 	
+	/**
+	 * Encodes the block of ways between two points straight into a builder, giving exactly what encoding each way of
+	 * getChunkOfWays would. When the ways file is mapped, the records are copied almost verbatim out of the mapped
+	 * buffer, and no MapWay is created at all
+	 * 
+	 * @param p1 the first point
+	 * @param p2 the second point
+	 * @param out the builder to append the encoded ways to
+	 * @return the number of ways encoded
+	 * @throws DataSetException if data was invalid
+	 * @throws IOException if file io failed
+	 */
+	public static int encodeChunkOfWays(final LatLongPoint p1, final LatLongPoint p2, final StringBuilder out)
+			throws DataSetException, IOException {
+		final WayTable table = wayTable;
+		if (waysData == null || (table != null && table.isSorted())) {
+			final List<MapWay> chunk = getChunkOfWays(p1, p2);
+			for (final MapWay way : chunk) {
+				ProtocolManager.appendMapWay(out, way.getID(), way.getName(), way.getStart(), way.getEnd());
+			}
+			return chunk.size();
+		}
+		if (allMapNodes == null) {
+			throw new DataSetException("Internal: Invalid order of operations.");
+		}
+		int count = 0;
+		final WayRecordDecoder decoder = new WayRecordDecoder(waysData, waysHeaderMap, primaryByteDelim);
+		for (final int[] bounds : BinaryFileSearcher.getPageBounds(waysData, waysIndex, chunkRanges(p1, p2),
+				waysHeaderMap.get("id"), primaryByteDelim)) {
+			decoder.reset(bounds[0], bounds[1]);
+			while (decoder.next()) {
+				if (decoder.appendTo(out, allMapNodes)) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+	
 	/**
 	 * Returns if this is setup
 	 * 
@@ -417,6 +702,6 @@ public class IOController {
 	 */
 	public static boolean isSetup() {
 		return !(waysFile == null || nodesFile == null || indexFile == null || allMapNodes == null
-			|| mapWayStore == null || waysHeaderMap == null || indexHeaderMap == null || nodesHeaderMap == null);
+			|| waysHeaderMap == null || indexHeaderMap == null || nodesHeaderMap == null);
 	}
 }
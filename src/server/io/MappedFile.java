@@ -0,0 +1,279 @@
+package server.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A read-only, memory-mapped view of a newline delimited data-set (TSV file). The file is mapped once and every read
+ * afterwards is an absolute get on the mapped buffer, so one instance can be shared by any number of threads.<br>
+ * The header line is never treated as a record, and neither is a trailing line without a newline (matching
+ * BinaryFileSearcher's RandomAccessFile behaviour)
+ * 
+ * @author aiguha
+ */
+public class MappedFile {
+	
+	private final String			filename;
+	private final MappedByteBuffer	buffer;
+	// Offset of the first record (just past the header line)
+	private final int				dataStart;
+	// Offset just past the last complete record
+	private final int				limit;
+	
+	/**
+	 * Maps the given file into memory
+	 * 
+	 * @param filename the file to map
+	 * @throws IOException file io failed
+	 * @throws DataSetException if the file is too large to be mapped in one piece
+	 */
+	public MappedFile(final String filename) throws IOException, DataSetException {
+		if (filename == null) {
+			throw new DataSetException("Internal: Invalid arguments to MappedFile");
+		}
+		this.filename = filename;
+		try (RandomAccessFile r = new RandomAccessFile(filename, "r"); FileChannel channel = r.getChannel()) {
+			final long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new DataSetException("File too large to map: " + filename);
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		int end = buffer.limit();
+		while (end > 0 && buffer.get(end - 1) != '\n') {
+			end--;
+		}
+		limit = end;
+		dataStart = Math.min(nextRecordStart(0), limit);
+	}
+	
+	public String getFilename() {
+		return filename;
+	}
+	
+	/**
+	 * @return offset of the first record after the header
+	 */
+	public int getDataStart() {
+		return dataStart;
+	}
+	
+	/**
+	 * @return offset just past the last complete record
+	 */
+	public int getLimit() {
+		return limit;
+	}
+	
+	/**
+	 * @return the length of the whole file, including any trailing line without a newline
+	 */
+	public int size() {
+		return buffer.limit();
+	}
+	
+	/**
+	 * Reads a single byte
+	 * 
+	 * @param pos the absolute offset
+	 * @return the byte at pos
+	 */
+	public byte get(final int pos) {
+		return buffer.get(pos);
+	}
+	
+	/**
+	 * Finds the start of the first record strictly after the line containing pos
+	 * 
+	 * @param pos any offset in the file
+	 * @return the offset of the next record, or limit if there is none
+	 */
+	public int nextRecordStart(final int pos) {
+		int i = pos;
+		while (i < limit && buffer.get(i) != '\n') {
+			i++;
+		}
+		return Math.min(i + 1, limit);
+	}
+	
+	/**
+	 * Finds the start of the first record beginning at or after pos
+	 * 
+	 * @param pos any offset in the file
+	 * @return the offset of that record, or limit if there is none
+	 */
+	public int recordStartAtOrAfter(final int pos) {
+		if (pos <= dataStart) {
+			return dataStart;
+		}
+		if (pos >= limit) {
+			return limit;
+		}
+		return (buffer.get(pos - 1) == '\n') ? pos : nextRecordStart(pos);
+	}
+	
+	/**
+	 * Finds the end of a record
+	 * 
+	 * @param start the offset of a record
+	 * @return the offset of the newline ending the record
+	 */
+	public int recordEnd(final int start) {
+		int i = start;
+		while (i < limit && buffer.get(i) != '\n') {
+			i++;
+		}
+		return i;
+	}
+	
+	/**
+	 * Decodes the bytes in [from, to) as UTF-8
+	 * 
+	 * @param from the first offset
+	 * @param to the offset just past the last byte
+	 * @return the decoded string
+	 */
+	public String readString(final int from, final int to) {
+		final byte[] bytes = new byte[to - from];
+		final ByteBuffer view = buffer.duplicate();
+		view.position(from);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Appends the bytes in [from, to) to a builder, decoded as UTF-8. ASCII is copied straight out of the buffer a
+	 * byte at a time, so most fields are appended without creating a string first
+	 * 
+	 * @param from the first offset
+	 * @param to the offset just past the last byte
+	 * @param out the builder to append to
+	 */
+	public void appendString(final int from, final int to, final StringBuilder out) {
+		for (int i = from; i < to; i++) {
+			final byte b = buffer.get(i);
+			if (b < 0) {
+				out.append(readString(i, to));
+				return;
+			}
+			out.append((char) b);
+		}
+	}
+	
+	/**
+	 * Reads an entire record, without the trailing newline
+	 * 
+	 * @param start the offset of a record
+	 * @return the record as a string
+	 */
+	public String readRecord(final int start) {
+		return readString(start, recordEnd(start));
+	}
+	
+	/**
+	 * Finds the offset at which a column of a record starts
+	 * 
+	 * @param start the offset of a record
+	 * @param index the column index
+	 * @param delimiter the column delimiter
+	 * @return the offset of the column
+	 * @throws DataSetException if the record has too few columns
+	 */
+	public int fieldStart(final int start, final int index, final byte delimiter) throws DataSetException {
+		int i = start;
+		for (int col = 0; col < index; col++) {
+			while (true) {
+				if (i >= limit || buffer.get(i) == '\n') {
+					throw new DataSetException("Malformed Record in File");
+				}
+				if (buffer.get(i++) == delimiter) {
+					break;
+				}
+			}
+		}
+		return i;
+	}
+	
+	/**
+	 * Finds the offset just past the column starting at fieldStart
+	 * 
+	 * @param fieldStart the offset of a column
+	 * @param delimiter the column delimiter
+	 * @return the offset of the delimiter or newline ending the column
+	 */
+	public int fieldEnd(final int fieldStart, final byte delimiter) {
+		int i = fieldStart;
+		byte b;
+		while (i < limit && (b = buffer.get(i)) != delimiter && b != '\n') {
+			i++;
+		}
+		return i;
+	}
+	
+	/**
+	 * Finds the bounds of the first from.length columns of a record in a single pass, so that a loader can pick out the
+	 * columns it needs without scanning the record once per column
+	 * 
+	 * @param start the offset of a record
+	 * @param delimiter the column delimiter
+	 * @param from filled with the offset of each column, or -1 if the record has too few columns
+	 * @param to filled with the offset just past each column
+	 * @return the offset of the newline ending the record, or the end of the file if there is none
+	 */
+	public int columnBounds(final int start, final byte delimiter, final int[] from, final int[] to) {
+		final int columns = from.length;
+		for (int col = 0; col < columns; col++) {
+			from[col] = -1;
+		}
+		final int size = buffer.limit();
+		int col = 0;
+		int i = start;
+		from[0] = start;
+		byte b;
+		while (i < size && (b = buffer.get(i)) != '\n') {
+			if (b == delimiter && ++col < columns) {
+				to[col - 1] = i;
+				from[col] = i + 1;
+			}
+			i++;
+		}
+		if (col < columns) {
+			to[col] = i;
+		}
+		return i;
+	}
+	
+	/**
+	 * Compares a column of the record in place against a key, without creating any strings. Bytes are compared
+	 * unsigned, which orders UTF-8 the same way as code points
+	 * 
+	 * @param start the offset of a record
+	 * @param key the key, encoded as UTF-8
+	 * @param index the column to compare
+	 * @param delimiter the column delimiter
+	 * @param matchPartial if true, only the first key.length bytes of the column are compared
+	 * @return negative, zero or positive as the column is less than, equal to or greater than the key
+	 * @throws DataSetException if the record has too few columns
+	 */
+	public int compareField(final int start, final byte[] key, final int index, final byte delimiter,
+			final boolean matchPartial) throws DataSetException {
+		final int from = fieldStart(start, index, delimiter);
+		final int to = fieldEnd(from, delimiter);
+		final int len = to - from;
+		final int n = Math.min(len, key.length);
+		for (int i = 0; i < n; i++) {
+			final int diff = (buffer.get(from + i) & 0xff) - (key[i] & 0xff);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		if (matchPartial && len >= key.length) {
+			return 0;
+		}
+		return len - key.length;
+	}
+}
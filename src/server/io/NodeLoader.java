@@ -0,0 +1,167 @@
+package server.io;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import data.LatLongPoint;
+import data.MapNode;
+
+/**
+ * Parses a mapped nodes file in parallel. The file is split in half until each range is small enough, always at a
+ * newline, and each range is parsed on a fork-join worker. The ranges are joined back together in file order, so the
+ * result is the same as reading the file line by line
+ * 
+ * @author aiguha
+ */
+public class NodeLoader extends RecursiveTask<List<MapNode>> {
+	
+	private static final long			serialVersionUID	= 1L;
+	
+	// Ranges smaller than this are parsed without splitting further
+	private static final int			THRESHOLD			= 1 << 20;
+	
+	private final MappedFile			f;
+	private final int					from;
+	private final int					to;
+	private final int					latCol;
+	private final int					longCol;
+	private final int					idCol;
+	private final int					waysCol;
+	private final int					columns;
+	private final byte					delimiter;
+	private final String				secondaryDelimiter;
+	
+	/**
+	 * Creates a task parsing the records in [from, to), both of which must be record starts
+	 * 
+	 * @param f the mapped nodes file
+	 * @param from the first byte of the range
+	 * @param to just past the last byte of the range
+	 * @param headerMap the indices of the id, latitude, longitude and ways columns
+	 * @param delimiter the column delimiter
+	 * @param secondaryDelimiter the delimiter of the ways list (a regex)
+	 */
+	private NodeLoader(final MappedFile f, final int from, final int to, final Map<String, Integer> headerMap,
+			final byte delimiter, final String secondaryDelimiter) {
+		this.f = f;
+		this.from = from;
+		this.to = to;
+		this.delimiter = delimiter;
+		this.secondaryDelimiter = secondaryDelimiter;
+		idCol = headerMap.get("id");
+		latCol = headerMap.get("latitude");
+		longCol = headerMap.get("longitude");
+		waysCol = headerMap.get("ways");
+		columns = ParserTools.getHighestIndex(headerMap) + 1;
+	}
+	
+	/**
+	 * Creates a task over a sub-range with the same settings
+	 * 
+	 * @param f the mapped nodes file
+	 * @param from the first byte of the range
+	 * @param to just past the last byte of the range
+	 * @param parent the task being split
+	 */
+	private NodeLoader(final MappedFile f, final int from, final int to, final NodeLoader parent) {
+		this.f = f;
+		this.from = from;
+		this.to = to;
+		delimiter = parent.delimiter;
+		secondaryDelimiter = parent.secondaryDelimiter;
+		idCol = parent.idCol;
+		latCol = parent.latCol;
+		longCol = parent.longCol;
+		waysCol = parent.waysCol;
+		columns = parent.columns;
+	}
+	
+	/**
+	 * Parses every node in the file
+	 * 
+	 * @param f the mapped nodes file
+	 * @param headerMap the indices of the id, latitude, longitude and ways columns
+	 * @param delimiter the column delimiter
+	 * @param secondaryDelimiter the delimiter of the ways list (a regex)
+	 * @return a map of ids to nodes
+	 * @throws DataSetException bad arguments
+	 */
+	public static Map<String, MapNode> load(final MappedFile f, final Map<String, Integer> headerMap,
+			final byte delimiter, final String secondaryDelimiter) throws DataSetException {
+		if (f == null || headerMap == null || secondaryDelimiter == null) {
+			throw new DataSetException("Internal: Invalid arguments to NodeLoader");
+		}
+		final NodeLoader task = new NodeLoader(f, f.getDataStart(), f.size(), headerMap, delimiter, secondaryDelimiter);
+		final List<MapNode> nodes = ForkJoinPool.commonPool().invoke(task);
+		final Map<String, MapNode> allMapNodes = new HashMap<>(nodes.size() * 2);
+		for (final MapNode node : nodes) {
+			allMapNodes.put(node.getID(), node);
+		}
+		return allMapNodes;
+	}
+	
+	@Override
+	protected List<MapNode> compute() {
+		if (to - from > THRESHOLD) {
+			final int mid = f.recordStartAtOrAfter(from + (to - from) / 2);
+			if (mid > from && mid < to) {
+				final NodeLoader left = new NodeLoader(f, from, mid, this);
+				final NodeLoader right = new NodeLoader(f, mid, to, this);
+				right.fork();
+				final List<MapNode> nodes = left.compute();
+				nodes.addAll(right.join());
+				return nodes;
+			}
+		}
+		return parseRange();
+	}
+	
+	/**
+	 * Parses the records in this range, skipping empty lines and records that don't make a valid node
+	 * 
+	 * @return the nodes, in file order
+	 */
+	private List<MapNode> parseRange() {
+		final List<MapNode> nodes = new ArrayList<>();
+		final int[] starts = new int[columns];
+		final int[] ends = new int[columns];
+		int cur = from;
+		while (cur < to) {
+			final int recordEnd = f.columnBounds(cur, delimiter, starts, ends);
+			if (recordEnd > cur) {
+				final MapNode node = parseNode(starts, ends);
+				if (node != null) {
+					nodes.add(node);
+				}
+			}
+			cur = recordEnd + 1;
+		}
+		return nodes;
+	}
+	
+	/**
+	 * Creates a node from the columns of one record, the same way IOController.parseNode does
+	 * 
+	 * @param starts the starts of the columns (-1 if missing)
+	 * @param ends the ends of the columns
+	 * @return the node, or null if the record isn't a valid node
+	 */
+	private MapNode parseNode(final int[] starts, final int[] ends) {
+		if (starts[idCol] == -1 || starts[latCol] == -1 || starts[longCol] == -1) {
+			return null;
+		}
+		try {
+			final double lat = Double.parseDouble(f.readString(starts[latCol], ends[latCol]));
+			final double lon = Double.parseDouble(f.readString(starts[longCol], ends[longCol]));
+			final String ways = (starts[waysCol] == -1) ? null : f.readString(starts[waysCol], ends[waysCol]);
+			final String id = f.readString(starts[idCol], ends[idCol]);
+			return MapNode.create(id, new LatLongPoint(lat, lon), ParserTools.convertToList(ways, secondaryDelimiter));
+		} catch (final NumberFormatException e) {
+			return null;
+		}
+	}
+}
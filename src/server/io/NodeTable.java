@@ -0,0 +1,96 @@
+package server.io;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+import data.MapNode;
+
+/**
+ * Dense table of every node, giving each one an int ordinal (its position in id order). Coordinates are kept in
+ * primitive columns so that code working on ordinals never has to touch the MapNode objects
+ * 
+ * @author aiguha
+ */
+public class NodeTable {
+	
+	private final MapNode[]		nodes;
+	private final double[]		lats;
+	private final double[]		longs;
+	private final OrdinalMap	ordinals;
+	
+	/**
+	 * Creates a table of the given nodes
+	 * 
+	 * @param all every node in the data-set
+	 */
+	public NodeTable(final Collection<MapNode> all) {
+		nodes = all.toArray(new MapNode[all.size()]);
+		Arrays.sort(nodes, new Comparator<MapNode>() {
+			
+			@Override
+			public int compare(final MapNode o1, final MapNode o2) {
+				return o1.getID().compareTo(o2.getID());
+			}
+		});
+		lats = new double[nodes.length];
+		longs = new double[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			lats[i] = nodes[i].getLatitude();
+			longs[i] = nodes[i].getLongitude();
+		}
+		ordinals = new OrdinalMap(nodes.length, new OrdinalMap.Keys() {
+			
+			@Override
+			public int hash(final int ordinal) {
+				return OrdinalMap.hash(nodes[ordinal].getID());
+			}
+			
+			@Override
+			public boolean matches(final int ordinal, final String key) {
+				return nodes[ordinal].getID().equals(key);
+			}
+		});
+	}
+	
+	/**
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return nodes.length;
+	}
+	
+	/**
+	 * Finds the ordinal of a node
+	 * 
+	 * @param id the node's id
+	 * @return the ordinal, or -1 if there is no such node
+	 */
+	public int find(final String id) {
+		return ordinals.get(id);
+	}
+	
+	/**
+	 * @param ordinal a node ordinal
+	 * @return the node
+	 */
+	public MapNode get(final int ordinal) {
+		return nodes[ordinal];
+	}
+	
+	/**
+	 * @param ordinal a node ordinal
+	 * @return the node's latitude
+	 */
+	public double getLat(final int ordinal) {
+		return lats[ordinal];
+	}
+	
+	/**
+	 * @param ordinal a node ordinal
+	 * @return the node's longitude
+	 */
+	public double getLong(final int ordinal) {
+		return longs[ordinal];
+	}
+}
@@ -0,0 +1,163 @@
+package server.io;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An open-addressing hash map from string keys to the ordinals 0..size-1 of some table. The map itself only stores
+ * ordinals in an int array; the keys stay wherever the table keeps them and are reached through Keys. Keys are hashed
+ * as UTF-8 bytes, so tables that store raw bytes and tables that store strings hash the same way
+ * 
+ * @author aiguha
+ */
+public class OrdinalMap {
+	
+	/**
+	 * Gives the map access to the keys of the table it indexes
+	 */
+	public interface Keys {
+		
+		/**
+		 * @param ordinal a row of the table
+		 * @return the hash of that row's key, as computed by one of OrdinalMap's hash methods
+		 */
+		public int hash(int ordinal);
+		
+		/**
+		 * @param ordinal a row of the table
+		 * @param key a key being looked up
+		 * @return true if the row's key equals key
+		 */
+		public boolean matches(int ordinal, String key);
+	}
+	
+	private final Keys	keys;
+	// Ordinal + 1 for each occupied slot, 0 for empty slots
+	private final int[]	slots;
+	private final int	mask;
+	
+	/**
+	 * Builds a map over ordinals 0..size-1. If two ordinals share a key, the first one wins
+	 * 
+	 * @param size the number of rows in the table
+	 * @param keys access to the table's keys
+	 */
+	public OrdinalMap(final int size, final Keys keys) {
+		this.keys = keys;
+		// Keeps the load factor at or under one half
+		int capacity = 2;
+		while (capacity < size * 2) {
+			capacity <<= 1;
+		}
+		slots = new int[capacity];
+		mask = capacity - 1;
+		for (int ordinal = 0; ordinal < size; ordinal++) {
+			int slot = mix(keys.hash(ordinal)) & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = ordinal + 1;
+		}
+	}
+	
+	/**
+	 * Looks up the ordinal of a key
+	 * 
+	 * @param key the key
+	 * @return its ordinal, or -1 if it isn't in the table
+	 */
+	public int get(final String key) {
+		if (key == null) {
+			return -1;
+		}
+		int slot = mix(hash(key)) & mask;
+		while (slots[slot] != 0) {
+			final int ordinal = slots[slot] - 1;
+			if (keys.matches(ordinal, key)) {
+				return ordinal;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Spreads hash bits so that linear probing on the low bits behaves
+	 * 
+	 * @param h a hash
+	 * @return the mixed hash
+	 */
+	private static int mix(final int h) {
+		final int x = h * 0x9E3779B9;
+		return x ^ (x >>> 16);
+	}
+	
+	/**
+	 * Hashes a key as its UTF-8 bytes, without encoding it if it is all ASCII
+	 * 
+	 * @param key the key
+	 * @return the hash
+	 */
+	public static int hash(final String key) {
+		int h = 0;
+		for (int i = 0; i < key.length(); i++) {
+			final char c = key.charAt(i);
+			if (c >= 0x80) {
+				final byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+				return hash(bytes, 0, bytes.length);
+			}
+			h = 31 * h + c;
+		}
+		return h;
+	}
+	
+	/**
+	 * Hashes UTF-8 bytes
+	 * 
+	 * @param bytes the array holding the key
+	 * @param from the first byte of the key
+	 * @param to just past the last byte of the key
+	 * @return the hash
+	 */
+	public static int hash(final byte[] bytes, final int from, final int to) {
+		int h = 0;
+		for (int i = from; i < to; i++) {
+			h = 31 * h + (bytes[i] & 0xff);
+		}
+		return h;
+	}
+	
+	/**
+	 * Checks whether UTF-8 bytes spell out a key, without encoding it if it is all ASCII
+	 * 
+	 * @param bytes the array holding the stored key
+	 * @param from the first byte of the stored key
+	 * @param to just past the last byte of the stored key
+	 * @param key the key being looked up
+	 * @return true if they are equal
+	 */
+	public static boolean matches(final byte[] bytes, final int from, final int to, final String key) {
+		final int len = key.length();
+		if (len > to - from) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			final char c = key.charAt(i);
+			if (c >= 0x80) {
+				final byte[] encoded = key.getBytes(StandardCharsets.UTF_8);
+				if (encoded.length != to - from) {
+					return false;
+				}
+				for (int j = 0; j < encoded.length; j++) {
+					if (encoded[j] != bytes[from + j]) {
+						return false;
+					}
+				}
+				return true;
+			}
+			if (bytes[from + i] != c) {
+				return false;
+			}
+		}
+		return len == to - from;
+	}
+}
@@ -141,14 +141,108 @@ public class ParserTools {
 			throw new DataSetException("Internal: Invalid arguments to parseLine");
 		}
 		final Map<String, String> toReturn = new HashMap<>();
-		final String[] lineArr = line.split(delimiter);
+		final int delim = delimiterChar(delimiter);
+		if (delim == -1) {
+			final String[] lineArr = line.split(delimiter);
+			for (final String header : headerMap.keySet()) {
+				final int index = headerMap.get(header);
+				toReturn.put(header, getOrElse(lineArr, index, null));
+			}
+			return toReturn;
+		}
+		
+		// Walks the line once, keeping only the columns that are asked for
+		final String[] values = new String[getHighestIndex(headerMap) + 1];
+		final int trimmed = trimmedLength(line, (char) delim);
+		final FieldCursor cursor = new FieldCursor((char) delim).reset(line);
+		while (cursor.index() + 1 < values.length && cursor.next()) {
+			if (cursor.start() < trimmed || line.isEmpty()) {
+				values[cursor.index()] = cursor.value();
+			}
+		}
 		for (final String header : headerMap.keySet()) {
-			final int index = headerMap.get(header);
-			toReturn.put(header, getOrElse(lineArr, index, null));
+			toReturn.put(header, values[headerMap.get(header)]);
 		}
 		return toReturn;
 	}
 	
+	/**
+	 * Finds the single character a delimiter pattern stands for, so that records can be tokenized without regexes
+	 * 
+	 * @param delimiter the delimiter, as a regex
+	 * @return the character, or -1 if the delimiter is a real regex
+	 */
+	public static int delimiterChar(final String delimiter) {
+		if (delimiter.length() == 1 && ".$|()[{^?*+\\".indexOf(delimiter.charAt(0)) == -1) {
+			return delimiter.charAt(0);
+		}
+		if (delimiter.length() == 2 && delimiter.charAt(0) == '\\') {
+			final char c = delimiter.charAt(1);
+			switch (c) {
+			case 't':
+				return '\t';
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 'f':
+				return '\f';
+			default:
+				return Character.isLetterOrDigit(c) ? -1 : c;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Finds the length of a record without any trailing delimiters. String.split drops trailing empty fields, so fields
+	 * starting at or after this length don't exist as far as the split based methods are concerned
+	 * 
+	 * @param record the record
+	 * @param delimiter the delimiter
+	 * @return the trimmed length
+	 */
+	private static int trimmedLength(final CharSequence record, final char delimiter) {
+		int len = record.length();
+		while (len > 0 && record.charAt(len - 1) == delimiter) {
+			len--;
+		}
+		return len;
+	}
+	
+	/**
+	 * Compares a column of a record to a search key in place, without splitting the record
+	 * 
+	 * @param record the record
+	 * @param search the search key
+	 * @param searchIndex the index of the column
+	 * @param delimiter the delimiter of the record
+	 * @param matchPartial if true, only the first search.length() characters of the column are compared
+	 * @return the result of comparing
+	 * @throws DataSetException found null or malformed records
+	 */
+	public static int compareInRecord(final CharSequence record, final CharSequence search, final int searchIndex,
+			final char delimiter, final boolean matchPartial) throws DataSetException {
+		if (record == null) {
+			throw new DataSetException("Found null record");
+		}
+		int from = 0;
+		for (int col = 0; col < searchIndex; col++) {
+			while (from < record.length() && record.charAt(from) != delimiter) {
+				from++;
+			}
+			from++;
+		}
+		if (from > record.length() || (record.length() > 0 && from >= trimmedLength(record, delimiter))) {
+			throw new DataSetException("Malformed Record in File");
+		}
+		int to = from;
+		while (to < record.length() && record.charAt(to) != delimiter) {
+			to++;
+		}
+		return FieldCursor.compare(record, from, to, search, matchPartial);
+	}
+	
 	/**
 	 * Returns a particular column of a line record
 	 * 
@@ -178,6 +272,10 @@ public class ParserTools {
 	 */
 	public static int searchPartialInRecord(final String record, final String search, final int searchIndex,
 			final String delimiter) throws DataSetException {
+		final int delim = delimiterChar(delimiter);
+		if (delim != -1) {
+			return compareInRecord(record, search, searchIndex, (char) delim, true);
+		}
 		if (record == null) {
 			throw new DataSetException("Found null record");
 		}
@@ -202,6 +300,10 @@ public class ParserTools {
 	 */
 	public static int searchFullyInRecord(final String record, final String search, final int searchIndex,
 			final String delimiter) throws DataSetException {
+		final int delim = delimiterChar(delimiter);
+		if (delim != -1) {
+			return compareInRecord(record, search, searchIndex, (char) delim, false);
+		}
 		if (record == null) {
 			throw new DataSetException("Found null record");
 		}
@@ -0,0 +1,437 @@
+package server.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import data.LatLongPoint;
+import data.MapNode;
+
+/**
+ * A compact binary snapshot of the nodes, ways and index files, so the server can start without parsing any TSV. The
+ * snapshot is stamped with the length and modification time of all three files, and is only loaded back if they still
+ * match and its checksum is intact. It lives next to the ways file, like the sparse index.<br>
+ * Layout (big endian, counts and references as unsigned varints, references to an optional row stored plus one):
+ * <ul>
+ * <li>magic, version, then the length and modification time of the ways, nodes and index files</li>
+ * <li>names: every distinct way and street name</li>
+ * <li>nodes: ids in id order, then every latitude and every longitude as fixed width doubles</li>
+ * <li>ways: the number of rows in the ways file and of extra way ids only named by nodes, all ids, then for each row
+ * a name reference, a start node and an end node</li>
+ * <li>adjacency: for each node, the references of its ways</li>
+ * <li>index: for each record of the index file, a name reference and its node ordinals</li>
+ * <li>a CRC32 of all of the above</li>
+ * </ul>
+ * 
+ * @author aiguha
+ */
+public class Snapshot {
+	
+	public static final String			SUFFIX		= ".snap";
+	
+	private static final int			MAGIC		= 0x54534E50;
+	private static final int			VERSION		= 1;
+	
+	private final NodeTable				nodeTable;
+	private final WayTable				wayTable;
+	private final Map<String, MapNode>	allMapNodes;
+	private final List<String>			indexNames;
+	private final int[][]				indexNodes;
+	
+	/**
+	 * Creates a loaded snapshot
+	 * 
+	 * @param nodeTable the table of all nodes
+	 * @param wayTable the table of all ways
+	 * @param allMapNodes a map of node ids to nodes
+	 * @param indexNames the name of each index record
+	 * @param indexNodes the node ordinals of each index record
+	 */
+	private Snapshot(final NodeTable nodeTable, final WayTable wayTable, final Map<String, MapNode> allMapNodes,
+			final List<String> indexNames, final int[][] indexNodes) {
+		this.nodeTable = nodeTable;
+		this.wayTable = wayTable;
+		this.allMapNodes = allMapNodes;
+		this.indexNames = indexNames;
+		this.indexNodes = indexNodes;
+	}
+	
+	public NodeTable getNodeTable() {
+		return nodeTable;
+	}
+	
+	public WayTable getWayTable() {
+		return wayTable;
+	}
+	
+	public Map<String, MapNode> getAllNodes() {
+		return allMapNodes;
+	}
+	
+	/**
+	 * @return the name of every record in the index file, in file order
+	 */
+	public List<String> getIndexNames() {
+		return indexNames;
+	}
+	
+	/**
+	 * @return the node ordinals of every record in the index file, in file order
+	 */
+	public int[][] getIndexNodes() {
+		return indexNodes;
+	}
+	
+	/**
+	 * @param waysFile the ways file
+	 * @return the snapshot file belonging to this data-set
+	 */
+	public static File fileFor(final String waysFile) {
+		return new File(waysFile + SUFFIX);
+	}
+	
+	/**
+	 * Writes a snapshot. It is written to a temporary file first and then moved into place, so a reader never sees a
+	 * half written snapshot
+	 * 
+	 * @param target the file to write
+	 * @param sources the ways, nodes and index files, in that order
+	 * @param nodes the table of all nodes
+	 * @param ways the table of all ways
+	 * @param indexNames the name of each index record
+	 * @param indexNodes the node ids of each index record (ids that aren't nodes are left out)
+	 * @throws IOException file io failed
+	 */
+	public static void write(final File target, final File[] sources, final NodeTable nodes, final WayTable ways,
+			final List<String> indexNames, final List<List<String>> indexNodes) throws IOException {
+		final Map<String, Integer> nameRefs = new HashMap<>();
+		final List<String> names = new ArrayList<>();
+		for (int i = 0; i < ways.size(); i++) {
+			addName(ways.getName(i), nameRefs, names);
+		}
+		for (final String name : indexNames) {
+			addName(name, nameRefs, names);
+		}
+		
+		// Ways that nodes name but the ways file doesn't have
+		final Map<String, Integer> extraRefs = new HashMap<>();
+		final List<String> extras = new ArrayList<>();
+		for (int i = 0; i < nodes.size(); i++) {
+			for (final String way : nodes.get(i).getWays()) {
+				if (ways.find(way) == -1 && !extraRefs.containsKey(way)) {
+					extraRefs.put(way, ways.size() + extras.size());
+					extras.add(way);
+				}
+			}
+		}
+		
+		final File temp = new File(target.getPath() + ".tmp");
+		final CRC32 crc = new CRC32();
+		try (FileOutputStream file = new FileOutputStream(temp)) {
+			final DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file,
+					1 << 16), crc));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			for (final File source : sources) {
+				out.writeLong(source.length());
+				out.writeLong(source.lastModified());
+			}
+			
+			writeVarint(out, names.size());
+			for (final String name : names) {
+				writeString(out, name);
+			}
+			
+			writeVarint(out, nodes.size());
+			for (int i = 0; i < nodes.size(); i++) {
+				writeString(out, nodes.get(i).getID());
+			}
+			for (int i = 0; i < nodes.size(); i++) {
+				out.writeDouble(nodes.getLat(i));
+			}
+			for (int i = 0; i < nodes.size(); i++) {
+				out.writeDouble(nodes.getLong(i));
+			}
+			
+			writeVarint(out, ways.size());
+			writeVarint(out, extras.size());
+			for (int i = 0; i < ways.size(); i++) {
+				writeString(out, ways.getID(i));
+			}
+			for (final String extra : extras) {
+				writeString(out, extra);
+			}
+			for (int i = 0; i < ways.size(); i++) {
+				final String name = ways.getName(i);
+				writeVarint(out, (name == null) ? 0 : nameRefs.get(name) + 1);
+				writeVarint(out, ways.getStart(i) + 1);
+				writeVarint(out, ways.getEnd(i) + 1);
+			}
+			
+			for (int i = 0; i < nodes.size(); i++) {
+				final List<String> adjacent = nodes.get(i).getWays();
+				writeVarint(out, adjacent.size());
+				for (final String way : adjacent) {
+					final int ref = ways.find(way);
+					writeVarint(out, (ref == -1) ? extraRefs.get(way) : ref);
+				}
+			}
+			
+			writeVarint(out, indexNames.size());
+			for (int i = 0; i < indexNames.size(); i++) {
+				final String name = indexNames.get(i);
+				writeVarint(out, (name == null) ? 0 : nameRefs.get(name) + 1);
+				final List<Integer> ordinals = new ArrayList<>();
+				for (final String id : indexNodes.get(i)) {
+					final int ordinal = nodes.find(id);
+					if (ordinal != -1) {
+						ordinals.add(ordinal);
+					}
+				}
+				writeVarint(out, ordinals.size());
+				for (final int ordinal : ordinals) {
+					writeVarint(out, ordinal);
+				}
+			}
+			out.flush();
+			final DataOutputStream tail = new DataOutputStream(file);
+			tail.writeLong(crc.getValue());
+			tail.flush();
+		}
+		if (!temp.renameTo(target)) {
+			target.delete();
+			if (!temp.renameTo(target)) {
+				temp.delete();
+				throw new IOException("Could not write snapshot " + target);
+			}
+		}
+	}
+	
+	/**
+	 * Loads a snapshot if it exists and still matches its sources
+	 * 
+	 * @param snapshot the snapshot file
+	 * @param sources the ways, nodes and index files, in that order
+	 * @return the snapshot, or null if it is missing, stale or corrupt
+	 * @throws IOException file io failed
+	 */
+	public static Snapshot load(final File snapshot, final File[] sources) throws IOException {
+		if (!snapshot.isFile()) {
+			return null;
+		}
+		final MappedByteBuffer buffer;
+		try (RandomAccessFile r = new RandomAccessFile(snapshot, "r"); FileChannel channel = r.getChannel()) {
+			if (channel.size() > Integer.MAX_VALUE || channel.size() < 8) {
+				return null;
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		final int end = buffer.limit() - 8;
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			return null;
+		}
+		int pos = 8;
+		for (final File source : sources) {
+			if (buffer.getLong(pos) != source.length() || buffer.getLong(pos + 8) != source.lastModified()) {
+				return null;
+			}
+			pos += 16;
+		}
+		final CRC32 crc = new CRC32();
+		final ByteBuffer body = buffer.duplicate();
+		body.limit(end);
+		crc.update(body);
+		if (buffer.getLong(end) != crc.getValue()) {
+			return null;
+		}
+		buffer.position(pos);
+		buffer.limit(end);
+		try {
+			return read(buffer);
+		} catch (final RuntimeException e) {
+			// Only reachable if the checksum missed a corruption
+			return null;
+		}
+	}
+	
+	/**
+	 * Reads the sections of a checked snapshot
+	 * 
+	 * @param in the snapshot, positioned at the names
+	 * @return the snapshot
+	 */
+	private static Snapshot read(final ByteBuffer in) {
+		final String[] names = new String[readVarint(in)];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = readString(in);
+		}
+		
+		final String[] nodeIds = new String[readVarint(in)];
+		for (int i = 0; i < nodeIds.length; i++) {
+			nodeIds[i] = readString(in);
+		}
+		final double[] lats = new double[nodeIds.length];
+		for (int i = 0; i < lats.length; i++) {
+			lats[i] = in.getDouble();
+		}
+		final double[] longs = new double[nodeIds.length];
+		for (int i = 0; i < longs.length; i++) {
+			longs[i] = in.getDouble();
+		}
+		
+		final int rows = readVarint(in);
+		final int extras = readVarint(in);
+		final String[] wayIds = new String[rows + extras];
+		final int[] idOffsets = new int[rows + 1];
+		final int idStart = in.position();
+		for (int i = 0; i < wayIds.length; i++) {
+			if (i < rows) {
+				idOffsets[i + 1] = idOffsets[i] + peekVarint(in);
+			}
+			wayIds[i] = readString(in);
+		}
+		// Copies the ids of the rows back to back, skipping their length prefixes
+		final byte[] idBytes = new byte[idOffsets[rows]];
+		final ByteBuffer ids = in.duplicate();
+		ids.position(idStart);
+		for (int i = 0; i < rows; i++) {
+			final int len = readVarint(ids);
+			ids.get(idBytes, idOffsets[i], len);
+		}
+		final int[] nameRefs = new int[rows];
+		final int[] startNodes = new int[rows];
+		final int[] endNodes = new int[rows];
+		for (int i = 0; i < rows; i++) {
+			nameRefs[i] = readVarint(in) - 1;
+			startNodes[i] = readVarint(in) - 1;
+			endNodes[i] = readVarint(in) - 1;
+		}
+		
+		final MapNode[] nodes = new MapNode[nodeIds.length];
+		final Map<String, MapNode> allMapNodes = new HashMap<>(nodeIds.length * 2);
+		for (int i = 0; i < nodes.length; i++) {
+			final int count = readVarint(in);
+			final List<String> adjacent = new ArrayList<>(count);
+			for (int j = 0; j < count; j++) {
+				adjacent.add(wayIds[readVarint(in)]);
+			}
+			nodes[i] = MapNode.create(nodeIds[i], new LatLongPoint(lats[i], longs[i]), adjacent);
+			allMapNodes.put(nodeIds[i], nodes[i]);
+		}
+		final NodeTable nodeTable = new NodeTable(Arrays.asList(nodes));
+		final WayTable wayTable = new WayTable(nodeTable, idBytes, idOffsets, startNodes, endNodes, nameRefs, names);
+		
+		final int records = readVarint(in);
+		final List<String> indexNames = new ArrayList<>(records);
+		final int[][] indexNodes = new int[records][];
+		for (int i = 0; i < records; i++) {
+			final int ref = readVarint(in) - 1;
+			indexNames.add((ref == -1) ? null : names[ref]);
+			indexNodes[i] = new int[readVarint(in)];
+			for (int j = 0; j < indexNodes[i].length; j++) {
+				indexNodes[i][j] = readVarint(in);
+			}
+		}
+		return new Snapshot(nodeTable, wayTable, allMapNodes, indexNames, indexNodes);
+	}
+	
+	/**
+	 * Adds a name to the table of distinct names
+	 * 
+	 * @param name the name or null
+	 * @param nameRefs the index of every name added so far
+	 * @param names the names in order
+	 */
+	private static void addName(final String name, final Map<String, Integer> nameRefs, final List<String> names) {
+		if (name != null && !nameRefs.containsKey(name)) {
+			nameRefs.put(name, names.size());
+			names.add(name);
+		}
+	}
+	
+	/**
+	 * Writes an unsigned varint: seven bits per byte, high bit set on all but the last byte
+	 * 
+	 * @param out the stream
+	 * @param value a non-negative value
+	 * @throws IOException file io failed
+	 */
+	private static void writeVarint(final DataOutputStream out, final int value) throws IOException {
+		int v = value;
+		while ((v & ~0x7F) != 0) {
+			out.writeByte((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+	
+	/**
+	 * Reads an unsigned varint
+	 * 
+	 * @param in the buffer
+	 * @return the value
+	 */
+	private static int readVarint(final ByteBuffer in) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+	
+	/**
+	 * Reads an unsigned varint without moving past it
+	 * 
+	 * @param in the buffer
+	 * @return the value
+	 */
+	private static int peekVarint(final ByteBuffer in) {
+		final int pos = in.position();
+		final int value = readVarint(in);
+		in.position(pos);
+		return value;
+	}
+	
+	/**
+	 * Writes a string as its UTF-8 length and bytes
+	 * 
+	 * @param out the stream
+	 * @param s the string
+	 * @throws IOException file io failed
+	 */
+	private static void writeString(final DataOutputStream out, final String s) throws IOException {
+		final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		writeVarint(out, bytes.length);
+		out.write(bytes);
+	}
+	
+	/**
+	 * Reads a string written by writeString
+	 * 
+	 * @param in the buffer
+	 * @return the string
+	 */
+	private static String readString(final ByteBuffer in) {
+		final byte[] bytes = new byte[readVarint(in)];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
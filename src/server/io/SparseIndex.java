@@ -0,0 +1,261 @@
+package server.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A sparse index over a sorted, memory mapped data-set: the key and byte offset of every Nth record. A lookup binary
+ * searches the sampled keys in memory, then only the block of at most N records between two samples has to be scanned
+ * in the file.<br>
+ * The index can be persisted to a sidecar file next to the data-set, and is only loaded back if the data-set's length
+ * and modification time still match and the sidecar's checksum is intact
+ * 
+ * @author aiguha
+ */
+public class SparseIndex {
+	
+	public static final String	SUFFIX				= ".sidx";
+	public static final int		DEFAULT_INTERVAL	= 64;
+	
+	private static final int	MAGIC				= 0x53494458;
+	private static final int	VERSION				= 1;
+	
+	private final int			interval;
+	private final int			keyIndex;
+	private final byte[][]		keys;
+	private final int[]			offsets;
+	
+	/**
+	 * Creates an index from already sampled data
+	 * 
+	 * @param interval the number of records between samples
+	 * @param keyIndex the index of the key column
+	 * @param keys the sampled keys
+	 * @param offsets the offsets of the sampled records
+	 */
+	private SparseIndex(final int interval, final int keyIndex, final byte[][] keys, final int[] offsets) {
+		this.interval = interval;
+		this.keyIndex = keyIndex;
+		this.keys = keys;
+		this.offsets = offsets;
+	}
+	
+	public int getInterval() {
+		return interval;
+	}
+	
+	public int getKeyIndex() {
+		return keyIndex;
+	}
+	
+	/**
+	 * @return the number of sampled records
+	 */
+	public int size() {
+		return offsets.length;
+	}
+	
+	/**
+	 * Samples every interval-th record of the file
+	 * 
+	 * @param f the mapped file (sorted on keyIndex)
+	 * @param keyIndex the index of the key column
+	 * @param delimiter the delimiter of the records
+	 * @param interval the number of records between samples
+	 * @return the new index
+	 * @throws DataSetException bad data
+	 */
+	public static SparseIndex build(final MappedFile f, final int keyIndex, final byte delimiter, final int interval)
+			throws DataSetException {
+		if (f == null || keyIndex < 0 || interval < 1) {
+			throw new DataSetException("Internal: Invalid arguments to SparseIndex");
+		}
+		final List<byte[]> keys = new ArrayList<>();
+		final List<Integer> offsets = new ArrayList<>();
+		int count = 0;
+		for (int cur = f.getDataStart(); cur < f.getLimit(); cur = f.nextRecordStart(cur)) {
+			if (count++ % interval == 0) {
+				final int from = f.fieldStart(cur, keyIndex, delimiter);
+				final int to = f.fieldEnd(from, delimiter);
+				final byte[] key = new byte[to - from];
+				for (int i = 0; i < key.length; i++) {
+					key[i] = f.get(from + i);
+				}
+				keys.add(key);
+				offsets.add(cur);
+			}
+		}
+		final int[] offsetArr = new int[offsets.size()];
+		for (int i = 0; i < offsetArr.length; i++) {
+			offsetArr[i] = offsets.get(i);
+		}
+		return new SparseIndex(interval, keyIndex, keys.toArray(new byte[keys.size()][]), offsetArr);
+	}
+	
+	/**
+	 * Loads the index from its sidecar file if it is still valid, otherwise builds it and tries to save it. Failing to
+	 * write the sidecar (e.g. in a read-only directory) is not an error
+	 * 
+	 * @param f the mapped file (sorted on keyIndex)
+	 * @param keyIndex the index of the key column
+	 * @param delimiter the delimiter of the records
+	 * @param interval the number of records between samples
+	 * @return the index
+	 * @throws DataSetException bad data
+	 */
+	public static SparseIndex loadOrBuild(final MappedFile f, final int keyIndex, final byte delimiter,
+			final int interval) throws DataSetException {
+		final File source = new File(f.getFilename());
+		final File sidecar = new File(f.getFilename() + SUFFIX);
+		try {
+			final SparseIndex loaded = load(sidecar, source, keyIndex, interval);
+			if (loaded != null) {
+				return loaded;
+			}
+		} catch (final IOException e) {
+			// Corrupt or unreadable, so rebuild it
+		}
+		final SparseIndex built = build(f, keyIndex, delimiter, interval);
+		try {
+			built.save(sidecar, source);
+		} catch (final IOException e) {
+			sidecar.delete();
+		}
+		return built;
+	}
+	
+	/**
+	 * Writes the index to a sidecar file, stamped with the length and modification time of the source
+	 * 
+	 * @param sidecar the file to write
+	 * @param source the data-set this index was built from
+	 * @throws IOException file io failed
+	 */
+	public void save(final File sidecar, final File source) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream body = new DataOutputStream(bytes);
+		body.writeInt(MAGIC);
+		body.writeInt(VERSION);
+		body.writeLong(source.length());
+		body.writeLong(source.lastModified());
+		body.writeInt(interval);
+		body.writeInt(keyIndex);
+		body.writeInt(offsets.length);
+		for (int i = 0; i < offsets.length; i++) {
+			body.writeInt(offsets[i]);
+			body.writeInt(keys[i].length);
+			body.write(keys[i]);
+		}
+		body.flush();
+		final CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray());
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecar)))) {
+			bytes.writeTo(out);
+			out.writeLong(crc.getValue());
+		}
+	}
+	
+	/**
+	 * Reads a sidecar file back, if it exists and matches the source
+	 * 
+	 * @param sidecar the file to read
+	 * @param source the data-set the index should describe
+	 * @param keyIndex the expected key column
+	 * @param interval the expected interval
+	 * @return the index, or null if it is missing or stale
+	 * @throws IOException file io failed or the sidecar is corrupt
+	 */
+	public static SparseIndex load(final File sidecar, final File source, final int keyIndex, final int interval)
+			throws IOException {
+		if (!sidecar.isFile()) {
+			return null;
+		}
+		final byte[] contents = new byte[(int) sidecar.length()];
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)))) {
+			in.readFully(contents);
+		}
+		if (contents.length < 8) {
+			return null;
+		}
+		// Check the checksum before trusting any of the counts
+		final CRC32 crc = new CRC32();
+		crc.update(contents, 0, contents.length - 8);
+		final DataInputStream tail = new DataInputStream(new ByteArrayInputStream(contents, contents.length - 8, 8));
+		if (tail.readLong() != crc.getValue()) {
+			return null;
+		}
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents));
+		if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != source.length()
+			|| in.readLong() != source.lastModified() || in.readInt() != interval || in.readInt() != keyIndex) {
+			return null;
+		}
+		final int count = in.readInt();
+		final int[] offsets = new int[count];
+		final byte[][] keys = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			offsets[i] = in.readInt();
+			keys[i] = new byte[in.readInt()];
+			in.readFully(keys[i]);
+		}
+		return new SparseIndex(interval, keyIndex, keys, offsets);
+	}
+	
+	/**
+	 * Finds where to start scanning for the first record whose key is not less than search: the offset of the last
+	 * sample whose key is smaller. The lower bound is then at most interval records further on
+	 * 
+	 * @param search the search key, encoded as UTF-8
+	 * @param matchPartial true if keys should be compared as prefixes of search
+	 * @param dataStart the offset of the first record, used if no sample is smaller
+	 * @return the offset at which to start scanning
+	 */
+	public int blockStart(final byte[] search, final boolean matchPartial, final int dataStart) {
+		int lo = 0;
+		int hi = keys.length - 1;
+		int found = -1;
+		while (lo <= hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (compareKeys(keys[mid], search, matchPartial) < 0) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return (found == -1) ? dataStart : offsets[found];
+	}
+	
+	/**
+	 * Compares a sampled key to a search key, the same way MappedFile.compareField does
+	 * 
+	 * @param key the sampled key
+	 * @param search the search key
+	 * @param matchPartial true if key should be compared as a prefix of search
+	 * @return the result of comparing
+	 */
+	private static int compareKeys(final byte[] key, final byte[] search, final boolean matchPartial) {
+		final int n = Math.min(key.length, search.length);
+		for (int i = 0; i < n; i++) {
+			final int diff = (key[i] & 0xff) - (search[i] & 0xff);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		if (matchPartial && key.length >= search.length) {
+			return 0;
+		}
+		return key.length - search.length;
+	}
+	
+}
@@ -0,0 +1,257 @@
+package server.io;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import data.MapNode;
+
+/**
+ * Inverted index from street names to the nodes on them. Each distinct name has a postings list of the ordinals of its
+ * nodes in ascending order, so two streets meet wherever their postings share an ordinal and finding an intersection
+ * is a single linear merge, however many records either street has in the index file. The answers for recently asked
+ * pairs of streets are kept in a small LRU cache
+ * 
+ * @author aiguha
+ */
+public class StreetIndex {
+	
+	public static final int					DEFAULT_CACHE_SIZE	= 1024;
+	
+	private static final int[]				NO_NODES			= new int[0];
+	
+	private final NodeTable					nodes;
+	private final String[]					names;
+	// Sorted, distinct node ordinals of each name
+	private final int[][]					postings;
+	// Sorted node ordinals that are in two or more records of each name (where the street's segments meet)
+	private final int[][]					joints;
+	private final OrdinalMap				ordinals;
+	// Node ordinal (or -1 for none) of recently asked pairs of names, least recently used first
+	private final Map<String, Integer>		cache;
+	
+	/**
+	 * Creates an index from the records of an index file
+	 * 
+	 * @param nodes the table of all nodes
+	 * @param recordNames the name of each record
+	 * @param recordNodes the node ordinals of each record
+	 * @param cacheSize the number of pairs of streets to remember intersections for
+	 */
+	public StreetIndex(final NodeTable nodes, final List<String> recordNames, final List<int[]> recordNodes,
+			final int cacheSize) {
+		this.nodes = nodes;
+		// Gathers the records of each name, in the order the names first appear
+		final Map<String, List<int[]>> byName = new LinkedHashMap<>();
+		for (int i = 0; i < recordNames.size(); i++) {
+			final String name = recordNames.get(i);
+			if (name == null) {
+				continue;
+			}
+			List<int[]> records = byName.get(name);
+			if (records == null) {
+				records = new ArrayList<>(2);
+				byName.put(name, records);
+			}
+			records.add(recordNodes.get(i));
+		}
+		names = byName.keySet().toArray(new String[byName.size()]);
+		postings = new int[names.length][];
+		joints = new int[names.length][];
+		for (int i = 0; i < names.length; i++) {
+			final List<int[]> records = byName.get(names[i]);
+			int total = 0;
+			for (final int[] record : records) {
+				total += record.length;
+			}
+			// Sorts every occurrence, then keeps each ordinal once in postings and repeated ones in joints
+			final int[] all = new int[total];
+			int at = 0;
+			for (final int[] record : records) {
+				final int[] distinct = distinct(record);
+				System.arraycopy(distinct, 0, all, at, distinct.length);
+				at += distinct.length;
+			}
+			Arrays.sort(all, 0, at);
+			int unique = 0;
+			int repeated = 0;
+			final int[] joint = new int[at];
+			for (int j = 0; j < at; j++) {
+				if (j > 0 && all[j] == all[j - 1]) {
+					if (repeated == 0 || joint[repeated - 1] != all[j]) {
+						joint[repeated++] = all[j];
+					}
+				} else {
+					all[unique++] = all[j];
+				}
+			}
+			postings[i] = Arrays.copyOf(all, unique);
+			joints[i] = (repeated == 0) ? NO_NODES : Arrays.copyOf(joint, repeated);
+		}
+		ordinals = new OrdinalMap(names.length, new OrdinalMap.Keys() {
+			
+			@Override
+			public int hash(final int ordinal) {
+				return OrdinalMap.hash(names[ordinal]);
+			}
+			
+			@Override
+			public boolean matches(final int ordinal, final String key) {
+				return names[ordinal].equals(key);
+			}
+		});
+		cache = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+			
+			private static final long	serialVersionUID	= 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, Integer> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+	
+	/**
+	 * Reads an index from an index file
+	 * 
+	 * @param filename the index file
+	 * @param headerMap the columns of the index file
+	 * @param delimiter the column delimiter
+	 * @param secondaryDelimiter the delimiter between node ids
+	 * @param nodes the table of all nodes (ids that aren't nodes are left out)
+	 * @return the index
+	 * @throws IOException file io
+	 * @throws DataSetException bad data
+	 */
+	public static StreetIndex load(final String filename, final Map<String, Integer> headerMap,
+			final String delimiter, final String secondaryDelimiter, final NodeTable nodes) throws IOException,
+			DataSetException {
+		final List<String> recordNames = new ArrayList<>();
+		final List<int[]> recordNodes = new ArrayList<>();
+		try (BufferedReader b = new BufferedReader(new FileReader(filename))) {
+			// Skip Headers
+			String line = b.readLine();
+			while ((line = b.readLine()) != null && !line.trim().isEmpty()) {
+				final Map<String, String> parsedLine = ParserTools.parseLine(line, headerMap, delimiter);
+				final List<String> ids = ParserTools.convertToList(parsedLine.get("nodes"), secondaryDelimiter);
+				final int[] record = new int[ids.size()];
+				int size = 0;
+				for (final String id : ids) {
+					final int ordinal = nodes.find(id);
+					if (ordinal != -1) {
+						record[size++] = ordinal;
+					}
+				}
+				recordNames.add(parsedLine.get("name"));
+				recordNodes.add(Arrays.copyOf(record, size));
+			}
+		}
+		return new StreetIndex(nodes, recordNames, recordNodes, DEFAULT_CACHE_SIZE);
+	}
+	
+	/**
+	 * Sorts a copy of some ordinals and drops repeats
+	 * 
+	 * @param ordinals the ordinals
+	 * @return the distinct ordinals in ascending order
+	 */
+	private static int[] distinct(final int[] ordinals) {
+		final int[] sorted = ordinals.clone();
+		Arrays.sort(sorted);
+		int size = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (i == 0 || sorted[i] != sorted[i - 1]) {
+				sorted[size++] = sorted[i];
+			}
+		}
+		return (size == sorted.length) ? sorted : Arrays.copyOf(sorted, size);
+	}
+	
+	/**
+	 * @return the number of distinct street names
+	 */
+	public int size() {
+		return names.length;
+	}
+	
+	/**
+	 * Gets the nodes on a street
+	 * 
+	 * @param name the street name
+	 * @return the node ordinals in ascending order, empty if there is no such street
+	 */
+	public int[] getPostings(final String name) {
+		final int ordinal = ordinals.get(name);
+		return (ordinal == -1) ? NO_NODES : postings[ordinal];
+	}
+	
+	/**
+	 * Finds the first ordinal two sorted lists share, by merging them in one pass
+	 * 
+	 * @param a ordinals in ascending order
+	 * @param b ordinals in ascending order
+	 * @return the smallest ordinal in both, or -1 if they share none
+	 */
+	public static int firstCommon(final int[] a, final int[] b) {
+		int i = 0;
+		int j = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				return a[i];
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Finds where two streets meet. A street only meets itself where two of its records share a node
+	 * 
+	 * @param street1 the first street name
+	 * @param street2 the second street name
+	 * @return the ordinal of the lowest node on both streets, or -1 if they don't meet
+	 */
+	public int intersect(final String street1, final String street2) {
+		// Intersections are symmetric, so both orders share one cache entry
+		final boolean ordered = street1.compareTo(street2) <= 0;
+		final String key = ordered ? street1 + '\n' + street2 : street2 + '\n' + street1;
+		synchronized (cache) {
+			final Integer cached = cache.get(key);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		final int ordinal1 = ordinals.get(street1);
+		final int ordinal2 = ordinals.get(street2);
+		int found = -1;
+		if (ordinal1 != -1 && ordinal1 == ordinal2) {
+			found = (joints[ordinal1].length == 0) ? -1 : joints[ordinal1][0];
+		} else if (ordinal1 != -1 && ordinal2 != -1) {
+			found = firstCommon(postings[ordinal1], postings[ordinal2]);
+		}
+		synchronized (cache) {
+			cache.put(key, found);
+		}
+		return found;
+	}
+	
+	/**
+	 * Finds the node where two streets meet
+	 * 
+	 * @param street1 the first street name
+	 * @param street2 the second street name
+	 * @return the node, or null if they don't meet
+	 */
+	public MapNode findIntersection(final String street1, final String street2) {
+		final int ordinal = intersect(street1, street2);
+		return (ordinal == -1) ? null : nodes.get(ordinal);
+	}
+}
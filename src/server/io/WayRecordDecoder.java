@@ -0,0 +1,155 @@
+package server.io;
+
+import java.util.Map;
+
+import data.MapNode;
+import data.MapWay;
+import data.ProtocolManager;
+
+/**
+ * A reusable reader for the way records in a byte range of a mapped ways file. Each record's columns are found in
+ * place in the mapped buffer, so a whole page can be walked without splitting records into strings or maps. Reset it
+ * with a new range to reuse it. Not thread safe, so each thread should have its own
+ * 
+ * @author aiguha
+ */
+public class WayRecordDecoder {
+	
+	private final MappedFile	f;
+	private final byte			delimiter;
+	private final int			idCol;
+	private final int			nameCol;
+	private final int			startCol;
+	private final int			endCol;
+	// Bounds of each column of the current record (-1 if the record is too short)
+	private final int[]			from;
+	private final int[]			to;
+	// Scratch space for the text of the current record's fields
+	private final StringBuilder	id		= new StringBuilder(32);
+	private final StringBuilder	name	= new StringBuilder(32);
+	// Offset of the next record, and just past the last record of the range
+	private int					pos;
+	private int					limit;
+	
+	/**
+	 * Creates a decoder with an empty range
+	 * 
+	 * @param f the mapped ways file
+	 * @param headerMap the columns of the ways file
+	 * @param delimiter the column delimiter
+	 * @throws DataSetException if a required column is missing
+	 */
+	public WayRecordDecoder(final MappedFile f, final Map<String, Integer> headerMap, final byte delimiter)
+			throws DataSetException {
+		if (f == null || headerMap == null) {
+			throw new DataSetException("Internal: Invalid arguments to WayRecordDecoder");
+		}
+		final Integer[] cols = { headerMap.get("id"), headerMap.get("name"), headerMap.get("start"),
+				headerMap.get("end") };
+		int columns = 0;
+		for (final Integer col : cols) {
+			if (col == null) {
+				throw new DataSetException("Ways file missing required headers");
+			}
+			columns = Math.max(columns, col + 1);
+		}
+		this.f = f;
+		this.delimiter = delimiter;
+		idCol = cols[0];
+		nameCol = cols[1];
+		startCol = cols[2];
+		endCol = cols[3];
+		from = new int[columns];
+		to = new int[columns];
+		reset(0, 0);
+	}
+	
+	/**
+	 * Points the decoder just before the first record of a range
+	 * 
+	 * @param start the offset of the first record
+	 * @param end the offset just past the last record
+	 * @return this decoder
+	 */
+	public WayRecordDecoder reset(final int start, final int end) {
+		pos = start;
+		limit = end;
+		return this;
+	}
+	
+	/**
+	 * Moves to the next record of the range that has all the columns of a way
+	 * 
+	 * @return false if the range has no more records
+	 */
+	public boolean next() {
+		while (pos < limit) {
+			final int recordEnd = f.columnBounds(pos, delimiter, from, to);
+			pos = recordEnd + 1;
+			if (from[from.length - 1] != -1) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @return the id of the current way
+	 */
+	public String getID() {
+		return f.readString(from[idCol], to[idCol]);
+	}
+	
+	/**
+	 * @return the name of the current way
+	 */
+	public String getName() {
+		return f.readString(from[nameCol], to[nameCol]);
+	}
+	
+	/**
+	 * @return the id of the current way's start node
+	 */
+	public String getStart() {
+		return f.readString(from[startCol], to[startCol]);
+	}
+	
+	/**
+	 * @return the id of the current way's end node
+	 */
+	public String getEnd() {
+		return f.readString(from[endCol], to[endCol]);
+	}
+	
+	/**
+	 * Creates a MapWay from the current record, the same way IOController.parseWay would
+	 * 
+	 * @param nodes every node, by id
+	 * @return the way, or null if either of its nodes doesn't exist
+	 */
+	public MapWay toMapWay(final Map<String, MapNode> nodes) {
+		return MapWay.create(getName(), getID(), nodes.get(getStart()), nodes.get(getEnd()));
+	}
+	
+	/**
+	 * Encodes the current record straight into a builder, giving exactly what toMapWay(nodes).encodeObject() would.
+	 * The id and name are copied from the mapped buffer as is, and only the two nodes are looked up
+	 * 
+	 * @param out the builder to append to
+	 * @param nodes every node, by id
+	 * @return false (leaving out untouched) if either of the way's nodes doesn't exist
+	 */
+	public boolean appendTo(final StringBuilder out, final Map<String, MapNode> nodes) {
+		final MapNode start = nodes.get(getStart());
+		final MapNode end = nodes.get(getEnd());
+		if (start == null || end == null) {
+			return false;
+		}
+		id.setLength(0);
+		f.appendString(from[idCol], to[idCol], id);
+		name.setLength(0);
+		f.appendString(from[nameCol], to[nameCol], name);
+		ProtocolManager.appendMapWay(out, id, name, start, end);
+		return true;
+	}
+}
@@ -0,0 +1,396 @@
+package server.io;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import data.MapNode;
+import data.MapWay;
+
+/**
+ * Dense, preloaded table of every way in the ways file, stored in primitive columns instead of MapWay objects. Row
+ * i is the ith record of the file: its id is kept as UTF-8 bytes in one shared array, its start and end nodes as node
+ * ordinals (-1 if the node doesn't exist) and its name as a reference into a table of distinct names. Ids are looked
+ * up through an OrdinalMap, and MapWays are only created when a caller asks for one
+ * 
+ * @author aiguha
+ */
+public class WayTable {
+	
+	private final int			size;
+	private final NodeTable		nodes;
+	// Ids of every row back to back, row i spanning idOffsets[i] to idOffsets[i + 1]
+	private final byte[]		idBytes;
+	private final int[]			idOffsets;
+	private final int[]			startNodes;
+	private final int[]			endNodes;
+	// Index into names, or -1 for no name
+	private final int[]			nameRefs;
+	private final String[]		names;
+	// True if rows are in id order, so ranges of ids can be binary searched
+	private final boolean		sorted;
+	private final OrdinalMap	ordinals;
+	
+	/**
+	 * Creates a table from filled columns
+	 * 
+	 * @param b the builder holding the columns
+	 */
+	private WayTable(final Builder b) {
+		this(b.nodes, Arrays.copyOf(b.idBytes, b.idOffsets[b.size]), Arrays.copyOf(b.idOffsets, b.size + 1), Arrays
+				.copyOf(b.startNodes, b.size), Arrays.copyOf(b.endNodes, b.size), Arrays.copyOf(b.nameRefs, b.size),
+				b.names.toArray(new String[b.names.size()]));
+	}
+	
+	/**
+	 * Creates a table from its columns, as read back from a snapshot
+	 * 
+	 * @param nodes the table of all nodes
+	 * @param idBytes the ids of every row back to back
+	 * @param idOffsets the offset of each row's id, plus one past the last
+	 * @param startNodes the start node ordinals
+	 * @param endNodes the end node ordinals
+	 * @param nameRefs the indices of each row's name
+	 * @param names the distinct names
+	 */
+	WayTable(final NodeTable nodes, final byte[] idBytes, final int[] idOffsets, final int[] startNodes,
+			final int[] endNodes, final int[] nameRefs, final String[] names) {
+		size = startNodes.length;
+		this.nodes = nodes;
+		this.idBytes = idBytes;
+		this.idOffsets = idOffsets;
+		this.startNodes = startNodes;
+		this.endNodes = endNodes;
+		this.nameRefs = nameRefs;
+		this.names = names;
+		boolean inOrder = true;
+		for (int i = 1; i < size && inOrder; i++) {
+			inOrder = compareId(i - 1, idBytes, idOffsets[i], idOffsets[i + 1], false) <= 0;
+		}
+		sorted = inOrder;
+		ordinals = new OrdinalMap(size, new OrdinalMap.Keys() {
+			
+			@Override
+			public int hash(final int ordinal) {
+				return OrdinalMap.hash(idBytes, idOffsets[ordinal], idOffsets[ordinal + 1]);
+			}
+			
+			@Override
+			public boolean matches(final int ordinal, final String key) {
+				return OrdinalMap.matches(idBytes, idOffsets[ordinal], idOffsets[ordinal + 1], key);
+			}
+		});
+	}
+	
+	/**
+	 * Loads every way from a mapped ways file, reading each record once without splitting it into strings
+	 * 
+	 * @param f the mapped ways file
+	 * @param headerMap the indices of the id, name, start and end columns
+	 * @param delimiter the column delimiter
+	 * @param nodes the table of all nodes
+	 * @return the table
+	 * @throws DataSetException bad or missing data
+	 */
+	public static WayTable load(final MappedFile f, final Map<String, Integer> headerMap, final byte delimiter,
+			final NodeTable nodes) throws DataSetException {
+		if (f == null || headerMap == null || nodes == null) {
+			throw new DataSetException("Internal: Invalid arguments to WayTable");
+		}
+		final int idCol = headerMap.get("id");
+		final int nameCol = headerMap.get("name");
+		final int startCol = headerMap.get("start");
+		final int endCol = headerMap.get("end");
+		final int columns = ParserTools.getHighestIndex(headerMap) + 1;
+		final int[] from = new int[columns];
+		final int[] to = new int[columns];
+		final Builder b = new Builder(nodes);
+		int cur = f.getDataStart();
+		while (cur < f.getLimit()) {
+			final int recordEnd = f.columnBounds(cur, delimiter, from, to);
+			if (from[idCol] != -1 && to[idCol] > from[idCol]) {
+				b.addId(f, from[idCol], to[idCol]);
+				b.addRest(string(f, from, to, nameCol), string(f, from, to, startCol), string(f, from, to, endCol));
+			}
+			cur = recordEnd + 1;
+		}
+		return new WayTable(b);
+	}
+	
+	/**
+	 * Loads every way from a ways file that couldn't be mapped
+	 * 
+	 * @param filename the ways file
+	 * @param headerMap the indices of the id, name, start and end columns
+	 * @param delimiter the column delimiter (a regex)
+	 * @param nodes the table of all nodes
+	 * @return the table
+	 * @throws IOException file io
+	 * @throws DataSetException bad or missing data
+	 */
+	public static WayTable load(final String filename, final Map<String, Integer> headerMap, final String delimiter,
+			final NodeTable nodes) throws IOException, DataSetException {
+		if (filename == null || headerMap == null || nodes == null) {
+			throw new DataSetException("Internal: Invalid arguments to WayTable");
+		}
+		final Builder b = new Builder(nodes);
+		try (BufferedReader r = new BufferedReader(new FileReader(filename))) {
+			// Skip Headers
+			String line = r.readLine();
+			while ((line = r.readLine()) != null && !line.trim().isEmpty()) {
+				final Map<String, String> parsedLine = ParserTools.parseLine(line, headerMap, delimiter);
+				final String id = parsedLine.get("id");
+				if (id != null && !id.isEmpty()) {
+					b.addId(id.getBytes(StandardCharsets.UTF_8));
+					b.addRest(parsedLine.get("name"), parsedLine.get("start"), parsedLine.get("end"));
+				}
+			}
+		}
+		return new WayTable(b);
+	}
+	
+	/**
+	 * Decodes one column found by load
+	 * 
+	 * @param f the mapped file
+	 * @param from the starts of the columns (-1 if missing)
+	 * @param to the ends of the columns
+	 * @param col the column to decode
+	 * @return the column's value, or null if the record was too short
+	 */
+	private static String string(final MappedFile f, final int[] from, final int[] to, final int col) {
+		return (from[col] == -1) ? null : f.readString(from[col], to[col]);
+	}
+	
+	/**
+	 * @return the number of ways
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return true if the ways are in id order
+	 */
+	public boolean isSorted() {
+		return sorted;
+	}
+	
+	/**
+	 * Finds the ordinal of a way
+	 * 
+	 * @param id the way's id
+	 * @return the ordinal, or -1 if there is no such way
+	 */
+	public int find(final String id) {
+		return ordinals.get(id);
+	}
+	
+	/**
+	 * @param ordinal a way ordinal
+	 * @return the way's id
+	 */
+	public String getID(final int ordinal) {
+		return new String(idBytes, idOffsets[ordinal], idOffsets[ordinal + 1] - idOffsets[ordinal],
+				StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * @param ordinal a way ordinal
+	 * @return the way's name or null
+	 */
+	public String getName(final int ordinal) {
+		return (nameRefs[ordinal] == -1) ? null : names[nameRefs[ordinal]];
+	}
+	
+	/**
+	 * @param ordinal a way ordinal
+	 * @return the ordinal of the way's start node, or -1
+	 */
+	public int getStart(final int ordinal) {
+		return startNodes[ordinal];
+	}
+	
+	/**
+	 * @param ordinal a way ordinal
+	 * @return the ordinal of the way's end node, or -1
+	 */
+	public int getEnd(final int ordinal) {
+		return endNodes[ordinal];
+	}
+	
+	/**
+	 * Creates the MapWay for a row
+	 * 
+	 * @param ordinal a way ordinal
+	 * @return a new MapWay, or null if the row is missing its name or either of its nodes
+	 */
+	public MapWay getMapWay(final int ordinal) {
+		final MapNode start = (startNodes[ordinal] == -1) ? null : nodes.get(startNodes[ordinal]);
+		final MapNode end = (endNodes[ordinal] == -1) ? null : nodes.get(endNodes[ordinal]);
+		return MapWay.create(getName(ordinal), getID(ordinal), start, end);
+	}
+	
+	/**
+	 * Gets every way whose id lies between two prefixes, the same page BinaryFileSearcher.getPage returns for the
+	 * ways file. Needs the table to be sorted
+	 * 
+	 * @param start the start prefix
+	 * @param end the end prefix
+	 * @return the ways in the page that could be created
+	 * @throws DataSetException if the table isn't sorted
+	 */
+	public List<MapWay> getPage(String start, String end) throws DataSetException {
+		if (!sorted) {
+			throw new DataSetException("Internal: Ways are not in id order");
+		}
+		if (start.compareTo(end) > 0) {
+			final String temp = end;
+			end = start;
+			start = temp;
+		}
+		final byte[] startKey = start.getBytes(StandardCharsets.UTF_8);
+		final byte[] endKey = end.getBytes(StandardCharsets.UTF_8);
+		int lo = 0;
+		int hi = size;
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (compareId(mid, startKey, 0, startKey.length, true) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		final List<MapWay> page = new ArrayList<>();
+		for (int i = lo; i < size && compareId(i, endKey, 0, endKey.length, true) <= 0; i++) {
+			final MapWay way = getMapWay(i);
+			if (way != null) {
+				page.add(way);
+			}
+		}
+		return page;
+	}
+	
+	/**
+	 * Compares the id of a row against a key, the same way MappedFile.compareField does
+	 * 
+	 * @param ordinal a way ordinal
+	 * @param key the array holding the key
+	 * @param from the first byte of the key
+	 * @param to just past the last byte of the key
+	 * @param matchPartial if true, only the first (to - from) bytes of the id are compared
+	 * @return negative, zero or positive as the id is less than, equal to or greater than the key
+	 */
+	private int compareId(final int ordinal, final byte[] key, final int from, final int to,
+			final boolean matchPartial) {
+		final int idFrom = idOffsets[ordinal];
+		final int len = idOffsets[ordinal + 1] - idFrom;
+		final int keyLen = to - from;
+		final int n = Math.min(len, keyLen);
+		for (int i = 0; i < n; i++) {
+			final int diff = (idBytes[idFrom + i] & 0xff) - (key[from + i] & 0xff);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		if (matchPartial && len >= keyLen) {
+			return 0;
+		}
+		return len - keyLen;
+	}
+	
+	/**
+	 * Growable columns, filled while reading the file
+	 */
+	private static class Builder {
+		
+		private final NodeTable				nodes;
+		private final Map<String, Integer>	nameLookup	= new HashMap<>();
+		private final List<String>			names		= new ArrayList<>();
+		private int							size		= 0;
+		private byte[]						idBytes		= new byte[1 << 16];
+		private int[]						idOffsets	= new int[1024];
+		private int[]						startNodes	= new int[1024];
+		private int[]						endNodes	= new int[1024];
+		private int[]						nameRefs	= new int[1024];
+		
+		Builder(final NodeTable nodes) {
+			this.nodes = nodes;
+		}
+		
+		/**
+		 * Starts a new row with an id copied out of a mapped file
+		 * 
+		 * @param f the mapped file
+		 * @param from the first byte of the id
+		 * @param to just past the last byte of the id
+		 */
+		void addId(final MappedFile f, final int from, final int to) {
+			final int at = reserveId(to - from);
+			for (int i = from; i < to; i++) {
+				idBytes[at + i - from] = f.get(i);
+			}
+		}
+		
+		/**
+		 * Starts a new row with the given id
+		 * 
+		 * @param id the id as UTF-8
+		 */
+		void addId(final byte[] id) {
+			System.arraycopy(id, 0, idBytes, reserveId(id.length), id.length);
+		}
+		
+		/**
+		 * Grows the columns for a new row and makes room for its id
+		 * 
+		 * @param len the length of the id
+		 * @return the offset to write the id at
+		 */
+		private int reserveId(final int len) {
+			if (size + 2 > idOffsets.length) {
+				final int capacity = idOffsets.length * 2;
+				idOffsets = Arrays.copyOf(idOffsets, capacity);
+				startNodes = Arrays.copyOf(startNodes, capacity);
+				endNodes = Arrays.copyOf(endNodes, capacity);
+				nameRefs = Arrays.copyOf(nameRefs, capacity);
+			}
+			final int at = idOffsets[size];
+			if (at + len > idBytes.length) {
+				idBytes = Arrays.copyOf(idBytes, Math.max(idBytes.length * 2, at + len));
+			}
+			idOffsets[size + 1] = at + len;
+			return at;
+		}
+		
+		/**
+		 * Finishes the row started by addId
+		 * 
+		 * @param name the way's name or null
+		 * @param start the start node's id or null
+		 * @param end the end node's id or null
+		 */
+		void addRest(final String name, final String start, final String end) {
+			startNodes[size] = nodes.find(start);
+			endNodes[size] = nodes.find(end);
+			if (name == null) {
+				nameRefs[size] = -1;
+			} else {
+				Integer ref = nameLookup.get(name);
+				if (ref == null) {
+					ref = names.size();
+					nameLookup.put(name, ref);
+					names.add(name);
+				}
+				nameRefs[size] = ref;
+			}
+			size++;
+		}
+	}
+}
@@ -0,0 +1,568 @@
+package server.kdtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A KDTree kept in two flat arrays instead of TreeNodes. The points are reordered so that every subtree is a range of
+ * the arrays with its splitting point in the middle: the root is the middle of the whole range, its left subtree the
+ * range before it and its right subtree the range after. The coordinates of the point at position i are at i * k to
+ * i * k + k - 1 of one array, and its index in the list the tree was built from is at i of the other, so a search
+ * reads neighboring doubles instead of following pointers to nodes and their coordinates.<br>
+ * Each range is split with quickselect rather than sorted, so building takes O(n log n). The two halves of a split
+ * are disjoint ranges, so large ones are built in parallel on the common fork join pool. The tree never changes once
+ * built, and searches keep their state on the stack, so any number of threads can search it at once
+ * 
+ * @author aiguha
+ * @param <T> a comparable type
+ */
+public class FlatKDTree<T extends KComparer<T>> {
+	
+	// Ranges smaller than this are built without forking
+	private static final int	THRESHOLD		= 1 << 13;
+	// Batches of fewer queries than this are answered without forking
+	private static final int	BATCH_THRESHOLD	= 1 << 10;
+	
+	private final int			k;
+	private final List<T>		points;
+	// Coordinates of the points in tree order, k to a point
+	private final double[]		coords;
+	// Index in points of the point at each position
+	private final int[]			ordinals;
+	
+	/**
+	 * Builds a tree over a list of points. Unlike a KDTree, points with the same coordinates are all kept
+	 * 
+	 * @param k the number of dimensions
+	 * @param points the points, not to be changed afterwards
+	 * @throws KDTreeException if something was null or otherwise unusable
+	 */
+	public FlatKDTree(final int k, final List<T> points) throws KDTreeException {
+		if (points == null) {
+			throw new KDTreeException("KDTree: cannot initialize with null points list");
+		}
+		if (k < 1) {
+			throw new KDTreeException("KDTree: must have positive dimensions");
+		}
+		if (!points.isEmpty() && k != points.get(0).getValidDimensions()) {
+			throw new KDTreeException("KDTree: tree dimension must match that of contained type");
+		}
+		this.k = k;
+		this.points = points;
+		final int n = points.size();
+		coords = new double[n * k];
+		ordinals = new int[n];
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(points.get(i).getCoords(), 0, coords, i * k, k);
+			ordinals[i] = i;
+		}
+		if (n < THRESHOLD) {
+			build(0, n, 0);
+		} else {
+			ForkJoinPool.commonPool().invoke(new Split(0, n, 0));
+		}
+	}
+	
+	/**
+	 * Splits a range at its middle on the axis of its depth, then each half on the next axis
+	 * 
+	 * @param lo the first position of the range
+	 * @param hi just past the last position of the range
+	 * @param depth the depth of the range's root
+	 */
+	private void build(final int lo, final int hi, final int depth) {
+		if (hi - lo < 2) {
+			return;
+		}
+		final int mid = (lo + hi) >>> 1;
+		final int axis = depth % k;
+		select(lo, hi - 1, mid, axis);
+		build(lo, mid, depth + 1);
+		build(mid + 1, hi, depth + 1);
+	}
+	
+	/**
+	 * Builds a range, forking the two halves of each split until they are smaller than THRESHOLD
+	 */
+	private class Split extends RecursiveAction {
+		
+		private static final long	serialVersionUID	= 1L;
+		
+		private final int			lo;
+		private final int			hi;
+		private final int			depth;
+		
+		/**
+		 * @param lo the first position of the range
+		 * @param hi just past the last position of the range
+		 * @param depth the depth of the range's root
+		 */
+		Split(final int lo, final int hi, final int depth) {
+			this.lo = lo;
+			this.hi = hi;
+			this.depth = depth;
+		}
+		
+		@Override
+		protected void compute() {
+			if (hi - lo < THRESHOLD) {
+				build(lo, hi, depth);
+				return;
+			}
+			final int mid = (lo + hi) >>> 1;
+			select(lo, hi - 1, mid, depth % k);
+			invokeAll(new Split(lo, mid, depth + 1), new Split(mid + 1, hi, depth + 1));
+		}
+	}
+	
+	/**
+	 * Reorders a range so the point at nth is the one that would be there if the range were sorted on an axis, with
+	 * none after it smaller and none before it larger
+	 * 
+	 * @param lo the first position of the range
+	 * @param hi the last position of the range
+	 * @param nth the position to fill
+	 * @param axis the axis to compare on
+	 */
+	private void select(int lo, int hi, final int nth, final int axis) {
+		while (hi > lo) {
+			final double pivot = medianOfThree(coords[lo * k + axis], coords[((lo + hi) >>> 1) * k + axis],
+					coords[hi * k + axis]);
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (coords[i * k + axis] < pivot) {
+					i++;
+				}
+				while (coords[j * k + axis] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(i++, j--);
+				}
+			}
+			// Now nothing up to j is above the pivot, nothing from i on is below it, and anything between equals it
+			if (nth <= j) {
+				hi = j;
+			} else if (nth >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Swaps the points at two positions
+	 * 
+	 * @param a a position
+	 * @param b another position
+	 */
+	private void swap(final int a, final int b) {
+		final int ordinal = ordinals[a];
+		ordinals[a] = ordinals[b];
+		ordinals[b] = ordinal;
+		for (int d = 0; d < k; d++) {
+			final double c = coords[a * k + d];
+			coords[a * k + d] = coords[b * k + d];
+			coords[b * k + d] = c;
+		}
+	}
+	
+	/**
+	 * @param a a value
+	 * @param b another value
+	 * @param c a third value
+	 * @return the middle one of the three
+	 */
+	private static double medianOfThree(final double a, final double b, final double c) {
+		return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+	}
+	
+	/**
+	 * @return the number of dimensions
+	 */
+	public int getK() {
+		return k;
+	}
+	
+	/**
+	 * @return the number of points
+	 */
+	public int size() {
+		return ordinals.length;
+	}
+	
+	/**
+	 * @param ordinal an index in the list the tree was built from
+	 * @return the point at that index
+	 */
+	public T get(final int ordinal) {
+		return points.get(ordinal);
+	}
+	
+	/**
+	 * Squares the distance between a query and the point at a position. Comparing squares orders points the same as
+	 * comparing distances, without a square root
+	 * 
+	 * @param position a position in the tree
+	 * @param query the query coordinates
+	 * @return the squared distance
+	 */
+	private double squaredDistance(final int position, final double[] query) {
+		final int base = position * k;
+		double sum = 0;
+		for (int i = 0; i < k; i++) {
+			final double d = coords[base + i] - query[i];
+			sum += d * d;
+		}
+		return sum;
+	}
+	
+	/**
+	 * Finds the nearest point to some coordinates
+	 * 
+	 * @param query the coordinates, k of them
+	 * @return the index in points of the nearest point, or -1 if the tree is empty
+	 */
+	public int nearest(final double[] query) {
+		final int best = nearest(query, 0, ordinals.length, 0, -1);
+		return (best == -1) ? -1 : ordinals[best];
+	}
+	
+	/**
+	 * Finds the nearest point to each of many queries. The queries are answered in the order of a Z-order curve
+	 * through them, so consecutive ones are near each other and walk mostly the same part of the tree, and runs of
+	 * that order are answered in parallel on the common fork join pool
+	 * 
+	 * @param queries the coordinates of the queries, k to a query
+	 * @return the index in points of the nearest point to each query, in the order of the queries, or -1 if the tree
+	 *         is empty
+	 */
+	public int[] nearestAll(final double[] queries) {
+		final int n = queries.length / k;
+		final int[] nearest = new int[n];
+		final long[] order = zOrder(queries, n);
+		if (n < BATCH_THRESHOLD) {
+			answer(queries, order, nearest, 0, n);
+		} else {
+			ForkJoinPool.commonPool().invoke(new Batch(queries, order, nearest, 0, n));
+		}
+		return nearest;
+	}
+	
+	/**
+	 * Sorts queries along a Z-order curve through their bounding box, by interleaving the bits of their coordinates
+	 * scaled to the box
+	 * 
+	 * @param queries the coordinates of the queries, k to a query
+	 * @param n the number of queries
+	 * @return each query's index in the low 32 bits under its place on the curve, sorted
+	 */
+	private long[] zOrder(final double[] queries, final int n) {
+		final double[] min = new double[k];
+		final double[] max = new double[k];
+		Arrays.fill(min, Double.POSITIVE_INFINITY);
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+		for (int i = 0; i < n * k; i++) {
+			min[i % k] = Math.min(min[i % k], queries[i]);
+			max[i % k] = Math.max(max[i % k], queries[i]);
+		}
+		// The key must stay below 2^31 so the keys sort as signed longs
+		final int bits = 31 / k;
+		final double cells = (1 << bits) - 1;
+		final int[] scaled = new int[k];
+		final long[] order = new long[n];
+		for (int i = 0; i < n; i++) {
+			for (int d = 0; d < k; d++) {
+				final double extent = max[d] - min[d];
+				scaled[d] = (extent > 0) ? (int) ((queries[i * k + d] - min[d]) / extent * cells) : 0;
+			}
+			long key = 0;
+			for (int b = bits - 1; b >= 0; b--) {
+				for (int d = 0; d < k; d++) {
+					key = (key << 1) | ((scaled[d] >> b) & 1);
+				}
+			}
+			order[i] = (key << 32) | i;
+		}
+		Arrays.sort(order);
+		return order;
+	}
+	
+	/**
+	 * Answers a run of the sorted queries
+	 * 
+	 * @param queries the coordinates of the queries, k to a query
+	 * @param order the queries in curve order, as zOrder gives them
+	 * @param nearest the answers to fill, in the order of the queries
+	 * @param from the first of the run in curve order
+	 * @param to just past the last of the run
+	 */
+	private void answer(final double[] queries, final long[] order, final int[] nearest, final int from, final int to) {
+		final double[] query = new double[k];
+		for (int i = from; i < to; i++) {
+			final int index = (int) order[i];
+			System.arraycopy(queries, index * k, query, 0, k);
+			nearest[index] = nearest(query);
+		}
+	}
+	
+	/**
+	 * Answers a run of sorted queries, forking its halves until they are smaller than BATCH_THRESHOLD
+	 */
+	private class Batch extends RecursiveAction {
+		
+		private static final long	serialVersionUID	= 1L;
+		
+		private final double[]		queries;
+		private final long[]		order;
+		private final int[]			nearest;
+		private final int			from;
+		private final int			to;
+		
+		/**
+		 * @param queries the coordinates of the queries, k to a query
+		 * @param order the queries in curve order
+		 * @param nearest the answers to fill, in the order of the queries
+		 * @param from the first of the run in curve order
+		 * @param to just past the last of the run
+		 */
+		Batch(final double[] queries, final long[] order, final int[] nearest, final int from, final int to) {
+			this.queries = queries;
+			this.order = order;
+			this.nearest = nearest;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if (to - from < BATCH_THRESHOLD) {
+				answer(queries, order, nearest, from, to);
+				return;
+			}
+			final int mid = (from + to) >>> 1;
+			invokeAll(new Batch(queries, order, nearest, from, mid), new Batch(queries, order, nearest, mid, to));
+		}
+	}
+	
+	/**
+	 * Searches a subtree for a point nearer than the best so far, its nearer half first, and the other half only if
+	 * the splitting plane is nearer than the best
+	 * 
+	 * @param query the coordinates
+	 * @param lo the first position of the subtree
+	 * @param hi just past the last position of the subtree
+	 * @param depth the depth of the subtree's root
+	 * @param best the position of the nearest point so far, or -1
+	 * @return the position of the nearest point so far
+	 */
+	private int nearest(final double[] query, final int lo, final int hi, final int depth, int best) {
+		if (lo >= hi) {
+			return best;
+		}
+		final int mid = (lo + hi) >>> 1;
+		if (best == -1 || squaredDistance(mid, query) < squaredDistance(best, query)) {
+			best = mid;
+		}
+		final int axis = depth % k;
+		final double plane = query[axis] - coords[mid * k + axis];
+		final boolean leftFirst = plane < 0;
+		best = leftFirst ? nearest(query, lo, mid, depth + 1, best) : nearest(query, mid + 1, hi, depth + 1, best);
+		if (plane * plane < squaredDistance(best, query)) {
+			best = leftFirst ? nearest(query, mid + 1, hi, depth + 1, best) : nearest(query, lo, mid, depth + 1, best);
+		}
+		return best;
+	}
+	
+	/**
+	 * Finds the n nearest points to some coordinates
+	 * 
+	 * @param n the number of points
+	 * @param query the coordinates, k of them
+	 * @return up to n points, nearest first, or null if n is negative
+	 */
+	public List<T> nNearestNeighbors(final int n, final double[] query) {
+		if (n < 0) {
+			return null;
+		}
+		final int[] found = new int[Math.min(n, ordinals.length)];
+		return toPoints(found, nNearest(query, found, new double[found.length]));
+	}
+	
+	/**
+	 * Finds the nearest points to some coordinates without allocating anything, writing them into the caller's
+	 * arrays. As many are found as the arrays hold, so a caller can reuse the same arrays for every query
+	 * 
+	 * @param query the coordinates, k of them
+	 * @param found filled with the indices in points of the nearest points, nearest first
+	 * @param distances filled with their squared distances, at least as long as found
+	 * @return the number of points found, the smaller of found's length and the tree's size
+	 */
+	public int nNearest(final double[] query, final int[] found, final double[] distances) {
+		if (found.length == 0) {
+			return 0;
+		}
+		final int size = nNearest(query, 0, ordinals.length, 0, found, distances, found.length, 0);
+		sort(found, distances, size);
+		for (int i = 0; i < size; i++) {
+			found[i] = ordinals[found[i]];
+		}
+		return size;
+	}
+	
+	/**
+	 * Searches a subtree for points nearer than the farthest found so far, the same way nearest does. The points
+	 * found so far are a max heap on squared distance, bounded at a capacity, so the farthest is the one dropped when
+	 * a nearer point is found
+	 * 
+	 * @param query the coordinates
+	 * @param lo the first position of the subtree
+	 * @param hi just past the last position of the subtree
+	 * @param depth the depth of the subtree's root
+	 * @param heap the positions of the points found so far
+	 * @param distances their squared distances
+	 * @param capacity the number of points to find
+	 * @param size the number found so far
+	 * @return the number found now
+	 */
+	private int nNearest(final double[] query, final int lo, final int hi, final int depth, final int[] heap,
+			final double[] distances, final int capacity, int size) {
+		if (lo >= hi) {
+			return size;
+		}
+		final int mid = (lo + hi) >>> 1;
+		size = offer(heap, distances, capacity, size, mid, squaredDistance(mid, query));
+		final int axis = depth % k;
+		final double plane = query[axis] - coords[mid * k + axis];
+		final boolean leftFirst = plane < 0;
+		size = leftFirst ? nNearest(query, lo, mid, depth + 1, heap, distances, capacity, size) : nNearest(query,
+				mid + 1, hi, depth + 1, heap, distances, capacity, size);
+		if (size < capacity || plane * plane < distances[0]) {
+			size = leftFirst ? nNearest(query, mid + 1, hi, depth + 1, heap, distances, capacity, size) : nNearest(
+					query, lo, mid, depth + 1, heap, distances, capacity, size);
+		}
+		return size;
+	}
+	
+	/**
+	 * Finds the n nearest points by measuring every one (for testing purposes)
+	 * 
+	 * @param n the number of points
+	 * @param query the coordinates, k of them
+	 * @return up to n points, nearest first, or null if n is negative
+	 */
+	public List<T> naiveNearest(final int n, final double[] query) {
+		if (n < 0) {
+			return null;
+		}
+		final int[] found = new int[Math.min(n, ordinals.length)];
+		final double[] distances = new double[found.length];
+		int size = 0;
+		for (int position = 0; position < ordinals.length && found.length > 0; position++) {
+			size = offer(found, distances, found.length, size, position, squaredDistance(position, query));
+		}
+		sort(found, distances, size);
+		for (int i = 0; i < size; i++) {
+			found[i] = ordinals[found[i]];
+		}
+		return toPoints(found, size);
+	}
+	
+	/**
+	 * @param found indices in points
+	 * @param size the number of them to take
+	 * @return the points at those indices
+	 */
+	private List<T> toPoints(final int[] found, final int size) {
+		final List<T> neighbors = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			neighbors.add(points.get(found[i]));
+		}
+		return neighbors;
+	}
+	
+	/**
+	 * Keeps a point in a bounded max heap if there is room, or if it's nearer than the farthest point kept, which it
+	 * then replaces
+	 * 
+	 * @param heap the positions kept
+	 * @param distances their squared distances
+	 * @param capacity the most to keep
+	 * @param size the number kept
+	 * @param position the point's position in the tree
+	 * @param distance its squared distance
+	 * @return the number kept now
+	 */
+	private static int offer(final int[] heap, final double[] distances, final int capacity, final int size,
+			final int position, final double distance) {
+		if (size < capacity) {
+			int i = size;
+			while (i > 0 && distances[(i - 1) >> 1] < distance) {
+				final int parent = (i - 1) >> 1;
+				heap[i] = heap[parent];
+				distances[i] = distances[parent];
+				i = parent;
+			}
+			heap[i] = position;
+			distances[i] = distance;
+			return size + 1;
+		}
+		if (distance < distances[0]) {
+			siftDown(heap, distances, size, position, distance);
+		}
+		return size;
+	}
+	
+	/**
+	 * Sorts a max heap in place, nearest first
+	 * 
+	 * @param heap the positions kept
+	 * @param distances their squared distances
+	 * @param size the number kept
+	 */
+	private static void sort(final int[] heap, final double[] distances, final int size) {
+		for (int last = size - 1; last > 0; last--) {
+			final int position = heap[last];
+			final double distance = distances[last];
+			heap[last] = heap[0];
+			distances[last] = distances[0];
+			siftDown(heap, distances, last, position, distance);
+		}
+	}
+	
+	/**
+	 * Replaces the root of a max heap with a point and moves it down to its place
+	 * 
+	 * @param heap the positions kept
+	 * @param distances their squared distances
+	 * @param size the number kept
+	 * @param position the point's position in the tree
+	 * @param distance its squared distance
+	 */
+	private static void siftDown(final int[] heap, final double[] distances, final int size, final int position,
+			final double distance) {
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && distances[child + 1] > distances[child]) {
+				child++;
+			}
+			if (distances[child] <= distance) {
+				break;
+			}
+			heap[i] = heap[child];
+			distances[i] = distances[child];
+			i = child;
+		}
+		heap[i] = position;
+		distances[i] = distance;
+	}
+}
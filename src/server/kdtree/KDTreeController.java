@@ -2,10 +2,10 @@ package server.kdtree;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 
 import server.io.IOController;
+import server.io.NodeTable;
 import data.LatLongPoint;
 import data.MapException;
 import data.MapNode;
@@ -17,8 +17,12 @@ import data.MapNode;
  */
 public class KDTreeController {
 	
-	private Collection<MapNode>	mapNodeSet; // Is a set by invariant (check parser)
-	private KDTree<MapNode>		tree;
+	// Each thread's query coordinates, so a query allocates nothing
+	private static final ThreadLocal<double[]>	queries	= new ThreadLocal<>();
+	
+	private final NodeTable						nodes;
+	// Built from the nodes in ordinal order, so the index of a point in the tree is its node's ordinal
+	private FlatKDTree<MapNode>					tree;
 	
 	/**
 	 * Initializes a KDTree Controller
@@ -28,12 +32,15 @@ public class KDTreeController {
 	 */
 	public KDTreeController() throws IOException, MapException {
 		try {
-			mapNodeSet = IOController.getAllNodes().values();
-			final List<MapNode> mapNodesList = new ArrayList<>(mapNodeSet);
+			nodes = IOController.getNodeTable();
+			final List<MapNode> mapNodesList = new ArrayList<>(nodes.size());
+			for (int ordinal = 0; ordinal < nodes.size(); ordinal++) {
+				mapNodesList.add(nodes.get(ordinal));
+			}
 			if (mapNodesList.isEmpty()) {
 				throw new MapException("<KDTree Controller> Empty dataset. Cannot construct KDTree");
 			}
-			tree = new KDTree<>(2, mapNodesList, mapNodesList.get(0).getComparators());
+			tree = new FlatKDTree<>(2, mapNodesList);
 		} catch (final KDTreeException e) {
 			throw new MapException(e.getMessage());
 		}
@@ -50,8 +57,45 @@ public class KDTreeController {
 		if (coords.length != tree.getK()) {
 			return null;
 		}
-		final LatLongPoint p = new LatLongPoint(coords[0], coords[1]);
-		return getNearestNeighbors(n, p);
+		return tree.nNearestNeighbors(n, coords);
+	}
+	
+	/**
+	 * @param lat a latitude
+	 * @param lon a longitude
+	 * @return the current thread's query coordinates, set to them
+	 */
+	private static double[] query(final double lat, final double lon) {
+		double[] query = queries.get();
+		if (query == null) {
+			query = new double[2];
+			queries.set(query);
+		}
+		query[0] = lat;
+		query[1] = lon;
+		return query;
+	}
+	
+	/**
+	 * Gets the nearest neighbors to a latitude and longitude without allocating, as many as the caller's arrays hold.
+	 * The neighbors are given by their ordinals in the NodeTable
+	 * 
+	 * @param lat the latitude
+	 * @param lon the longitude
+	 * @param found filled with the node ordinals of the neighbors, nearest first
+	 * @param distances filled with their squared distances, at least as long as found
+	 * @return the number of neighbors found
+	 */
+	public int getNearestNeighbors(final double lat, final double lon, final int[] found, final double[] distances) {
+		return tree.nNearest(query(lat, lon), found, distances);
+	}
+	
+	/**
+	 * @param ordinal a node ordinal
+	 * @return the node
+	 */
+	public MapNode getNode(final int ordinal) {
+		return nodes.get(ordinal);
 	}
 	
 	/**
@@ -62,10 +106,7 @@ public class KDTreeController {
 	 * @return the list of up to n neighbors
 	 */
 	public List<MapNode> getNearestNeighbors(final int n, final LatLongPoint p) {
-		final String searchID = Double.toString(-Double.MAX_VALUE);
-		final MapNode center = MapNode.create(searchID, p, null);
-		return tree.nNearestNeighbors(n, center);
-		
+		return tree.nNearestNeighbors(n, new double[] { p.getLat(), p.getLong() });
 	}
 	
 	/**
@@ -75,11 +116,24 @@ public class KDTreeController {
 	 * @return the nearest neighbor or null
 	 */
 	public MapNode getNeighbor(final LatLongPoint p) {
-		final List<MapNode> neighbors = getNearestNeighbors(1, p);
-		if (neighbors == null || neighbors.isEmpty()) {
-			return null;
+		final int nearest = tree.nearest(query(p.getLat(), p.getLong()));
+		return (nearest == -1) ? null : tree.get(nearest);
+	}
+	
+	/**
+	 * Gets the nearest neighbor of each of many points at once, answered in parallel. The neighbors are given by their
+	 * ordinals in the NodeTable
+	 * 
+	 * @param points the points
+	 * @return the node ordinal of each point's nearest neighbor, in the order of the points
+	 */
+	public int[] getNeighbors(final List<LatLongPoint> points) {
+		final double[] queries = new double[points.size() * 2];
+		for (int i = 0; i < points.size(); i++) {
+			queries[2 * i] = points.get(i).getLat();
+			queries[2 * i + 1] = points.get(i).getLong();
 		}
-		return neighbors.get(0);
+		return tree.nearestAll(queries);
 	}
 	
 	/**
@@ -90,9 +144,7 @@ public class KDTreeController {
 	 * @return the list of nearest neighbors
 	 */
 	public List<MapNode> getNearestNaive(final int n, final LatLongPoint p) {
-		final String searchID = Double.toString(-Double.MAX_VALUE);
-		final MapNode center = MapNode.create(searchID, p, null);
-		return tree.naiveNN(n, center, false);
+		return tree.naiveNearest(n, new double[] { p.getLat(), p.getLong() });
 	}
 	
 }